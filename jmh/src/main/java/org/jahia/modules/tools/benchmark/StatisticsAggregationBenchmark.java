@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.benchmark;
+
+import org.apache.commons.math.stat.descriptive.DescriptiveStatistics;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregation of the {@link DatabaseBenchmark} timings: collecting the samples, computing the reported statistics and
+ * formatting them, as well as converting them into the metrics recorded in the {@link BenchmarkHistory}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StatisticsAggregationBenchmark {
+
+    private static final int QUERIES = 2;
+
+    /**
+     * Number of executions per query, see <code>jahiaTools.benchmarkDatabase.queryExecutionCount</code>.
+     */
+    @Param({"100", "1000", "10000"})
+    private int executions;
+
+    private double[][] timings;
+    private DescriptiveStatistics[] collected;
+
+    @Setup
+    public void setup() {
+        // log-normal like latencies around 300 microseconds, with a few slow outliers
+        Random random = new Random(42);
+        timings = new double[QUERIES][executions];
+        collected = new DescriptiveStatistics[QUERIES];
+        for (int q = 0; q < QUERIES; q++) {
+            collected[q] = new DescriptiveStatistics();
+            for (int i = 0; i < executions; i++) {
+                double timing = 300_000d * Math.exp(random.nextGaussian() * 0.4) + (random.nextInt(100) == 0 ? 20_000_000d : 0d);
+                timings[q][i] = timing;
+                collected[q].addValue(timing);
+            }
+        }
+    }
+
+    @Benchmark
+    public Object collect() {
+        DescriptiveStatistics[] stats = new DescriptiveStatistics[QUERIES];
+        for (int q = 0; q < QUERIES; q++) {
+            stats[q] = new DescriptiveStatistics();
+            for (double timing : timings[q]) {
+                stats[q].addValue(timing);
+            }
+        }
+        return stats;
+    }
+
+    @Benchmark
+    public String summarizeAndFormat() {
+        Map<String, Map<String, Object>> results = new LinkedHashMap<>();
+        for (int q = 0; q < QUERIES; q++) {
+            results.put("query" + q, DatabaseBenchmark.wrapResult(collected[q]));
+        }
+        return DatabaseBenchmark.statsToString(results);
+    }
+
+    @Benchmark
+    public Object toHistoryMetrics() {
+        BenchmarkHistory.Metric[] metrics = new BenchmarkHistory.Metric[QUERIES];
+        for (int q = 0; q < QUERIES; q++) {
+            metrics[q] = new BenchmarkHistory.Metric("query" + q, collected[q]);
+        }
+        return metrics;
+    }
+}
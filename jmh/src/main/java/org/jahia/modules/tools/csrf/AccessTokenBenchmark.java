@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.csrf;
+
+import org.jahia.modules.tools.jmh.Stubs;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Access token generation and validation, in the session and the signed modes. The validation benchmarks call the
+ * token store and signer directly, as {@link ToolsAccessTokenFilter} first checks the development mode of the
+ * platform settings, which are not available outside of Jahia.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class AccessTokenBenchmark {
+
+    private static final long EXPIRATION = 20 * 60L * 1000L;
+
+    private static final FilterChain NO_CHAIN = (request, response) -> {
+        // the tools servlet is not called
+    };
+
+    /**
+     * Number of tokens already issued in the session, e.g. one per page view of the tools.
+     */
+    @Param({"10", "1000", "5000"})
+    private int issuedTokens;
+
+    private ToolsAccessTokenFilter sessionFilter;
+    private ToolsAccessTokenFilter signedFilter;
+    private HttpSession session;
+    private ToolsAccessTokenStore store;
+    private SignedAccessTokens signer;
+    private UUID validToken;
+    private UUID unknownToken;
+    private String validSignedToken;
+    private String forgedSignedToken;
+
+    @Setup
+    public void setup() {
+        sessionFilter = new ToolsAccessTokenFilter();
+        signedFilter = new ToolsAccessTokenFilter();
+        signedFilter.setTokenMode("signed");
+        signedFilter.setTokenSecret("benchmark-secret");
+
+        session = Stubs.session("0123456789ABCDEF0123456789ABCDEF");
+        long now = System.currentTimeMillis();
+        store = new ToolsAccessTokenStore(5000);
+        for (int i = 0; i < issuedTokens; i++) {
+            validToken = UUID.randomUUID();
+            store.add(validToken, now, now - EXPIRATION);
+        }
+        unknownToken = UUID.randomUUID();
+        // the filter looks the store up in the session
+        session.setAttribute("toolAccessTokens", store);
+
+        signer = new SignedAccessTokens("benchmark-secret");
+        validSignedToken = signer.generate(session.getId(), now + EXPIRATION);
+        forgedSignedToken = validSignedToken.substring(0, validSignedToken.length() - 2) + "AA";
+    }
+
+    @Benchmark
+    public Object filterGenerateSessionToken() throws IOException, ServletException {
+        return generate(sessionFilter);
+    }
+
+    @Benchmark
+    public Object filterGenerateSignedToken() throws IOException, ServletException {
+        return generate(signedFilter);
+    }
+
+    @Benchmark
+    public void storeAdd(Blackhole blackhole) {
+        long now = System.currentTimeMillis();
+        store.add(UUID.randomUUID(), now, now - EXPIRATION);
+        blackhole.consume(store);
+    }
+
+    @Benchmark
+    public void storeValidate(Blackhole blackhole) {
+        long oldestValid = System.currentTimeMillis() - EXPIRATION;
+        blackhole.consume(store.isValid(validToken, oldestValid));
+        blackhole.consume(store.isValid(unknownToken, oldestValid));
+    }
+
+    @Benchmark
+    public String signedGenerate() {
+        return signer.generate(session.getId(), System.currentTimeMillis() + EXPIRATION);
+    }
+
+    @Benchmark
+    public void signedValidate(Blackhole blackhole) {
+        long now = System.currentTimeMillis();
+        blackhole.consume(signer.isValid(validSignedToken, session.getId(), now));
+        blackhole.consume(signer.isValid(forgedSignedToken, session.getId(), now));
+    }
+
+    private Object generate(ToolsAccessTokenFilter filter) throws IOException, ServletException {
+        HttpServletRequest request = Stubs.request("GET", "/tools/index.jsp", Collections.emptyMap(), session);
+        filter.doFilter(request, null, NO_CHAIN);
+        return request.getAttribute(ToolsAccessTokenFilter.CSRF_TOKEN_ATTR);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.gql.admin.osgi;
+
+import org.apache.felix.utils.manifest.Clause;
+import org.apache.felix.utils.manifest.Parser;
+import org.jahia.modules.tools.jmh.SyntheticBundles;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.VersionRange;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * {@link Dependency} status classification, from the parsed header clauses and from already parsed version ranges,
+ * and the grouping by status done for each bundle by the dependencies inspector.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DependencyStatusBenchmark {
+
+    @Param({"200"})
+    private int bundles;
+
+    @Param({"40"})
+    private int imports;
+
+    private Bundle[] installed;
+    private List<Clause> clauses;
+    private List<String> jahiaDepends;
+    private List<String> names;
+    private List<VersionRange> ranges;
+
+    @Setup
+    public void setup() {
+        installed = SyntheticBundles.create(bundles, bundles * 2, imports);
+        clauses = new ArrayList<>();
+        jahiaDepends = new ArrayList<>();
+        names = new ArrayList<>();
+        ranges = new ArrayList<>();
+        for (Bundle bundle : installed) {
+            for (Clause clause : Parser.parseHeader(bundle.getHeaders().get(Constants.IMPORT_PACKAGE))) {
+                clauses.add(clause);
+                String version = clause.getAttribute(Constants.VERSION_ATTRIBUTE);
+                if (version != null) {
+                    names.add(clause.getName());
+                    ranges.add(new VersionRange(version));
+                }
+            }
+            if (bundle.getHeaders().get("Jahia-Depends") != null) {
+                jahiaDepends.add(bundle.getHeaders().get("Jahia-Depends"));
+            }
+        }
+    }
+
+    @Benchmark
+    public void classifyRanges(Blackhole blackhole) {
+        for (int i = 0; i < ranges.size(); i++) {
+            blackhole.consume(new Dependency(Dependency.Type.IMPORT_PACKAGE, names.get(i), ranges.get(i), false).getStatus());
+        }
+    }
+
+    @Benchmark
+    public void classifyImportPackageClauses(Blackhole blackhole) {
+        for (Clause clause : clauses) {
+            blackhole.consume(Dependency.parse(clause).getStatus());
+        }
+    }
+
+    @Benchmark
+    public void classifyJahiaDepends(Blackhole blackhole) {
+        for (String header : jahiaDepends) {
+            BundleHeadersIndex.parseJahiaDependsDependencies(header).forEach(dependency -> blackhole.consume(dependency.getStatus()));
+        }
+    }
+
+    @Benchmark
+    public void groupByStatus(Blackhole blackhole) {
+        for (Bundle bundle : installed) {
+            // new headers each time, the grouping is memoized per parsed headers
+            blackhole.consume(new BundleHeadersIndex.BundleHeaders(bundle).getDependenciesByStatus());
+        }
+    }
+
+    @Benchmark
+    public Object unsupportedDependencies() {
+        return clauses.stream().map(Dependency::parse).filter(dependency -> dependency.getStatus().isUnsupported())
+                .collect(Collectors.groupingBy(Dependency::getStatus, Collectors.counting()));
+    }
+}
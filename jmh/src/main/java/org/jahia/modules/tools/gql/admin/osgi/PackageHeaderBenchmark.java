@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.gql.admin.osgi;
+
+import org.apache.felix.utils.manifest.Clause;
+import org.apache.felix.utils.manifest.Parser;
+import org.jahia.modules.tools.jmh.Stubs;
+import org.jahia.modules.tools.jmh.SyntheticBundles;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Version;
+import org.osgi.framework.VersionRange;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bundle header parsing and the {@link OSGIPackageHeaderChecker} queries over a stubbed framework, on cold (first
+ * request after a bundle change) and warm indexes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PackageHeaderBenchmark {
+
+    private static final Version MATCH_VERSION = Version.parseVersion("1.2.5");
+
+    @Param({"100", "400"})
+    private int bundles;
+
+    @Param({"40"})
+    private int imports;
+
+    private Bundle[] installed;
+    private BundleHeadersIndex index;
+    private List<String> versions;
+
+    @Setup
+    public void setup() {
+        installed = SyntheticBundles.create(bundles, bundles * 2, imports);
+        index = new BundleHeadersIndex();
+        index.activate(Stubs.bundleContext(installed));
+        versions = new ArrayList<>();
+        for (Bundle bundle : installed) {
+            for (Clause clause : Parser.parseHeader(bundle.getHeaders().get(Constants.IMPORT_PACKAGE))) {
+                if (clause.getAttribute(Constants.VERSION_ATTRIBUTE) != null) {
+                    versions.add(clause.getAttribute(Constants.VERSION_ATTRIBUTE));
+                }
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        index.deactivate(Stubs.bundleContext(installed));
+    }
+
+    @Benchmark
+    public void parseHeaders(Blackhole blackhole) {
+        for (Bundle bundle : installed) {
+            blackhole.consume(new BundleHeadersIndex.BundleHeaders(bundle));
+        }
+    }
+
+    @Benchmark
+    public Object buildPackageIndex() {
+        // a bundle event invalidates the package index, as after a module deployment
+        index.bundleChanged(new BundleEvent(BundleEvent.UPDATED, installed[0]));
+        return index.getPackageIndex();
+    }
+
+    @Benchmark
+    public Object findImportPackagesByVersion() {
+        return OSGIPackageHeaderChecker.findImportPackageBundles("org\\.jahia\\.benchmark\\.p1\\..*", MATCH_VERSION.toString(), false);
+    }
+
+    @Benchmark
+    public Object findImportPackagesMissingVersion() {
+        return OSGIPackageHeaderChecker.findImportPackageBundles(null, null, true);
+    }
+
+    @Benchmark
+    public Object findDuplicateExportPackages() {
+        return OSGIPackageHeaderChecker.findExportPackageList(null, true);
+    }
+
+    @Benchmark
+    public void versionRangeParse(Blackhole blackhole) {
+        for (String version : versions) {
+            blackhole.consume(new VersionRange(version).includes(MATCH_VERSION));
+        }
+    }
+
+    @Benchmark
+    public void versionRangeCached(Blackhole blackhole) {
+        for (String version : versions) {
+            blackhole.consume(index.getVersionRange(version).includes(MATCH_VERSION));
+        }
+    }
+}
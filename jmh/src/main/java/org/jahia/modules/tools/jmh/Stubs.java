@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.jmh;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Version;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Minimal stubs of the servlet and OSGi collaborators, so that the benchmarks run outside of Jahia. Only the methods
+ * called by the benchmarked code are answered, the others return <code>null</code>, <code>false</code> or zero.
+ */
+public final class Stubs {
+
+    /**
+     * Creates a stub of the interface, answering the calls by method name.
+     *
+     * @param type    the interface to stub
+     * @param answers the answers by method name, receiving the call arguments
+     * @param <T>     the stubbed type
+     * @return the stub
+     */
+    public static <T> T stub(Class<T> type, Map<String, Function<Object[], Object>> answers) {
+        return type.cast(Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+            Function<Object[], Object> answer = answers.get(method.getName());
+            if (answer != null) {
+                return answer.apply(args);
+            }
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+                default:
+                    return defaultValue(method);
+            }
+        }));
+    }
+
+    /**
+     * @param id the session ID
+     * @return an HTTP session keeping its attributes in memory
+     */
+    public static HttpSession session(String id) {
+        Map<String, Object> attributes = new ConcurrentHashMap<>();
+        Map<String, Function<Object[], Object>> answers = new HashMap<>();
+        answers.put("getId", args -> id);
+        answers.put("getAttribute", args -> attributes.get((String) args[0]));
+        answers.put("setAttribute", args -> attributes.put((String) args[0], args[1]));
+        answers.put("removeAttribute", args -> attributes.remove((String) args[0]));
+        return stub(HttpSession.class, answers);
+    }
+
+    /**
+     * @param method     the HTTP method
+     * @param pathInfo   the path info of the request
+     * @param parameters the request parameters
+     * @param session    the HTTP session of the request
+     * @return an HTTP request keeping its attributes in memory
+     */
+    public static HttpServletRequest request(String method, String pathInfo, Map<String, String> parameters, HttpSession session) {
+        Map<String, Object> attributes = new HashMap<>();
+        Map<String, String[]> parameterMap = new HashMap<>();
+        parameters.forEach((name, value) -> parameterMap.put(name, new String[] {value}));
+        Map<String, Function<Object[], Object>> answers = new HashMap<>();
+        answers.put("getMethod", args -> method);
+        answers.put("getPathInfo", args -> pathInfo);
+        answers.put("getRequestURI", args -> "/modules" + pathInfo);
+        answers.put("getRequestURL", args -> new StringBuffer("http://localhost:8080/modules").append(pathInfo));
+        answers.put("getParameterMap", args -> parameterMap);
+        answers.put("getParameter", args -> parameters.get((String) args[0]));
+        answers.put("getSession", args -> session);
+        answers.put("getAttribute", args -> attributes.get((String) args[0]));
+        answers.put("setAttribute", args -> attributes.put((String) args[0], args[1]));
+        return stub(HttpServletRequest.class, answers);
+    }
+
+    /**
+     * @param id           the bundle ID
+     * @param symbolicName the bundle symbolic name
+     * @param headers      the manifest headers of the bundle
+     * @return a bundle with static headers
+     */
+    public static Bundle bundle(long id, String symbolicName, Map<String, String> headers) {
+        Dictionary<String, String> dictionary = new Hashtable<>(headers);
+        Map<String, Function<Object[], Object>> answers = new HashMap<>();
+        answers.put("getBundleId", args -> id);
+        answers.put("getSymbolicName", args -> symbolicName);
+        answers.put("getVersion", args -> Version.parseVersion(headers.getOrDefault("Bundle-Version", "0.0.0")));
+        answers.put("getHeaders", args -> dictionary);
+        answers.put("getLastModified", args -> 0L);
+        answers.put("getState", args -> Bundle.ACTIVE);
+        return stub(Bundle.class, answers);
+    }
+
+    /**
+     * @param bundles the installed bundles
+     * @return a bundle context listing the specified bundles
+     */
+    public static BundleContext bundleContext(Bundle[] bundles) {
+        Map<Long, Bundle> byId = new HashMap<>();
+        for (Bundle bundle : bundles) {
+            byId.put(bundle.getBundleId(), bundle);
+        }
+        Map<String, Function<Object[], Object>> answers = new HashMap<>();
+        answers.put("getBundles", args -> bundles.clone());
+        answers.put("getBundle", args -> args != null && args.length == 1 && args[0] instanceof Long ? byId.get(args[0]) : null);
+        return stub(BundleContext.class, answers);
+    }
+
+    private static Object defaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        } else if (type == boolean.class) {
+            return false;
+        } else if (type == char.class) {
+            return '\0';
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == float.class) {
+            return 0f;
+        } else if (type == double.class) {
+            return 0d;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == short.class) {
+            return (short) 0;
+        }
+        return (byte) 0;
+    }
+
+    private Stubs() {
+        super();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.jmh;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates bundles with realistic Import-Package, Export-Package and Jahia-Depends headers: the package names are
+ * shared between the bundles and their version clauses mix ranges, exact versions, open versions and no version.
+ */
+public final class SyntheticBundles {
+
+    private static final String[] VERSIONS = {
+            null, "\"[1.2,2)\"", "\"[1.2,1.3)\"", "\"[2.0.0,4)\"", "\"[1.0,1.0]\"", "1.0", "\"[0.0,1)\""
+    };
+
+    private static final String[] JAHIA_DEPENDS = {
+            "default", "jcr-core-ui=8.0.0", "graphql-dxm-provider=[2.0,4.0)", "app-shell=[2.7,3)", "bootstrap3-core=[4.0,4.1)"
+    };
+
+    /**
+     * Creates the bundles, with the same content for the same arguments.
+     *
+     * @param count    the number of bundles
+     * @param packages the number of distinct package names, shared by the bundles
+     * @param imports  the number of imported packages per bundle
+     * @return the bundles
+     */
+    public static Bundle[] create(int count, int packages, int imports) {
+        Random random = new Random(count * 31L + imports);
+        Bundle[] bundles = new Bundle[count];
+        for (int i = 0; i < count; i++) {
+            Map<String, String> headers = new HashMap<>();
+            headers.put(Constants.BUNDLE_NAME, "Benchmark bundle " + i);
+            headers.put(Constants.BUNDLE_VERSION, "1." + (i % 10) + ".0");
+            headers.put(Constants.IMPORT_PACKAGE, importPackage(random, packages, imports));
+            headers.put(Constants.EXPORT_PACKAGE, packageName(i % packages) + ";version=\"1." + (i % 10) + ".0\";uses:=\""
+                    + packageName((i + 1) % packages) + "," + packageName((i + 2) % packages) + "\"");
+            if (i % 2 == 0) {
+                headers.put("Jahia-Depends", jahiaDepends(random));
+            }
+            bundles[i] = Stubs.bundle(i, "org.jahia.benchmark.bundle" + i, headers);
+        }
+        return bundles;
+    }
+
+    /**
+     * @param index the package index
+     * @return the package name
+     */
+    public static String packageName(int index) {
+        return "org.jahia.benchmark.p" + (index / 100) + ".sub" + index;
+    }
+
+    private static String importPackage(Random random, int packages, int imports) {
+        StringBuilder header = new StringBuilder(imports * 48);
+        for (int j = 0; j < imports; j++) {
+            if (j > 0) {
+                header.append(',');
+            }
+            header.append(packageName(random.nextInt(packages)));
+            String version = VERSIONS[random.nextInt(VERSIONS.length)];
+            if (version != null) {
+                header.append(";version=").append(version);
+            }
+            if (random.nextInt(10) == 0) {
+                header.append(";resolution:=optional");
+            }
+        }
+        return header.toString();
+    }
+
+    private static String jahiaDepends(Random random) {
+        StringBuilder header = new StringBuilder(JAHIA_DEPENDS[0]);
+        for (int j = 1; j < JAHIA_DEPENDS.length; j++) {
+            if (random.nextBoolean()) {
+                header.append(',').append(JAHIA_DEPENDS[j]);
+            }
+        }
+        return header.toString();
+    }
+
+    private SyntheticBundles() {
+        super();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.karaf.impl;
+
+import org.apache.karaf.shell.support.ansi.SimpleAnsi;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removal of the console control strings from the Karaf command outputs, on plain and colored outputs such as the ones
+ * of <code>bundle:list</code> and <code>bundle:diag</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CleanupOutputBenchmark {
+
+    /**
+     * Number of output lines.
+     */
+    @Param({"10", "1000", "20000"})
+    private int lines;
+
+    private String plainOutput;
+    private String coloredOutput;
+
+    @Setup
+    public void setup() {
+        StringBuilder plain = new StringBuilder(lines * 100);
+        StringBuilder colored = new StringBuilder(lines * 120);
+        for (int i = 0; i < lines; i++) {
+            String state = i % 7 == 0 ? "Resolved" : "Active  ";
+            plain.append(i).append(" │ ").append(state).append(" │  80 │ 1.").append(i % 10)
+                    .append(".0 │ Benchmark bundle ").append(i).append('\n');
+            colored.append(SimpleAnsi.INTENSITY_BOLD).append(i).append(SimpleAnsi.INTENSITY_NORMAL).append(" │ ")
+                    .append(i % 7 == 0 ? SimpleAnsi.COLOR_RED : SimpleAnsi.COLOR_CYAN).append(state)
+                    .append(SimpleAnsi.COLOR_DEFAULT).append(" │  80 │ 1.").append(i % 10)
+                    .append(".0 │ Benchmark bundle ").append(i).append('\n');
+        }
+        plainOutput = plain.toString();
+        coloredOutput = colored.toString();
+    }
+
+    @Benchmark
+    public String cleanupPlainOutput() {
+        return KarafCommandImpl.cleanupOutput(plainOutput);
+    }
+
+    @Benchmark
+    public String cleanupColoredOutput() {
+        return KarafCommandImpl.cleanupOutput(coloredOutput);
+    }
+}
@@ -0,0 +1,635 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+import org.apache.commons.math.MathException;
+import org.apache.commons.math.stat.descriptive.DescriptiveStatistics;
+import org.apache.commons.math.stat.inference.TestUtils;
+import org.jahia.settings.SettingsBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent history of the benchmark results. Each run of a benchmark is stored as a properties file in the
+ * <code>tools/benchmarks</code> folder of the Jahia data directory, with the cluster node id, the time, the test
+ * configuration and the latency statistics of each measured operation. Runs can be compared with baseline runs, the
+ * per-run median latencies of an operation being checked with a Welch t-test to flag the significant regressions.
+ */
+public final class BenchmarkHistory {
+
+    /**
+     * Latency statistics of an operation, in nanoseconds, with an optional rate.
+     */
+    public static class Metric {
+        private final String name;
+        private long count;
+        private double mean;
+        private double variance;
+        private double min;
+        private double max;
+        private double p50;
+        private double p90;
+        private double p99;
+        private double rate = -1;
+        private String rateUnit;
+
+        Metric(String name) {
+            this.name = name;
+        }
+
+        Metric(String name, DescriptiveStatistics stats) {
+            this(name);
+            count = stats.getN();
+            mean = stats.getMean();
+            variance = stats.getVariance();
+            min = stats.getMin();
+            max = stats.getMax();
+            p50 = stats.getPercentile(50);
+            p90 = stats.getPercentile(90);
+            p99 = stats.getPercentile(99);
+        }
+
+        /**
+         * Combines the metrics of an operation measured in several runs: the counts are summed, the mean is weighted by
+         * the counts, the percentiles and the rate are the medians of the per-run ones.
+         *
+         * @param name    the operation name
+         * @param metrics the metrics of the runs
+         * @return the combined metric, <code>null</code> if there is none
+         */
+        static Metric aggregate(String name, List<Metric> metrics) {
+            if (metrics.isEmpty()) {
+                return null;
+            } else if (metrics.size() == 1) {
+                return metrics.get(0);
+            }
+            Metric aggregate = new Metric(name);
+            aggregate.min = Double.MAX_VALUE;
+            aggregate.max = -Double.MAX_VALUE;
+            double sum = 0;
+            DescriptiveStatistics p50s = new DescriptiveStatistics();
+            DescriptiveStatistics p90s = new DescriptiveStatistics();
+            DescriptiveStatistics p99s = new DescriptiveStatistics();
+            DescriptiveStatistics rates = new DescriptiveStatistics();
+            for (Metric metric : metrics) {
+                aggregate.count += metric.count;
+                sum += metric.mean * metric.count;
+                aggregate.min = Math.min(aggregate.min, metric.min);
+                aggregate.max = Math.max(aggregate.max, metric.max);
+                p50s.addValue(metric.p50);
+                p90s.addValue(metric.p90);
+                p99s.addValue(metric.p99);
+                if (metric.rate >= 0) {
+                    rates.addValue(metric.rate);
+                    aggregate.rateUnit = metric.rateUnit;
+                }
+            }
+            aggregate.mean = aggregate.count > 0 ? sum / aggregate.count : 0;
+            aggregate.p50 = p50s.getPercentile(50);
+            aggregate.p90 = p90s.getPercentile(50);
+            aggregate.p99 = p99s.getPercentile(50);
+            aggregate.rate = rates.getN() > 0 ? rates.getPercentile(50) : -1;
+            return aggregate;
+        }
+
+        /**
+         * @param rate     the rate of the operation, like the number of operations or megabytes per second
+         * @param rateUnit the unit of the rate
+         * @return this instance
+         */
+        Metric rate(double rate, String rateUnit) {
+            this.rate = rate;
+            this.rateUnit = rateUnit;
+            return this;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public DatabaseBenchmark.StatValue getMean() {
+            return new DatabaseBenchmark.StatValue(mean);
+        }
+
+        public DatabaseBenchmark.StatValue getP50() {
+            return new DatabaseBenchmark.StatValue(p50);
+        }
+
+        public DatabaseBenchmark.StatValue getP90() {
+            return new DatabaseBenchmark.StatValue(p90);
+        }
+
+        public DatabaseBenchmark.StatValue getP99() {
+            return new DatabaseBenchmark.StatValue(p99);
+        }
+
+        public DatabaseBenchmark.StatValue getMax() {
+            return new DatabaseBenchmark.StatValue(max);
+        }
+
+        /**
+         * @return the formatted rate or an empty string if there is none
+         */
+        public String getRate() {
+            return rate >= 0 ? RATE_FORMATTER.format(rate) + " " + rateUnit : "";
+        }
+    }
+
+    /**
+     * A recorded benchmark run.
+     */
+    public static class Run {
+        private final String id;
+        private final String serverId;
+        private final long timestamp;
+        private final String test;
+        private final String configuration;
+        private final List<Metric> metrics;
+
+        Run(String id, String serverId, long timestamp, String test, String configuration, List<Metric> metrics) {
+            this.id = id;
+            this.serverId = serverId;
+            this.timestamp = timestamp;
+            this.test = test;
+            this.configuration = configuration;
+            this.metrics = metrics;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return the id of the cluster node the benchmark ran on
+         */
+        public String getServerId() {
+            return serverId;
+        }
+
+        public Date getDate() {
+            return new Date(timestamp);
+        }
+
+        public String getTest() {
+            return test;
+        }
+
+        public String getConfiguration() {
+            return configuration;
+        }
+
+        public List<Metric> getMetrics() {
+            return metrics;
+        }
+    }
+
+    /**
+     * Comparison of an operation between the baseline runs and the compared runs.
+     */
+    public static class Comparison {
+        private final String name;
+        private final Metric baseline;
+        private final Metric current;
+        private final double[] baselineMedians;
+        private final double[] currentMedians;
+        private double pValue = -1;
+
+        Comparison(String name, List<Metric> baselines, List<Metric> currents) {
+            this.name = name;
+            this.baseline = Metric.aggregate(name, baselines);
+            this.current = Metric.aggregate(name, currents);
+            this.baselineMedians = medians(baselines);
+            this.currentMedians = medians(currents);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the metric aggregated over the baseline runs, <code>null</code> if the operation was not measured in
+         *         them
+         */
+        public Metric getBaseline() {
+            return baseline;
+        }
+
+        /**
+         * @return the metric aggregated over the compared runs, <code>null</code> if the operation was not measured in
+         *         them
+         */
+        public Metric getCurrent() {
+            return current;
+        }
+
+        /**
+         * @return the number of baseline runs measuring the operation
+         */
+        public int getBaselineRuns() {
+            return baselineMedians.length;
+        }
+
+        /**
+         * @return the number of compared runs measuring the operation
+         */
+        public int getCurrentRuns() {
+            return currentMedians.length;
+        }
+
+        public String getMeanDelta() {
+            return delta(baseline != null ? baseline.mean : 0, current != null ? current.mean : 0);
+        }
+
+        public String getP50Delta() {
+            return delta(baseline != null ? baseline.p50 : 0, current != null ? current.p50 : 0);
+        }
+
+        public String getP99Delta() {
+            return delta(baseline != null ? baseline.p99 : 0, current != null ? current.p99 : 0);
+        }
+
+        public String getRateDelta() {
+            return baseline != null && current != null && baseline.rate >= 0 && current.rate >= 0 ? delta(baseline.rate, current.rate) : "";
+        }
+
+        /**
+         * @return the probability that the per-run median latencies of both sides have the same mean, -1 if it cannot
+         *         be computed
+         */
+        public double getPValue() {
+            return pValue;
+        }
+
+        /**
+         * @return <code>true</code> if the result is only indicative, there being fewer than
+         *         {@value BenchmarkHistory#MIN_RUNS} runs on a side to test the difference against the variability between runs
+         */
+        public boolean isIndicative() {
+            return pValue < 0;
+        }
+
+        /**
+         * @return <code>true</code> if the median latency is higher than the baseline one, significantly unless the
+         *         result is {@link #isIndicative() indicative}
+         */
+        public boolean isRegression() {
+            return isDifferent() && current.p50 > baseline.p50;
+        }
+
+        /**
+         * @return <code>true</code> if the median latency is lower than the baseline one, significantly unless the
+         *         result is {@link #isIndicative() indicative}
+         */
+        public boolean isImprovement() {
+            return isDifferent() && current.p50 < baseline.p50;
+        }
+
+        private boolean isDifferent() {
+            return baseline != null && current != null && (pValue < 0 || pValue < SIGNIFICANCE_LEVEL)
+                    && Math.abs(current.p50 - baseline.p50) > baseline.p50 * MIN_RELATIVE_DIFFERENCE;
+        }
+
+        private static double[] medians(List<Metric> metrics) {
+            double[] medians = new double[metrics.size()];
+            for (int i = 0; i < medians.length; i++) {
+                medians[i] = metrics.get(i).p50;
+            }
+            return medians;
+        }
+
+        private static String delta(double baselineValue, double currentValue) {
+            return baselineValue > 0 && currentValue > 0 ? DELTA_FORMATTER.format((currentValue - baselineValue) * 100 / baselineValue) + "%" : "";
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(BenchmarkHistory.class);
+
+    private static final DecimalFormat RATE_FORMATTER = new DecimalFormat("#.##");
+
+    private static final DecimalFormat DELTA_FORMATTER = new DecimalFormat("+#.#;-#.#");
+
+    private static final Pattern RUN_FILE_NAME = Pattern.compile("\\d+-.*\\.properties");
+
+    private static final double SIGNIFICANCE_LEVEL = 0.05;
+
+    /**
+     * Minimum number of runs on each side to test the significance of a difference.
+     */
+    static final int MIN_RUNS = 3;
+
+    /**
+     * The differences of the median latencies below 5% are not reported, even if they are statistically significant.
+     */
+    private static final double MIN_RELATIVE_DIFFERENCE = 0.05;
+
+    /**
+     * The runs recorded by the current thread since {@link #startCollecting()}, if called.
+     */
+    private static final ThreadLocal<List<Run>> collectedRuns = new ThreadLocal<>();
+
+    private static File getDirectory() {
+        return new File(SettingsBean.getInstance().getJahiaVarDiskPath(), "tools/benchmarks");
+    }
+
+    private static int getMaxRuns() {
+        return Integer.parseInt(SettingsBean.getInstance().getPropertiesFile()
+                .getProperty("jahiaTools.benchmarkHistory.maxRuns", "1000"));
+    }
+
+    /**
+     * Records the results of a benchmark run, dropping the oldest runs above the configured maximum number of runs.
+     * The errors are logged, so that a benchmark does not fail because its results cannot be stored.
+     *
+     * @param test          the name of the benchmark
+     * @param configuration the description of the benchmark parameters, the runs are only comparable if they match
+     * @param metrics       the measured operations
+     * @return the recorded run or <code>null</code> if it could not be stored
+     */
+    public static Run record(String test, String configuration, List<Metric> metrics) {
+        String serverId = System.getProperty("cluster.node.serverId", "");
+        long timestamp = System.currentTimeMillis();
+        String id = timestamp + "-" + (serverId + "-" + test).replaceAll("[^A-Za-z0-9_.-]", "_");
+        Run run = new Run(id, serverId, timestamp, test, configuration, metrics);
+        List<Run> collected = collectedRuns.get();
+        if (collected != null) {
+            collected.add(run);
+        }
+
+        File dir = getDirectory();
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Unable to create folder " + dir);
+            }
+            try (OutputStream out = new FileOutputStream(new File(dir, id + ".properties"))) {
+                toProperties(run).store(out, null);
+            }
+            File[] files = listFiles();
+            for (int i = getMaxRuns(); i < files.length; i++) {
+                files[i].delete();
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to store the results of the " + test + " benchmark. Cause: " + e.getMessage(), e);
+            return null;
+        }
+        return run;
+    }
+
+    /**
+     * Starts collecting the runs recorded by the current thread, to know which runs a sequence of benchmarks produced
+     * regardless of the benchmarks executed concurrently.
+     *
+     * @see #stopCollecting()
+     */
+    static void startCollecting() {
+        collectedRuns.set(new ArrayList<>());
+    }
+
+    /**
+     * @return the runs recorded by the current thread since {@link #startCollecting()}, in the recording order
+     */
+    static List<Run> stopCollecting() {
+        List<Run> collected = collectedRuns.get();
+        collectedRuns.remove();
+        return collected != null ? collected : Collections.emptyList();
+    }
+
+    /**
+     * @param run a benchmark run
+     * @return the run serialized as a properties file content, to be exchanged with other cluster nodes
+     */
+    public static String serialize(Run run) {
+        StringWriter out = new StringWriter();
+        try {
+            toProperties(run).store(out, null);
+        } catch (IOException e) {
+            // not thrown by a string writer
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * @param id      the id of the run
+     * @param content the serialized run
+     * @return the run
+     * @throws IOException if the content is not a valid serialized run
+     */
+    public static Run deserialize(String id, String content) throws IOException {
+        Properties properties = new Properties();
+        properties.load(new StringReader(content));
+        try {
+            return fromProperties(id, properties);
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid benchmark results " + id, e);
+        }
+    }
+
+    /**
+     * @return the recorded runs, most recent first
+     */
+    public static List<Run> getRuns() {
+        List<Run> runs = new ArrayList<>();
+        for (File file : listFiles()) {
+            Run run = read(file);
+            if (run != null) {
+                runs.add(run);
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * @param id the id of a run
+     * @return the run or <code>null</code> if there is no run with this id
+     */
+    public static Run getRun(String id) {
+        for (File file : listFiles()) {
+            if (file.getName().equals(id + ".properties")) {
+                return read(file);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param id the id of the run to delete
+     * @return <code>true</code> if the run was deleted
+     */
+    public static boolean delete(String id) {
+        for (File file : listFiles()) {
+            if (file.getName().equals(id + ".properties")) {
+                return file.delete();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compares the operations of a run with the ones of a baseline run. The result is only indicative, see
+     * {@link #compare(List, List)}.
+     *
+     * @param baseline the baseline run
+     * @param run      the compared run
+     * @return the comparison of each operation, in the order of the baseline run followed by the operations only
+     *         measured in the compared run
+     */
+    public static List<Comparison> compare(Run baseline, Run run) {
+        return compare(Collections.singletonList(baseline), Collections.singletonList(run));
+    }
+
+    /**
+     * Compares the operations of several runs with the ones of several baseline runs. The latencies within a run are
+     * autocorrelated and skewed, and do not reflect the variability between runs, so each run is reduced to its median
+     * latency, and the per-run medians of both sides are compared with a Welch t-test when each side has at least
+     * {@value #MIN_RUNS} runs. With fewer runs, the differences of the median latencies above 5% are reported as
+     * indicative.
+     *
+     * @param baselines the baseline runs
+     * @param runs      the compared runs
+     * @return the comparison of each operation, in the order of the first baseline run followed by the operations only
+     *         measured in the other runs
+     */
+    public static List<Comparison> compare(List<Run> baselines, List<Run> runs) {
+        Map<String, List<Metric>> baselineMetrics = groupByName(baselines);
+        Map<String, List<Metric>> currentMetrics = groupByName(runs);
+        List<Comparison> comparisons = new ArrayList<>();
+        for (Map.Entry<String, List<Metric>> metrics : baselineMetrics.entrySet()) {
+            Comparison comparison = new Comparison(metrics.getKey(), metrics.getValue(),
+                    currentMetrics.getOrDefault(metrics.getKey(), Collections.emptyList()));
+            currentMetrics.remove(metrics.getKey());
+            if (comparison.getBaselineRuns() >= MIN_RUNS && comparison.getCurrentRuns() >= MIN_RUNS) {
+                try {
+                    comparison.pValue = TestUtils.tTest(comparison.baselineMedians, comparison.currentMedians);
+                } catch (MathException | IllegalArgumentException e) {
+                    logger.debug("Unable to compare " + metrics.getKey(), e);
+                }
+            }
+            comparisons.add(comparison);
+        }
+        for (Map.Entry<String, List<Metric>> metrics : currentMetrics.entrySet()) {
+            comparisons.add(new Comparison(metrics.getKey(), Collections.emptyList(), metrics.getValue()));
+        }
+        return comparisons;
+    }
+
+    private static Map<String, List<Metric>> groupByName(List<Run> runs) {
+        Map<String, List<Metric>> metrics = new LinkedHashMap<>();
+        for (Run run : runs) {
+            for (Metric metric : run.getMetrics()) {
+                metrics.computeIfAbsent(metric.name, name -> new ArrayList<>()).add(metric);
+            }
+        }
+        return metrics;
+    }
+
+    private static File[] listFiles() {
+        File[] files = getDirectory().listFiles((dir, name) -> RUN_FILE_NAME.matcher(name).matches());
+        if (files == null) {
+            return new File[0];
+        }
+        // the names start with the timestamp
+        Arrays.sort(files, Comparator.comparing((File file) -> Long.parseLong(file.getName().substring(0, file.getName().indexOf('-'))))
+                .reversed());
+        return files;
+    }
+
+    private static Properties toProperties(Run run) {
+        Properties properties = new Properties();
+        properties.setProperty("serverId", run.serverId);
+        properties.setProperty("timestamp", String.valueOf(run.timestamp));
+        properties.setProperty("test", run.test);
+        properties.setProperty("configuration", run.configuration);
+        for (int i = 0; i < run.metrics.size(); i++) {
+            Metric metric = run.metrics.get(i);
+            String prefix = "metric." + i + ".";
+            properties.setProperty(prefix + "name", metric.name);
+            properties.setProperty(prefix + "count", String.valueOf(metric.count));
+            properties.setProperty(prefix + "mean", String.valueOf(metric.mean));
+            properties.setProperty(prefix + "variance", String.valueOf(metric.variance));
+            properties.setProperty(prefix + "min", String.valueOf(metric.min));
+            properties.setProperty(prefix + "max", String.valueOf(metric.max));
+            properties.setProperty(prefix + "p50", String.valueOf(metric.p50));
+            properties.setProperty(prefix + "p90", String.valueOf(metric.p90));
+            properties.setProperty(prefix + "p99", String.valueOf(metric.p99));
+            if (metric.rate >= 0) {
+                properties.setProperty(prefix + "rate", String.valueOf(metric.rate));
+                properties.setProperty(prefix + "rateUnit", metric.rateUnit);
+            }
+        }
+        return properties;
+    }
+
+    private static Run fromProperties(String id, Properties properties) {
+        List<Metric> metrics = new ArrayList<>();
+        for (int i = 0; properties.getProperty("metric." + i + ".name") != null; i++) {
+            String prefix = "metric." + i + ".";
+            Metric metric = new Metric(properties.getProperty(prefix + "name"));
+            metric.count = Long.parseLong(properties.getProperty(prefix + "count"));
+            metric.mean = Double.parseDouble(properties.getProperty(prefix + "mean"));
+            metric.variance = Double.parseDouble(properties.getProperty(prefix + "variance"));
+            metric.min = Double.parseDouble(properties.getProperty(prefix + "min"));
+            metric.max = Double.parseDouble(properties.getProperty(prefix + "max"));
+            metric.p50 = Double.parseDouble(properties.getProperty(prefix + "p50"));
+            metric.p90 = Double.parseDouble(properties.getProperty(prefix + "p90"));
+            metric.p99 = Double.parseDouble(properties.getProperty(prefix + "p99"));
+            if (properties.getProperty(prefix + "rate") != null) {
+                metric.rate(Double.parseDouble(properties.getProperty(prefix + "rate")), properties.getProperty(prefix + "rateUnit"));
+            }
+            metrics.add(metric);
+        }
+        return new Run(id, properties.getProperty("serverId"), Long.parseLong(properties.getProperty("timestamp")),
+                properties.getProperty("test"), properties.getProperty("configuration"), Collections.unmodifiableList(metrics));
+    }
+
+    private static Run read(File file) {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+            return fromProperties(file.getName().substring(0, file.getName().length() - ".properties".length()), properties);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Unable to read the benchmark results " + file + ". Cause: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    private BenchmarkHistory() {
+        super();
+    }
+}
@@ -0,0 +1,503 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.InvalidItemStateException;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+
+import org.jahia.services.content.JCRNodeWrapper;
+import org.jahia.services.content.JCRTemplate;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coordinates the execution of the same benchmark profile on all the cluster nodes at the same time. A coordinated run
+ * is published as a node under <code>/tools-cluster-benchmarks</code> in the default workspace, so that it reaches the
+ * other cluster nodes through the cluster journal. Each node polls for new runs every 10 seconds, executes the profile
+ * at the requested start time and stores its results, in the {@link BenchmarkHistory} format, in a child node named
+ * after its <code>cluster.node.serverId</code>. The results of all nodes are then gathered in a cross-node report.
+ */
+@Component(service = ClusterBenchmarkCoordinator.class, immediate = true)
+public class ClusterBenchmarkCoordinator {
+
+    /**
+     * Tests of a coordinated benchmark profile.
+     */
+    public enum Test {
+        DATABASE, STORAGE, JCR_READ, JCR_WRITE
+    }
+
+    /**
+     * Execution state of a coordinated run on a cluster node.
+     */
+    public static class NodeState {
+        private final String serverId;
+        private final String state;
+        private final String message;
+        private final List<BenchmarkHistory.Run> runs;
+        private final List<String> labels;
+
+        NodeState(String serverId, String state, String message, List<BenchmarkHistory.Run> runs, List<String> labels) {
+            this.serverId = serverId;
+            this.state = state;
+            this.message = message;
+            this.runs = runs;
+            this.labels = labels;
+        }
+
+        public String getServerId() {
+            return serverId;
+        }
+
+        /**
+         * @return one of <code>scheduled</code>, <code>running</code>, <code>done</code> or <code>missed</code>
+         */
+        public String getState() {
+            return state;
+        }
+
+        /**
+         * @return the errors of the tests, if any
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * @return the results of the tests
+         */
+        public List<BenchmarkHistory.Run> getRuns() {
+            return runs;
+        }
+
+        /**
+         * @return the report labels of the results, in the same order: the test, followed by the target folder for
+         * the storage test
+         */
+        public List<String> getLabels() {
+            return labels;
+        }
+    }
+
+    /**
+     * A coordinated run.
+     */
+    public static class ClusterRun {
+        private final String id;
+        private final long startTime;
+        private final String requestedBy;
+        private final List<String> tests;
+        private final Map<String, NodeState> nodes = new TreeMap<>();
+
+        ClusterRun(String id, long startTime, String requestedBy, List<String> tests) {
+            this.id = id;
+            this.startTime = startTime;
+            this.requestedBy = requestedBy;
+            this.tests = tests;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Date getStartDate() {
+            return new Date(startTime);
+        }
+
+        /**
+         * @return the id of the cluster node the run was requested on
+         */
+        public String getRequestedBy() {
+            return requestedBy;
+        }
+
+        public List<String> getTests() {
+            return tests;
+        }
+
+        /**
+         * @return the states of the cluster nodes which joined the run, by server id
+         */
+        public Map<String, NodeState> getNodes() {
+            return nodes;
+        }
+    }
+
+    /**
+     * A row of the cross-node report: an operation with its statistics per cluster node.
+     */
+    public static class ReportRow {
+        private final String test;
+        private final String operation;
+        private final Map<String, BenchmarkHistory.Metric> metrics = new TreeMap<>();
+        private final Set<String> outliers = new HashSet<>();
+
+        ReportRow(String test, String operation) {
+            this.test = test;
+            this.operation = operation;
+        }
+
+        public String getTest() {
+            return test;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        /**
+         * @return the statistics by server id
+         */
+        public Map<String, BenchmarkHistory.Metric> getMetrics() {
+            return metrics;
+        }
+
+        /**
+         * @return the server ids of the nodes whose median latency is more than 50% above the median of the others
+         */
+        public Set<String> getOutliers() {
+            return outliers;
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(ClusterBenchmarkCoordinator.class);
+
+    private static final String ROOT_NAME = "tools-cluster-benchmarks";
+
+    private static final String ROOT_PATH = "/" + ROOT_NAME;
+
+    private static final int POLL_INTERVAL_SECONDS = 10;
+
+    /**
+     * The nodes which see a run later than this after its start time do not join it, their results would not be
+     * comparable.
+     */
+    private static final long MAX_JOIN_DELAY = TimeUnit.MINUTES.toMillis(1);
+
+    private static final int MAX_RUNS = 20;
+
+    private static final double OUTLIER_FACTOR = 1.5;
+
+    private static volatile ClusterBenchmarkCoordinator instance;
+
+    private final Set<String> joinedRuns = Collections.synchronizedSet(new HashSet<>());
+
+    private ScheduledExecutorService scheduler;
+
+    public static ClusterBenchmarkCoordinator getInstance() {
+        return instance;
+    }
+
+    @Activate
+    public void activate() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tools-cluster-benchmark");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                poll();
+            } catch (RepositoryException | RuntimeException e) {
+                logger.warn("Unable to check for coordinated benchmark runs", e);
+            }
+        }, POLL_INTERVAL_SECONDS, POLL_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        instance = this;
+    }
+
+    @Deactivate
+    public void deactivate() {
+        instance = null;
+        scheduler.shutdownNow();
+    }
+
+    private static String getServerId() {
+        return System.getProperty("cluster.node.serverId", "");
+    }
+
+    /**
+     * Requests a coordinated run of the given tests on all cluster nodes, dropping the oldest runs above 20.
+     *
+     * @param tests      the tests to run
+     * @param delay      the delay in seconds before the start, which must leave the time for the other nodes to see
+     *                   the run
+     * @return the id of the run
+     * @throws RepositoryException if the run cannot be published
+     */
+    public String start(Set<Test> tests, int delay) throws RepositoryException {
+        if (tests.isEmpty() || delay < POLL_INTERVAL_SECONDS) {
+            throw new IllegalArgumentException("At least one test and a delay of " + POLL_INTERVAL_SECONDS + " seconds are required");
+        }
+        long startTime = System.currentTimeMillis() + delay * 1000L;
+        String id = "run-" + startTime;
+        JCRTemplate.getInstance().doExecuteWithSystemSessionAsUser(null, "default", null, session -> {
+            JCRNodeWrapper root = session.nodeExists(ROOT_PATH) ? session.getNode(ROOT_PATH)
+                    : session.getRootNode().addNode(ROOT_NAME, "nt:unstructured");
+            JCRNodeWrapper run = root.addNode(id, "nt:unstructured");
+            run.setProperty("startTime", startTime);
+            run.setProperty("requestedBy", getServerId());
+            List<String> names = new ArrayList<>();
+            for (Test test : tests) {
+                names.add(test.name());
+            }
+            run.setProperty("tests", names.toArray(new String[0]));
+
+            List<JCRNodeWrapper> runs = new ArrayList<>();
+            for (NodeIterator it = root.getNodes(); it.hasNext(); ) {
+                runs.add((JCRNodeWrapper) it.nextNode());
+            }
+            for (int i = 0; i < runs.size() - MAX_RUNS; i++) {
+                runs.get(i).remove();
+            }
+            session.save();
+            return null;
+        });
+        return id;
+    }
+
+    /**
+     * @return the coordinated runs, most recent first
+     * @throws RepositoryException if the runs cannot be read
+     */
+    public List<ClusterRun> getRuns() throws RepositoryException {
+        return JCRTemplate.getInstance().doExecuteWithSystemSessionAsUser(null, "default", null, session -> {
+            List<ClusterRun> runs = new ArrayList<>();
+            if (session.nodeExists(ROOT_PATH)) {
+                for (NodeIterator it = session.getNode(ROOT_PATH).getNodes(); it.hasNext(); ) {
+                    runs.add(readRun((JCRNodeWrapper) it.nextNode()));
+                }
+            }
+            Collections.reverse(runs);
+            return runs;
+        });
+    }
+
+    /**
+     * @param id the id of a coordinated run
+     * @return the run or <code>null</code> if there is none with this id
+     * @throws RepositoryException if the run cannot be read
+     */
+    public ClusterRun getRun(String id) throws RepositoryException {
+        for (ClusterRun run : getRuns()) {
+            if (run.id.equals(id)) {
+                return run;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Builds the cross-node report of a run: for each measured operation, the statistics of each node, flagging the
+     * nodes whose median latency is more than 50% above the median of the other nodes.
+     *
+     * @param run a coordinated run
+     * @return the report rows, in the order of the tests and operations
+     */
+    public static List<ReportRow> getReport(ClusterRun run) {
+        Map<String, ReportRow> rows = new LinkedHashMap<>();
+        for (NodeState node : run.nodes.values()) {
+            for (int i = 0; i < node.runs.size(); i++) {
+                BenchmarkHistory.Run result = node.runs.get(i);
+                // the storage runs are distinguished by their target folder
+                String test = node.labels.get(i);
+                for (BenchmarkHistory.Metric metric : result.getMetrics()) {
+                    rows.computeIfAbsent(test + "\n" + metric.getName(), key -> new ReportRow(test, metric.getName())).metrics
+                            .put(node.serverId, metric);
+                }
+            }
+        }
+        for (ReportRow row : rows.values()) {
+            if (row.metrics.size() < 2) {
+                continue;
+            }
+            for (Map.Entry<String, BenchmarkHistory.Metric> metric : row.metrics.entrySet()) {
+                List<Double> others = new ArrayList<>();
+                for (Map.Entry<String, BenchmarkHistory.Metric> other : row.metrics.entrySet()) {
+                    if (!other.getKey().equals(metric.getKey())) {
+                        others.add(other.getValue().getP50().getValue());
+                    }
+                }
+                Collections.sort(others);
+                double median = others.size() % 2 == 1 ? others.get(others.size() / 2)
+                        : (others.get(others.size() / 2 - 1) + others.get(others.size() / 2)) / 2;
+                if (median > 0 && metric.getValue().getP50().getValue() > median * OUTLIER_FACTOR) {
+                    row.outliers.add(metric.getKey());
+                }
+            }
+        }
+        return new ArrayList<>(rows.values());
+    }
+
+    private static ClusterRun readRun(JCRNodeWrapper node) throws RepositoryException {
+        List<String> tests = new ArrayList<>();
+        for (Value value : node.getProperty("tests").getValues()) {
+            tests.add(value.getString());
+        }
+        ClusterRun run = new ClusterRun(node.getName(), node.getProperty("startTime").getLong(),
+                node.getProperty("requestedBy").getString(), tests);
+        for (NodeIterator it = node.getNodes(); it.hasNext(); ) {
+            JCRNodeWrapper child = (JCRNodeWrapper) it.nextNode();
+            List<BenchmarkHistory.Run> results = new ArrayList<>();
+            List<String> labels = new ArrayList<>();
+            if (child.hasProperty("results")) {
+                Value[] values = child.getProperty("results").getValues();
+                Value[] storedLabels = child.hasProperty("labels") ? child.getProperty("labels").getValues() : new Value[0];
+                for (int i = 0; i < values.length; i++) {
+                    try {
+                        BenchmarkHistory.Run result = BenchmarkHistory.deserialize(child.getName() + "-" + i, values[i].getString());
+                        results.add(result);
+                        labels.add(i < storedLabels.length ? storedLabels[i].getString() : result.getTest());
+                    } catch (IOException e) {
+                        logger.warn("Ignoring invalid results of node " + child.getName() + " for run " + run.id, e);
+                    }
+                }
+            }
+            String serverId = child.getProperty("serverId").getString();
+            run.nodes.put(serverId, new NodeState(serverId, child.getProperty("state").getString(),
+                    child.hasProperty("message") ? child.getProperty("message").getString() : null, results, labels));
+        }
+        return run;
+    }
+
+    private void poll() throws RepositoryException {
+        String serverId = getServerId();
+        for (ClusterRun run : getRuns()) {
+            if (joinedRuns.contains(run.id) || run.nodes.containsKey(serverId)) {
+                continue;
+            }
+            joinedRuns.add(run.id);
+            long delay = run.startTime - System.currentTimeMillis();
+            if (delay < -MAX_JOIN_DELAY) {
+                setState(run.id, "missed", null, null, null);
+                continue;
+            }
+            setState(run.id, "scheduled", null, null, null);
+            scheduler.schedule(() -> execute(run), Math.max(delay, 0), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void execute(ClusterRun run) {
+        StringBuilder errors = new StringBuilder();
+        // only the runs recorded by this thread, not those of the benchmarks started from the tools meanwhile
+        List<String> results = new ArrayList<>();
+        List<String> labels = new ArrayList<>();
+        try {
+            setState(run.id, "running", null, null, null);
+            for (String name : run.tests) {
+                BenchmarkHistory.startCollecting();
+                try {
+                    switch (Test.valueOf(name)) {
+                        case DATABASE:
+                            DatabaseBenchmark.perform();
+                            break;
+                        case STORAGE:
+                            for (Map.Entry<String, File> target : StorageBenchmark.getTargets().entrySet()) {
+                                BenchmarkHistory.startCollecting();
+                                StorageBenchmark.perform(target.getValue());
+                                addCollectedRuns(results, labels, target.getKey());
+                            }
+                            break;
+                        case JCR_READ:
+                            JcrReadBenchmark.perform(new JcrReadBenchmark.Options());
+                            break;
+                        case JCR_WRITE:
+                            JcrWriteBenchmark.perform(new JcrWriteBenchmark.Options());
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Unsupported test " + name);
+                    }
+                } catch (RepositoryException | RuntimeException e) {
+                    logger.warn("Error executing the " + name + " test of coordinated benchmark run " + run.id, e);
+                    errors.append(name).append(": ").append(e.getMessage()).append('\n');
+                } finally {
+                    addCollectedRuns(results, labels, null);
+                }
+            }
+            setState(run.id, "done", errors.length() > 0 ? errors.toString() : null, results.toArray(new String[0]),
+                    labels.toArray(new String[0]));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RepositoryException | RuntimeException e) {
+            logger.warn("Error executing coordinated benchmark run " + run.id, e);
+        }
+    }
+
+    private static void addCollectedRuns(List<String> results, List<String> labels, String target) {
+        for (BenchmarkHistory.Run result : BenchmarkHistory.stopCollecting()) {
+            results.add(BenchmarkHistory.serialize(result));
+            labels.add(target != null ? result.getTest() + " - " + target : result.getTest());
+        }
+    }
+
+    private static void setState(String runId, String state, String message, String[] results, String[] labels)
+            throws RepositoryException {
+        String serverId = getServerId();
+        String name = "node-" + serverId.replaceAll("[^A-Za-z0-9_.-]", "_");
+        // the other nodes may add their own child node concurrently
+        for (int attempt = 1; ; attempt++) {
+            try {
+                JCRTemplate.getInstance().doExecuteWithSystemSessionAsUser(null, "default", null, session -> {
+                    String runPath = ROOT_PATH + "/" + runId;
+                    if (!session.nodeExists(runPath)) {
+                        return null;
+                    }
+                    JCRNodeWrapper run = session.getNode(runPath);
+                    JCRNodeWrapper node = run.hasNode(name) ? run.getNode(name) : run.addNode(name, "nt:unstructured");
+                    node.setProperty("serverId", serverId);
+                    node.setProperty("state", state);
+                    node.setProperty("message", message);
+                    if (results != null) {
+                        node.setProperty("results", results);
+                        node.setProperty("labels", labels);
+                    }
+                    session.save();
+                    return null;
+                });
+                return;
+            } catch (InvalidItemStateException e) {
+                if (attempt == 5) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(200L * attempt);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+}
@@ -15,13 +15,28 @@
  */
 package org.jahia.modules.tools.benchmark;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.collections.Transformer;
 import org.apache.commons.collections.map.LazyMap;
@@ -35,12 +50,17 @@ import org.slf4j.LoggerFactory;
 /**
  * Utility for benchmarking database connection latency. When a benchmark is performed by the {@link #perform()} method, it reads the list
  * of test queries from the Spring bean configuration and executes tests for each of them for a configured number of executions (100 by
- * default). The execution times are collected and a standard metrics are calculated, like min/max/mean, percentiles etc. By default, there
+ * default). The execution times are collected and a standard metrics are calculated, like min/max/mean, percentiles etc., and recorded in
+ * the {@link BenchmarkHistory}. By default, there
  * are two test queries configured:
  * <ul>
  * <li><code>ping</code> - a special "query" that executes {@link Connection#isValid(int)} method to do a "ping"</li>
  * <li><code>select count(*) from jahia_db_test</code> - is a fast count query on an empty DB test table</li>
  * </ul>
+ * <p>
+ * The {@link #replay(DatabaseWorkload)} method replays a {@link DatabaseWorkload} instead: a weighted mix of
+ * parameterized statements, like the node bundle reads of Jackrabbit, executed concurrently with the latencies
+ * reported per statement.
  * 
  * @author Sergiy Shyrkov
  */
@@ -69,12 +89,115 @@ public final class DatabaseBenchmark {
         }
     }
 
+    /**
+     * Holds the statistics of a workload statement.
+     */
+    public static class StatementResult {
+        private final DatabaseWorkload.Statement statement;
+        private final LatencyStats latency = new LatencyStats();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private long elapsed;
+
+        StatementResult(DatabaseWorkload.Statement statement) {
+            this.statement = statement;
+        }
+
+        public String getName() {
+            return statement.getName();
+        }
+
+        public String getSql() {
+            return statement.getSql();
+        }
+
+        public int getWeight() {
+            return statement.getWeight();
+        }
+
+        public LatencyStats getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return the number of rows read
+         */
+        public long getRows() {
+            return rows.get();
+        }
+
+        /**
+         * @return the number of bytes read from the binary columns
+         */
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        public long getErrors() {
+            return errors.get();
+        }
+
+        public String getOperationsPerSecond() {
+            return elapsed > 0 ? RATE_FORMATTER.format(latency.getCount() * 1000d / elapsed) : "";
+        }
+    }
+
+    /**
+     * Holds the results of a workload replay.
+     */
+    public static class WorkloadResult {
+        private final DatabaseWorkload workload;
+        private final List<StatementResult> statements = new ArrayList<>();
+        private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        private long elapsed;
+
+        WorkloadResult(DatabaseWorkload workload) {
+            this.workload = workload;
+        }
+
+        public DatabaseWorkload getWorkload() {
+            return workload;
+        }
+
+        /**
+         * @return the measured time in milliseconds, without the warm-up
+         */
+        public long getElapsed() {
+            return elapsed;
+        }
+
+        public List<StatementResult> getStatements() {
+            return statements;
+        }
+
+        /**
+         * @return the total number of executed statements per second
+         */
+        public String getOperationsPerSecond() {
+            long count = 0;
+            for (StatementResult statement : statements) {
+                count += statement.latency.getCount();
+            }
+            return elapsed > 0 ? RATE_FORMATTER.format(count * 1000d / elapsed) : "";
+        }
+
+        /**
+         * @return the sampling and worker errors, at most one per worker
+         */
+        public List<String> getErrors() {
+            return errors;
+        }
+    }
+
     private static final Logger logger = LoggerFactory.getLogger(DatabaseBenchmark.class);
 
     private static DecimalFormat MILLIS_FORMATTER = new DecimalFormat("#.###");
 
     private static DecimalFormat NANOS_FORMATTER = new DecimalFormat("#.##");
 
+    private static final DecimalFormat RATE_FORMATTER = new DecimalFormat("#.##");
+
     private static void appendStatValue(String label, StatValue v, StringBuilder out) {
         out.append("\t\t- ").append(label).append(": ").append(v.getMillis()).append(" ms (").append(v.getNanos())
                 .append(" ns)\n");
@@ -98,6 +221,7 @@ public final class DatabaseBenchmark {
     public static Map<String, Map<String, Object>> perform() {
         List<String> queries = getBenchmarkQueries();
         Map<String, Map<String, Object>> results = new LinkedHashMap<>(queries.size());
+        List<BenchmarkHistory.Metric> metrics = new ArrayList<>(queries.size());
         int count = getQueryExecutionCount();
         Connection conn = null;
         try {
@@ -129,6 +253,9 @@ public final class DatabaseBenchmark {
                 }
 
                 results.put(query, wrapResult(stats));
+                if (stats.getN() > 0) {
+                    metrics.add(new BenchmarkHistory.Metric(query, stats));
+                }
             }
         } catch (Exception e) {
             logger.error("Error executing database connection speed benchmark. Cause: " + e.getMessage(), e);
@@ -136,9 +263,235 @@ public final class DatabaseBenchmark {
             DatabaseUtils.closeQuietly(conn);
         }
 
+        if (!metrics.isEmpty()) {
+            BenchmarkHistory.record("database", "executions=" + count, metrics);
+        }
         return results;
     }
 
+    /**
+     * Replays the workload: each worker thread uses its own connection and executes statements picked at random by
+     * weight, with their parameters drawn from the generators, until the warm-up and the measured duration are over.
+     * The rows are fully read, including the binary columns, as Jackrabbit does when loading a bundle.
+     *
+     * @param workload the workload to replay
+     * @return the results per statement
+     * @throws SQLException if the parameters cannot be sampled
+     * @throws InterruptedException if the current thread is interrupted while waiting for the workers
+     */
+    public static WorkloadResult replay(DatabaseWorkload workload) throws SQLException, InterruptedException {
+        if (workload.getThreads() < 1 || workload.getDuration() < 1 || workload.getThinkTime() < 0) {
+            throw new IllegalArgumentException("The threads and duration must be positive, the think time cannot be negative");
+        }
+        WorkloadResult result = new WorkloadResult(workload);
+        Connection conn = null;
+        try {
+            conn = DatabaseUtils.getDatasource().getConnection();
+            for (DatabaseWorkload.Generator generator : workload.getGenerators()) {
+                try {
+                    generator.load(conn);
+                } catch (SQLException e) {
+                    logger.warn("Unable to sample the parameters of the generator " + generator.getName() + ". Cause: " + e.getMessage());
+                    result.errors.add("Generator " + generator.getName() + ": " + e.getMessage());
+                }
+            }
+        } finally {
+            DatabaseUtils.closeQuietly(conn);
+        }
+
+        // statements without parameter values, e.g. on an empty or missing table, are skipped
+        int totalWeight = 0;
+        for (DatabaseWorkload.Statement statement : workload.getStatements()) {
+            boolean sampled = true;
+            for (String parameter : statement.getParameters()) {
+                DatabaseWorkload.Generator generator = workload.getGenerator(parameter);
+                sampled &= generator.getType() != DatabaseWorkload.GeneratorType.SAMPLE || generator.getSize() > 0;
+            }
+            if (!sampled) {
+                result.errors.add("Statement " + statement.getName() + " skipped, no parameter value sampled");
+            } else if (statement.getWeight() > 0) {
+                result.statements.add(new StatementResult(statement));
+                totalWeight += statement.getWeight();
+            }
+        }
+        if (totalWeight == 0) {
+            result.errors.add("No statement to execute");
+            return result;
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(workload.getThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "tools-database-workload-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        long measureStart = System.currentTimeMillis() + workload.getWarmup() * 1000L;
+        long deadline = measureStart + workload.getDuration() * 1000L;
+        int weights = totalWeight;
+        try {
+            List<Future<?>> workers = new ArrayList<>(workload.getThreads());
+            for (int i = 0; i < workload.getThreads(); i++) {
+                int worker = i;
+                workers.add(executor.submit(() -> {
+                    try {
+                        runWorker(workload, result, weights, measureStart, deadline);
+                    } catch (SQLException | RuntimeException e) {
+                        logger.warn("Error in database workload worker " + worker + ". Cause: " + e.getMessage(), e);
+                        result.errors.add("Worker " + worker + ": " + e.getMessage());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }));
+            }
+            for (Future<?> worker : workers) {
+                try {
+                    worker.get();
+                } catch (ExecutionException e) {
+                    // already handled by the worker
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        result.elapsed = Math.max(System.currentTimeMillis() - measureStart, 0);
+
+        List<BenchmarkHistory.Metric> metrics = new ArrayList<>(result.statements.size());
+        for (StatementResult statement : result.statements) {
+            statement.elapsed = result.elapsed;
+            if (statement.latency.getCount() > 0) {
+                metrics.add(statement.latency.toMetric(statement.getName())
+                        .rate(statement.latency.getCount() * 1000d / Math.max(result.elapsed, 1), "ops/sec"));
+            }
+        }
+        if (!metrics.isEmpty()) {
+            BenchmarkHistory.record("database-workload", workload.toString(), metrics);
+        }
+        return result;
+    }
+
+    private static void runWorker(DatabaseWorkload workload, WorkloadResult result, int totalWeight, long measureStart,
+            long deadline) throws SQLException, InterruptedException {
+        Map<String, PreparedStatement> prepared = new HashMap<>();
+        Connection conn = null;
+        try {
+            conn = DatabaseUtils.getDatasource().getConnection();
+            byte[] buffer = new byte[8192];
+            while (System.currentTimeMillis() < deadline) {
+                StatementResult statement = pickStatement(result.statements, totalWeight);
+                PreparedStatement stmt = prepared.get(statement.getName());
+                if (stmt == null) {
+                    stmt = conn.prepareStatement(statement.getSql());
+                    prepared.put(statement.getName(), stmt);
+                }
+                int index = 1;
+                for (String parameter : statement.statement.getParameters()) {
+                    for (Object value : workload.getGenerator(parameter).next()) {
+                        stmt.setObject(index++, value);
+                    }
+                }
+
+                long startTime = System.nanoTime();
+                boolean measured = System.currentTimeMillis() >= measureStart;
+                try {
+                    long rows = 0;
+                    long bytes = 0;
+                    ResultSet rs = stmt.executeQuery();
+                    try {
+                        ResultSetMetaData meta = rs.getMetaData();
+                        while (rs.next()) {
+                            rows++;
+                            bytes += readRow(rs, meta, buffer);
+                        }
+                    } finally {
+                        DatabaseUtils.closeQuietly(rs);
+                    }
+                    long latency = System.nanoTime() - startTime;
+                    if (measured) {
+                        statement.latency.add(latency);
+                        statement.rows.addAndGet(rows);
+                        statement.bytes.addAndGet(bytes);
+                    }
+                } catch (SQLException | IOException e) {
+                    if (measured) {
+                        statement.errors.incrementAndGet();
+                    }
+                    logger.debug("Error executing the workload statement " + statement.getName(), e);
+                }
+
+                if (workload.getThinkTime() > 0) {
+                    // exponentially distributed pauses, as for independent requests
+                    Thread.sleep((long) (-workload.getThinkTime() * Math.log(1 - ThreadLocalRandom.current().nextDouble())));
+                }
+            }
+        } finally {
+            for (PreparedStatement stmt : prepared.values()) {
+                DatabaseUtils.closeQuietly(stmt);
+            }
+            DatabaseUtils.closeQuietly(conn);
+        }
+    }
+
+    private static StatementResult pickStatement(List<StatementResult> statements, int totalWeight) {
+        int value = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (StatementResult statement : statements) {
+            value -= statement.getWeight();
+            if (value < 0) {
+                return statement;
+            }
+        }
+        return statements.get(0);
+    }
+
+    private static long readRow(ResultSet rs, ResultSetMetaData meta, byte[] buffer) throws SQLException, IOException {
+        long bytes = 0;
+        for (int i = 1; i <= meta.getColumnCount(); i++) {
+            switch (meta.getColumnType(i)) {
+                case Types.BLOB:
+                case Types.BINARY:
+                case Types.VARBINARY:
+                case Types.LONGVARBINARY:
+                    try (InputStream in = rs.getBinaryStream(i)) {
+                        if (in != null) {
+                            for (int read; (read = in.read(buffer)) != -1; ) {
+                                bytes += read;
+                            }
+                        }
+                    }
+                    break;
+                default:
+                    rs.getObject(i);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns a formatted string representation of the workload replay results.
+     *
+     * @param result the workload replay results
+     * @return the formatted string representation of the results
+     */
+    public static String workloadResultToString(WorkloadResult result) {
+        StringBuilder out = new StringBuilder(512);
+        out.append("Database workload ").append(result.getWorkload()).append(": ").append(result.getOperationsPerSecond())
+                .append(" statements/sec\n");
+        for (StatementResult statement : result.getStatements()) {
+            LatencyStats latency = statement.getLatency();
+            out.append("\t* ").append(statement.getName()).append(": ").append(latency.getCount()).append(" executions, ")
+                    .append(statement.getOperationsPerSecond()).append(" ops/sec, ").append(statement.getRows()).append(" rows, ")
+                    .append(statement.getBytes()).append(" bytes, ").append(statement.getErrors()).append(" errors");
+            if (latency.getCount() > 0) {
+                out.append(", 50% line: ").append(latency.getP50().getMillis()).append(" ms, 99% line: ")
+                        .append(latency.getP99().getMillis()).append(" ms, max: ").append(latency.getMax().getMillis()).append(" ms");
+            }
+            out.append("\n");
+        }
+        for (String error : result.getErrors()) {
+            out.append("\t* ").append(error).append("\n");
+        }
+        return out.toString();
+    }
+
     /**
      * Returns a formatted string representation of the database connection stats.
      * 
@@ -172,7 +525,7 @@ public final class DatabaseBenchmark {
     }
 
     @SuppressWarnings("unchecked")
-    private static Map<String, Object> wrapResult(DescriptiveStatistics stats) {
+    static Map<String, Object> wrapResult(DescriptiveStatistics stats) {
         return LazyMap.decorate(new HashMap<>(), new Transformer() {
             @Override
             public Object transform(Object input) {
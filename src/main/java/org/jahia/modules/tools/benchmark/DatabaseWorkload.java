@@ -0,0 +1,418 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.commons.lang.StringUtils;
+import org.jahia.settings.SettingsBean;
+import org.jahia.utils.DatabaseUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Definition of a database workload replayed by {@link DatabaseBenchmark#replay(DatabaseWorkload)}: weighted
+ * parameterized statements, the generators of their parameters, the concurrency and the think time. Workloads are
+ * defined as properties files, the format being described in the built-in <code>jcr-bundle-read-mix</code> workload.
+ * Custom workloads are read from the <code>tools/workloads</code> folder of the Jahia var folder.
+ */
+public class DatabaseWorkload {
+
+    /**
+     * Type of parameter generator.
+     */
+    public enum GeneratorType {
+        SAMPLE, RANGE, LIST
+    }
+
+    /**
+     * A weighted parameterized statement.
+     */
+    public static class Statement {
+        private final String name;
+        private final String sql;
+        private final int weight;
+        private final List<String> parameters;
+
+        Statement(String name, String sql, int weight, List<String> parameters) {
+            this.name = name;
+            this.sql = sql;
+            this.weight = weight;
+            this.parameters = parameters;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        /**
+         * @return the names of the generators binding the statement placeholders, in order
+         */
+        public List<String> getParameters() {
+            return parameters;
+        }
+    }
+
+    /**
+     * Generator of statement parameters. The values of the <code>sample</code> generators are loaded by
+     * {@link #load(Connection)} before the replay.
+     */
+    public static class Generator {
+        private final String name;
+        private final GeneratorType type;
+        private final String sql;
+        private final int size;
+        private final long min;
+        private final long max;
+        private final List<String> values;
+        private List<Object[]> samples = Collections.emptyList();
+
+        Generator(String name, GeneratorType type, String sql, int size, long min, long max, List<String> values) {
+            this.name = name;
+            this.type = type;
+            this.sql = sql;
+            this.size = size;
+            this.min = min;
+            this.max = max;
+            this.values = values;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public GeneratorType getType() {
+            return type;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         * @return the number of sampled rows, or of listed values
+         */
+        public int getSize() {
+            return type == GeneratorType.SAMPLE ? samples.size() : type == GeneratorType.LIST ? values.size() : 0;
+        }
+
+        /**
+         * Loads the sampled rows, using reservoir sampling over the whole result of the sampling query, so that the
+         * sample is not biased towards the first rows in the database order.
+         *
+         * @param conn the connection to use
+         * @throws SQLException if the sampling query fails
+         */
+        void load(Connection conn) throws SQLException {
+            if (type != GeneratorType.SAMPLE) {
+                return;
+            }
+            List<Object[]> rows = new ArrayList<>(size);
+            PreparedStatement stmt = null;
+            ResultSet rs = null;
+            try {
+                stmt = conn.prepareStatement(sql);
+                stmt.setFetchSize(1000);
+                rs = stmt.executeQuery();
+                int columns = rs.getMetaData().getColumnCount();
+                for (int seen = 0; rs.next(); seen++) {
+                    Object[] row = new Object[columns];
+                    for (int i = 0; i < columns; i++) {
+                        row[i] = rs.getObject(i + 1);
+                    }
+                    if (rows.size() < size) {
+                        rows.add(row);
+                    } else {
+                        int position = ThreadLocalRandom.current().nextInt(seen + 1);
+                        if (position < size) {
+                            rows.set(position, row);
+                        }
+                    }
+                }
+            } finally {
+                DatabaseUtils.closeQuietly(rs);
+                DatabaseUtils.closeQuietly(stmt);
+            }
+            samples = rows;
+        }
+
+        /**
+         * @return the next values to bind, <code>null</code> if a sample generator has no row
+         */
+        Object[] next() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            switch (type) {
+                case SAMPLE:
+                    return samples.isEmpty() ? null : samples.get(random.nextInt(samples.size()));
+                case RANGE:
+                    return new Object[] { min + (long) (random.nextDouble() * (max - min + 1)) };
+                default:
+                    return new Object[] { values.get(random.nextInt(values.size())) };
+            }
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(DatabaseWorkload.class);
+
+    /**
+     * Name of the built-in workload, modelling the Jackrabbit bundle persistence read traffic.
+     */
+    public static final String DEFAULT_WORKLOAD = "jcr-bundle-read-mix";
+
+    private static final String[] BUILT_IN_WORKLOADS = { DEFAULT_WORKLOAD };
+
+    private final String name;
+    private String description;
+    private int threads;
+    private int duration;
+    private int warmup;
+    private int thinkTime;
+    private final Map<String, Statement> statements = new LinkedHashMap<>();
+    private final Map<String, Generator> generators = new LinkedHashMap<>();
+
+    DatabaseWorkload(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the available workloads: the built-in ones and the ones defined in the
+     * <code>tools/workloads</code> folder of the Jahia var folder, which can override them. Workloads that cannot be
+     * read are logged and skipped.
+     *
+     * @return the workloads by name
+     */
+    public static Map<String, DatabaseWorkload> getWorkloads() {
+        Map<String, DatabaseWorkload> workloads = new LinkedHashMap<>();
+        for (String builtIn : BUILT_IN_WORKLOADS) {
+            try (InputStream in = DatabaseWorkload.class.getResourceAsStream("/META-INF/workloads/" + builtIn + ".properties")) {
+                Properties properties = new Properties();
+                properties.load(in);
+                workloads.put(builtIn, parse(builtIn, properties));
+            } catch (IOException | RuntimeException e) {
+                logger.error("Unable to read the built-in database workload " + builtIn + ". Cause: " + e.getMessage(), e);
+            }
+        }
+        File[] files = new File(SettingsBean.getInstance().getJahiaVarDiskPath(), "tools/workloads")
+                .listFiles((dir, fileName) -> fileName.endsWith(".properties"));
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                String workloadName = StringUtils.substringBeforeLast(file.getName(), ".");
+                try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                    Properties properties = new Properties();
+                    properties.load(reader);
+                    workloads.put(workloadName, parse(workloadName, properties));
+                } catch (IOException | RuntimeException e) {
+                    logger.warn("Unable to read the database workload " + file + ". Cause: " + e.getMessage());
+                }
+            }
+        }
+        return workloads;
+    }
+
+    /**
+     * Parses a workload definition.
+     *
+     * @param name       the name of the workload
+     * @param properties the workload definition
+     * @return the parsed workload
+     * @throws IllegalArgumentException if the definition is invalid
+     */
+    public static DatabaseWorkload parse(String name, Properties properties) {
+        DatabaseWorkload workload = new DatabaseWorkload(name);
+        workload.description = properties.getProperty("description", name);
+        workload.threads = getInt(properties, "threads", 10);
+        workload.duration = getInt(properties, "duration", 30);
+        workload.warmup = getInt(properties, "warmup", 0);
+        workload.thinkTime = getInt(properties, "thinkTime", 0);
+
+        boolean longLongKeys = isLongLongKeys();
+        for (String statementName : split(properties.getProperty("statements"))) {
+            String prefix = "statement." + statementName + ".";
+            String sql = properties.getProperty(prefix + "sql");
+            if (StringUtils.isBlank(sql)) {
+                throw new IllegalArgumentException("No SQL for the statement " + statementName);
+            }
+            List<String> parameters = split(properties.getProperty(prefix + "parameters"));
+            for (String generatorName : parameters) {
+                if (!workload.generators.containsKey(generatorName)) {
+                    workload.generators.put(generatorName, parseGenerator(generatorName, properties, longLongKeys));
+                }
+            }
+            workload.statements.put(statementName, new Statement(statementName, expand(sql, longLongKeys),
+                    getInt(properties, prefix + "weight", 1), parameters));
+        }
+        if (workload.statements.isEmpty()) {
+            throw new IllegalArgumentException("No statement defined");
+        }
+        return workload;
+    }
+
+    private static Generator parseGenerator(String name, Properties properties, boolean longLongKeys) {
+        String prefix = "generator." + name + ".";
+        GeneratorType type;
+        try {
+            type = GeneratorType.valueOf(properties.getProperty(prefix + "type", "").trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown type for the generator " + name + ": " + properties.getProperty(prefix + "type"));
+        }
+        String sql = properties.getProperty(prefix + "sql");
+        List<String> values = split(properties.getProperty(prefix + "values"));
+        if (type == GeneratorType.SAMPLE && StringUtils.isBlank(sql)) {
+            throw new IllegalArgumentException("No SQL for the sample generator " + name);
+        }
+        if (type == GeneratorType.LIST && values.isEmpty()) {
+            throw new IllegalArgumentException("No values for the list generator " + name);
+        }
+        return new Generator(name, type, sql != null ? expand(sql, longLongKeys) : null, getInt(properties, prefix + "size", 10000),
+                Long.parseLong(properties.getProperty(prefix + "min", "0").trim()),
+                Long.parseLong(properties.getProperty(prefix + "max", String.valueOf(Integer.MAX_VALUE)).trim()), values);
+    }
+
+    private static boolean isLongLongKeys() {
+        // Jackrabbit stores the node IDs as two longs on these databases, as a binary elsewhere
+        String dbType = DatabaseUtils.getDatabaseType().name();
+        return dbType.equals("derby") || dbType.equals("postgresql");
+    }
+
+    private static String expand(String sql, boolean longLongKeys) {
+        return StringUtils.replaceEach(sql, new String[] { "${nodeIdCondition}", "${nodeId}" },
+                longLongKeys ? new String[] { "NODE_ID_HI = ? AND NODE_ID_LO = ?", "NODE_ID_HI, NODE_ID_LO" }
+                        : new String[] { "NODE_ID = ?", "NODE_ID" });
+    }
+
+    private static int getInt(Properties properties, String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        return StringUtils.isNotBlank(value) ? Integer.parseInt(value.trim()) : defaultValue;
+    }
+
+    private static List<String> split(String value) {
+        List<String> result = new ArrayList<>();
+        for (String item : StringUtils.split(StringUtils.defaultString(value), ',')) {
+            if (StringUtils.isNotBlank(item)) {
+                result.add(item.trim());
+            }
+        }
+        return result;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return the measured duration in seconds
+     */
+    public int getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return the warm-up duration in seconds, during which the latencies are not recorded
+     */
+    public int getWarmup() {
+        return warmup;
+    }
+
+    /**
+     * @return the mean pause between two statements of a connection, in milliseconds
+     */
+    public int getThinkTime() {
+        return thinkTime;
+    }
+
+    public List<Statement> getStatements() {
+        return new ArrayList<>(statements.values());
+    }
+
+    public List<Generator> getGenerators() {
+        return new ArrayList<>(generators.values());
+    }
+
+    Generator getGenerator(String generatorName) {
+        return generators.get(generatorName);
+    }
+
+    /**
+     * @param threads the number of concurrent connections
+     * @return this instance
+     */
+    public DatabaseWorkload threads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * @param duration the measured duration in seconds
+     * @return this instance
+     */
+    public DatabaseWorkload duration(int duration) {
+        this.duration = duration;
+        return this;
+    }
+
+    /**
+     * @param thinkTime the mean pause between two statements of a connection, in milliseconds
+     * @return this instance
+     */
+    public DatabaseWorkload thinkTime(int thinkTime) {
+        this.thinkTime = thinkTime;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder(name).append(" threads=").append(threads).append(" duration=").append(duration)
+                .append(" warmup=").append(warmup).append(" thinkTime=").append(thinkTime);
+        for (Statement statement : statements.values()) {
+            out.append(" ").append(statement.name).append("=").append(statement.weight);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,567 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.benchmark;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.query.Query;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.jackrabbit.core.cache.ConcurrentCache;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.jahia.modules.tools.jcr.BundleCacheMonitor;
+import org.jahia.services.content.JCRNodeWrapper;
+import org.jahia.services.content.JCRSessionWrapper;
+import org.jahia.services.content.JCRTemplate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Utility for benchmarking JCR reads with a workload close to the production access pattern. A random sample of the
+ * nodes under a root path is taken first, then worker threads of a fixed size pool run a weighted mix of
+ * {@link javax.jcr.Session#getNodeByIdentifier(String)} lookups, path lookups, JCR-SQL2 queries on the children of the
+ * parent of a sampled node and reads of all the properties of a sampled node in a given locale, in two phases of a
+ * fixed duration:
+ * <ul>
+ * <li>a cold phase, where each operation uses a new session and picks the sampled nodes without replacement, so that
+ * most nodes are accessed for the first time</li>
+ * <li>a warm phase, where each operation also uses a new session, so that the session caches do not serve the reads,
+ * and picks the sampled nodes with replacement</li>
+ * </ul>
+ * The sample is drawn uniformly from the query results, only the picked nodes being loaded. Their bundles are then
+ * evicted from the bundle cache of the workspace before the cold phase, as sampling has just loaded them. The cold phase
+ * is not completely cold though: the shared item state cache keeps weak references to the node states, which may not
+ * have been garbage collected yet, and the search index, the database and the operating system have their own caches.
+ * <p>
+ * The latency of each operation is collected per phase and per operation type and recorded in the
+ * {@link BenchmarkHistory}.
+ */
+public final class JcrReadBenchmark {
+
+    /**
+     * Benchmarked operation types.
+     */
+    public enum OperationType {
+        IDENTIFIER("getNodeByIdentifier"), PATH("getNode by path"), QUERY("JCR-SQL2 query"), PROPERTIES("i18n properties read");
+
+        private final String label;
+
+        OperationType(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /**
+     * Benchmark parameters.
+     */
+    public static class Options {
+        private String workspace = "default";
+        private Locale locale = Locale.ENGLISH;
+        private String rootPath = "/sites";
+        private int sampleSize = 1000;
+        private int threads = 10;
+        private int duration = 30;
+        private String query = "SELECT * FROM [nt:base] AS n WHERE ISCHILDNODE(n, [{path}])";
+        private int queryLimit = 20;
+        private final Map<OperationType, Integer> weights = new EnumMap<>(OperationType.class);
+
+        public Options() {
+            weights.put(OperationType.IDENTIFIER, 40);
+            weights.put(OperationType.PATH, 20);
+            weights.put(OperationType.QUERY, 10);
+            weights.put(OperationType.PROPERTIES, 30);
+        }
+
+        /**
+         * @param workspace the workspace to read from
+         * @return this instance
+         */
+        public Options workspace(String workspace) {
+            this.workspace = workspace;
+            return this;
+        }
+
+        /**
+         * @param locale the locale of the sessions, used to read the internationalized properties
+         * @return this instance
+         */
+        public Options locale(Locale locale) {
+            this.locale = locale;
+            return this;
+        }
+
+        /**
+         * @param rootPath   the path under which the nodes are sampled
+         * @param sampleSize the number of sampled nodes
+         * @return this instance
+         */
+        public Options sample(String rootPath, int sampleSize) {
+            this.rootPath = rootPath;
+            this.sampleSize = sampleSize;
+            return this;
+        }
+
+        /**
+         * @param threads the number of concurrent readers
+         * @return this instance
+         */
+        public Options threads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * @param duration the duration in seconds of each phase
+         * @return this instance
+         */
+        public Options duration(int duration) {
+            this.duration = duration;
+            return this;
+        }
+
+        /**
+         * @param query the JCR-SQL2 query, where <code>{path}</code> is replaced by the parent path of a sampled node
+         * @param limit the maximum number of nodes read from the query result
+         * @return this instance
+         */
+        public Options query(String query, int limit) {
+            this.query = query;
+            this.queryLimit = limit;
+            return this;
+        }
+
+        /**
+         * @return the relative weights of the operation types in the workload
+         */
+        public Map<OperationType, Integer> getWeights() {
+            return Collections.unmodifiableMap(weights);
+        }
+
+        /**
+         * @param type   the operation type
+         * @param weight its relative weight in the workload, 0 to skip it
+         * @return this instance
+         */
+        public Options weight(OperationType type, int weight) {
+            weights.put(type, weight);
+            return this;
+        }
+    }
+
+    /**
+     * Holds the statistics of an operation type in a phase.
+     */
+    public static class OperationResult {
+        private final OperationType type;
+        private final LatencyStats latency = new LatencyStats();
+        private final AtomicLong errors = new AtomicLong();
+        private long elapsed;
+
+        OperationResult(OperationType type) {
+            this.type = type;
+        }
+
+        public String getName() {
+            return type.getLabel();
+        }
+
+        public LatencyStats getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return the number of failed operations, for example because the sampled node was deleted
+         */
+        public long getErrors() {
+            return errors.get();
+        }
+
+        public String getOperationsPerSecond() {
+            return elapsed > 0 ? RATE_FORMATTER.format(latency.getCount() * 1000d / elapsed) : "";
+        }
+    }
+
+    /**
+     * Holds the results of a phase.
+     */
+    public static class PhaseResult {
+        private final String name;
+        private final Map<OperationType, OperationResult> operations = new EnumMap<>(OperationType.class);
+        private long elapsed;
+
+        PhaseResult(String name) {
+            this.name = name;
+            for (OperationType type : OperationType.values()) {
+                operations.put(type, new OperationResult(type));
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the elapsed time in milliseconds
+         */
+        public long getElapsed() {
+            return elapsed;
+        }
+
+        /**
+         * @return the statistics of the executed operation types
+         */
+        public List<OperationResult> getOperations() {
+            List<OperationResult> result = new ArrayList<>();
+            for (OperationResult operation : operations.values()) {
+                if (operation.latency.getCount() > 0 || operation.errors.get() > 0) {
+                    result.add(operation);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Holds the results of a benchmark.
+     */
+    public static class Result {
+        private final int threads;
+        private int sampleSize;
+        private int evictedBundles = -1;
+        private final List<PhaseResult> phases = new ArrayList<>(2);
+        private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+        Result(int threads) {
+            this.threads = threads;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        /**
+         * @return the number of sampled nodes
+         */
+        public int getSampleSize() {
+            return sampleSize;
+        }
+
+        /**
+         * @return the number of sampled node bundles evicted from the bundle cache before the cold phase, -1 if the
+         *         bundle cache is not accessible
+         */
+        public int getEvictedBundles() {
+            return evictedBundles;
+        }
+
+        public List<PhaseResult> getPhases() {
+            return phases;
+        }
+
+        /**
+         * @return the errors of the workers, at most one per worker and phase
+         */
+        public List<String> getErrors() {
+            return errors;
+        }
+    }
+
+    private static class Sample {
+        private final String identifier;
+        private final String path;
+
+        Sample(String identifier, String path) {
+            this.identifier = identifier;
+            this.path = path;
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(JcrReadBenchmark.class);
+
+    private static final DecimalFormat RATE_FORMATTER = new DecimalFormat("#.##");
+
+    /**
+     * Performs the JCR read benchmark.
+     *
+     * @param options the benchmark parameters
+     * @return the results of the benchmark
+     * @throws RepositoryException if the nodes cannot be sampled
+     * @throws InterruptedException if the current thread is interrupted while waiting for the workers
+     */
+    public static Result perform(Options options) throws RepositoryException, InterruptedException {
+        if (options.threads < 1 || options.sampleSize < 1 || options.duration < 1) {
+            throw new IllegalArgumentException("The threads, sample size and duration must be positive");
+        }
+        int totalWeight = 0;
+        for (int weight : options.weights.values()) {
+            totalWeight += Math.max(weight, 0);
+        }
+        if (totalWeight == 0) {
+            throw new IllegalArgumentException("At least one operation type must have a positive weight");
+        }
+
+        Result result = new Result(options.threads);
+        List<Sample> samples = sample(options);
+        result.sampleSize = samples.size();
+        if (samples.isEmpty()) {
+            result.errors.add("No node found under " + options.rootPath);
+            return result;
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(options.threads, runnable -> {
+            Thread thread = new Thread(runnable, "tools-jcr-read-benchmark-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            result.evictedBundles = evict(samples, options.workspace);
+            result.phases.add(runPhase("Cold", true, samples, options, executor, result));
+            result.phases.add(runPhase("Warm", false, samples, options, executor, result));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<BenchmarkHistory.Metric> metrics = new ArrayList<>();
+        for (PhaseResult phase : result.phases) {
+            for (OperationResult operation : phase.getOperations()) {
+                if (operation.latency.getCount() > 0) {
+                    metrics.add(operation.latency.toMetric(phase.name + ": " + operation.getName())
+                            .rate(operation.latency.getCount() * 1000d / Math.max(phase.elapsed, 1), "ops/sec"));
+                }
+            }
+        }
+        if (!metrics.isEmpty()) {
+            BenchmarkHistory.record("jcr-read", "workspace=" + options.workspace + " locale=" + options.locale + " rootPath="
+                    + options.rootPath + " sampleSize=" + options.sampleSize + " threads=" + options.threads + " duration="
+                    + options.duration + " query=" + options.query + " weights=" + options.weights, metrics);
+        }
+        return result;
+    }
+
+    private static List<Sample> sample(Options options) throws RepositoryException {
+        return JCRTemplate.getInstance().doExecuteWithSystemSessionAsUser(null, options.workspace, options.locale, session -> {
+            Query query = session.getWorkspace().getQueryManager().createQuery(
+                    "SELECT * FROM [nt:base] AS n WHERE ISDESCENDANTNODE(n, [" + options.rootPath + "])", Query.JCR_SQL2);
+            NodeIterator nodes = query.execute().getNodes();
+            long size = nodes.getSize();
+            List<Sample> samples = new ArrayList<>(options.sampleSize);
+            if (size < 0) {
+                // unknown result size: reservoir sampling over all the results, which loads all of them
+                int seen = 0;
+                for (; nodes.hasNext(); seen++) {
+                    JCRNodeWrapper node = (JCRNodeWrapper) nodes.nextNode();
+                    Sample sample = new Sample(node.getIdentifier(), node.getPath());
+                    if (samples.size() < options.sampleSize) {
+                        samples.add(sample);
+                    } else {
+                        int position = ThreadLocalRandom.current().nextInt(seen + 1);
+                        if (position < options.sampleSize) {
+                            samples.set(position, sample);
+                        }
+                    }
+                }
+                return samples;
+            }
+            // only the nodes at the picked positions are loaded, the other results are skipped
+            long position = 0;
+            for (long picked : pickPositions(size, options.sampleSize)) {
+                nodes.skip(picked - position);
+                if (!nodes.hasNext()) {
+                    break;
+                }
+                JCRNodeWrapper node = (JCRNodeWrapper) nodes.nextNode();
+                samples.add(new Sample(node.getIdentifier(), node.getPath()));
+                position = picked + 1;
+            }
+            Collections.shuffle(samples);
+            return samples;
+        });
+    }
+
+    /**
+     * Picks distinct positions uniformly at random, with Floyd's algorithm.
+     */
+    private static SortedSet<Long> pickPositions(long size, int count) {
+        SortedSet<Long> positions = new TreeSet<>();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (long j = size - Math.min(count, size); j < size; j++) {
+            long candidate = random.nextLong(j + 1);
+            positions.add(positions.contains(candidate) ? j : candidate);
+        }
+        return positions;
+    }
+
+    /**
+     * Removes the bundles of the sampled nodes from the bundle cache of the workspace, so that the cold phase reads them
+     * from the database.
+     *
+     * @return the number of evicted bundles, -1 if the bundle cache is not accessible
+     */
+    @SuppressWarnings("unchecked")
+    private static int evict(List<Sample> samples, String workspace) {
+        ConcurrentCache<NodeId, ?> cache;
+        try {
+            cache = (ConcurrentCache<NodeId, ?>) BundleCacheMonitor.getBundleCache(workspace);
+        } catch (IllegalAccessException | RuntimeException e) {
+            logger.warn("Unable to access the bundle cache of the workspace " + workspace + ". Cause: " + e.getMessage(), e);
+            return -1;
+        }
+        int evicted = 0;
+        for (Sample sample : samples) {
+            try {
+                if (cache.remove(NodeId.valueOf(sample.identifier)) != null) {
+                    evicted++;
+                }
+            } catch (IllegalArgumentException e) {
+                // not a Jackrabbit node identifier, e.g. a node of an external provider
+            }
+        }
+        return evicted;
+    }
+
+    private static PhaseResult runPhase(String name, boolean cold, List<Sample> samples, Options options, ExecutorService executor,
+            Result result) throws InterruptedException {
+        PhaseResult phase = new PhaseResult(name);
+        List<Sample> order = new ArrayList<>(samples);
+        Collections.shuffle(order);
+        AtomicInteger next = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        long deadline = start + options.duration * 1000L;
+
+        List<Future<?>> workers = new ArrayList<>(options.threads);
+        for (int i = 0; i < options.threads; i++) {
+            int worker = i;
+            workers.add(executor.submit(() -> {
+                try {
+                    int index = 0;
+                    while (System.currentTimeMillis() < deadline) {
+                        if (cold && (index = next.getAndIncrement()) >= order.size()) {
+                            break;
+                        }
+                        Sample sample = cold ? order.get(index) : samples.get(ThreadLocalRandom.current().nextInt(samples.size()));
+                        // a new session per operation in both phases, so that only the shared caches differ
+                        JCRTemplate.getInstance().doExecuteWithSystemSessionAsUser(null, options.workspace, options.locale, session -> {
+                            execute(session, sample, options, phase);
+                            return null;
+                        });
+                    }
+                } catch (RepositoryException | RuntimeException e) {
+                    logger.warn("Error in JCR read benchmark worker " + worker + ". Cause: " + e.getMessage(), e);
+                    result.errors.add(name + " phase, worker " + worker + ": " + e.getMessage());
+                }
+            }));
+        }
+        for (Future<?> worker : workers) {
+            try {
+                worker.get();
+            } catch (ExecutionException e) {
+                // already handled by the worker
+            }
+        }
+        phase.elapsed = System.currentTimeMillis() - start;
+        for (OperationResult operation : phase.operations.values()) {
+            operation.elapsed = phase.elapsed;
+        }
+        return phase;
+    }
+
+    private static OperationType pickOperation(Options options) {
+        int total = 0;
+        for (int weight : options.weights.values()) {
+            total += Math.max(weight, 0);
+        }
+        int value = ThreadLocalRandom.current().nextInt(total);
+        for (Map.Entry<OperationType, Integer> weight : options.weights.entrySet()) {
+            value -= Math.max(weight.getValue(), 0);
+            if (value < 0) {
+                return weight.getKey();
+            }
+        }
+        return OperationType.IDENTIFIER;
+    }
+
+    private static void execute(JCRSessionWrapper session, Sample sample, Options options, PhaseResult phase) {
+        OperationType type = pickOperation(options);
+        OperationResult operation = phase.operations.get(type);
+        long start = System.nanoTime();
+        try {
+            switch (type) {
+                case IDENTIFIER:
+                    session.getNodeByIdentifier(sample.identifier);
+                    break;
+                case PATH:
+                    session.getNode(sample.path);
+                    break;
+                case QUERY:
+                    String parentPath = StringUtils.defaultIfEmpty(StringUtils.substringBeforeLast(sample.path, "/"), "/");
+                    Query query = session.getWorkspace().getQueryManager().createQuery(
+                            StringUtils.replace(options.query, "{path}", parentPath), Query.JCR_SQL2);
+                    query.setLimit(options.queryLimit);
+                    for (NodeIterator nodes = query.execute().getNodes(); nodes.hasNext(); ) {
+                        nodes.nextNode();
+                    }
+                    break;
+                case PROPERTIES:
+                    for (PropertyIterator properties = session.getNodeByIdentifier(sample.identifier).getProperties(); properties.hasNext(); ) {
+                        Property property = properties.nextProperty();
+                        if (property.getType() == PropertyType.BINARY) {
+                            continue;
+                        }
+                        if (property.isMultiple()) {
+                            property.getValues();
+                        } else {
+                            property.getString();
+                        }
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported operation " + type);
+            }
+            operation.latency.add(System.nanoTime() - start);
+        } catch (RepositoryException e) {
+            operation.errors.incrementAndGet();
+        }
+    }
+
+    private JcrReadBenchmark() {
+        super();
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.benchmark;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.PathNotFoundException;
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.lang.StringUtils;
+import org.jahia.services.content.JCRNodeWrapper;
+import org.jahia.services.content.JCRSessionWrapper;
+import org.jahia.services.content.JCRTemplate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Utility for benchmarking JCR writes. Worker threads of a fixed size pool each create their share of the nodes under
+ * their own folder of a temporary <code>/jcr-write-benchmark&lt;serverId&gt;</code> node, saving the session every
+ * batch of nodes. The nodes are spread in a tree of sub-folders according to the configured fan-out and depth, and get
+ * a string property of the configured size. The latency of each save is collected and recorded in the
+ * {@link BenchmarkHistory}, the temporary node is removed at the end.
+ */
+public final class JcrWriteBenchmark {
+
+    /**
+     * Benchmark parameters.
+     */
+    public static class Options {
+        private String workspace = "default";
+        private int threads = 10;
+        private int nodes = 10000;
+        private int batchSize = 1;
+        private String nodeType = "nt:unstructured";
+        private String propertyName = "payload";
+        private int payloadSize = 100;
+        private int fanout = 100;
+        private int depth = 1;
+        private int maxDuration;
+
+        /**
+         * @param workspace the workspace to write to
+         * @return this instance
+         */
+        public Options workspace(String workspace) {
+            this.workspace = workspace;
+            return this;
+        }
+
+        /**
+         * @param threads the number of concurrent writers
+         * @return this instance
+         */
+        public Options threads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * @param nodes the total number of nodes to create
+         * @return this instance
+         */
+        public Options nodes(int nodes) {
+            this.nodes = nodes;
+            return this;
+        }
+
+        /**
+         * @param batchSize the number of nodes created per save
+         * @return this instance
+         */
+        public Options batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * @param nodeType the primary type of the created nodes
+         * @return this instance
+         */
+        public Options nodeType(String nodeType) {
+            this.nodeType = nodeType;
+            return this;
+        }
+
+        /**
+         * @param propertyName the name of the string property set on the created nodes
+         * @param payloadSize  the length of its value, 0 for no property
+         * @return this instance
+         */
+        public Options payload(String propertyName, int payloadSize) {
+            this.propertyName = propertyName;
+            this.payloadSize = payloadSize;
+            return this;
+        }
+
+        /**
+         * @param fanout the maximum number of children per folder
+         * @param depth  the number of folder levels under the folder of each worker, 0 to create the nodes directly
+         *               under it
+         * @return this instance
+         */
+        public Options tree(int fanout, int depth) {
+            this.fanout = fanout;
+            this.depth = depth;
+            return this;
+        }
+
+        /**
+         * @param maxDuration the maximum duration in seconds after which the workers stop, 0 for none
+         * @return this instance
+         */
+        public Options maxDuration(int maxDuration) {
+            this.maxDuration = maxDuration;
+            return this;
+        }
+    }
+
+    /**
+     * Holds the results of a benchmark.
+     */
+    public static class Result {
+        private final Options options;
+        private final LatencyStats saveLatency = new LatencyStats();
+        private final AtomicLong nodes = new AtomicLong();
+        private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        private long elapsed;
+
+        Result(Options options) {
+            this.options = options;
+        }
+
+        public int getThreads() {
+            return options.threads;
+        }
+
+        public int getBatchSize() {
+            return options.batchSize;
+        }
+
+        public String getNodeType() {
+            return options.nodeType;
+        }
+
+        public int getPayloadSize() {
+            return options.payloadSize;
+        }
+
+        public int getFanout() {
+            return options.fanout;
+        }
+
+        public int getDepth() {
+            return options.depth;
+        }
+
+        /**
+         * @return the number of saved nodes
+         */
+        public long getNodes() {
+            return nodes.get();
+        }
+
+        /**
+         * @return the total elapsed time in milliseconds
+         */
+        public long getElapsed() {
+            return elapsed;
+        }
+
+        public String getNodesPerSecond() {
+            return elapsed > 0 ? RATE_FORMATTER.format(nodes.get() * 1000d / elapsed) : "";
+        }
+
+        public LatencyStats getSaveLatency() {
+            return saveLatency;
+        }
+
+        /**
+         * @return the errors of the workers, at most one per worker
+         */
+        public List<String> getErrors() {
+            return errors;
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(JcrWriteBenchmark.class);
+
+    private static final DecimalFormat RATE_FORMATTER = new DecimalFormat("#.##");
+
+    /**
+     * Performs the JCR write benchmark.
+     *
+     * @param options the benchmark parameters
+     * @return the results of the benchmark
+     * @throws RepositoryException if the temporary node cannot be created or removed
+     * @throws InterruptedException if the current thread is interrupted while waiting for the workers
+     */
+    public static Result perform(Options options) throws RepositoryException, InterruptedException {
+        if (options.threads < 1 || options.nodes < 1 || options.batchSize < 1 || options.fanout < 1 || options.depth < 0) {
+            throw new IllegalArgumentException("The threads, nodes, batch size and fan-out must be positive");
+        }
+        Result result = new Result(options);
+        String rootName = "jcr-write-benchmark" + System.getProperty("cluster.node.serverId", "");
+        String rootPath = "/" + rootName;
+        String payload = options.payloadSize > 0 ? StringUtils.repeat("x", options.payloadSize) : null;
+
+        JCRTemplate.getInstance().doExecuteWithSystemSessionAsUser(null, options.workspace, null, session -> {
+            if (session.nodeExists(rootPath)) {
+                session.getNode(rootPath).remove();
+                session.save();
+            }
+            session.getRootNode().addNode(rootName, "nt:unstructured");
+            session.save();
+            return null;
+        });
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(options.threads, runnable -> {
+            Thread thread = new Thread(runnable, "tools-jcr-write-benchmark-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.currentTimeMillis();
+        long deadline = options.maxDuration > 0 ? start + options.maxDuration * 1000L : Long.MAX_VALUE;
+        try {
+            List<Future<?>> workers = new ArrayList<>(options.threads);
+            for (int i = 0; i < options.threads; i++) {
+                int worker = i;
+                // spread the remainder over the first workers
+                int nodes = options.nodes / options.threads + (i < options.nodes % options.threads ? 1 : 0);
+                workers.add(executor.submit(() -> {
+                    try {
+                        write(rootPath + "/w" + worker, nodes, payload, deadline, options, result);
+                    } catch (RepositoryException | RuntimeException e) {
+                        logger.warn("Error in JCR write benchmark worker " + worker + ". Cause: " + e.getMessage(), e);
+                        result.errors.add("Worker " + worker + ": " + e.getMessage());
+                    }
+                }));
+            }
+            for (Future<?> worker : workers) {
+                try {
+                    worker.get();
+                } catch (ExecutionException e) {
+                    // already handled by the worker
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            result.elapsed = System.currentTimeMillis() - start;
+            if (result.saveLatency.getCount() > 0) {
+                BenchmarkHistory.record("jcr-write", "workspace=" + options.workspace + " threads=" + options.threads + " nodes="
+                        + options.nodes + " batchSize=" + options.batchSize + " nodeType=" + options.nodeType + " payloadSize="
+                        + options.payloadSize + " fanout=" + options.fanout + " depth=" + options.depth + " maxDuration="
+                        + options.maxDuration, Collections.singletonList(result.saveLatency.toMetric("save")
+                        .rate(result.nodes.get() * 1000d / Math.max(result.elapsed, 1), "nodes/sec")));
+            }
+            JCRTemplate.getInstance().doExecuteWithSystemSessionAsUser(null, options.workspace, null, session -> {
+                if (session.nodeExists(rootPath)) {
+                    session.getNode(rootPath).remove();
+                    session.save();
+                }
+                return null;
+            });
+        }
+        return result;
+    }
+
+    private static void write(String workerPath, int nodes, String payload, long deadline, Options options, Result result)
+            throws RepositoryException {
+        JCRTemplate.getInstance().doExecuteWithSystemSessionAsUser(null, options.workspace, null, session -> {
+            session.getNode(StringUtils.substringBeforeLast(workerPath, "/")).addNode(StringUtils.substringAfterLast(workerPath, "/"),
+                    "nt:unstructured");
+            session.save();
+            int pending = 0;
+            for (int i = 0; i < nodes && System.currentTimeMillis() < deadline; i++) {
+                JCRNodeWrapper node = getFolder(session, workerPath, i, options).addNode("n" + i, options.nodeType);
+                if (payload != null) {
+                    node.setProperty(options.propertyName, payload);
+                }
+                if (++pending == options.batchSize || i == nodes - 1) {
+                    save(session, pending, result);
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                save(session, pending, result);
+            }
+            return null;
+        });
+    }
+
+    private static void save(JCRSessionWrapper session, int pending, Result result) throws RepositoryException {
+        long startSave = System.nanoTime();
+        session.save();
+        result.saveLatency.add(System.nanoTime() - startSave);
+        result.nodes.addAndGet(pending);
+        // releases the wrappers of the saved nodes kept by the session
+        session.refresh(false);
+    }
+
+    private static JCRNodeWrapper getFolder(JCRSessionWrapper session, String workerPath, int index, Options options)
+            throws RepositoryException {
+        StringBuilder path = new StringBuilder(workerPath);
+        long folder = index / options.fanout;
+        String[] segments = new String[options.depth];
+        for (int level = options.depth - 1; level >= 0; level--) {
+            // the top level folder takes the overflow when the tree is too small for the number of nodes
+            segments[level] = "f" + (level == 0 ? folder : folder % options.fanout);
+            folder /= options.fanout;
+        }
+        JCRNodeWrapper parent = session.getNode(workerPath);
+        for (String segment : segments) {
+            path.append('/').append(segment);
+            try {
+                parent = session.getNode(path.toString());
+            } catch (PathNotFoundException e) {
+                parent = parent.addNode(segment, "nt:unstructured");
+            }
+        }
+        return parent;
+    }
+
+    private JcrWriteBenchmark() {
+        super();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.benchmark;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.math.stat.descriptive.DescriptiveStatistics;
+
+/**
+ * Thread safe collector of operation latencies in nanoseconds, providing the percentiles and a histogram with
+ * logarithmic buckets in milliseconds.
+ */
+public class LatencyStats {
+
+    private static final long[] BUCKETS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000 };
+
+    private final DescriptiveStatistics latencies = new DescriptiveStatistics();
+
+    private final long[] counts = new long[BUCKETS.length + 1];
+
+    /**
+     * @param latency the latency of an operation in nanoseconds
+     */
+    public synchronized void add(long latency) {
+        latencies.addValue(latency);
+        int bucket = 0;
+        while (bucket < BUCKETS.length && latency >= BUCKETS[bucket] * 1000000L) {
+            bucket++;
+        }
+        counts[bucket]++;
+    }
+
+    public synchronized long getCount() {
+        return latencies.getN();
+    }
+
+    public synchronized DatabaseBenchmark.StatValue getMin() {
+        return new DatabaseBenchmark.StatValue(latencies.getMin());
+    }
+
+    public synchronized DatabaseBenchmark.StatValue getMean() {
+        return new DatabaseBenchmark.StatValue(latencies.getMean());
+    }
+
+    public synchronized DatabaseBenchmark.StatValue getP50() {
+        return new DatabaseBenchmark.StatValue(latencies.getPercentile(50));
+    }
+
+    public synchronized DatabaseBenchmark.StatValue getP90() {
+        return new DatabaseBenchmark.StatValue(latencies.getPercentile(90));
+    }
+
+    public synchronized DatabaseBenchmark.StatValue getP99() {
+        return new DatabaseBenchmark.StatValue(latencies.getPercentile(99));
+    }
+
+    public synchronized DatabaseBenchmark.StatValue getMax() {
+        return new DatabaseBenchmark.StatValue(latencies.getMax());
+    }
+
+    /**
+     * @param name the name of the operation
+     * @return the statistics to record in the benchmark history
+     */
+    synchronized BenchmarkHistory.Metric toMetric(String name) {
+        return new BenchmarkHistory.Metric(name, latencies);
+    }
+
+    /**
+     * Returns the number of operations per latency range, up to the highest non empty range.
+     *
+     * @return the number of operations by latency range label
+     */
+    public synchronized Map<String, Long> getHistogram() {
+        int last = counts.length - 1;
+        while (last > 0 && counts[last] == 0) {
+            last--;
+        }
+        Map<String, Long> histogram = new LinkedHashMap<>();
+        for (int i = 0; i <= last; i++) {
+            histogram.put(i < BUCKETS.length ? "< " + BUCKETS[i] + " ms" : ">= " + BUCKETS[BUCKETS.length - 1] + " ms", counts[i]);
+        }
+        return histogram;
+    }
+}
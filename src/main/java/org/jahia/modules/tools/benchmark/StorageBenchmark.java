@@ -0,0 +1,649 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.math.stat.descriptive.DescriptiveStatistics;
+import org.apache.jackrabbit.core.JahiaRepositoryImpl;
+import org.apache.jackrabbit.core.data.DataStore;
+import org.apache.jackrabbit.core.data.FileDataStore;
+import org.jahia.services.content.JCRSessionFactory;
+import org.jahia.services.content.impl.jackrabbit.SpringJackrabbitRepository;
+import org.jahia.settings.SettingsBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Utility for benchmarking the storage behind the folders used by the JCR repository: the file data store, the search
+ * indexes in the repository home and the temporary folder. For each folder, the benchmark works in a
+ * <code>tools-benchmark-&lt;serverId&gt;</code> sub-folder, deleted at the end, and measures:
+ * <ul>
+ * <li>sequential writes and reads of a test file with a {@link FileChannel}, the writes being forced to the storage at
+ * the end</li>
+ * <li>random 4K reads and synchronous random 4K writes</li>
+ * <li>the fsync latency of small appends</li>
+ * <li>the creation, stat and deletion rates of small files</li>
+ * <li>sequential and random reads bypassing the page cache, when the JVM and the file system support direct I/O</li>
+ * <li>sequential reads of the test file through a heap buffer, a direct buffer, a memory mapping and
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)} to <code>/dev/null</code>, at block sizes from 4K to
+ * 1M, in a random order, to compare how fast each of them delivers the data to the JVM; the test file being in the page
+ * cache, they measure memory copies rather than the storage throughput</li>
+ * </ul>
+ * The latency of each operation is collected to compute percentiles and recorded in the {@link BenchmarkHistory}, the
+ * sizes and counts can be changed with the <code>jahiaTools.benchmarkStorage.*</code> properties.
+ */
+public final class StorageBenchmark {
+
+    /**
+     * Holds the statistics of a benchmarked operation.
+     */
+    public static class Operation {
+        private final String name;
+        private final DescriptiveStatistics latencies = new DescriptiveStatistics();
+        private long bytes;
+        private long elapsed;
+
+        Operation(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return latencies.getN();
+        }
+
+        /**
+         * @return the number of bytes transferred by the operation
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the total elapsed time in nanoseconds
+         */
+        public long getElapsed() {
+            return elapsed;
+        }
+
+        /**
+         * @return the throughput in MB/sec or an empty string if the operation does not transfer data
+         */
+        public String getThroughput() {
+            return bytes > 0 && elapsed > 0 ? RATE_FORMATTER.format(bytes / (1024.0 * 1024.0) / (elapsed / 1000000000d)) : "";
+        }
+
+        public String getOperationsPerSecond() {
+            return elapsed > 0 ? RATE_FORMATTER.format(latencies.getN() / (elapsed / 1000000000d)) : "";
+        }
+
+        public DatabaseBenchmark.StatValue getMin() {
+            return new DatabaseBenchmark.StatValue(latencies.getMin());
+        }
+
+        public DatabaseBenchmark.StatValue getMean() {
+            return new DatabaseBenchmark.StatValue(latencies.getMean());
+        }
+
+        public DatabaseBenchmark.StatValue getP50() {
+            return new DatabaseBenchmark.StatValue(latencies.getPercentile(50));
+        }
+
+        public DatabaseBenchmark.StatValue getP90() {
+            return new DatabaseBenchmark.StatValue(latencies.getPercentile(90));
+        }
+
+        public DatabaseBenchmark.StatValue getP99() {
+            return new DatabaseBenchmark.StatValue(latencies.getPercentile(99));
+        }
+
+        public DatabaseBenchmark.StatValue getMax() {
+            return new DatabaseBenchmark.StatValue(latencies.getMax());
+        }
+
+        void add(long latency) {
+            latencies.addValue(latency);
+        }
+
+        BenchmarkHistory.Metric toMetric() {
+            BenchmarkHistory.Metric metric = new BenchmarkHistory.Metric(name, latencies);
+            double seconds = elapsed / 1000000000d;
+            if (seconds > 0) {
+                metric.rate(bytes > 0 ? bytes / (1024.0 * 1024.0) / seconds : latencies.getN() / seconds, bytes > 0 ? "MB/sec" : "ops/sec");
+            }
+            return metric;
+        }
+    }
+
+    /**
+     * Holds the results of the benchmark of a folder.
+     */
+    public static class Result {
+        private final File directory;
+        private String fileStore;
+        private final List<Operation> operations = new ArrayList<>();
+        private final List<Integer> blockSizes = new ArrayList<>();
+        private final Map<String, List<Operation>> readModes = new LinkedHashMap<>();
+        private final List<String> messages = new ArrayList<>();
+
+        Result(File directory) {
+            this.directory = directory;
+        }
+
+        public File getDirectory() {
+            return directory;
+        }
+
+        /**
+         * @return the name and type of the file store of the folder
+         */
+        public String getFileStore() {
+            return fileStore;
+        }
+
+        public List<Operation> getOperations() {
+            return operations;
+        }
+
+        /**
+         * @return the block sizes in bytes of the read mode comparison
+         */
+        public List<Integer> getBlockSizes() {
+            return blockSizes;
+        }
+
+        /**
+         * @return the sequential reads per read mode label, one per block size in the order of {@link #getBlockSizes()}
+         */
+        public Map<String, List<Operation>> getReadModes() {
+            return readModes;
+        }
+
+        /**
+         * @return the skipped tests and the errors
+         */
+        public List<String> getMessages() {
+            return messages;
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(StorageBenchmark.class);
+
+    private static final DecimalFormat RATE_FORMATTER = new DecimalFormat("#.##");
+
+    private static final int BLOCK_SIZE = 1024 * 1024;
+
+    private static final int PAGE_SIZE = 4096;
+
+    private static final Path NULL_DEVICE = Paths.get("/dev/null");
+
+    /**
+     * The ways the test file is read to compare them.
+     */
+    private enum ReadMode {
+        HEAP("Heap buffer"), DIRECT("Direct buffer"), MAPPED("Memory mapped"), TRANSFER_TO("transferTo");
+
+        private final String label;
+
+        ReadMode(String label) {
+            this.label = label;
+        }
+    }
+
+    private static int getProperty(String name, int defaultValue) {
+        return Integer.parseInt(SettingsBean.getInstance().getPropertiesFile()
+                .getProperty("jahiaTools.benchmarkStorage." + name, String.valueOf(defaultValue)));
+    }
+
+    private static List<Integer> getBlockSizes() {
+        List<Integer> blockSizes = new ArrayList<>();
+        for (String size : SettingsBean.getInstance().getPropertiesFile()
+                .getProperty("jahiaTools.benchmarkStorage.blockSizes", "4,16,64,256,1024").split(",")) {
+            blockSizes.add(Integer.parseInt(size.trim()) * 1024);
+        }
+        Collections.sort(blockSizes);
+        return blockSizes;
+    }
+
+    /**
+     * Returns the folders that can be benchmarked, by label: the file data store if any, the repository home holding
+     * the search indexes and the temporary folder.
+     *
+     * @return the folders that can be benchmarked
+     */
+    public static Map<String, File> getTargets() {
+        Map<String, File> targets = new LinkedHashMap<>();
+        try {
+            DataStore dataStore = ((JahiaRepositoryImpl) ((SpringJackrabbitRepository) JCRSessionFactory.getInstance()
+                    .getDefaultProvider().getRepository()).getRepository()).getContext().getDataStore();
+            if (dataStore instanceof FileDataStore) {
+                targets.put("Data store", new File(((FileDataStore) dataStore).getPath()));
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Unable to get the JCR data store. Cause: " + e.getMessage(), e);
+        }
+        targets.put("Repository home (search indexes)", SettingsBean.getInstance().getRepositoryHome());
+        targets.put("Temporary folder", new File(System.getProperty("java.io.tmpdir")));
+        return targets;
+    }
+
+    /**
+     * Performs the storage benchmark in the specified folder.
+     *
+     * @param directory the folder to benchmark
+     * @return the results of the benchmark
+     */
+    public static Result perform(File directory) {
+        Result result = new Result(directory);
+        Path workDir = new File(directory, "tools-benchmark-" + System.getProperty("cluster.node.serverId", "")).toPath();
+        long fileSize = getProperty("fileSize", 128) * 1024L * 1024L;
+        int randomOperations = getProperty("randomOperations", 2000);
+        try {
+            FileStore store = Files.getFileStore(directory.toPath());
+            result.fileStore = store.name() + " (" + store.type() + ")";
+            Files.createDirectories(workDir);
+            Path file = workDir.resolve("sequential.bin");
+
+            result.operations.add(sequentialWrite(file, fileSize));
+            result.operations.add(sequentialRead(file));
+            result.operations.add(randomRead(file, randomOperations));
+            result.operations.add(randomWrite(file, randomOperations));
+            result.operations.add(fsync(workDir.resolve("fsync.bin"), getProperty("fsyncOperations", 200)));
+            result.operations.addAll(smallFiles(workDir.resolve("small"), getProperty("smallFiles", 1000)));
+
+            result.blockSizes.addAll(getBlockSizes());
+            compareReadModes(file, result);
+
+            OpenOption direct = getDirectOpenOption();
+            if (direct == null) {
+                result.messages.add("Cache bypassing reads skipped: direct I/O is not available in the JVM");
+            } else {
+                try {
+                    int alignment = (int) Math.max(store.getBlockSize(), PAGE_SIZE);
+                    result.operations.add(directSequentialRead(file, direct, alignment));
+                    result.operations.add(directRandomRead(file, direct, alignment, randomOperations));
+                } catch (IOException | UnsupportedOperationException e) {
+                    result.messages.add("Cache bypassing reads skipped: direct I/O is not supported by the file system ("
+                            + e.getMessage() + ")");
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Error executing storage benchmark in " + directory + ". Cause: " + e.getMessage(), e);
+            result.messages.add("Error: " + e.getMessage());
+        } finally {
+            FileUtils.deleteQuietly(workDir.toFile());
+        }
+
+        List<BenchmarkHistory.Metric> metrics = new ArrayList<>();
+        for (Operation operation : result.operations) {
+            metrics.add(operation.toMetric());
+        }
+        for (List<Operation> reads : result.readModes.values()) {
+            for (Operation operation : reads) {
+                metrics.add(operation.toMetric());
+            }
+        }
+        if (!metrics.isEmpty()) {
+            BenchmarkHistory.record("storage", directory + " fileSize=" + fileSize / (1024 * 1024) + "MB randomOperations="
+                    + randomOperations + " blockSizes=" + result.blockSizes, metrics);
+        }
+        return result;
+    }
+
+    private static ByteBuffer randomBuffer(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.capacity()];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static long randomPosition(long fileSize, int alignment) {
+        return ThreadLocalRandom.current().nextLong(fileSize / alignment) * alignment;
+    }
+
+    private static Operation sequentialWrite(Path file, long fileSize) throws IOException {
+        Operation operation = new Operation("Sequential write (1M blocks, forced at the end)");
+        ByteBuffer buffer = randomBuffer(ByteBuffer.allocate(BLOCK_SIZE));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            long start = System.nanoTime();
+            while (operation.bytes < fileSize) {
+                buffer.rewind();
+                long startWrite = System.nanoTime();
+                while (buffer.hasRemaining()) {
+                    operation.bytes += channel.write(buffer);
+                }
+                operation.add(System.nanoTime() - startWrite);
+            }
+            channel.force(true);
+            operation.elapsed = System.nanoTime() - start;
+        }
+        return operation;
+    }
+
+    private static Operation sequentialRead(Path file) throws IOException {
+        Operation operation = new Operation("Sequential read (1M blocks)");
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long start = System.nanoTime();
+            while (true) {
+                buffer.clear();
+                long startRead = System.nanoTime();
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    break;
+                }
+                operation.add(System.nanoTime() - startRead);
+                operation.bytes += read;
+            }
+            operation.elapsed = System.nanoTime() - start;
+        }
+        return operation;
+    }
+
+    /**
+     * Reads the test file with each read mode and block size, in a random order, after an unmeasured read so that no
+     * combination is penalised by being the first one to read the file.
+     */
+    private static void compareReadModes(Path file, Result result) throws IOException {
+        List<ReadMode> modes = new ArrayList<>(Arrays.asList(ReadMode.values()));
+        if (!Files.isWritable(NULL_DEVICE)) {
+            modes.remove(ReadMode.TRANSFER_TO);
+            result.messages.add("transferTo reads skipped: " + NULL_DEVICE + " is not available");
+        }
+        List<Object[]> runs = new ArrayList<>();
+        for (ReadMode mode : modes) {
+            for (int i = 0; i < result.blockSizes.size(); i++) {
+                runs.add(new Object[] { mode, i });
+            }
+        }
+        Collections.shuffle(runs);
+
+        sequentialRead(file);
+        Map<ReadMode, Operation[]> reads = new EnumMap<>(ReadMode.class);
+        for (Object[] run : runs) {
+            ReadMode mode = (ReadMode) run[0];
+            int index = (Integer) run[1];
+            reads.computeIfAbsent(mode, key -> new Operation[result.blockSizes.size()])[index] = read(file, mode,
+                    result.blockSizes.get(index));
+        }
+        for (Map.Entry<ReadMode, Operation[]> mode : reads.entrySet()) {
+            result.readModes.put(mode.getKey().label, Arrays.asList(mode.getValue()));
+        }
+        result.messages.add("The read modes are compared on the test file just written and read, so the reads are mostly served"
+                + " from the page cache: they compare the delivery of cached data to the JVM, not the storage throughput,"
+                + " which the cache bypassing reads measure");
+    }
+
+    private static Operation read(Path file, ReadMode mode, int blockSize) throws IOException {
+        Operation operation = new Operation(mode.label + " (" + blockSize / 1024 + "K blocks)");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            long start = System.nanoTime();
+            switch (mode) {
+                case HEAP:
+                case DIRECT:
+                    ByteBuffer buffer = mode == ReadMode.DIRECT ? ByteBuffer.allocateDirect(blockSize) : ByteBuffer.allocate(blockSize);
+                    for (long position = 0; position < fileSize; ) {
+                        buffer.clear();
+                        long startRead = System.nanoTime();
+                        int read = channel.read(buffer, position);
+                        operation.add(System.nanoTime() - startRead);
+                        position += read;
+                        operation.bytes += read;
+                    }
+                    break;
+                case MAPPED:
+                    byte[] block = new byte[blockSize];
+                    // mapped in 1G regions, released by the garbage collector
+                    for (long regionStart = 0; regionStart < fileSize; regionStart += 1L << 30) {
+                        MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart,
+                                Math.min(1L << 30, fileSize - regionStart));
+                        while (region.hasRemaining()) {
+                            int length = Math.min(blockSize, region.remaining());
+                            long startRead = System.nanoTime();
+                            region.get(block, 0, length);
+                            operation.add(System.nanoTime() - startRead);
+                            operation.bytes += length;
+                        }
+                    }
+                    break;
+                case TRANSFER_TO:
+                    // a file channel target lets the JDK use the zero-copy transfer (sendfile) of the operating system
+                    try (FileChannel sink = FileChannel.open(NULL_DEVICE, StandardOpenOption.WRITE)) {
+                        for (long position = 0; position < fileSize; ) {
+                            long startRead = System.nanoTime();
+                            long transferred = channel.transferTo(position, blockSize, sink);
+                            operation.add(System.nanoTime() - startRead);
+                            position += transferred;
+                            operation.bytes += transferred;
+                        }
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported read mode " + mode);
+            }
+            operation.elapsed = System.nanoTime() - start;
+        }
+        return operation;
+    }
+
+    private static Operation randomRead(Path file, int count) throws IOException {
+        Operation operation = new Operation("Random read (4K)");
+        ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                buffer.clear();
+                long position = randomPosition(fileSize, PAGE_SIZE);
+                long startRead = System.nanoTime();
+                operation.bytes += channel.read(buffer, position);
+                operation.add(System.nanoTime() - startRead);
+            }
+            operation.elapsed = System.nanoTime() - start;
+        }
+        return operation;
+    }
+
+    private static Operation randomWrite(Path file, int count) throws IOException {
+        Operation operation = new Operation("Random write (4K, synchronous)");
+        ByteBuffer buffer = randomBuffer(ByteBuffer.allocate(PAGE_SIZE));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.DSYNC)) {
+            long fileSize = channel.size();
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                buffer.rewind();
+                long position = randomPosition(fileSize, PAGE_SIZE);
+                long startWrite = System.nanoTime();
+                operation.bytes += channel.write(buffer, position);
+                operation.add(System.nanoTime() - startWrite);
+            }
+            operation.elapsed = System.nanoTime() - start;
+        }
+        return operation;
+    }
+
+    private static Operation fsync(Path file, int count) throws IOException {
+        Operation operation = new Operation("Append and fsync (4K)");
+        ByteBuffer buffer = randomBuffer(ByteBuffer.allocate(PAGE_SIZE));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                buffer.rewind();
+                long startWrite = System.nanoTime();
+                operation.bytes += channel.write(buffer);
+                channel.force(false);
+                operation.add(System.nanoTime() - startWrite);
+            }
+            operation.elapsed = System.nanoTime() - start;
+        }
+        return operation;
+    }
+
+    private static List<Operation> smallFiles(Path dir, int count) throws IOException {
+        Operation create = new Operation("Small file create (4K)");
+        Operation stat = new Operation("Small file stat");
+        Operation delete = new Operation("Small file delete");
+        Files.createDirectories(dir);
+        byte[] content = new byte[PAGE_SIZE];
+        ThreadLocalRandom.current().nextBytes(content);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            long startCreate = System.nanoTime();
+            Files.write(dir.resolve("file" + i), content, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            create.add(System.nanoTime() - startCreate);
+            create.bytes += content.length;
+        }
+        create.elapsed = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            long startStat = System.nanoTime();
+            Files.readAttributes(dir.resolve("file" + i), BasicFileAttributes.class);
+            stat.add(System.nanoTime() - startStat);
+        }
+        stat.elapsed = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            long startDelete = System.nanoTime();
+            Files.delete(dir.resolve("file" + i));
+            delete.add(System.nanoTime() - startDelete);
+        }
+        delete.elapsed = System.nanoTime() - start;
+
+        List<Operation> operations = new ArrayList<>(3);
+        operations.add(create);
+        operations.add(stat);
+        operations.add(delete);
+        return operations;
+    }
+
+    private static Operation directSequentialRead(Path file, OpenOption direct, int alignment) throws IOException {
+        Operation operation = new Operation("Sequential read bypassing the cache (1M blocks)");
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BLOCK_SIZE + alignment).alignedSlice(alignment);
+        buffer.limit(BLOCK_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, direct)) {
+            long fileSize = channel.size() / BLOCK_SIZE * BLOCK_SIZE;
+            long start = System.nanoTime();
+            for (long position = 0; position < fileSize; position += BLOCK_SIZE) {
+                buffer.clear().limit(BLOCK_SIZE);
+                long startRead = System.nanoTime();
+                operation.bytes += channel.read(buffer, position);
+                operation.add(System.nanoTime() - startRead);
+            }
+            operation.elapsed = System.nanoTime() - start;
+        }
+        return operation;
+    }
+
+    private static Operation directRandomRead(Path file, OpenOption direct, int alignment, int count) throws IOException {
+        Operation operation = new Operation("Random read bypassing the cache (" + alignment / 1024 + "K)");
+        ByteBuffer buffer = ByteBuffer.allocateDirect(alignment * 2).alignedSlice(alignment);
+        buffer.limit(alignment);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, direct)) {
+            long fileSize = channel.size();
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                buffer.clear().limit(alignment);
+                long position = randomPosition(fileSize, alignment);
+                long startRead = System.nanoTime();
+                operation.bytes += channel.read(buffer, position);
+                operation.add(System.nanoTime() - startRead);
+            }
+            operation.elapsed = System.nanoTime() - start;
+        }
+        return operation;
+    }
+
+    /**
+     * The JDK direct I/O option is not part of the standard API, so it is looked up to avoid depending on it.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static OpenOption getDirectOpenOption() {
+        try {
+            return (OpenOption) Enum.valueOf((Class<Enum>) Class.forName("com.sun.nio.file.ExtendedOpenOption"), "DIRECT");
+        } catch (ClassNotFoundException | IllegalArgumentException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a formatted string representation of the storage benchmark results.
+     *
+     * @param result the benchmark results
+     * @return the formatted string representation of the storage benchmark results
+     */
+    public static String resultToString(Result result) {
+        StringBuilder out = new StringBuilder(1024);
+        out.append("Storage benchmark of ").append(result.getDirectory()).append(" on ").append(result.getFileStore()).append("\n");
+        for (Operation operation : result.getOperations()) {
+            out.append("\t* ").append(operation.getName()).append(": ").append(operation.getCount()).append(" operations, ")
+                    .append(operation.getOperationsPerSecond()).append(" ops/sec");
+            if (operation.getBytes() > 0) {
+                out.append(", ").append(operation.getThroughput()).append(" MB/sec");
+            }
+            out.append(", 50% line: ").append(operation.getP50().getMillis()).append(" ms, 99% line: ")
+                    .append(operation.getP99().getMillis()).append(" ms, max: ").append(operation.getMax().getMillis()).append(" ms\n");
+        }
+        for (Map.Entry<String, List<Operation>> mode : result.getReadModes().entrySet()) {
+            out.append("\t* ").append(mode.getKey()).append(" sequential read:");
+            for (int i = 0; i < mode.getValue().size(); i++) {
+                out.append(" ").append(result.getBlockSizes().get(i) / 1024).append("K: ").append(mode.getValue().get(i).getThroughput())
+                        .append(" MB/sec;");
+            }
+            out.append("\n");
+        }
+        for (String message : result.getMessages()) {
+            out.append("\t* ").append(message).append("\n");
+        }
+        return out.toString();
+    }
+
+    private StorageBenchmark() {
+        super();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.cache;
+
+/**
+ * Estimated heap footprint of a cache, extrapolated from the deep size of a random sample of its elements.
+ */
+public class CacheFootprint {
+
+    private final String cacheManagerName;
+    private final String cacheName;
+    private final long time;
+    private final long entries;
+    private final int sampledEntries;
+    private final int truncatedEntries;
+    private final int skippedEntries;
+    private final double meanEntrySize;
+    private final long estimatedSize;
+    private final long lowerBound;
+    private final long upperBound;
+
+    CacheFootprint(String cacheManagerName, String cacheName, long time, long entries, int sampledEntries, int truncatedEntries,
+            int skippedEntries, double meanEntrySize, double marginOfError) {
+        this.cacheManagerName = cacheManagerName;
+        this.cacheName = cacheName;
+        this.time = time;
+        this.entries = entries;
+        this.sampledEntries = sampledEntries;
+        this.truncatedEntries = truncatedEntries;
+        this.skippedEntries = skippedEntries;
+        this.meanEntrySize = meanEntrySize;
+        this.estimatedSize = Math.round(entries * meanEntrySize);
+        this.lowerBound = Math.max(0, Math.round(entries * (meanEntrySize - marginOfError)));
+        this.upperBound = Math.round(entries * (meanEntrySize + marginOfError));
+    }
+
+    public String getCacheManagerName() {
+        return cacheManagerName;
+    }
+
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    /**
+     * @return the time of the estimation
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return the number of entries in the cache memory store
+     */
+    public long getEntries() {
+        return entries;
+    }
+
+    public int getSampledEntries() {
+        return sampledEntries;
+    }
+
+    /**
+     * @return the number of sampled entries whose object graph exceeded the walk limit, so their size is underestimated
+     */
+    public int getTruncatedEntries() {
+        return truncatedEntries;
+    }
+
+    /**
+     * @return the number of sampled entries that could not be walked, e.g. as they were modified concurrently; they
+     * are left out of the sample
+     */
+    public int getSkippedEntries() {
+        return skippedEntries;
+    }
+
+    public double getMeanEntrySize() {
+        return meanEntrySize;
+    }
+
+    /**
+     * @return the estimated heap size of the cache in bytes
+     */
+    public long getEstimatedSize() {
+        return estimatedSize;
+    }
+
+    /**
+     * @return the lower bound of the 95% confidence interval of the heap size in bytes
+     */
+    public long getLowerBound() {
+        return lowerBound;
+    }
+
+    /**
+     * @return the upper bound of the 95% confidence interval of the heap size in bytes
+     */
+    public long getUpperBound() {
+        return upperBound;
+    }
+}
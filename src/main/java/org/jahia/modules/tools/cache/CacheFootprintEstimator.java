@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.cache;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates the heap held by each Ehcache cache. For each cache, the deep size of a random sample of the elements in
+ * the memory store is computed and extrapolated to all of them, with a 95% confidence interval from the sample
+ * variance. The estimation runs periodically on a low priority thread and can also be requested on demand.
+ * <p>
+ * The graph of an element stops at the shared infrastructure objects it references (sessions, services, loggers, see
+ * {@link ObjectSizeEstimator}), so that an entry is not charged with the heap of the whole application.
+ */
+@Component(service = CacheFootprintEstimator.class, immediate = true)
+public class CacheFootprintEstimator {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheFootprintEstimator.class);
+
+    private static final long INTERVAL_MINUTES = 30L;
+    private static final int SAMPLE_SIZE = 100;
+    private static final int MAX_OBJECTS_PER_ENTRY = 20000;
+    private static final long FIRST_ESTIMATION_DELAY_MINUTES = 1L;
+    // entry of the memory store map referencing the element
+    private static final int STORE_ENTRY_OVERHEAD = 32;
+    private static final double Z_95 = 1.96;
+
+    private static volatile CacheFootprintEstimator instance;
+
+    private ScheduledExecutorService scheduler;
+
+    private volatile List<CacheFootprint> footprints = Collections.emptyList();
+
+    public static CacheFootprintEstimator getInstance() {
+        return instance;
+    }
+
+    @Activate
+    public void activate() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tools-cache-footprint-estimator");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                estimateAll();
+            } catch (RuntimeException e) {
+                logger.warn("Unable to estimate the cache footprints", e);
+            }
+        }, FIRST_ESTIMATION_DELAY_MINUTES, INTERVAL_MINUTES, TimeUnit.MINUTES);
+        instance = this;
+    }
+
+    @Deactivate
+    public void deactivate() {
+        instance = null;
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * @return the footprints of the last estimation, sorted by decreasing size; empty if none was done yet
+     */
+    public List<CacheFootprint> getFootprints() {
+        return footprints;
+    }
+
+    /**
+     * Requests an estimation of all caches in the background, instead of waiting for the next periodic one.
+     */
+    public void requestEstimation() {
+        scheduler.execute(() -> {
+            try {
+                estimateAll();
+            } catch (RuntimeException e) {
+                logger.warn("Unable to estimate the cache footprints", e);
+            }
+        });
+    }
+
+    /**
+     * Estimates the footprint of all caches of all cache managers now.
+     *
+     * @return the footprints, sorted by decreasing size
+     */
+    public synchronized List<CacheFootprint> estimateAll() {
+        ObjectSizeEstimator estimator = new ObjectSizeEstimator(MAX_OBJECTS_PER_ENTRY);
+        List<CacheFootprint> result = new ArrayList<>();
+        for (CacheManager cacheManager : CacheManager.ALL_CACHE_MANAGERS) {
+            for (String cacheName : cacheManager.getCacheNames()) {
+                Ehcache cache = cacheManager.getEhcache(cacheName);
+                if (cache == null) {
+                    continue;
+                }
+                try {
+                    result.add(estimate(cacheManager.getName(), cache, estimator));
+                } catch (RuntimeException e) {
+                    // e.g. a cache disposed of in the meantime, the other caches are still estimated
+                    logger.warn("Unable to estimate the footprint of the cache " + cacheName + ". Cause: " + e.getMessage(), e);
+                }
+            }
+        }
+        result.sort(Comparator.comparingLong(CacheFootprint::getEstimatedSize).reversed());
+        footprints = Collections.unmodifiableList(result);
+        return footprints;
+    }
+
+    /**
+     * @param cacheManagerName the name of the cache manager
+     * @param cacheName        the name of the cache
+     * @return the footprint of the cache from the last estimation, <code>null</code> if it has not been estimated yet
+     */
+    public CacheFootprint getFootprint(String cacheManagerName, String cacheName) {
+        for (CacheFootprint footprint : footprints) {
+            if (footprint.getCacheManagerName().equals(cacheManagerName) && footprint.getCacheName().equals(cacheName)) {
+                return footprint;
+            }
+        }
+        return null;
+    }
+
+    private static CacheFootprint estimate(String cacheManagerName, Ehcache cache, ObjectSizeEstimator estimator) {
+        List<?> keys = getMemoryStoreKeys(cache);
+        int sampled = 0;
+        int truncated = 0;
+        int skipped = 0;
+        double sum = 0;
+        double sumOfSquares = 0;
+        for (int index : sampleIndexes(keys.size(), SAMPLE_SIZE)) {
+            Element element = cache.getQuiet(keys.get(index));
+            if (element == null) {
+                continue;
+            }
+            long size;
+            try {
+                size = estimator.deepSize(element) + STORE_ENTRY_OVERHEAD;
+            } catch (RuntimeException e) {
+                // the walk iterates live collections, which may be modified concurrently
+                logger.debug("Unable to estimate the size of an element of the cache {}", cache.getName(), e);
+                skipped++;
+                continue;
+            }
+            if (estimator.isTruncated()) {
+                truncated++;
+            }
+            sampled++;
+            sum += size;
+            sumOfSquares += (double) size * size;
+        }
+        long entries = cache.getMemoryStoreSize();
+        double mean = sampled > 0 ? sum / sampled : 0;
+        double marginOfError = 0;
+        if (sampled > 1 && entries > sampled) {
+            double variance = Math.max(0, (sumOfSquares - sampled * mean * mean) / (sampled - 1));
+            // finite population correction, the sample is drawn without replacement
+            double correction = Math.sqrt((double) (entries - sampled) / (entries - 1));
+            marginOfError = Z_95 * Math.sqrt(variance / sampled) * correction;
+        }
+        return new CacheFootprint(cacheManagerName, cache.getName(), System.currentTimeMillis(), entries, sampled, truncated,
+                skipped, mean, marginOfError);
+    }
+
+    /**
+     * @return the keys of the elements in the memory store, to which the sample is extrapolated
+     */
+    private static List<?> getMemoryStoreKeys(Ehcache cache) {
+        List<?> keys = cache.getKeys();
+        if (cache.getDiskStoreSize() == 0 && cache.getOffHeapStoreSize() == 0) {
+            return keys;
+        }
+        List<Object> inMemory = new ArrayList<>(Math.min(keys.size(), (int) Math.min(Integer.MAX_VALUE, cache.getMemoryStoreSize())));
+        for (Object key : keys) {
+            if (cache.isElementInMemory(key)) {
+                inMemory.add(key);
+            }
+        }
+        return inMemory;
+    }
+
+    private static Collection<Integer> sampleIndexes(int size, int sampleSize) {
+        if (size <= sampleSize) {
+            List<Integer> all = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                all.add(i);
+            }
+            return all;
+        }
+        // Floyd's algorithm for a sample without duplicates
+        Set<Integer> indexes = new HashSet<>();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = size - sampleSize; i < size; i++) {
+            int index = random.nextInt(i + 1);
+            indexes.add(indexes.contains(index) ? i : index);
+        }
+        return indexes;
+    }
+}
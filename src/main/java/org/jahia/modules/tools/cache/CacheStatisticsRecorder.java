@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.cache;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.statistics.StatisticsGateway;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the statistics counters of all caches of all cache managers every 5 seconds, keeping the last hour in a
+ * ring buffer per cache, so that the current rates and hit ratios can be computed from the cumulative counters.
+ */
+@Component(service = CacheStatisticsRecorder.class, immediate = true)
+public class CacheStatisticsRecorder {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheStatisticsRecorder.class);
+
+    public static final int INTERVAL_SECONDS = 5;
+
+    private static final int CAPACITY = 3600 / INTERVAL_SECONDS;
+
+    private static volatile CacheStatisticsRecorder instance;
+
+    private final Map<String, CacheStatisticsSeries> series = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    public static CacheStatisticsRecorder getInstance() {
+        return instance;
+    }
+
+    @Activate
+    public void activate() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tools-cache-statistics-recorder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                record();
+            } catch (RuntimeException e) {
+                logger.warn("Unable to record the cache statistics", e);
+            }
+        }, 0, INTERVAL_SECONDS, TimeUnit.SECONDS);
+        instance = this;
+    }
+
+    @Deactivate
+    public void deactivate() {
+        instance = null;
+        scheduler.shutdownNow();
+        series.clear();
+    }
+
+    /**
+     * @return the series of all caches, sorted by cache manager and cache name
+     */
+    public List<CacheStatisticsSeries> getSeries() {
+        List<CacheStatisticsSeries> result = new ArrayList<>(series.values());
+        result.sort(Comparator.comparing(CacheStatisticsSeries::getCacheManagerName).thenComparing(CacheStatisticsSeries::getCacheName));
+        return result;
+    }
+
+    /**
+     * @param cacheManagerName the name of the cache manager
+     * @param cacheName        the name of the cache
+     * @return the series of the cache or <code>null</code> if it has not been recorded
+     */
+    public CacheStatisticsSeries getSeries(String cacheManagerName, String cacheName) {
+        return series.get(cacheManagerName + "/" + cacheName);
+    }
+
+    private void record() {
+        long now = System.currentTimeMillis();
+        Set<String> recorded = new HashSet<>();
+        for (CacheManager cacheManager : CacheManager.ALL_CACHE_MANAGERS) {
+            for (String cacheName : cacheManager.getCacheNames()) {
+                Ehcache cache = cacheManager.getEhcache(cacheName);
+                if (cache == null) {
+                    continue;
+                }
+                String id = cacheManager.getName() + "/" + cacheName;
+                StatisticsGateway statistics = cache.getStatistics();
+                series.computeIfAbsent(id, key -> new CacheStatisticsSeries(cacheManager.getName(), cacheName, CAPACITY))
+                        .record(now, statistics.cacheHitCount(), statistics.cacheMissCount(), statistics.cachePutCount(),
+                                statistics.cacheEvictedCount());
+                recorded.add(id);
+            }
+        }
+        // removed caches
+        series.keySet().retainAll(recorded);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.cache;
+
+/**
+ * Fixed-size ring buffer of the cumulative statistics counters of a cache, with the rates and hit ratios computed
+ * over a recent window. The counters are summed snapshot by snapshot: a decrease is taken as a statistics reset, after
+ * which the counter value is the activity since that reset.
+ */
+public class CacheStatisticsSeries {
+
+    /**
+     * Recorded counters.
+     */
+    public enum Counter {
+        HITS, MISSES, PUTS, EVICTIONS
+    }
+
+    private static final int COUNTERS = Counter.values().length;
+
+    private final String cacheManagerName;
+    private final String cacheName;
+    private final long[] times;
+    private final long[][] values;
+    private int next;
+    private int size;
+
+    CacheStatisticsSeries(String cacheManagerName, String cacheName, int capacity) {
+        this.cacheManagerName = cacheManagerName;
+        this.cacheName = cacheName;
+        this.times = new long[capacity];
+        this.values = new long[capacity][COUNTERS];
+    }
+
+    synchronized void record(long time, long hits, long misses, long puts, long evictions) {
+        times[next] = time;
+        long[] snapshot = values[next];
+        snapshot[Counter.HITS.ordinal()] = hits;
+        snapshot[Counter.MISSES.ordinal()] = misses;
+        snapshot[Counter.PUTS.ordinal()] = puts;
+        snapshot[Counter.EVICTIONS.ordinal()] = evictions;
+        next = (next + 1) % times.length;
+        size = Math.min(size + 1, times.length);
+    }
+
+    public String getCacheManagerName() {
+        return cacheManagerName;
+    }
+
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    /**
+     * @return the number of recorded snapshots
+     */
+    public synchronized int getSize() {
+        return size;
+    }
+
+    /**
+     * Computes the rate of a counter over the last window.
+     *
+     * @param counter       the counter
+     * @param windowSeconds the window in seconds; if fewer snapshots are recorded, all of them are used
+     * @return the rate per second or 0 if fewer than 2 snapshots are recorded
+     */
+    public synchronized double getRate(Counter counter, int windowSeconds) {
+        int last = size - 1;
+        int first = findWindowStart(windowSeconds);
+        if (first < 0 || first == last) {
+            return 0;
+        }
+        return delta(first, last, counter) * 1000.0 / (times[index(last)] - times[index(first)]);
+    }
+
+    /**
+     * Computes the hit ratio over the last window.
+     *
+     * @param windowSeconds the window in seconds; if fewer snapshots are recorded, all of them are used
+     * @return the hit ratio or -1 if there was no access during the window
+     */
+    public synchronized double getHitRatio(int windowSeconds) {
+        int last = size - 1;
+        int first = findWindowStart(windowSeconds);
+        if (first < 0 || first == last) {
+            return -1;
+        }
+        long hits = delta(first, last, Counter.HITS);
+        long accesses = hits + delta(first, last, Counter.MISSES);
+        return accesses > 0 ? (double) hits / accesses : -1;
+    }
+
+    /**
+     * Returns the rates of a counter between consecutive snapshots, oldest first.
+     *
+     * @param counter the counter
+     * @return the rates per second
+     */
+    public synchronized double[] getRates(Counter counter) {
+        double[] rates = new double[Math.max(0, size - 1)];
+        for (int i = 1; i < size; i++) {
+            int previous = index(i - 1);
+            int current = index(i);
+            long duration = times[current] - times[previous];
+            rates[i - 1] = duration > 0 ? step(previous, current, counter) * 1000.0 / duration : 0;
+        }
+        return rates;
+    }
+
+    /**
+     * @param i the position of the snapshot, 0 being the oldest
+     * @return the index of the snapshot in the arrays
+     */
+    private int index(int i) {
+        return (next - size + i + times.length) % times.length;
+    }
+
+    /**
+     * @return the position of the first snapshot of the window, 0 being the oldest, or -1 if fewer than 2 snapshots
+     * are recorded
+     */
+    private int findWindowStart(int windowSeconds) {
+        if (size < 2) {
+            return -1;
+        }
+        long start = times[index(size - 1)] - windowSeconds * 1000L;
+        for (int i = 0; i < size; i++) {
+            if (times[index(i)] >= start) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Sums the increases of a counter between consecutive snapshots, so that a reset in the window does not hide the
+     * activity recorded before or after it.
+     *
+     * @param first the position of the first snapshot, 0 being the oldest
+     * @param last  the position of the last snapshot
+     */
+    private long delta(int first, int last, Counter counter) {
+        long total = 0;
+        for (int i = first + 1; i <= last; i++) {
+            total += step(index(i - 1), index(i), counter);
+        }
+        return total;
+    }
+
+    private long step(int previous, int current, Counter counter) {
+        long previousValue = values[previous][counter.ordinal()];
+        long currentValue = values[current][counter.ordinal()];
+        // after a reset, the counter restarted from 0
+        return currentValue >= previousValue ? currentValue - previousValue : currentValue;
+    }
+}
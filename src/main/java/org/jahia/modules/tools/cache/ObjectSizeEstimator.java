@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.cache;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Estimates the retained heap size of an object graph by walking its fields, assuming a 64-bit JVM with compressed
+ * references: 12-byte object headers, 16-byte array headers, 4-byte references and an 8-byte alignment.
+ * <p>
+ * Objects shared by the whole JVM (classes, class loaders, threads, enum constants) are not counted, and the walk stops
+ * at the infrastructure objects an entry may reference but does not own: JCR sessions and repositories, Jahia and
+ * Spring services, OSGi bundles, servlet contexts, loggers, executors, caches and weak or soft references. Fields that cannot
+ * be read because of the module encapsulation are skipped: strings are sized from their length, and the content of JDK
+ * maps and collections is walked through their public API with an estimated per-entry overhead.
+ * <p>
+ * Instances are not thread safe.
+ */
+final class ObjectSizeEstimator {
+
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+    private static final int ALIGNMENT = 8;
+    private static final int MAP_ENTRY_OVERHEAD = 40;
+    private static final int COLLECTION_ELEMENT_OVERHEAD = 16;
+
+    /**
+     * Types, matched against the superclasses and interfaces, of the objects the walk stops at. They are named so that
+     * the classes do not need to be visible from this bundle.
+     */
+    private static final Set<String> INFRASTRUCTURE_TYPES = new HashSet<>(Arrays.asList(
+            "java.lang.ref.Reference", "java.lang.ThreadGroup", "java.security.ProtectionDomain",
+            "java.util.concurrent.Executor", "javax.jcr.Repository", "javax.jcr.Session", "javax.jcr.Workspace",
+            "javax.servlet.ServletContext", "javax.servlet.http.HttpSession", "net.sf.ehcache.CacheManager",
+            "net.sf.ehcache.Ehcache", "org.jahia.services.JahiaService", "org.jahia.services.content.JCRSessionFactory",
+            "org.jahia.services.content.JCRStoreProvider", "org.osgi.framework.Bundle", "org.osgi.framework.BundleContext",
+            "org.slf4j.Logger"));
+
+    private static final String[] INFRASTRUCTURE_PACKAGES = { "org.springframework.", "org.apache.jackrabbit.core." };
+
+    private static final Map<Class<?>, ClassLayout> layouts = new ConcurrentHashMap<>();
+
+    private static final Map<Class<?>, Boolean> infrastructureClasses = new ConcurrentHashMap<>();
+
+    private final int maxObjects;
+
+    private boolean truncated;
+
+    /**
+     * @param maxObjects the maximum number of objects to visit per graph, the size of larger graphs is truncated
+     */
+    ObjectSizeEstimator(int maxObjects) {
+        this.maxObjects = maxObjects;
+    }
+
+    /**
+     * @param root the root of the object graph
+     * @return the estimated size in bytes of the objects reachable from the root
+     */
+    long deepSize(Object root) {
+        truncated = false;
+        if (root == null) {
+            return 0;
+        }
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Object> pending = new ArrayDeque<>();
+        pending.push(root);
+        long size = 0;
+        while (!pending.isEmpty()) {
+            if (visited.size() >= maxObjects) {
+                truncated = true;
+                break;
+            }
+            Object current = pending.pop();
+            if (isShared(current) || !visited.add(current)) {
+                continue;
+            }
+            Class<?> type = current.getClass();
+            if (type == String.class) {
+                // String internals are not accessible, its value is a byte array in the LATIN1 or UTF16 encoding
+                String string = (String) current;
+                size += align(OBJECT_HEADER + 2 * 4 + REFERENCE) + align(ARRAY_HEADER + (long) string.length() * (isLatin1(string) ? 1 : 2));
+            } else if (type.isArray()) {
+                Class<?> componentType = type.getComponentType();
+                int length = Array.getLength(current);
+                size += align(ARRAY_HEADER + (long) length * sizeOf(componentType));
+                if (!componentType.isPrimitive()) {
+                    for (int i = 0; i < length; i++) {
+                        pushIfNotNull(pending, Array.get(current, i));
+                    }
+                }
+            } else {
+                ClassLayout layout = layouts.computeIfAbsent(type, ClassLayout::new);
+                size += layout.size;
+                for (Field field : layout.references) {
+                    try {
+                        pushIfNotNull(pending, field.get(current));
+                    } catch (IllegalAccessException e) {
+                        // not accessible, the referenced object is not counted
+                    }
+                }
+                if (!layout.complete) {
+                    size += walkContent(current, pending);
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return <code>true</code> if the last walked graph exceeded the maximum number of objects
+     */
+    boolean isTruncated() {
+        return truncated;
+    }
+
+    private static long walkContent(Object object, Deque<Object> pending) {
+        if (object instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) object;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                pushIfNotNull(pending, entry.getKey());
+                pushIfNotNull(pending, entry.getValue());
+            }
+            return (long) map.size() * MAP_ENTRY_OVERHEAD;
+        } else if (object instanceof Collection) {
+            Collection<?> collection = (Collection<?>) object;
+            for (Object element : collection) {
+                pushIfNotNull(pending, element);
+            }
+            return (long) collection.size() * COLLECTION_ELEMENT_OVERHEAD;
+        }
+        return 0;
+    }
+
+    private static void pushIfNotNull(Deque<Object> pending, Object value) {
+        if (value != null) {
+            pending.push(value);
+        }
+    }
+
+    private static boolean isShared(Object object) {
+        return object instanceof Class || object instanceof ClassLoader || object instanceof Thread || object instanceof Enum
+                || infrastructureClasses.computeIfAbsent(object.getClass(), ObjectSizeEstimator::isInfrastructure);
+    }
+
+    private static boolean isInfrastructure(Class<?> type) {
+        for (String prefix : INFRASTRUCTURE_PACKAGES) {
+            if (type.getName().startsWith(prefix)) {
+                return true;
+            }
+        }
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            if (INFRASTRUCTURE_TYPES.contains(current.getName())) {
+                return true;
+            }
+            for (Class<?> implemented : current.getInterfaces()) {
+                if (isInfrastructureInterface(implemented)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isInfrastructureInterface(Class<?> type) {
+        if (INFRASTRUCTURE_TYPES.contains(type.getName())) {
+            return true;
+        }
+        for (Class<?> extended : type.getInterfaces()) {
+            if (isInfrastructureInterface(extended)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isLatin1(String string) {
+        for (int i = 0; i < string.length(); i++) {
+            if (string.charAt(i) > 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long align(long size) {
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private static int sizeOf(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return REFERENCE;
+        } else if (type == long.class || type == double.class) {
+            return 8;
+        } else if (type == int.class || type == float.class) {
+            return 4;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        }
+        return 1;
+    }
+
+    /**
+     * Shallow size and accessible reference fields of a class, including the inherited ones.
+     */
+    private static final class ClassLayout {
+        private final long size;
+        private final List<Field> references = new ArrayList<>();
+        private final boolean complete;
+
+        ClassLayout(Class<?> type) {
+            long fieldsSize = 0;
+            boolean allAccessible = true;
+            for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+                for (Field field : current.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    fieldsSize += sizeOf(field.getType());
+                    if (!field.getType().isPrimitive()) {
+                        if (trySetAccessible(field)) {
+                            references.add(field);
+                        } else {
+                            allAccessible = false;
+                        }
+                    }
+                }
+            }
+            size = align(OBJECT_HEADER + fieldsSize);
+            complete = allAccessible;
+        }
+
+        private static boolean trySetAccessible(Field field) {
+            try {
+                return field.trySetAccessible();
+            } catch (SecurityException e) {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.cache;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import org.apache.commons.lang.StringUtils;
+import org.jahia.services.cache.CacheEntry;
+import org.jahia.services.cache.ehcache.EhCacheStatisticsWrapper;
+import org.jahia.services.render.filter.cache.CacheKeyGenerator;
+import org.jahia.services.render.filter.cache.ModuleCacheProvider;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Analyzes the module output cache in a background thread, so that the cache pages do not iterate over all entries in
+ * the request thread. The entries are read with {@link Ehcache#getQuiet(Object)}, so that the analysis does not alter
+ * their statistics, and in chunks separated by a short pause, so that large caches do not monopolize a CPU.
+ * <p>
+ * Only one analysis runs at a time; its summary is available while it is running and until the next one is started.
+ */
+@Component(service = OutputCacheAnalyzer.class, immediate = true)
+public class OutputCacheAnalyzer {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutputCacheAnalyzer.class);
+
+    private static final int CHUNK_SIZE = 1000;
+    private static final long CHUNK_PAUSE = 10L;
+    private static final int MAX_LARGEST_ENTRIES = 100;
+    private static final int PATH_PREFIX_DEPTH = 3;
+    private static final int MAX_VALUE_LENGTH = 200;
+
+    private static volatile OutputCacheAnalyzer instance;
+
+    private ExecutorService executor;
+
+    private volatile OutputCacheSummary summary;
+
+    private volatile boolean running;
+
+    private volatile boolean stopRequested;
+
+    public static OutputCacheAnalyzer getInstance() {
+        return instance;
+    }
+
+    @Activate
+    public void activate() {
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tools-output-cache-analyzer");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        instance = this;
+    }
+
+    @Deactivate
+    public void deactivate() {
+        instance = null;
+        stopRequested = true;
+        executor.shutdownNow();
+    }
+
+    /**
+     * Starts a new analysis of the module output cache, unless one is already running.
+     *
+     * @param sampleSize the maximum number of entries to scan, evenly spread over the cache keys; 0 or less to scan
+     *                   all entries
+     * @return <code>true</code> if the analysis has been started, <code>false</code> if one is already running
+     */
+    public synchronized boolean startAnalysis(int sampleSize) {
+        if (running) {
+            return false;
+        }
+        Ehcache cache = ModuleCacheProvider.getInstance().getCache();
+        // the summary of the previous analysis is dropped, the new one is published once the keys are listed
+        summary = null;
+        running = true;
+        stopRequested = false;
+        executor.execute(() -> {
+            OutputCacheSummary newSummary = null;
+            try {
+                EhCacheStatisticsWrapper stats = new EhCacheStatisticsWrapper(cache.getStatistics());
+                // the key list is a snapshot, the entries removed in the meantime are skipped
+                List<?> keys = cache.getKeys();
+                newSummary = new OutputCacheSummary(System.currentTimeMillis(), keys.size(), stats.getCacheHitCount(),
+                        stats.getCacheMissCount(), MAX_LARGEST_ENTRIES);
+                summary = newSummary;
+                analyze(cache, keys, sampleSize, newSummary);
+            } catch (RuntimeException e) {
+                logger.error("Error while analyzing the module output cache", e);
+                if (newSummary != null) {
+                    newSummary.complete(System.currentTimeMillis(), false);
+                }
+            } finally {
+                running = false;
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Requests the running analysis to stop; the summary then covers the entries scanned so far.
+     */
+    public void stopAnalysis() {
+        stopRequested = true;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return the summary of the running or last analysis, <code>null</code> if no analysis has been started yet or
+     *         if the keys of the running one are still being listed
+     */
+    public OutputCacheSummary getSummary() {
+        return summary;
+    }
+
+    private void analyze(Ehcache cache, List<?> keys, int sampleSize, OutputCacheSummary result) {
+        int size = keys.size();
+        int step = sampleSize > 0 && size > sampleSize ? size / sampleSize : 1;
+        int offset = step > 1 ? ThreadLocalRandom.current().nextInt(step) : 0;
+        CacheKeyGenerator keyGenerator = ModuleCacheProvider.getInstance().getKeyGenerator();
+        int inChunk = 0;
+        for (int i = offset; i < size; i += step) {
+            if (stopRequested || Thread.currentThread().isInterrupted()) {
+                result.complete(System.currentTimeMillis(), false);
+                return;
+            }
+            Object key = keys.get(i);
+            Element element = cache.getQuiet(key);
+            if (element != null && element.getObjectValue() instanceof CacheEntry) {
+                String keyString = String.valueOf(key);
+                Map<String, String> fieldsByKey;
+                try {
+                    fieldsByKey = keyGenerator.parse(keyString);
+                } catch (RuntimeException e) {
+                    logger.debug("Unable to parse the cache key {}", keyString, e);
+                    fieldsByKey = null;
+                }
+                if (fieldsByKey == null) {
+                    result.addUnparsableKey();
+                } else {
+                    Object content = ((CacheEntry) element.getObjectValue()).getObject();
+                    long now = System.currentTimeMillis();
+                    result.add(new OutputCacheSummary.EntryInfo(keyString, content instanceof String ? ((String) content).length() : 0,
+                                    element.getHitCount(), element.getCreationTime(), element.isEternal() ? 0 : element.getExpirationTime()),
+                            getDimensionValues(fieldsByKey), now);
+                }
+            }
+            if (++inChunk == CHUNK_SIZE) {
+                inChunk = 0;
+                try {
+                    Thread.sleep(CHUNK_PAUSE);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        result.complete(System.currentTimeMillis(), true);
+    }
+
+    private static Map<OutputCacheSummary.Dimension, String> getDimensionValues(Map<String, String> fields) {
+        Map<OutputCacheSummary.Dimension, String> values = new EnumMap<>(OutputCacheSummary.Dimension.class);
+        String path = StringUtils.defaultString(fields.get("path"));
+        values.put(OutputCacheSummary.Dimension.PATH_PREFIX, getPathPrefix(path));
+        values.put(OutputCacheSummary.Dimension.SITE, path.startsWith("/sites/") ? StringUtils.substringBefore(path.substring(7), "/") : "(none)");
+        values.put(OutputCacheSummary.Dimension.TEMPLATE, toValue(fields.get("template")));
+        values.put(OutputCacheSummary.Dimension.ACL, toValue(fields.get("acls")));
+        values.put(OutputCacheSummary.Dimension.LANGUAGE, toValue(fields.get("language")));
+        return values;
+    }
+
+    private static String getPathPrefix(String path) {
+        int index = 0;
+        for (int depth = 0; depth < PATH_PREFIX_DEPTH && index >= 0; depth++) {
+            index = path.indexOf('/', index + 1);
+        }
+        return toValue(index > 0 ? path.substring(0, index) : path);
+    }
+
+    private static String toValue(String value) {
+        return StringUtils.isEmpty(value) ? "(none)" : StringUtils.abbreviate(value, MAX_VALUE_LENGTH);
+    }
+}
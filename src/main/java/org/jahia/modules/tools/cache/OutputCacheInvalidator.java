@@ -0,0 +1,430 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.cache;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import org.apache.commons.lang.StringUtils;
+import org.jahia.services.render.filter.cache.CacheKeyGenerator;
+import org.jahia.services.render.filter.cache.ModuleCacheProvider;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Removes a selection of the module output cache entries instead of flushing the whole cache.
+ * <p>
+ * Path subtree and site selections are resolved through the dependencies cache, which maps the node paths to the
+ * output cache keys depending on them; template and key regular expression selections are matched against the output
+ * cache keys. A dry run only counts the matching entries.
+ * <p>
+ * The entries are invalidated through {@link ModuleCacheProvider#invalidate(String, boolean)}, so that the other
+ * cluster nodes drop their copies too: the selected node paths are invalidated for the path based criteria, the node
+ * paths of the matching entries for the template and key criteria. In the latter case, all the other entries depending
+ * on these nodes, in any template, language or mode, are invalidated as well: they are counted by the dry run, so that
+ * it reports what the invalidation really removes.
+ * <p>
+ * The cache keys are walked in a background thread; only one invalidation runs at a time and its progress is available
+ * until the next one is started.
+ */
+@Component(service = OutputCacheInvalidator.class, immediate = true)
+public class OutputCacheInvalidator {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutputCacheInvalidator.class);
+
+    private static final int CHUNK_SIZE = 1000;
+    private static final long CHUNK_PAUSE = 10L;
+    private static final int MAX_SAMPLE_KEYS = 20;
+
+    /**
+     * Selection criteria of the entries to invalidate.
+     */
+    public enum Criterion {
+        PATH_SUBTREE, SITE, TEMPLATE, KEY_REGEX
+    }
+
+    private static volatile OutputCacheInvalidator instance;
+
+    private ExecutorService executor;
+
+    private volatile Result result;
+
+    public static OutputCacheInvalidator getInstance() {
+        return instance;
+    }
+
+    @Activate
+    public void activate() {
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tools-output-cache-invalidator");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        instance = this;
+    }
+
+    @Deactivate
+    public void deactivate() {
+        instance = null;
+        executor.shutdownNow();
+    }
+
+    /**
+     * Starts the invalidation of the module output cache entries matching the criterion, unless one is already
+     * running.
+     *
+     * @param criterion the selection criterion
+     * @param value     the node path, site key, template name or key regular expression, depending on the criterion
+     * @param dryRun    if <code>true</code>, the matching entries are only counted
+     * @return <code>true</code> if the invalidation has been started, <code>false</code> if one is already running
+     * @throws IllegalArgumentException if the value is empty or is not a valid regular expression
+     */
+    public synchronized boolean start(Criterion criterion, String value, boolean dryRun) {
+        if (StringUtils.isBlank(value)) {
+            throw new IllegalArgumentException("A value must be provided to select the cache entries");
+        }
+        Pattern pattern = criterion == Criterion.KEY_REGEX ? compile(value) : null;
+        if (isRunning()) {
+            return false;
+        }
+        Result newResult = new Result(criterion, value, dryRun, System.currentTimeMillis());
+        result = newResult;
+        executor.execute(() -> {
+            try {
+                invalidate(newResult, pattern);
+            } catch (RuntimeException e) {
+                logger.error("Error while invalidating the module output cache entries for " + criterion + " " + value, e);
+                newResult.complete(false);
+            }
+        });
+        return true;
+    }
+
+    public boolean isRunning() {
+        Result current = result;
+        return current != null && !current.isCompleted();
+    }
+
+    /**
+     * @return the running or last invalidation, <code>null</code> if none has been started yet
+     */
+    public Result getResult() {
+        return result;
+    }
+
+    private void invalidate(Result result, Pattern pattern) {
+        ModuleCacheProvider cacheProvider = ModuleCacheProvider.getInstance();
+        Ehcache cache = cacheProvider.getCache();
+        Ehcache depCache = cacheProvider.getDependenciesCache();
+        String value = result.getValue().trim();
+
+        // the node paths to invalidate and the matching output cache keys
+        Set<String> paths = new LinkedHashSet<>();
+        Set<String> keys = new LinkedHashSet<>();
+        switch (result.getCriterion()) {
+            case PATH_SUBTREE:
+                collectSubtreeDependencies(depCache, StringUtils.removeEnd(value, "/"), paths, keys, result);
+                break;
+            case SITE:
+                collectSubtreeDependencies(depCache, "/sites/" + value, paths, keys, result);
+                break;
+            case TEMPLATE:
+                collectTemplateKeys(cache, cacheProvider.getKeyGenerator(), value, paths, keys, result);
+                break;
+            case KEY_REGEX:
+                collectMatchingKeys(cache, cacheProvider.getKeyGenerator(), pattern, paths, keys, result);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported criterion " + result.getCriterion());
+        }
+        if (!result.isRunning()) {
+            return;
+        }
+        int matchedCount = keys.size();
+        if (result.getCriterion() == Criterion.TEMPLATE || result.getCriterion() == Criterion.KEY_REGEX) {
+            // invalidating the node paths drops every entry depending on them, not only the matching ones
+            for (String path : paths) {
+                Element element = depCache.getQuiet(path);
+                if (element != null && element.getObjectValue() instanceof Set) {
+                    for (Object dependentKey : (Set<?>) element.getObjectValue()) {
+                        keys.add(String.valueOf(dependentKey));
+                    }
+                }
+            }
+        }
+        // the dependencies can reference entries that have already been evicted
+        keys.removeIf(key -> !cache.isKeyInCache(key));
+        result.matched(keys, Math.min(matchedCount, keys.size()), paths.size());
+
+        if (!result.isDryRun()) {
+            result.startRemoval(paths.size());
+            int inChunk = 0;
+            for (String path : paths) {
+                if (Thread.currentThread().isInterrupted()) {
+                    result.complete(false);
+                    return;
+                }
+                cacheProvider.invalidate(path, true);
+                result.progress();
+                if (++inChunk == CHUNK_SIZE) {
+                    inChunk = 0;
+                    pause();
+                }
+            }
+            logger.info("Invalidated {} module output cache entries through {} node paths for {} {}", keys.size(),
+                    paths.size(), result.getCriterion(), value);
+        }
+        result.complete(true);
+    }
+
+    private static void collectSubtreeDependencies(Ehcache depCache, String path, Set<String> paths, Set<String> keys, Result result) {
+        String prefix = path + "/";
+        List<?> dependencyKeys = depCache.getKeys();
+        result.startScan(dependencyKeys.size());
+        for (Object key : dependencyKeys) {
+            if (!scanned(result)) {
+                return;
+            }
+            if (key instanceof String && (key.equals(path) || ((String) key).startsWith(prefix))) {
+                Element element = depCache.getQuiet(key);
+                if (element != null && element.getObjectValue() instanceof Set) {
+                    paths.add((String) key);
+                    for (Object dependentKey : (Set<?>) element.getObjectValue()) {
+                        keys.add(String.valueOf(dependentKey));
+                    }
+                }
+            }
+        }
+    }
+
+    private static void collectTemplateKeys(Ehcache cache, CacheKeyGenerator keyGenerator, String template, Set<String> paths,
+                                            Set<String> keys, Result result) {
+        List<?> cacheKeys = cache.getKeys();
+        result.startScan(cacheKeys.size());
+        for (Object key : cacheKeys) {
+            if (!scanned(result)) {
+                return;
+            }
+            String keyString = String.valueOf(key);
+            try {
+                Map<String, String> fields = keyGenerator.parse(keyString);
+                if (template.equals(fields.get("template"))) {
+                    keys.add(keyString);
+                    addPath(fields, paths);
+                }
+            } catch (RuntimeException e) {
+                logger.debug("Unable to parse the cache key {}", keyString, e);
+            }
+        }
+    }
+
+    private static void collectMatchingKeys(Ehcache cache, CacheKeyGenerator keyGenerator, Pattern pattern, Set<String> paths,
+                                            Set<String> keys, Result result) {
+        List<?> cacheKeys = cache.getKeys();
+        result.startScan(cacheKeys.size());
+        for (Object key : cacheKeys) {
+            if (!scanned(result)) {
+                return;
+            }
+            String keyString = String.valueOf(key);
+            if (pattern.matcher(keyString).find()) {
+                keys.add(keyString);
+                try {
+                    addPath(keyGenerator.parse(keyString), paths);
+                } catch (RuntimeException e) {
+                    logger.debug("Unable to parse the cache key {}", keyString, e);
+                }
+            }
+        }
+    }
+
+    private static void addPath(Map<String, String> fields, Set<String> paths) {
+        String path = fields.get("path");
+        if (StringUtils.isNotEmpty(path)) {
+            paths.add(path);
+        }
+    }
+
+    /**
+     * Counts a scanned key, pausing after each chunk.
+     *
+     * @return <code>false</code> if the scan has been interrupted
+     */
+    private static boolean scanned(Result result) {
+        if (Thread.currentThread().isInterrupted()) {
+            result.complete(false);
+            return false;
+        }
+        if (result.progress() % CHUNK_SIZE == 0) {
+            pause();
+        }
+        return true;
+    }
+
+    private static void pause() {
+        try {
+            Thread.sleep(CHUNK_PAUSE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Pattern compile(String regex) {
+        try {
+            return Pattern.compile(regex);
+        } catch (PatternSyntaxException e) {
+            throw new IllegalArgumentException("Invalid regular expression: " + regex, e);
+        }
+    }
+
+    /**
+     * Progress and outcome of an invalidation or of a dry run.
+     */
+    public static class Result {
+
+        /**
+         * Steps of an invalidation.
+         */
+        public enum Phase {
+            SCANNING, INVALIDATING, COMPLETED, FAILED
+        }
+
+        private final Criterion criterion;
+        private final String value;
+        private final boolean dryRun;
+        private final long startTime;
+        private Phase phase = Phase.SCANNING;
+        private long processed;
+        private long total;
+        private int entryCount;
+        private int matchedCount;
+        private int pathCount;
+        private List<String> sampleKeys = Collections.emptyList();
+
+        Result(Criterion criterion, String value, boolean dryRun, long startTime) {
+            this.criterion = criterion;
+            this.value = value;
+            this.dryRun = dryRun;
+            this.startTime = startTime;
+        }
+
+        synchronized void startScan(long total) {
+            this.total = total;
+            this.processed = 0;
+        }
+
+        synchronized long progress() {
+            return ++processed;
+        }
+
+        synchronized void matched(Collection<String> keys, int matchedCount, int pathCount) {
+            this.entryCount = keys.size();
+            this.matchedCount = matchedCount;
+            this.pathCount = pathCount;
+            List<String> sample = new ArrayList<>(Math.min(keys.size(), MAX_SAMPLE_KEYS));
+            for (String key : keys) {
+                if (sample.size() == MAX_SAMPLE_KEYS) {
+                    break;
+                }
+                sample.add(key);
+            }
+            this.sampleKeys = Collections.unmodifiableList(sample);
+        }
+
+        synchronized void startRemoval(long total) {
+            this.phase = Phase.INVALIDATING;
+            this.total = total;
+            this.processed = 0;
+        }
+
+        synchronized void complete(boolean succeeded) {
+            this.phase = succeeded ? Phase.COMPLETED : Phase.FAILED;
+        }
+
+        public Criterion getCriterion() {
+            return criterion;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public boolean isDryRun() {
+            return dryRun;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public synchronized Phase getPhase() {
+            return phase;
+        }
+
+        public synchronized boolean isRunning() {
+            return phase == Phase.SCANNING || phase == Phase.INVALIDATING;
+        }
+
+        public synchronized boolean isCompleted() {
+            return !isRunning();
+        }
+
+        /**
+         * @return the progress of the current phase, in percent
+         */
+        public synchronized int getPercent() {
+            return total > 0 ? (int) Math.min(100, processed * 100 / total) : (isRunning() ? 0 : 100);
+        }
+
+        /**
+         * @return the number of output cache entries removed by the invalidation, known once the scan is completed;
+         * for the template and key criteria, it includes the other entries of the same node paths
+         */
+        public synchronized int getEntryCount() {
+            return entryCount;
+        }
+
+        /**
+         * @return the number of output cache entries matching the criterion itself
+         */
+        public synchronized int getMatchedCount() {
+            return matchedCount;
+        }
+
+        /**
+         * @return the number of node paths invalidated on all cluster nodes
+         */
+        public synchronized int getPathCount() {
+            return pathCount;
+        }
+
+        /**
+         * @return the first output cache keys removed by the invalidation, the matching ones first
+         */
+        public synchronized List<String> getSampleKeys() {
+            return sampleKeys;
+        }
+    }
+}
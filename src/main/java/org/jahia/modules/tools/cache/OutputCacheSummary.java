@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.cache;
+
+import java.util.*;
+
+/**
+ * Result of an analysis of the module output cache: entries aggregated by dimension, distributions of the entry sizes,
+ * hits and remaining time to live, and the largest entries. When the analysis was done on a sample of the entries, the
+ * counts and sizes are extrapolated to the whole cache using {@link #getScaleFactor()}.
+ */
+public class OutputCacheSummary {
+
+    /**
+     * Dimensions the cache entries are aggregated by, read from the parsed cache key.
+     */
+    public enum Dimension {
+        PATH_PREFIX("Path prefix"),
+        SITE("Site"),
+        TEMPLATE("Template"),
+        ACL("ACL"),
+        LANGUAGE("Language");
+
+        private final String label;
+
+        Dimension(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private static final long KB = 1024L;
+    private static final long MINUTE = 60 * 1000L;
+
+    private final long startTime;
+    private long endTime;
+    private final long totalEntries;
+    private long scannedEntries;
+    private long unparsableKeys;
+    private long totalSize;
+    private long totalHits;
+    private final long cacheHits;
+    private final long cacheMisses;
+    private boolean completed;
+
+    private final Map<Dimension, Map<String, Group>> groups = new EnumMap<>(Dimension.class);
+    private final Distribution sizeDistribution = new Distribution(new long[]{KB, 10 * KB, 100 * KB, KB * KB},
+            new String[]{"< 1 KB", "1 KB - 10 KB", "10 KB - 100 KB", "100 KB - 1 MB", ">= 1 MB"});
+    private final Distribution hitDistribution = new Distribution(new long[]{1, 2, 10, 100},
+            new String[]{"0", "1", "2 - 9", "10 - 99", ">= 100"});
+    private final Distribution ttlDistribution = new Distribution(new long[]{MINUTE, 10 * MINUTE, 60 * MINUTE, 24 * 60 * MINUTE},
+            new String[]{"< 1 min", "1 min - 10 min", "10 min - 1 h", "1 h - 1 day", ">= 1 day"});
+    private long eternalEntries;
+
+    private final int maxLargestEntries;
+    private final PriorityQueue<EntryInfo> largestEntries = new PriorityQueue<>(Comparator.comparingLong(EntryInfo::getSize));
+
+    OutputCacheSummary(long startTime, long totalEntries, long cacheHits, long cacheMisses, int maxLargestEntries) {
+        this.startTime = startTime;
+        this.totalEntries = totalEntries;
+        this.cacheHits = cacheHits;
+        this.cacheMisses = cacheMisses;
+        this.maxLargestEntries = maxLargestEntries;
+        for (Dimension dimension : Dimension.values()) {
+            groups.put(dimension, new HashMap<>());
+        }
+    }
+
+    synchronized void add(EntryInfo entry, Map<Dimension, String> values, long now) {
+        scannedEntries++;
+        totalSize += entry.getSize();
+        totalHits += entry.getHits();
+        for (Map.Entry<Dimension, String> value : values.entrySet()) {
+            groups.get(value.getKey()).computeIfAbsent(value.getValue(), Group::new).add(entry);
+        }
+        sizeDistribution.add(entry.getSize());
+        hitDistribution.add(entry.getHits());
+        if (entry.getExpirationTime() <= 0) {
+            eternalEntries++;
+        } else {
+            ttlDistribution.add(Math.max(0, entry.getExpirationTime() - now));
+        }
+        if (maxLargestEntries > 0) {
+            largestEntries.add(entry);
+            if (largestEntries.size() > maxLargestEntries) {
+                largestEntries.poll();
+            }
+        }
+    }
+
+    synchronized void addUnparsableKey() {
+        unparsableKeys++;
+    }
+
+    synchronized void complete(long endTime, boolean completed) {
+        this.endTime = endTime;
+        this.completed = completed;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return the end time of the analysis or 0 if it is still running
+     */
+    public synchronized long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * @return <code>true</code> if all the selected entries were scanned, <code>false</code> if the analysis is still
+     * running or was stopped
+     */
+    public synchronized boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return the number of entries in the cache when the analysis started
+     */
+    public long getTotalEntries() {
+        return totalEntries;
+    }
+
+    public synchronized long getScannedEntries() {
+        return scannedEntries;
+    }
+
+    public synchronized long getUnparsableKeys() {
+        return unparsableKeys;
+    }
+
+    /**
+     * @return the sum of the content lengths of the scanned entries, in characters
+     */
+    public synchronized long getScannedSize() {
+        return totalSize;
+    }
+
+    /**
+     * @return the estimated sum of the content lengths of all entries, in characters
+     */
+    public synchronized long getEstimatedTotalSize() {
+        return Math.round(totalSize * getScaleFactor());
+    }
+
+    public synchronized long getScannedHits() {
+        return totalHits;
+    }
+
+    /**
+     * @return the ratio between the cache entries and the scanned ones, 1 if all entries were scanned
+     */
+    public synchronized double getScaleFactor() {
+        return scannedEntries > 0 && totalEntries > scannedEntries ? (double) totalEntries / scannedEntries : 1;
+    }
+
+    /**
+     * @return the hit ratio of the cache, from its statistics
+     */
+    public double getCacheHitRatio() {
+        return cacheHits + cacheMisses > 0 ? (double) cacheHits / (cacheHits + cacheMisses) : 0;
+    }
+
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    /**
+     * Returns the groups of the given dimension, by decreasing size.
+     *
+     * @param dimension the dimension
+     * @param limit     the maximum number of groups to return, 0 for all
+     * @return the groups
+     */
+    public synchronized List<Group> getGroups(Dimension dimension, int limit) {
+        List<Group> result = new ArrayList<>();
+        for (Group group : groups.get(dimension).values()) {
+            result.add(group.copy());
+        }
+        result.sort(Comparator.comparingLong(Group::getSize).reversed().thenComparing(Group::getValue));
+        return limit > 0 && result.size() > limit ? result.subList(0, limit) : result;
+    }
+
+    /**
+     * @return the number of distinct values of each dimension
+     */
+    public synchronized Map<Dimension, Integer> getGroupCounts() {
+        Map<Dimension, Integer> counts = new EnumMap<>(Dimension.class);
+        for (Map.Entry<Dimension, Map<String, Group>> entry : groups.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().size());
+        }
+        return counts;
+    }
+
+    public synchronized Map<String, Long> getSizeDistribution() {
+        return sizeDistribution.toMap();
+    }
+
+    public synchronized Map<String, Long> getHitDistribution() {
+        return hitDistribution.toMap();
+    }
+
+    /**
+     * @return the distribution of the remaining time to live of the entries, eternal entries excluded
+     */
+    public synchronized Map<String, Long> getTtlDistribution() {
+        return ttlDistribution.toMap();
+    }
+
+    public synchronized long getEternalEntries() {
+        return eternalEntries;
+    }
+
+    /**
+     * @return the largest scanned entries, by decreasing size
+     */
+    public synchronized List<EntryInfo> getLargestEntries() {
+        List<EntryInfo> result = new ArrayList<>(largestEntries);
+        result.sort(Comparator.comparingLong(EntryInfo::getSize).reversed());
+        return result;
+    }
+
+    /**
+     * Scanned cache entry.
+     */
+    public static class EntryInfo {
+        private final String key;
+        private final long size;
+        private final long hits;
+        private final long creationTime;
+        private final long expirationTime;
+
+        EntryInfo(String key, long size, long hits, long creationTime, long expirationTime) {
+            this.key = key;
+            this.size = size;
+            this.hits = hits;
+            this.creationTime = creationTime;
+            this.expirationTime = expirationTime;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getCreationTime() {
+            return creationTime;
+        }
+
+        /**
+         * @return the expiration time of the entry or 0 if it is eternal
+         */
+        public long getExpirationTime() {
+            return expirationTime;
+        }
+    }
+
+    /**
+     * Entries sharing the same value of a dimension.
+     */
+    public static class Group {
+        private final String value;
+        private long entries;
+        private long size;
+        private long hits;
+        private long hitEntries;
+
+        Group(String value) {
+            this.value = value;
+        }
+
+        void add(EntryInfo entry) {
+            entries++;
+            size += entry.getSize();
+            hits += entry.getHits();
+            if (entry.getHits() > 0) {
+                hitEntries++;
+            }
+        }
+
+        Group copy() {
+            Group copy = new Group(value);
+            copy.entries = entries;
+            copy.size = size;
+            copy.hits = hits;
+            copy.hitEntries = hitEntries;
+            return copy;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public long getEntries() {
+            return entries;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * @return the ratio of the entries that were served from the cache at least once
+         */
+        public double getReusedRatio() {
+            return entries > 0 ? (double) hitEntries / entries : 0;
+        }
+
+        /**
+         * @return the estimated hit ratio of the group, counting one miss for the generation of each entry
+         */
+        public double getHitRatio() {
+            return entries + hits > 0 ? (double) hits / (entries + hits) : 0;
+        }
+    }
+
+    /**
+     * Counts of values in fixed buckets.
+     */
+    private static class Distribution {
+        private final long[] bounds;
+        private final String[] labels;
+        private final long[] counts;
+
+        Distribution(long[] bounds, String[] labels) {
+            this.bounds = bounds;
+            this.labels = labels;
+            this.counts = new long[labels.length];
+        }
+
+        void add(long value) {
+            int i = 0;
+            while (i < bounds.length && value >= bounds[i]) {
+                i++;
+            }
+            counts[i]++;
+        }
+
+        Map<String, Long> toMap() {
+            Map<String, Long> result = new LinkedHashMap<>();
+            for (int i = 0; i < labels.length; i++) {
+                result.put(labels[i], counts[i]);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,453 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.cache;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import org.apache.commons.lang.StringUtils;
+import org.jahia.services.render.filter.cache.CacheKeyGenerator;
+import org.jahia.services.render.filter.cache.ModuleCacheProvider;
+import org.jahia.settings.SettingsBean;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Warms the module output cache up after a flush or a restart.
+ * <p>
+ * The most hit live HTML page entries of the output cache are periodically captured into a file under the Jahia var
+ * directory, as the render URLs of their node path, language and template. Only the fragments rendered as the main
+ * resource of a page are captured: the other ones are included in a page and cannot be requested on their own. The hit counts of the previous capture are
+ * halved and merged with the new ones, so that a capture done right after a flush does not drop the list. A warm-up
+ * requests these URLs, most hit first, on a bounded pool with a pause between the requests; the requests are anonymous,
+ * so they fill the entries shared by the guest users. They must target this server directly, e.g. its loopback
+ * address, not a load balancer which would warm the caches of other cluster nodes up: the base URLs of other hosts are
+ * refused.
+ * <p>
+ * If the <code>jahia.tools.cacheWarmup.baseUrl</code> system property is set, a warm-up is started with this base URL
+ * when the component is activated.
+ */
+@Component(service = OutputCacheWarmup.class, immediate = true)
+public class OutputCacheWarmup {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutputCacheWarmup.class);
+
+    private static final String BASE_URL_PROPERTY = "jahia.tools.cacheWarmup.baseUrl";
+    // context configuration of the resources rendered as the main resource of a request
+    private static final String PAGE_CONTEXT = "page";
+    private static final long CAPTURE_INTERVAL_MINUTES = 10L;
+    private static final long STARTUP_WARMUP_DELAY_MINUTES = 2L;
+    private static final int MAX_URLS = 1000;
+    private static final int MAX_THREADS = 8;
+    private static final int CHUNK_SIZE = 1000;
+    private static final long CHUNK_PAUSE = 10L;
+    private static final int TIMEOUT = 30000;
+
+    private static volatile OutputCacheWarmup instance;
+
+    private ScheduledExecutorService scheduler;
+
+    private volatile Progress progress;
+
+    private volatile ExecutorService warmupExecutor;
+
+    private final Object captureLock = new Object();
+
+    private File urlsFile;
+
+    public static OutputCacheWarmup getInstance() {
+        return instance;
+    }
+
+    @Activate
+    public void activate() {
+        urlsFile = new File(SettingsBean.getInstance().getJahiaVarDiskPath(), "tools/output-cache-warmup.txt");
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tools-output-cache-warmup-capture");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::captureSafely, CAPTURE_INTERVAL_MINUTES, CAPTURE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+        String baseUrl = System.getProperty(BASE_URL_PROPERTY);
+        if (StringUtils.isNotEmpty(baseUrl)) {
+            scheduler.schedule(() -> {
+                try {
+                    startWarmup(baseUrl, 2, 100L);
+                } catch (IllegalArgumentException e) {
+                    logger.warn("Unable to start the output cache warm-up. Cause: " + e.getMessage());
+                }
+            }, STARTUP_WARMUP_DELAY_MINUTES, TimeUnit.MINUTES);
+        }
+        instance = this;
+    }
+
+    @Deactivate
+    public void deactivate() {
+        instance = null;
+        scheduler.shutdownNow();
+        stopWarmup();
+    }
+
+    /**
+     * Captures the most hit entries of the output cache in the background now, instead of waiting for the next
+     * periodic capture.
+     *
+     * @return <code>true</code> if the capture has been scheduled, <code>false</code> if a warm-up is running
+     */
+    public boolean startCapture() {
+        if (isWarmupRunning()) {
+            return false;
+        }
+        scheduler.execute(this::captureSafely);
+        return true;
+    }
+
+    private int capture() throws IOException {
+        synchronized (captureLock) {
+            return doCapture();
+        }
+    }
+
+    private int doCapture() throws IOException {
+        Map<String, Long> hitsByUrl = new HashMap<>();
+        for (Map.Entry<String, Long> previous : readUrls().entrySet()) {
+            hitsByUrl.put(previous.getKey(), previous.getValue() / 2);
+        }
+
+        Ehcache cache = ModuleCacheProvider.getInstance().getCache();
+        CacheKeyGenerator keyGenerator = ModuleCacheProvider.getInstance().getKeyGenerator();
+        int inChunk = 0;
+        for (Object key : cache.getKeys()) {
+            Element element = cache.getQuiet(key);
+            if (element != null && element.getHitCount() > 0) {
+                String url = toUrl(keyGenerator, String.valueOf(key));
+                if (url != null) {
+                    hitsByUrl.merge(url, element.getHitCount(), Long::sum);
+                }
+            }
+            if (++inChunk == CHUNK_SIZE) {
+                inChunk = 0;
+                try {
+                    Thread.sleep(CHUNK_PAUSE);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return hitsByUrl.size();
+                }
+            }
+        }
+
+        List<Map.Entry<String, Long>> top = new ArrayList<>(hitsByUrl.entrySet());
+        top.removeIf(entry -> entry.getValue() <= 0);
+        top.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        if (top.size() > MAX_URLS) {
+            top = top.subList(0, MAX_URLS);
+        }
+        writeUrls(top);
+        return top.size();
+    }
+
+    /**
+     * Starts requesting the captured URLs, unless a warm-up is already running.
+     *
+     * @param baseUrl the base URL of this server, including the context path
+     * @param threads the number of concurrent requests, at most 8
+     * @param pause   the pause in milliseconds of each thread between two requests
+     * @return <code>true</code> if the warm-up has been started, <code>false</code> if one is already running or if
+     * no URL has been captured yet
+     * @throws IllegalArgumentException if the base URL is not an HTTP URL of this server
+     */
+    public synchronized boolean startWarmup(String baseUrl, int threads, long pause) {
+        checkLocal(baseUrl);
+        if (isWarmupRunning()) {
+            return false;
+        }
+        List<String> urls;
+        try {
+            urls = new ArrayList<>(readUrls().keySet());
+        } catch (IOException e) {
+            logger.error("Unable to read the output cache warm-up URLs from " + urlsFile, e);
+            return false;
+        }
+        if (urls.isEmpty()) {
+            return false;
+        }
+        String base = StringUtils.removeEnd(baseUrl, "/");
+        Progress newProgress = new Progress(urls.size());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, MAX_THREADS)), runnable -> {
+            Thread thread = new Thread(runnable, "tools-output-cache-warmup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (String url : urls) {
+            executor.execute(() -> {
+                if (newProgress.stopped) {
+                    return;
+                }
+                newProgress.record(request(base + encodePath(url)));
+                try {
+                    Thread.sleep(pause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        executor.shutdown();
+        progress = newProgress;
+        warmupExecutor = executor;
+        logger.info("Started the output cache warm-up of {} URLs on {}", urls.size(), base);
+        return true;
+    }
+
+    /**
+     * Stops the running warm-up; the requests in progress are completed.
+     */
+    public void stopWarmup() {
+        Progress current = progress;
+        if (current != null) {
+            current.stopped = true;
+        }
+        ExecutorService executor = warmupExecutor;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public boolean isWarmupRunning() {
+        ExecutorService executor = warmupExecutor;
+        return executor != null && !executor.isTerminated();
+    }
+
+    /**
+     * @return the progress of the running or last warm-up, <code>null</code> if none was started
+     */
+    public Progress getProgress() {
+        return progress;
+    }
+
+    /**
+     * @return the captured URLs with their hit counts, most hit first
+     * @throws IOException if the list cannot be read
+     */
+    public Map<String, Long> readUrls() throws IOException {
+        Map<String, Long> urls = new LinkedHashMap<>();
+        if (!urlsFile.isFile()) {
+            return urls;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(urlsFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf('\t');
+                if (separator > 0) {
+                    urls.put(line.substring(separator + 1), Long.parseLong(line.substring(0, separator)));
+                }
+            }
+        } catch (NumberFormatException e) {
+            logger.warn("Ignoring the invalid output cache warm-up list {}", urlsFile);
+            urls.clear();
+        }
+        return urls;
+    }
+
+    private void writeUrls(List<Map.Entry<String, Long>> urls) throws IOException {
+        File tmpFile = new File(urlsFile.getPath() + ".tmp");
+        Files.createDirectories(urlsFile.getParentFile().toPath());
+        try (BufferedWriter writer = Files.newBufferedWriter(tmpFile.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Long> url : urls) {
+                writer.write(url.getValue() + "\t" + url.getKey());
+                writer.newLine();
+            }
+        }
+        Files.move(tmpFile.toPath(), urlsFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void captureSafely() {
+        if (isWarmupRunning()) {
+            return;
+        }
+        try {
+            int count = capture();
+            logger.debug("Captured {} output cache warm-up URLs", count);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Unable to capture the output cache warm-up URLs", e);
+        }
+    }
+
+    /**
+     * Builds the render URL of a live HTML page output cache entry, relative to the server base URL.
+     *
+     * @return the URL, <code>null</code> if the entry is not the fragment of a main resource
+     */
+    private static String toUrl(CacheKeyGenerator keyGenerator, String key) {
+        Map<String, String> fields;
+        try {
+            fields = keyGenerator.parse(key);
+        } catch (RuntimeException e) {
+            return null;
+        }
+        String path = fields.get("path");
+        String language = fields.get("language");
+        if (!"live".equals(fields.get("workspace")) || !"html".equals(fields.get("templateType"))
+                || !PAGE_CONTEXT.equals(fields.get("context")) || StringUtils.isEmpty(path) || StringUtils.isEmpty(language) || !path.startsWith("/")) {
+            return null;
+        }
+        String template = fields.get("template");
+        return "/cms/render/live/" + language + path
+                + (StringUtils.isEmpty(template) || "default".equals(template) ? "" : "." + template) + ".html";
+    }
+
+    /**
+     * Checks that the base URL targets this server, so that the warm-up fills its caches and cannot be used to send
+     * requests to other hosts.
+     */
+    private static void checkLocal(String baseUrl) {
+        URL url;
+        try {
+            url = new URL(baseUrl);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid base URL: " + baseUrl, e);
+        }
+        if (!"http".equals(url.getProtocol()) && !"https".equals(url.getProtocol())) {
+            throw new IllegalArgumentException("The base URL must be an HTTP URL: " + baseUrl);
+        }
+        try {
+            for (InetAddress address : InetAddress.getAllByName(url.getHost())) {
+                if (!address.isLoopbackAddress() && !address.isAnyLocalAddress() && NetworkInterface.getByInetAddress(address) == null) {
+                    throw new IllegalArgumentException("The base URL must target this server: " + baseUrl);
+                }
+            }
+        } catch (UnknownHostException | SocketException e) {
+            throw new IllegalArgumentException("Unable to resolve the host of the base URL: " + baseUrl, e);
+        }
+    }
+
+    /**
+     * Encodes each segment of a captured URL, whose node path may contain spaces or non-ASCII characters.
+     */
+    private static String encodePath(String url) {
+        String[] segments = StringUtils.splitPreserveAllTokens(url, '/');
+        StringBuilder encoded = new StringBuilder(url.length());
+        for (int i = 0; i < segments.length; i++) {
+            if (i > 0) {
+                encoded.append('/');
+            }
+            encoded.append(URLEncoder.encode(segments[i], StandardCharsets.UTF_8).replace("+", "%20"));
+        }
+        return encoded.toString();
+    }
+
+    private static boolean request(String url) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(TIMEOUT);
+            connection.setReadTimeout(TIMEOUT);
+            connection.setInstanceFollowRedirects(false);
+            connection.setRequestProperty("User-Agent", "jahia-tools-cache-warmup");
+            int status = connection.getResponseCode();
+            try (InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (body != null) {
+                    byte[] buffer = new byte[8192];
+                    while (body.read(buffer) != -1) {
+                        // the content is not used, only the rendering matters
+                    }
+                }
+            }
+            return status < 400;
+        } catch (IOException e) {
+            logger.debug("Unable to warm {} up", url, e);
+            return false;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Progress of a warm-up.
+     */
+    public static class Progress {
+        private final long startTime = System.currentTimeMillis();
+        private final int total;
+        private final AtomicInteger succeeded = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private volatile long lastTime;
+        private volatile boolean stopped;
+
+        Progress(int total) {
+            this.total = total;
+        }
+
+        void record(boolean success) {
+            (success ? succeeded : failed).incrementAndGet();
+            lastTime = System.currentTimeMillis();
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getSucceeded() {
+            return succeeded.get();
+        }
+
+        public int getFailed() {
+            return failed.get();
+        }
+
+        public int getPercent() {
+            return total > 0 ? (succeeded.get() + failed.get()) * 100 / total : 100;
+        }
+
+        /**
+         * @return the elapsed time in milliseconds until the last request
+         */
+        public long getDuration() {
+            return lastTime > 0 ? lastTime - startTime : 0;
+        }
+
+        public boolean isStopped() {
+            return stopped;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.csrf;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Stateless access tokens: a token is the expiry timestamp followed by an HMAC-SHA256 signature of the HTTP session ID
+ * and this timestamp, so nothing has to be stored server side.
+ * <p>
+ * Token format: <code>&lt;expiry in milliseconds, radix 36&gt;.&lt;base64url signature&gt;</code>
+ */
+class SignedAccessTokens {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private static final char SEPARATOR = '.';
+
+    private final SecretKeySpec key;
+
+    private final ThreadLocal<Mac> mac;
+
+    /**
+     * Initializes the token signer.
+     *
+     * @param secret the shared secret; if empty, a random secret is generated, which makes the tokens valid on this
+     *               node only
+     */
+    SignedAccessTokens(String secret) {
+        byte[] keyBytes;
+        if (secret == null || secret.isEmpty()) {
+            keyBytes = new byte[32];
+            new SecureRandom().nextBytes(keyBytes);
+        } else {
+            keyBytes = secret.getBytes(StandardCharsets.UTF_8);
+        }
+        key = new SecretKeySpec(keyBytes, ALGORITHM);
+        mac = ThreadLocal.withInitial(() -> {
+            try {
+                Mac instance = Mac.getInstance(ALGORITHM);
+                instance.init(key);
+                return instance;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Unable to initialize " + ALGORITHM, e);
+            }
+        });
+    }
+
+    String generate(String sessionId, long expiresAt) {
+        String expiry = Long.toString(expiresAt, Character.MAX_RADIX);
+        return expiry + SEPARATOR + Base64.getUrlEncoder().withoutPadding().encodeToString(sign(sessionId, expiry));
+    }
+
+    boolean isValid(String token, String sessionId, long now) {
+        int separatorIdx = token.indexOf(SEPARATOR);
+        if (separatorIdx <= 0) {
+            return false;
+        }
+        String expiry = token.substring(0, separatorIdx);
+        byte[] signature;
+        long expiresAt;
+        try {
+            expiresAt = Long.parseLong(expiry, Character.MAX_RADIX);
+            signature = Base64.getUrlDecoder().decode(token.substring(separatorIdx + 1));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        // constant-time comparison, not to leak how many bytes of the signature are correct
+        return MessageDigest.isEqual(sign(sessionId, expiry), signature) && expiresAt >= now;
+    }
+
+    private byte[] sign(String sessionId, String expiry) {
+        Mac instance = mac.get();
+        instance.update(sessionId.getBytes(StandardCharsets.UTF_8));
+        instance.update((byte) SEPARATOR);
+        return instance.doFinal(expiry.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -22,20 +22,22 @@ import org.jahia.settings.SettingsBean;
 import javax.servlet.*;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.UUID;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 public class ToolsAccessTokenFilter extends AbstractServletFilter {
     private static final String CSRF_TOKENS_ATTR = "toolAccessTokens";
     public static final String CSRF_TOKEN_ATTR = "toolAccessToken";
     private static final int MAX_TOKENS = 5000;
+    private static final String SIGNED_TOKEN_MODE = "signed";
     private int tokenExpiration = 20;
+    private boolean signedTokens;
+    private String tokenSecret;
+    private volatile SignedAccessTokens signer;
 
     private static final Pattern TOOLS_REGEXP = Pattern.compile("^(/[^/]+|)/tools/.*");
     private static final String TOKEN_URI = "/token";
@@ -80,7 +82,8 @@ public class ToolsAccessTokenFilter extends AbstractServletFilter {
         }
         String token = httpReq.getParameter(CSRF_TOKEN_ATTR);
 
-        if (token == null || getCache(httpReq).get(token) == null || getCache(httpReq).get(token) < (System.currentTimeMillis() - tokenExpiration * 60L * 1000L)) {
+        if (token == null || !(signedTokens ? getSigner().isValid(token, httpReq.getSession().getId(), System.currentTimeMillis())
+                : getStore(httpReq).isValid(toUUID(token), getOldestValidTimestamp()))) {
             throw new MissingTokenException("Missing token: " + httpReq.getRequestURL() + (StringUtils.isNotEmpty(httpReq.getQueryString()) ?
                     ("?" + httpReq.getQueryString()) : ""));
         }
@@ -91,21 +94,21 @@ public class ToolsAccessTokenFilter extends AbstractServletFilter {
 
 
     private String generateAndStoreToken(HttpServletRequest httpReq) {
-        // generate and store token
-        String token = UUID.randomUUID().toString();
-        Map<String, Long> tokens = getCache(httpReq);
-        synchronized (this){
-            tokens.put(token, System.currentTimeMillis());
-
-            //Purge stale tokens
-            tokens = tokens.entrySet().stream().filter(e -> e.getValue() > (System.currentTimeMillis() - tokenExpiration * 60L * 1000L))
-                    .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (e1, e2) -> e1, HashMap::new));
+        if (signedTokens) {
+            // nothing to store, the token carries its own expiry and signature
+            String token = getSigner().generate(httpReq.getSession().getId(),
+                    System.currentTimeMillis() + tokenExpiration * 60L * 1000L);
+            httpReq.setAttribute(CSRF_TOKEN_ATTR, token);
+            return token;
         }
 
-        if (tokens.size() > MAX_TOKENS) {
-            tokens.remove(tokens.entrySet().stream().min(Map.Entry.comparingByValue()).orElseThrow(ArrayIndexOutOfBoundsException::new).getKey());
-        }
+        // generate and store token
+        UUID uuid = UUID.randomUUID();
+        String token = uuid.toString();
+        ToolsAccessTokenStore tokens = getStore(httpReq);
+        tokens.add(uuid, System.currentTimeMillis(), getOldestValidTimestamp());
 
+        // set the attribute again so that the change gets replicated
         httpReq.getSession().setAttribute(CSRF_TOKENS_ATTR, tokens);
 
         // send token in current request
@@ -114,16 +117,48 @@ public class ToolsAccessTokenFilter extends AbstractServletFilter {
         return token;
     }
 
-    @SuppressWarnings("unchecked")
-    private HashMap<String, Long> getCache(HttpServletRequest httpReq) {
-        HashMap<String, Long> tokensCache = (HashMap<String, Long>) httpReq.getSession().getAttribute(CSRF_TOKENS_ATTR);
+    private SignedAccessTokens getSigner() {
+        SignedAccessTokens current = signer;
+        if (current == null) {
+            synchronized (this) {
+                current = signer;
+                if (current == null) {
+                    current = new SignedAccessTokens(tokenSecret);
+                    signer = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private long getOldestValidTimestamp() {
+        return System.currentTimeMillis() - tokenExpiration * 60L * 1000L;
+    }
+
+    private static UUID toUUID(String token) {
+        try {
+            return UUID.fromString(token);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
 
-        if (tokensCache == null){
-            tokensCache = new HashMap<>();
-            httpReq.getSession().setAttribute(CSRF_TOKENS_ATTR, tokensCache);
+    private ToolsAccessTokenStore getStore(HttpServletRequest httpReq) {
+        HttpSession session = httpReq.getSession();
+        Object tokens = session.getAttribute(CSRF_TOKENS_ATTR);
+        if (tokens instanceof ToolsAccessTokenStore) {
+            return (ToolsAccessTokenStore) tokens;
         }
 
-        return tokensCache;
+        synchronized (session) {
+            tokens = session.getAttribute(CSRF_TOKENS_ATTR);
+            if (!(tokens instanceof ToolsAccessTokenStore)) {
+                // also replaces the token maps stored by previous versions
+                tokens = new ToolsAccessTokenStore(MAX_TOKENS);
+                session.setAttribute(CSRF_TOKENS_ATTR, tokens);
+            }
+        }
+        return (ToolsAccessTokenStore) tokens;
     }
 
     @Override
@@ -139,4 +174,25 @@ public class ToolsAccessTokenFilter extends AbstractServletFilter {
     public void setTokenExpiration(int tokenExpiration) {
         this.tokenExpiration = tokenExpiration;
     }
+
+    /**
+     * Sets how the access tokens are kept: <code>session</code> (default) stores the issued tokens in the HTTP session,
+     * <code>signed</code> issues stateless tokens, signed over the session ID and their expiry.
+     *
+     * @param tokenMode the token mode
+     */
+    public void setTokenMode(String tokenMode) {
+        this.signedTokens = SIGNED_TOKEN_MODE.equalsIgnoreCase(StringUtils.trim(tokenMode));
+    }
+
+    /**
+     * Sets the secret used to sign the tokens in the <code>signed</code> mode. It must be the same on all cluster nodes
+     * if the sessions are not sticky. If empty, a random secret is generated at startup.
+     *
+     * @param tokenSecret the signing secret
+     */
+    public void setTokenSecret(String tokenSecret) {
+        this.tokenSecret = tokenSecret;
+        this.signer = null;
+    }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.csrf;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Bounded store of the access tokens issued for an HTTP session.
+ * <p>
+ * All tokens share the same expiration delay, so the insertion order is also the expiry order: expired and overflowing
+ * tokens are always at the head of the map and are evicted without scanning the whole store. The store is locked on
+ * its own, so concurrent requests of different sessions never contend. Tokens are serialized as raw UUID bits and
+ * timestamps to keep the replicated session attribute small.
+ */
+class ToolsAccessTokenStore implements Serializable {
+
+    private static final long serialVersionUID = 6264931741025817839L;
+
+    private final int maxTokens;
+
+    private transient LinkedHashMap<UUID, Long> tokens = new LinkedHashMap<>();
+
+    ToolsAccessTokenStore(int maxTokens) {
+        this.maxTokens = maxTokens;
+    }
+
+    /**
+     * Adds a token issued at the specified time, evicting the expired tokens and the eldest ones beyond the capacity.
+     *
+     * @param token       the token to add
+     * @param issuedAt    the issuing timestamp
+     * @param oldestValid timestamp before which the tokens are expired
+     */
+    synchronized void add(UUID token, long issuedAt, long oldestValid) {
+        purge(oldestValid);
+        tokens.put(token, issuedAt);
+        Iterator<UUID> it = tokens.keySet().iterator();
+        while (tokens.size() > maxTokens && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * Checks whether the token is known and not yet expired.
+     *
+     * @param token       the token to check
+     * @param oldestValid timestamp before which the tokens are expired
+     * @return <code>true</code> if the token is valid
+     */
+    synchronized boolean isValid(UUID token, long oldestValid) {
+        purge(oldestValid);
+        return tokens.containsKey(token);
+    }
+
+    private void purge(long oldestValid) {
+        Iterator<Map.Entry<UUID, Long>> it = tokens.entrySet().iterator();
+        while (it.hasNext() && it.next().getValue() < oldestValid) {
+            it.remove();
+        }
+    }
+
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(tokens.size());
+        for (Map.Entry<UUID, Long> entry : tokens.entrySet()) {
+            out.writeLong(entry.getKey().getMostSignificantBits());
+            out.writeLong(entry.getKey().getLeastSignificantBits());
+            out.writeLong(entry.getValue());
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int size = in.readInt();
+        tokens = new LinkedHashMap<>(Math.max(16, size * 4 / 3 + 1));
+        for (int i = 0; i < size; i++) {
+            tokens.put(new UUID(in.readLong(), in.readLong()), in.readLong());
+        }
+    }
+}
@@ -0,0 +1,519 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.db;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.StringUtils;
+import org.jahia.utils.DatabaseUtils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Runs a read query against the Jahia database and streams its rows to a writer, instead of loading the whole result
+ * in memory. The statement is forward-only and read-only, with a configurable fetch size and timeout.
+ * <p>
+ * Large results can be paged either with an offset, whose skipped rows are still read, or with a key column: the
+ * query is then wrapped to only return the rows whose key is greater than the last key of the previous page, ordered
+ * by that key, which lets the database use an index.
+ *
+ * @see #explain(String)
+ */
+public final class DatabaseQueryRunner {
+
+    /**
+     * Output formats of the rows.
+     */
+    public enum Format {
+        HTML("text/html"), CSV("text/csv"), JSON("application/json");
+
+        private final String contentType;
+
+        Format(String contentType) {
+            this.contentType = contentType;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+    }
+
+    /**
+     * Query execution options.
+     */
+    public static class Options {
+        private int fetchSize = 500;
+        private int timeout = 60;
+        private int maxRows = -1;
+        private int offset;
+        private String keyColumn;
+        private String afterKey;
+        private int afterKeyType = Types.VARCHAR;
+
+        /**
+         * @param fetchSize the number of rows fetched from the database at once
+         * @return this instance
+         */
+        public Options fetchSize(int fetchSize) {
+            this.fetchSize = fetchSize;
+            return this;
+        }
+
+        /**
+         * @param timeout the statement timeout in seconds, 0 for none
+         * @return this instance
+         */
+        public Options timeout(int timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        /**
+         * @param maxRows the maximum number of rows to write, -1 for all
+         * @return this instance
+         */
+        public Options maxRows(int maxRows) {
+            this.maxRows = maxRows;
+            return this;
+        }
+
+        /**
+         * @param offset the number of rows to skip
+         * @return this instance
+         */
+        public Options offset(int offset) {
+            this.offset = offset;
+            return this;
+        }
+
+        /**
+         * @param keyColumn the column to page on, the query is then ordered by it
+         * @param afterKey  the last key of the previous page, <code>null</code> for the first page
+         * @param afterKeyType the JDBC type of the key column, as returned by {@link Summary#getLastKeyType()}, used
+         *                     to convert the last key when binding it
+         * @return this instance
+         */
+        public Options keyset(String keyColumn, String afterKey, int afterKeyType) {
+            this.keyColumn = keyColumn;
+            this.afterKey = afterKey;
+            this.afterKeyType = afterKeyType;
+            return this;
+        }
+    }
+
+    /**
+     * Outcome of a query execution.
+     */
+    public static class Summary {
+        private final List<String> columns;
+        private final int rowCount;
+        private final boolean hasMore;
+        private final String lastKey;
+        private final int lastKeyType;
+        private final long duration;
+
+        Summary(List<String> columns, int rowCount, boolean hasMore, String lastKey, int lastKeyType, long duration) {
+            this.columns = columns;
+            this.rowCount = rowCount;
+            this.hasMore = hasMore;
+            this.lastKey = lastKey;
+            this.lastKeyType = lastKeyType;
+            this.duration = duration;
+        }
+
+        public List<String> getColumns() {
+            return columns;
+        }
+
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * @return <code>true</code> if the result has more rows than the maximum number of rows
+         */
+        public boolean isHasMore() {
+            return hasMore;
+        }
+
+        /**
+         * @return the key of the last written row when paging on a key column, to request the next page
+         */
+        public String getLastKey() {
+            return lastKey;
+        }
+
+        /**
+         * @return the JDBC type of the key column, see {@link Types}, to pass back with the last key
+         */
+        public int getLastKeyType() {
+            return lastKeyType;
+        }
+
+        /**
+         * @return the execution time in milliseconds, including the writing of the rows
+         */
+        public long getDuration() {
+            return duration;
+        }
+    }
+
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_$]*");
+
+    private static final int MAX_TEXT_LENGTH = 65536;
+
+    private DatabaseQueryRunner() {
+        super();
+    }
+
+    /**
+     * Executes the query and writes its rows in the given format.
+     *
+     * @param query   the SQL query
+     * @param format  the output format
+     * @param options the execution options
+     * @param out     the writer
+     * @return the execution summary
+     * @throws SQLException             in case of a database error
+     * @throws IOException              in case of a writing error
+     * @throws IllegalArgumentException if the key column is not a valid identifier
+     */
+    public static Summary execute(String query, Format format, Options options, Writer out) throws SQLException, IOException {
+        long startTime = System.currentTimeMillis();
+        String sql = query.trim();
+        if (sql.endsWith(";")) {
+            sql = sql.substring(0, sql.length() - 1);
+        }
+        boolean keyset = StringUtils.isNotEmpty(options.keyColumn);
+        if (keyset) {
+            if (!IDENTIFIER.matcher(options.keyColumn).matches()) {
+                throw new IllegalArgumentException("Invalid key column: " + options.keyColumn);
+            }
+            sql = "SELECT * FROM (" + sql + ") q" + (options.afterKey != null ? " WHERE q." + options.keyColumn + " > ?" : "")
+                    + " ORDER BY q." + options.keyColumn;
+        }
+
+        Connection conn = DatabaseUtils.getDatasource().getConnection();
+        boolean restoreAutoCommit = false;
+        try {
+            String product = conn.getMetaData().getDatabaseProductName().toLowerCase(Locale.ENGLISH);
+            if (product.contains("postgres") && conn.getAutoCommit()) {
+                // the PostgreSQL driver only uses a cursor outside of the auto-commit mode
+                conn.setAutoCommit(false);
+                restoreAutoCommit = true;
+            }
+            try (PreparedStatement stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                // the MySQL driver streams the rows one by one only with this special fetch size
+                stmt.setFetchSize(product.contains("mysql") || product.contains("mariadb") ? Integer.MIN_VALUE : options.fetchSize);
+                stmt.setQueryTimeout(options.timeout);
+                if (options.maxRows > 0) {
+                    // one more row to know if there are more
+                    stmt.setMaxRows(options.offset + options.maxRows + 1);
+                }
+                if (keyset && options.afterKey != null) {
+                    // converted by the driver to the type of the key column, so that it is compared as such
+                    stmt.setObject(1, options.afterKey, options.afterKeyType);
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return writeRows(rs, format, options, out, startTime);
+                }
+            }
+        } finally {
+            if (restoreAutoCommit) {
+                try {
+                    conn.rollback();
+                    conn.setAutoCommit(true);
+                } catch (SQLException e) {
+                    // the connection is closed anyway
+                }
+            }
+            DatabaseUtils.closeQuietly(conn);
+        }
+    }
+
+    private static Summary writeRows(ResultSet rs, Format format, Options options, Writer out, long startTime)
+            throws SQLException, IOException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        List<String> columns = new ArrayList<>(metaData.getColumnCount());
+        int keyIndex = 0;
+        int keyType = Types.VARCHAR;
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            String column = metaData.getColumnLabel(i);
+            columns.add(column);
+            if (column.equalsIgnoreCase(options.keyColumn)) {
+                keyIndex = i;
+                keyType = metaData.getColumnType(i);
+            }
+        }
+
+        for (int skipped = 0; skipped < options.offset && rs.next(); skipped++) {
+            // forward-only cursor, the offset rows are read and dropped
+        }
+
+        RowWriter writer = newWriter(format, out, options.offset);
+        writer.start(columns);
+        int count = 0;
+        boolean hasMore = false;
+        String lastKey = null;
+        String[] values = new String[columns.size()];
+        while (rs.next()) {
+            if (options.maxRows > 0 && count == options.maxRows) {
+                hasMore = true;
+                break;
+            }
+            for (int i = 0; i < values.length; i++) {
+                values[i] = toString(rs, i + 1);
+            }
+            if (keyIndex > 0) {
+                lastKey = values[keyIndex - 1];
+            }
+            writer.row(values);
+            count++;
+        }
+        writer.end();
+        out.flush();
+        return new Summary(columns, count, hasMore, lastKey, keyType, System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Returns the execution plan of the query, on the databases that support it. Only single SELECT queries are
+     * accepted, as some databases execute the explained statement.
+     *
+     * @param query the SQL query
+     * @return the lines of the execution plan or <code>null</code> if the database is not supported
+     * @throws SQLException             in case of a database error
+     * @throws IllegalArgumentException if the query is not a single SELECT query
+     */
+    public static List<String> explain(String query) throws SQLException {
+        String sql = StringUtils.removeEnd(query.trim(), ";");
+        if (!sql.toLowerCase(Locale.ENGLISH).startsWith("select") || sql.contains(";")) {
+            throw new IllegalArgumentException("Only single SELECT queries can be explained");
+        }
+        Connection conn = DatabaseUtils.getDatasource().getConnection();
+        try (Statement stmt = conn.createStatement()) {
+            String product = conn.getMetaData().getDatabaseProductName().toLowerCase(Locale.ENGLISH);
+            String planQuery;
+            if (product.contains("postgres") || product.contains("mysql") || product.contains("mariadb")) {
+                planQuery = "EXPLAIN " + sql;
+            } else if (product.contains("oracle")) {
+                stmt.execute("EXPLAIN PLAN FOR " + sql);
+                planQuery = "SELECT plan_table_output FROM TABLE(DBMS_XPLAN.DISPLAY())";
+            } else {
+                return null;
+            }
+            List<String> plan = new ArrayList<>();
+            try (ResultSet rs = stmt.executeQuery(planQuery)) {
+                int columnCount = rs.getMetaData().getColumnCount();
+                while (rs.next()) {
+                    StringBuilder line = new StringBuilder();
+                    for (int i = 1; i <= columnCount; i++) {
+                        if (i > 1) {
+                            line.append(" | ");
+                        }
+                        line.append(rs.getString(i));
+                    }
+                    plan.add(line.toString());
+                }
+            }
+            return plan;
+        } finally {
+            DatabaseUtils.closeQuietly(conn);
+        }
+    }
+
+    private static String toString(ResultSet rs, int column) throws SQLException, IOException {
+        Object value = rs.getObject(column);
+        if (value == null) {
+            return null;
+        } else if (value instanceof byte[]) {
+            return "[binary, " + ((byte[]) value).length + " bytes]";
+        } else if (value instanceof Blob) {
+            return "[binary, " + ((Blob) value).length() + " bytes]";
+        } else if (value instanceof Clob) {
+            Clob clob = (Clob) value;
+            try (Reader reader = clob.getCharacterStream()) {
+                char[] buffer = new char[(int) Math.min(clob.length(), MAX_TEXT_LENGTH)];
+                int read = 0;
+                int n;
+                while (read < buffer.length && (n = reader.read(buffer, read, buffer.length - read)) != -1) {
+                    read += n;
+                }
+                return new String(buffer, 0, read) + (clob.length() > read ? "..." : "");
+            }
+        }
+        return value.toString();
+    }
+
+    private static RowWriter newWriter(Format format, Writer out, int offset) {
+        switch (format) {
+            case CSV:
+                return new CsvRowWriter(out);
+            case JSON:
+                return new JsonRowWriter(out);
+            default:
+                return new HtmlRowWriter(out, offset);
+        }
+    }
+
+    private interface RowWriter {
+        void start(List<String> columns) throws IOException;
+
+        void row(String[] values) throws IOException;
+
+        void end() throws IOException;
+    }
+
+    private static final class HtmlRowWriter implements RowWriter {
+        private final Writer out;
+        private int index;
+
+        HtmlRowWriter(Writer out, int offset) {
+            this.out = out;
+            this.index = offset;
+        }
+
+        @Override
+        public void start(List<String> columns) throws IOException {
+            out.write("<table border=\"1\" cellspacing=\"0\" cellpadding=\"5\">\n<thead>\n<tr><th>#</th>");
+            for (String column : columns) {
+                out.write("<th>" + StringEscapeUtils.escapeXml(column) + "</th>");
+            }
+            out.write("</tr>\n</thead>\n<tbody>\n");
+        }
+
+        @Override
+        public void row(String[] values) throws IOException {
+            out.write("<tr><td><strong>" + index++ + "</strong></td>");
+            for (String value : values) {
+                out.write("<td>" + StringEscapeUtils.escapeXml(StringUtils.defaultString(value)) + "</td>");
+            }
+            out.write("</tr>\n");
+        }
+
+        @Override
+        public void end() throws IOException {
+            out.write("</tbody>\n</table>\n");
+        }
+    }
+
+    private static final class CsvRowWriter implements RowWriter {
+        private final Writer out;
+
+        CsvRowWriter(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void start(List<String> columns) throws IOException {
+            row(columns.toArray(new String[0]));
+        }
+
+        @Override
+        public void row(String[] values) throws IOException {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                String value = values[i];
+                if (value != null) {
+                    if (StringUtils.containsAny(value, ",\"\r\n")) {
+                        out.write('"' + StringUtils.replace(value, "\"", "\"\"") + '"');
+                    } else {
+                        out.write(value);
+                    }
+                }
+            }
+            out.write("\r\n");
+        }
+
+        @Override
+        public void end() {
+            // nothing to close
+        }
+    }
+
+    private static final class JsonRowWriter implements RowWriter {
+        private final Writer out;
+        private List<String> columns;
+        private boolean first = true;
+
+        JsonRowWriter(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void start(List<String> columns) throws IOException {
+            this.columns = columns;
+            out.write("[\n");
+        }
+
+        @Override
+        public void row(String[] values) throws IOException {
+            out.write(first ? "{" : ",\n{");
+            first = false;
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                out.write('"' + escapeJson(columns.get(i)) + "\":");
+                out.write(values[i] != null ? '"' + escapeJson(values[i]) + '"' : "null");
+            }
+            out.write('}');
+        }
+
+        @Override
+        public void end() throws IOException {
+            out.write("\n]\n");
+        }
+
+        private static String escapeJson(String value) {
+            StringBuilder escaped = new StringBuilder(value.length() + 16);
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        escaped.append("\\\"");
+                        break;
+                    case '\\':
+                        escaped.append("\\\\");
+                        break;
+                    case '\n':
+                        escaped.append("\\n");
+                        break;
+                    case '\r':
+                        escaped.append("\\r");
+                        break;
+                    case '\t':
+                        escaped.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            escaped.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            escaped.append(c);
+                        }
+                }
+            }
+            return escaped.toString();
+        }
+    }
+}
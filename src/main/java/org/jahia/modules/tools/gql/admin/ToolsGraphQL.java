@@ -19,12 +19,24 @@ import graphql.annotations.annotationTypes.GraphQLDefaultValue;
 import graphql.annotations.annotationTypes.GraphQLDescription;
 import graphql.annotations.annotationTypes.GraphQLField;
 import graphql.annotations.annotationTypes.GraphQLName;
+import graphql.annotations.annotationTypes.GraphQLNonNull;
+import graphql.annotations.connection.GraphQLConnection;
+import graphql.schema.DataFetchingEnvironment;
+import org.jahia.modules.graphql.provider.dxm.relay.DXPaginatedData;
+import org.jahia.modules.graphql.provider.dxm.relay.DXPaginatedDataConnectionFetcher;
+import org.jahia.modules.graphql.provider.dxm.relay.PaginationHelper;
 import org.jahia.modules.graphql.provider.dxm.util.GqlUtils;
+import org.jahia.modules.tools.gql.admin.osgi.BundleRefreshImpact;
 import org.jahia.modules.tools.gql.admin.osgi.BundleWithDependencies;
+import org.jahia.modules.tools.gql.admin.osgi.BundleWithImportPackages;
+import org.jahia.modules.tools.gql.admin.osgi.ExportPackages;
 import org.jahia.modules.tools.gql.admin.osgi.FindExportPackage;
 import org.jahia.modules.tools.gql.admin.osgi.FindImportPackage;
 import org.jahia.modules.tools.gql.admin.osgi.OSGIPackageHeaderChecker;
+import org.jahia.modules.tools.gql.admin.osgi.WiredBundle;
+import org.jahia.modules.tools.gql.admin.osgi.WiringGraph;
 
+import java.util.Collection;
 import java.util.List;
 
 
@@ -60,4 +72,76 @@ public class ToolsGraphQL {
         return OSGIPackageHeaderChecker.findBundles(nameRegExp, areModules, withUnsupportedDependenciesOnly);
     }
 
+    @GraphQLField
+    @GraphQLDescription("Paginated list of matching bundles, in the bundle ID order. The dependencies are only computed for the returned page.")
+    @GraphQLConnection(connectionFetcher = DXPaginatedDataConnectionFetcher.class)
+    public DXPaginatedData<BundleWithDependencies> bundlesConnection(
+            @GraphQLName("nameRegExp") @GraphQLDescription("Only return bundles whose symbolic names match the given regular expression") String nameRegExp,
+            @GraphQLName("areModules") @GraphQLDescription("Allows to filter on whether the bundles are Jahia modules or not. By default, both Jahia modules and non Jahia modules are returned.") Boolean areModules,
+            @GraphQLName("withUnsupportedDependenciesOnly") @GraphQLDescription("Only return bundles that have 1 or more dependencies configured with an unsupported version range") @GraphQLDefaultValue(GqlUtils.SupplierFalse.class) boolean withUnsupportedDependenciesOnly,
+            DataFetchingEnvironment environment
+    ) {
+        PaginationHelper.Arguments arguments = PaginationHelper.parseArguments(environment);
+        return PaginationHelper.paginate(OSGIPackageHeaderChecker.streamBundles(nameRegExp, areModules, withUnsupportedDependenciesOnly),
+                bundle -> PaginationHelper.encodeCursor(String.valueOf(bundle.getBundleId())), arguments);
+    }
+
+    @GraphQLField
+    @GraphQLDescription("Paginated list of the bundles with import packages matching the given parameters, in the bundle ID order.")
+    @GraphQLConnection(connectionFetcher = DXPaginatedDataConnectionFetcher.class)
+    public DXPaginatedData<BundleWithImportPackages> importPackagesConnection(
+            @GraphQLName("RegExp") @GraphQLDescription("will return only import-package matching the RegExp") String regExp,
+            @GraphQLName("version") @GraphQLDescription("will return only import-package matching the given version") String version,
+            @GraphQLName("versionMissing") @GraphQLDescription("will return only import-package without version range") @GraphQLDefaultValue(GqlUtils.SupplierFalse.class) boolean versionMissing,
+            DataFetchingEnvironment environment
+    ) {
+        PaginationHelper.Arguments arguments = PaginationHelper.parseArguments(environment);
+        return PaginationHelper.paginate(OSGIPackageHeaderChecker.findImportPackageBundles(regExp, version, versionMissing).stream(),
+                bundle -> PaginationHelper.encodeCursor(String.valueOf(bundle.getBundleId())), arguments);
+    }
+
+    @GraphQLField
+    @GraphQLDescription("Paginated list of the export packages matching the given parameters, sorted by package name.")
+    @GraphQLConnection(connectionFetcher = DXPaginatedDataConnectionFetcher.class)
+    public DXPaginatedData<ExportPackages> exportPackagesConnection(
+            @GraphQLName("RegExp") @GraphQLDescription("will return only export-package matching the RegExp") String regExp,
+            @GraphQLName("duplicates") @GraphQLDescription("will return only export-package found multiple times for a same package name") @GraphQLDefaultValue(GqlUtils.SupplierFalse.class) boolean duplicates,
+            DataFetchingEnvironment environment
+    ) {
+        PaginationHelper.Arguments arguments = PaginationHelper.parseArguments(environment);
+        return PaginationHelper.paginate(OSGIPackageHeaderChecker.findExportPackageList(regExp, duplicates).stream(),
+                exportPackages -> PaginationHelper.encodeCursor(exportPackages.getPackageName()), arguments);
+    }
+
+    @GraphQLField
+    @GraphQLDescription("List of the bundles depending on the given bundle, by increasing distance.")
+    public List<WiredBundle> bundleDependents(
+            @GraphQLName("symbolicName") @GraphQLDescription("Symbolic name of the bundle") @GraphQLNonNull String symbolicName,
+            @GraphQLName("version") @GraphQLDescription("Version of the bundle. By default, all installed versions are used.") String version,
+            @GraphQLName("transitive") @GraphQLDescription("Whether to return the indirect dependents too") @GraphQLDefaultValue(GqlUtils.SupplierFalse.class) boolean transitive,
+            @GraphQLName("types") @GraphQLDescription("Dependency types to follow. By default, all types are followed.") Collection<WiringGraph.WireType> types
+    ) {
+        return OSGIPackageHeaderChecker.findWiredBundles(symbolicName, version, true, transitive, types);
+    }
+
+    @GraphQLField
+    @GraphQLDescription("List of the bundles the given bundle depends on, by increasing distance.")
+    public List<WiredBundle> bundleDependencies(
+            @GraphQLName("symbolicName") @GraphQLDescription("Symbolic name of the bundle") @GraphQLNonNull String symbolicName,
+            @GraphQLName("version") @GraphQLDescription("Version of the bundle. By default, all installed versions are used.") String version,
+            @GraphQLName("transitive") @GraphQLDescription("Whether to return the indirect dependencies too") @GraphQLDefaultValue(GqlUtils.SupplierFalse.class) boolean transitive,
+            @GraphQLName("types") @GraphQLDescription("Dependency types to follow. By default, all types are followed.") Collection<WiringGraph.WireType> types
+    ) {
+        return OSGIPackageHeaderChecker.findWiredBundles(symbolicName, version, false, transitive, types);
+    }
+
+    @GraphQLField
+    @GraphQLDescription("Bundles that would be refreshed if the given bundle was updated.")
+    public BundleRefreshImpact bundleRefreshImpact(
+            @GraphQLName("symbolicName") @GraphQLDescription("Symbolic name of the bundle") @GraphQLNonNull String symbolicName,
+            @GraphQLName("version") @GraphQLDescription("Version of the bundle. By default, all installed versions are used.") String version
+    ) {
+        return OSGIPackageHeaderChecker.findRefreshImpact(symbolicName, version);
+    }
+
 }
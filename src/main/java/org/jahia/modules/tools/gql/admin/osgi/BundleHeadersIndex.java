@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.gql.admin.osgi;
+
+import org.apache.felix.utils.manifest.Clause;
+import org.apache.felix.utils.manifest.Parser;
+import org.jahia.services.modulemanager.util.ModuleUtils;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.Constants;
+import org.osgi.framework.SynchronousBundleListener;
+import org.osgi.framework.VersionRange;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the parsed Import-Package, Export-Package and Jahia-Depends headers of all bundles, so that they are not parsed
+ * again on every request. Entries are keyed by bundle ID and checked against the bundle last modification time; they
+ * are evicted on bundle install, update and uninstall events.
+ * <p>
+ * Also maintains the indexes of the package names to their exporting and importing bundles, rebuilt lazily from the
+ * parsed headers after a bundle change.
+ */
+@Component(service = BundleHeadersIndex.class, immediate = true)
+public class BundleHeadersIndex implements SynchronousBundleListener {
+
+    private static volatile BundleHeadersIndex instance;
+
+    private final Map<Long, BundleHeaders> headers = new ConcurrentHashMap<>();
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile PackageIndex packageIndex;
+
+    private final Map<String, VersionRange> versionRanges = new ConcurrentHashMap<>();
+
+    private BundleContext bundleContext;
+
+    public static BundleHeadersIndex getInstance() {
+        return instance;
+    }
+
+    @Activate
+    public void activate(BundleContext bundleContext) {
+        this.bundleContext = bundleContext;
+        bundleContext.addBundleListener(this);
+        instance = this;
+    }
+
+    @Deactivate
+    public void deactivate(BundleContext bundleContext) {
+        instance = null;
+        bundleContext.removeBundleListener(this);
+        headers.clear();
+        versionRanges.clear();
+        packageIndex = null;
+    }
+
+    @Override
+    public void bundleChanged(BundleEvent event) {
+        int type = event.getType();
+        if (type == BundleEvent.INSTALLED || type == BundleEvent.UPDATED || type == BundleEvent.UNINSTALLED) {
+            headers.remove(event.getBundle().getBundleId());
+            generation.incrementAndGet();
+            if (type != BundleEvent.INSTALLED) {
+                // the ranges of the previous manifest may no longer be declared, they are parsed again on demand
+                versionRanges.clear();
+            }
+        }
+    }
+
+    /**
+     * @return all bundles currently installed in the framework
+     */
+    public Bundle[] getBundles() {
+        return bundleContext.getBundles();
+    }
+
+    /**
+     * @param bundleId the bundle ID
+     * @return the bundle with the given ID or <code>null</code> if it has been uninstalled
+     */
+    public Bundle getBundle(long bundleId) {
+        return bundleContext.getBundle(bundleId);
+    }
+
+    /**
+     * Returns the parsed headers of the bundle, parsing them only if they are not cached yet or if the bundle has been
+     * modified since.
+     *
+     * @param bundle the bundle
+     * @return the parsed headers of the bundle
+     */
+    public BundleHeaders getHeaders(Bundle bundle) {
+        BundleHeaders parsed = headers.get(bundle.getBundleId());
+        if (parsed == null || parsed.lastModified != bundle.getLastModified()) {
+            parsed = new BundleHeaders(bundle);
+            headers.put(bundle.getBundleId(), parsed);
+        }
+        return parsed;
+    }
+
+    /**
+     * @return the index of the package names to their importing and exporting bundles
+     */
+    public PackageIndex getPackageIndex() {
+        long currentGeneration = generation.get();
+        PackageIndex current = packageIndex;
+        if (current == null || current.generation != currentGeneration) {
+            current = new PackageIndex(currentGeneration);
+            Set<Long> bundleIds = new HashSet<>();
+            for (Bundle bundle : getBundles()) {
+                current.add(bundle.getBundleId(), getHeaders(bundle));
+                bundleIds.add(bundle.getBundleId());
+            }
+            // drop the entries of uninstalled bundles that may have been parsed concurrently to their removal
+            headers.keySet().retainAll(bundleIds);
+            packageIndex = current;
+        }
+        return current;
+    }
+
+    /**
+     * Returns the parsed version range, memoized as the same ranges are declared by many bundles. The memo is cleared
+     * when a bundle is updated or uninstalled, so that it only holds the ranges of the installed bundles.
+     *
+     * @param versionRange the version range
+     * @return the parsed version range
+     * @throws IllegalArgumentException if the version range is invalid
+     */
+    public VersionRange getVersionRange(String versionRange) {
+        return versionRanges.computeIfAbsent(versionRange, VersionRange::new);
+    }
+
+    static Stream<Dependency> parseImportPackageDependencies(Clause[] importPackages) {
+        return Arrays.stream(importPackages).map(Dependency::parse);
+    }
+
+    static Stream<Dependency> parseJahiaDependsDependencies(String jahiaDependsHeader) {
+        return Optional.ofNullable(jahiaDependsHeader)
+                .map(ModuleUtils::toDependsArray).stream()
+                .flatMap(Arrays::stream)
+                .map(String::trim)
+                .map(Dependency::parse);
+    }
+
+    private static Clause[] parseHeader(String header) {
+        return header != null ? Parser.parseHeader(header) : new Clause[0];
+    }
+
+    /**
+     * Parsed headers of a bundle.
+     */
+    public static final class BundleHeaders {
+        private final long lastModified;
+        private final String name;
+        private final Clause[] importPackages;
+        private final Clause[] exportPackages;
+        private final String jahiaDepends;
+        private volatile Map<Dependency.Status, List<Dependency>> dependenciesByStatus;
+
+        BundleHeaders(Bundle bundle) {
+            Dictionary<String, String> bundleHeaders = bundle.getHeaders();
+            this.lastModified = bundle.getLastModified();
+            this.name = bundleHeaders.get(Constants.BUNDLE_NAME);
+            this.importPackages = parseHeader(bundleHeaders.get(Constants.IMPORT_PACKAGE));
+            this.exportPackages = parseHeader(bundleHeaders.get(Constants.EXPORT_PACKAGE));
+            this.jahiaDepends = bundleHeaders.get("Jahia-Depends");
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Clause[] getImportPackages() {
+            return importPackages;
+        }
+
+        public Clause[] getExportPackages() {
+            return exportPackages;
+        }
+
+        /**
+         * Returns the Import-Package and Jahia-Depends dependencies grouped by status, computed on first access only.
+         *
+         * @return the dependencies grouped by status
+         */
+        public Map<Dependency.Status, List<Dependency>> getDependenciesByStatus() {
+            Map<Dependency.Status, List<Dependency>> result = dependenciesByStatus;
+            if (result == null) {
+                result = Collections.unmodifiableMap(
+                        Stream.concat(parseImportPackageDependencies(importPackages), parseJahiaDependsDependencies(jahiaDepends))
+                                .collect(Collectors.groupingBy(Dependency::getStatus)));
+                dependenciesByStatus = result;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A package clause declared by a bundle.
+     */
+    public static final class PackageClause {
+        private final long bundleId;
+        private final int position;
+        private final Clause clause;
+
+        PackageClause(long bundleId, int position, Clause clause) {
+            this.bundleId = bundleId;
+            this.position = position;
+            this.clause = clause;
+        }
+
+        public long getBundleId() {
+            return bundleId;
+        }
+
+        /**
+         * @return the position of the clause in its manifest header, to list the clauses of a bundle in the declared
+         * order
+         */
+        public int getPosition() {
+            return position;
+        }
+
+        public Clause getClause() {
+            return clause;
+        }
+    }
+
+    /**
+     * Index of the package names to the bundles importing and exporting them. Package names are sorted.
+     */
+    public static final class PackageIndex {
+        private final long generation;
+        private final Map<String, List<PackageClause>> importers = new TreeMap<>();
+        private final Map<String, List<PackageClause>> exporters = new TreeMap<>();
+
+        PackageIndex(long generation) {
+            this.generation = generation;
+        }
+
+        private void add(long bundleId, BundleHeaders bundleHeaders) {
+            Clause[] importPackages = bundleHeaders.getImportPackages();
+            for (int i = 0; i < importPackages.length; i++) {
+                importers.computeIfAbsent(importPackages[i].getName(), k -> new ArrayList<>())
+                        .add(new PackageClause(bundleId, i, importPackages[i]));
+            }
+            Clause[] exportPackages = bundleHeaders.getExportPackages();
+            for (int i = 0; i < exportPackages.length; i++) {
+                exporters.computeIfAbsent(exportPackages[i].getName(), k -> new ArrayList<>())
+                        .add(new PackageClause(bundleId, i, exportPackages[i]));
+            }
+        }
+
+        public Map<String, List<PackageClause>> getImporters() {
+            return Collections.unmodifiableMap(importers);
+        }
+
+        public Map<String, List<PackageClause>> getExporters() {
+            return Collections.unmodifiableMap(exporters);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.gql.admin.osgi;
+
+import graphql.annotations.annotationTypes.GraphQLDescription;
+import graphql.annotations.annotationTypes.GraphQLField;
+import graphql.annotations.annotationTypes.GraphQLName;
+
+import java.util.List;
+
+@GraphQLName("BundleRefreshImpact")
+@GraphQLDescription("Bundles that get refreshed when the requested bundles are updated.")
+public class BundleRefreshImpact {
+
+    private final List<Long> bundleIds;
+
+    private final List<WiredBundle> impactedBundles;
+
+    public BundleRefreshImpact(List<Long> bundleIds, List<WiredBundle> impactedBundles) {
+        this.bundleIds = bundleIds;
+        this.impactedBundles = impactedBundles;
+    }
+
+    @GraphQLField
+    @GraphQLName("bundleIds")
+    @GraphQLDescription("IDs of the requested bundles.")
+    public List<Long> getBundleIds() {
+        return bundleIds;
+    }
+
+    @GraphQLField
+    @GraphQLName("impactedCount")
+    @GraphQLDescription("Number of bundles refreshed in addition to the requested ones.")
+    public int getImpactedCount() {
+        return impactedBundles.size();
+    }
+
+    @GraphQLField
+    @GraphQLName("impactedBundles")
+    @GraphQLDescription("Bundles refreshed in addition to the requested ones, by increasing distance.")
+    public List<WiredBundle> getImpactedBundles() {
+        return impactedBundles;
+    }
+}
@@ -34,7 +34,17 @@ public abstract class BundleResultEntry {
     private final Version version;
 
     public BundleResultEntry(Bundle bundle) {
-        this.name = bundle.getHeaders().get("Bundle-Name");
+        this(bundle, bundle.getHeaders().get("Bundle-Name"));
+    }
+
+    /**
+     * Creates the entry with an already known bundle name, avoiding to read the bundle headers again.
+     *
+     * @param bundle the bundle
+     * @param name   the value of the Bundle-Name header
+     */
+    protected BundleResultEntry(Bundle bundle, String name) {
+        this.name = name;
         this.symbolicName = bundle.getSymbolicName();
         this.displayName = name != null ?
                 name + " (" + symbolicName + ")" :
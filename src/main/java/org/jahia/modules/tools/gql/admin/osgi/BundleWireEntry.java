@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.gql.admin.osgi;
+
+import graphql.annotations.annotationTypes.GraphQLDescription;
+import graphql.annotations.annotationTypes.GraphQLField;
+import graphql.annotations.annotationTypes.GraphQLName;
+
+@GraphQLName("BundleWire")
+@GraphQLDescription("Dependency between two bundles.")
+public class BundleWireEntry {
+
+    private final WiringGraph.Edge edge;
+
+    public BundleWireEntry(WiringGraph.Edge edge) {
+        this.edge = edge;
+    }
+
+    @GraphQLField
+    @GraphQLName("type")
+    @GraphQLDescription("The type of the dependency.")
+    public WiringGraph.WireType getType() {
+        return edge.getType();
+    }
+
+    @GraphQLField
+    @GraphQLName("name")
+    @GraphQLDescription("The package name for package wires, the capability namespace for generic capability wires, the symbolic name of the provider otherwise.")
+    public String getName() {
+        return edge.getName();
+    }
+
+    @GraphQLField
+    @GraphQLName("requirerId")
+    @GraphQLDescription("ID of the bundle that requires the dependency.")
+    public long getRequirerId() {
+        return edge.getRequirerId();
+    }
+
+    @GraphQLField
+    @GraphQLName("providerId")
+    @GraphQLDescription("ID of the bundle that provides the dependency.")
+    public long getProviderId() {
+        return edge.getProviderId();
+    }
+}
@@ -29,7 +29,6 @@ import graphql.annotations.annotationTypes.GraphQLName;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.felix.utils.manifest.Parser;
 import org.jahia.modules.graphql.provider.dxm.node.GqlJcrWrongInputException;
-import org.jahia.services.modulemanager.util.ModuleUtils;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Constants;
 
@@ -43,29 +42,43 @@ public class BundleWithDependencies extends BundleResultEntry {
 
     private final Map<Dependency.Status, List<Dependency>> dependenciesByStatus;
 
+    private final BundleHeadersIndex.BundleHeaders headers;
+
     public BundleWithDependencies(Bundle bundle) {
         super(bundle);
         // take all dependencies and create a map, using the status as the key and the list of dependencies as the value
         this.dependenciesByStatus =
                 Stream.concat(getImportPackageDependencies(bundle), getJahiaDependsDependencies(bundle))
                         .collect(Collectors.groupingBy(Dependency::getStatus));
+        this.headers = null;
+    }
+
+    /**
+     * Creates the entry from the already parsed headers of the bundle. The dependencies are only computed if they are
+     * requested.
+     *
+     * @param bundle  the bundle
+     * @param headers the parsed headers of the bundle
+     */
+    public BundleWithDependencies(Bundle bundle, BundleHeadersIndex.BundleHeaders headers) {
+        super(bundle, headers.getName());
+        this.dependenciesByStatus = null;
+        this.headers = headers;
+    }
+
+    private Map<Dependency.Status, List<Dependency>> getDependenciesByStatus() {
+        return headers != null ? headers.getDependenciesByStatus() : dependenciesByStatus;
     }
 
     private Stream<Dependency> getImportPackageDependencies(Bundle bundle) {
         String importPackageHeader = bundle.getHeaders().get(Constants.IMPORT_PACKAGE);
         return Optional.ofNullable(importPackageHeader)
                 .map(Parser::parseHeader).stream()
-                .flatMap(Arrays::stream)
-                .map(Dependency::parse);
+                .flatMap(BundleHeadersIndex::parseImportPackageDependencies);
     }
 
     private Stream<Dependency> getJahiaDependsDependencies(Bundle bundle) {
-        String jahiaDependsHeader = bundle.getHeaders().get("Jahia-Depends");
-        return Optional.ofNullable(jahiaDependsHeader)
-                .map(ModuleUtils::toDependsArray).stream()
-                .flatMap(Arrays::stream)
-                .map(String::trim)
-                .map(Dependency::parse);
+        return BundleHeadersIndex.parseJahiaDependsDependencies(bundle.getHeaders().get("Jahia-Depends"));
     }
 
     @GraphQLField
@@ -92,7 +105,7 @@ public class BundleWithDependencies extends BundleResultEntry {
             statuses = statusesRequested;
         }
         // filter dependencies by status
-        return dependenciesByStatus.entrySet().stream()
+        return getDependenciesByStatus().entrySet().stream()
                 .filter(entry -> statuses.contains(entry.getKey()))
                 .map(Map.Entry::getValue)
                 .flatMap(Collection::stream)
@@ -106,7 +119,7 @@ public class BundleWithDependencies extends BundleResultEntry {
      * @return <code>true</code> if the bundle has at least one dependency with an unsupported version range, <code>false</code> otherwise
      */
     public boolean hasUnsupportedDependencies() {
-        return dependenciesByStatus.entrySet().stream()
+        return getDependenciesByStatus().entrySet().stream()
                 .anyMatch(entry -> !entry.getKey().isSupported() && !entry.getValue().isEmpty());
 
     }
@@ -30,6 +30,11 @@ public class BundleWithExportPackage extends BundleResultEntry{
         this.matchingExportPackage = exportPackage;
     }
 
+    public BundleWithExportPackage(String exportPackage, Bundle bundle, String bundleName) {
+        super(bundle, bundleName);
+        this.matchingExportPackage = exportPackage;
+    }
+
     @GraphQLField
     @GraphQLName("matchingExportPackage")
     @GraphQLDescription("The full export-package clause.")
@@ -32,6 +32,10 @@ public class BundleWithImportPackages extends BundleResultEntry{
         super(bundle);
     }
 
+    public BundleWithImportPackages(Bundle bundle, String bundleName) {
+        super(bundle, bundleName);
+    }
+
     @GraphQLField
     @GraphQLName("matchingImportPackages")
     @GraphQLDescription("List of matching imported packages.")
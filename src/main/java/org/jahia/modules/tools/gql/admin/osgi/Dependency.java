@@ -88,6 +88,10 @@ public class Dependency {
         return type.toString();
     }
 
+    public Type getDependencyType() {
+        return type;
+    }
+
     @GraphQLField
     @GraphQLName("name")
     @GraphQLDescription("The name of the dependency")
@@ -17,18 +17,16 @@ package org.jahia.modules.tools.gql.admin.osgi;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.felix.utils.manifest.Clause;
-import org.apache.felix.utils.manifest.Parser;
 import org.jahia.modules.graphql.provider.dxm.node.GqlJcrWrongInputException;
 import org.jahia.osgi.BundleUtils;
-import org.jahia.osgi.FrameworkService;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Version;
-import org.osgi.framework.VersionRange;
 
 import java.util.*;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Utility class for the OSGI Import-Package, Export-Package, Jahia-Depends checker
@@ -48,49 +46,53 @@ public class OSGIPackageHeaderChecker {
      */
     public static FindImportPackage findImportPackages(String regex, String matchVersion, boolean matchVersionRangeMissing) {
         FindImportPackage results = new FindImportPackage();
+        findImportPackageBundles(regex, matchVersion, matchVersionRangeMissing).forEach(results::add);
+        return results;
+    }
 
-        Bundle[] bundles = FrameworkService.getBundleContext().getBundles();
-        for (Bundle bundle : bundles) {
-            BundleWithImportPackages entry = new BundleWithImportPackages(bundle);
-            String importPackageHeader = bundle.getHeaders().get("Import-Package");
-            if (importPackageHeader != null) {
-                Clause[] importedPackages = Parser.parseHeader(importPackageHeader);
-                for (Clause importedPackageClause : importedPackages) {
-                    if (StringUtils.isEmpty(regex) || importedPackageClause.getName().matches(regex)) {
-                        String versionStr = importedPackageClause.getAttribute("version");
-
-                        // Version missing check
-                        if (matchVersionRangeMissing) {
-                            if (versionStr == null) {
-                                entry.addMatchingImportedPackage(importedPackageClause.toString());
-                            }
-                            continue;
-                        }
-
-                        // Version match check
-                        if (StringUtils.isNotEmpty(matchVersion)) {
-                            if (versionStr == null) {
-                                entry.addMatchingImportedPackage(importedPackageClause.toString());
-                            } else {
-                                Version osgiVersion = Version.parseVersion(matchVersion);
-                                VersionRange osgiVersionRange = new VersionRange(versionStr);
-                                if (osgiVersionRange.includes(osgiVersion)) {
-                                    entry.addMatchingImportedPackage(importedPackageClause.toString());
-                                }
-                            }
-                            continue;
-                        }
-
-                        // No condition check
-                        entry.addMatchingImportedPackage(importedPackageClause.toString());
-                    }
-                }
-            }
-            if (!entry.getMatchingImportedPackage().isEmpty()) {
-                results.add(entry);
+    /**
+     * Returns the bundles with matching import packages, in the bundle ID order.
+     *
+     * @param regex                    The regular expression to match against the import package name.
+     * @param matchVersion             The version to match against the import package version.
+     * @param matchVersionRangeMissing If true, will only return import packages that are missing a version range.
+     * @return The bundles with their matching import packages.
+     * @see #findImportPackages(String, String, boolean)
+     */
+    public static Collection<BundleWithImportPackages> findImportPackageBundles(String regex, String matchVersion, boolean matchVersionRangeMissing) {
+        BundleHeadersIndex index = getIndex();
+        ImportPackageQuery query = new ImportPackageQuery(compile(regex), matchVersion, matchVersionRangeMissing, index);
+
+        // evaluate the packages, then group the matching clauses per bundle, in the bundle ID order and, within a
+        // bundle, in the order of its Import-Package header rather than the package name order of the index
+        List<BundleHeadersIndex.PackageClause> matches = index.getPackageIndex().getImporters().entrySet().stream()
+                .filter(importers -> query.matchesName(importers.getKey()))
+                .flatMap(importers -> importers.getValue().stream())
+                .filter(importer -> query.matches(importer.getClause()))
+                .sorted(Comparator.comparingLong(BundleHeadersIndex.PackageClause::getBundleId)
+                        .thenComparingInt(BundleHeadersIndex.PackageClause::getPosition))
+                .collect(Collectors.toList());
+
+        Map<Long, BundleWithImportPackages> entries = new TreeMap<>();
+        for (BundleHeadersIndex.PackageClause importer : matches) {
+            addMatchingImportPackage(entries, importer, index);
+        }
+        return entries.values();
+    }
+
+    private static void addMatchingImportPackage(Map<Long, BundleWithImportPackages> entries, BundleHeadersIndex.PackageClause importer,
+            BundleHeadersIndex index) {
+        BundleWithImportPackages entry = entries.get(importer.getBundleId());
+        if (entry == null) {
+            Bundle bundle = index.getBundle(importer.getBundleId());
+            if (bundle == null) {
+                // uninstalled in the meantime
+                return;
             }
+            entry = new BundleWithImportPackages(bundle, index.getHeaders(bundle).getName());
+            entries.put(importer.getBundleId(), entry);
         }
-        return results;
+        entry.addMatchingImportedPackage(importer.getClause().toString());
     }
 
     /**
@@ -102,34 +104,39 @@ public class OSGIPackageHeaderChecker {
      * @return The result of the export package checker.
      */
     public static FindExportPackage findExportPackages(String regex, boolean duplicates) {
-        // Collect export packages
-        Map<String, List<BundleWithExportPackage>> packages = new HashMap<>();
-        Bundle[] bundles = FrameworkService.getBundleContext().getBundles();
-        for (Bundle bundle : bundles) {
-            String exportPackageHeader = bundle.getHeaders().get("Export-Package");
-            if (exportPackageHeader != null) {
-                Clause[] exportPackages = Parser.parseHeader(exportPackageHeader);
-                for (Clause exportPackage : exportPackages) {
-                    if (StringUtils.isEmpty(regex) || exportPackage.getName().matches(regex)) {
-                        BundleWithExportPackage resultEntry = new BundleWithExportPackage(exportPackage.toString(), bundle);
-                        if (packages.containsKey(exportPackage.getName())) {
-                            packages.get(exportPackage.getName()).add(resultEntry);
-                        } else {
-                            packages.put(exportPackage.getName(), new ArrayList<>(Collections.singletonList(resultEntry)));
-                        }
-                    }
-                }
-            }
-        }
-
-        // filter duplicates if needed
         FindExportPackage results = new FindExportPackage();
-        for (Map.Entry<String, List<BundleWithExportPackage>> packageEntries : packages.entrySet()) {
-            if (!duplicates || packageEntries.getValue().size() > 1) {
-                ExportPackages result = new ExportPackages(packageEntries.getKey());
-                result.setExportPackages(packageEntries.getValue());
-                results.add(result);
+        findExportPackageList(regex, duplicates).forEach(results::add);
+        return results;
+    }
+
+    /**
+     * Returns the matching export packages, sorted by package name.
+     *
+     * @param regex      The regular expression to match against the export package name.
+     * @param duplicates If true, will only return export packages found multiple times.
+     * @return The matching export packages with their exporting bundles.
+     * @see #findExportPackages(String, boolean)
+     */
+    public static List<ExportPackages> findExportPackageList(String regex, boolean duplicates) {
+        BundleHeadersIndex index = getIndex();
+        Pattern pattern = compile(regex);
+        List<ExportPackages> results = new ArrayList<>();
+        for (Map.Entry<String, List<BundleHeadersIndex.PackageClause>> exporters : index.getPackageIndex().getExporters().entrySet()) {
+            // filter duplicates if needed
+            if ((pattern != null && !pattern.matcher(exporters.getKey()).matches())
+                    || (duplicates && exporters.getValue().size() < 2)) {
+                continue;
+            }
+            List<BundleWithExportPackage> entries = new ArrayList<>(exporters.getValue().size());
+            for (BundleHeadersIndex.PackageClause exporter : exporters.getValue()) {
+                Bundle bundle = index.getBundle(exporter.getBundleId());
+                if (bundle != null) {
+                    entries.add(new BundleWithExportPackage(exporter.getClause().toString(), bundle, index.getHeaders(bundle).getName()));
+                }
             }
+            ExportPackages result = new ExportPackages(exporters.getKey());
+            result.setExportPackages(entries);
+            results.add(result);
         }
         return results;
     }
@@ -144,24 +151,153 @@ public class OSGIPackageHeaderChecker {
      * @return The list of bundles.
      */
     public static List<BundleWithDependencies> findBundles(String nameRegExp, Boolean areModules, boolean withUnsupportedDependenciesOnly) {
+        return streamBundles(nameRegExp, areModules, withUnsupportedDependenciesOnly).collect(Collectors.toList());
+    }
 
-        // validate and compile the regular expression
-        final Pattern pattern;
-        if (StringUtils.isEmpty(nameRegExp)) {
-            pattern = null;
-        } else {
-            try {
-                pattern = Pattern.compile(nameRegExp);
-            } catch (PatternSyntaxException e) {
-                throw new GqlJcrWrongInputException("Invalid regular expression: " + nameRegExp, e);
-            }
-        }
-        Bundle[] bundles = FrameworkService.getBundleContext().getBundles();
-        return Arrays.stream(bundles)
+    /**
+     * Streams the bundles matching the given parameters, in the bundle ID order. The dependencies of the bundles are
+     * only computed if they are filtered on or requested.
+     *
+     * @param nameRegExp                      Only return bundles whose names match the given regular expression.
+     * @param areModules                      If <code>true</code>, will only return bundles that are also Jahia modules. If <code>false</code>, will only return bundles that are not Jahia modules. If <code>null</code>, will return all bundles.
+     * @param withUnsupportedDependenciesOnly If <code>true</code>, will only return bundles that have 1 or more dependencies configured with an unsupported version range.
+     * @return The stream of bundles.
+     * @see #findBundles(String, Boolean, boolean)
+     */
+    public static Stream<BundleWithDependencies> streamBundles(String nameRegExp, Boolean areModules, boolean withUnsupportedDependenciesOnly) {
+        final Pattern pattern = compile(nameRegExp);
+        BundleHeadersIndex index = getIndex();
+        return Arrays.stream(index.getBundles())
                 .filter(bundle -> pattern == null || (bundle.getSymbolicName() != null && pattern.matcher(bundle.getSymbolicName()).matches()))
                 .filter(bundle -> areModules == null || (areModules == BundleUtils.isJahiaModuleBundle(bundle)))
-                .map(BundleWithDependencies::new)
-                .filter(entry -> !withUnsupportedDependenciesOnly || entry.hasUnsupportedDependencies())
+                .map(bundle -> new BundleWithDependencies(bundle, index.getHeaders(bundle)))
+                .filter(entry -> !withUnsupportedDependenciesOnly || entry.hasUnsupportedDependencies());
+    }
+
+    /**
+     * Walks the bundle dependency graph from the bundles with the given symbolic name.
+     *
+     * @param symbolicName the symbolic name of the starting bundles
+     * @param version      the version of the starting bundle; if empty, all versions are used
+     * @param dependents   if <code>true</code>, returns the bundles depending on the starting ones, otherwise the bundles they depend on
+     * @param transitive   if <code>false</code>, only the direct dependents or dependencies are returned
+     * @param types        the dependency types to follow; if <code>null</code>, all types are followed
+     * @return the reached bundles by increasing distance
+     */
+    public static List<WiredBundle> findWiredBundles(String symbolicName, String version, boolean dependents, boolean transitive,
+            Collection<WiringGraph.WireType> types) {
+        WiringGraph graph = getGraph();
+        List<Long> bundleIds = findBundleIds(graph, symbolicName, version);
+        return toWiredBundles(dependents ? graph.getDependents(bundleIds, transitive, types)
+                : graph.getDependencies(bundleIds, transitive, types));
+    }
+
+    /**
+     * Computes the bundles that get refreshed when the bundles with the given symbolic name are updated.
+     *
+     * @param symbolicName the symbolic name of the updated bundles
+     * @param version      the version of the updated bundle; if empty, all versions are used
+     * @return the refresh impact
+     */
+    public static BundleRefreshImpact findRefreshImpact(String symbolicName, String version) {
+        WiringGraph graph = getGraph();
+        List<Long> bundleIds = findBundleIds(graph, symbolicName, version);
+        return new BundleRefreshImpact(bundleIds, toWiredBundles(graph.getRefreshImpact(bundleIds)));
+    }
+
+    private static List<Long> findBundleIds(WiringGraph graph, String symbolicName, String version) {
+        if (StringUtils.isEmpty(symbolicName)) {
+            throw new GqlJcrWrongInputException("A bundle symbolic name must be provided");
+        }
+        BundleHeadersIndex index = getIndex();
+        return graph.getBundleIds(symbolicName).stream()
+                .filter(bundleId -> {
+                    Bundle bundle = index.getBundle(bundleId);
+                    return bundle != null && (StringUtils.isEmpty(version) || bundle.getVersion().toString().equals(version));
+                })
                 .collect(Collectors.toList());
     }
+
+    private static List<WiredBundle> toWiredBundles(Collection<WiringGraph.Visit> visits) {
+        BundleHeadersIndex index = getIndex();
+        List<WiredBundle> result = new ArrayList<>(visits.size());
+        for (WiringGraph.Visit visit : visits) {
+            Bundle bundle = index.getBundle(visit.getBundleId());
+            if (bundle != null) {
+                result.add(new WiredBundle(bundle, index.getHeaders(bundle).getName(), visit));
+            }
+        }
+        return result;
+    }
+
+    private static WiringGraph getGraph() {
+        WiringGraph graph = WiringGraph.getInstance();
+        if (graph == null) {
+            throw new IllegalStateException("The bundle wiring graph is not available");
+        }
+        return graph;
+    }
+
+    /**
+     * Validates and compiles the regular expression.
+     *
+     * @param regex the regular expression
+     * @return the compiled pattern or <code>null</code> if the regular expression is empty
+     */
+    private static Pattern compile(String regex) {
+        if (StringUtils.isEmpty(regex)) {
+            return null;
+        }
+        try {
+            return Pattern.compile(regex);
+        } catch (PatternSyntaxException e) {
+            throw new GqlJcrWrongInputException("Invalid regular expression: " + regex, e);
+        }
+    }
+
+    private static BundleHeadersIndex getIndex() {
+        BundleHeadersIndex index = BundleHeadersIndex.getInstance();
+        if (index == null) {
+            throw new IllegalStateException("The bundle headers index is not available");
+        }
+        return index;
+    }
+
+    /**
+     * Import-Package query with its pattern and target version parsed once for all the clauses.
+     */
+    private static final class ImportPackageQuery {
+        private final Pattern pattern;
+        private final Version version;
+        private final boolean versionMissing;
+        private final BundleHeadersIndex index;
+
+        ImportPackageQuery(Pattern pattern, String matchVersion, boolean versionMissing, BundleHeadersIndex index) {
+            this.pattern = pattern;
+            this.version = StringUtils.isNotEmpty(matchVersion) ? Version.parseVersion(matchVersion) : null;
+            this.versionMissing = versionMissing;
+            this.index = index;
+        }
+
+        boolean matchesName(String packageName) {
+            return pattern == null || pattern.matcher(packageName).matches();
+        }
+
+        boolean matches(Clause importedPackageClause) {
+            String versionStr = importedPackageClause.getAttribute("version");
+
+            // Version missing check
+            if (versionMissing) {
+                return versionStr == null;
+            }
+
+            // Version match check
+            if (version != null) {
+                return versionStr == null || index.getVersionRange(versionStr).includes(version);
+            }
+
+            // No condition check
+            return true;
+        }
+    }
 }
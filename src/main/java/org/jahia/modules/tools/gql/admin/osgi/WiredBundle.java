@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.gql.admin.osgi;
+
+import graphql.annotations.annotationTypes.GraphQLDescription;
+import graphql.annotations.annotationTypes.GraphQLField;
+import graphql.annotations.annotationTypes.GraphQLName;
+import org.osgi.framework.Bundle;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+@GraphQLName("WiredBundle")
+@GraphQLDescription("Bundle reached while walking the bundle dependency graph.")
+public class WiredBundle extends BundleResultEntry {
+
+    private final WiringGraph.Visit visit;
+
+    public WiredBundle(Bundle bundle, String bundleName, WiringGraph.Visit visit) {
+        super(bundle, bundleName);
+        this.visit = visit;
+    }
+
+    @GraphQLField
+    @GraphQLName("depth")
+    @GraphQLDescription("Distance to the requested bundles, 1 for a direct dependency or dependent.")
+    public int getDepth() {
+        return visit.getDepth();
+    }
+
+    @GraphQLField
+    @GraphQLName("wires")
+    @GraphQLDescription("The dependencies through which the bundle has been reached.")
+    public List<BundleWireEntry> getWires() {
+        return visit.getEdges().stream().map(BundleWireEntry::new).collect(Collectors.toList());
+    }
+}
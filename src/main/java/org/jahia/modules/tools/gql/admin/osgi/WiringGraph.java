@@ -0,0 +1,557 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.gql.admin.osgi;
+
+import graphql.annotations.annotationTypes.GraphQLDescription;
+import graphql.annotations.annotationTypes.GraphQLName;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.SynchronousBundleListener;
+import org.osgi.framework.namespace.BundleNamespace;
+import org.osgi.framework.namespace.HostNamespace;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleRevisions;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Graph of the dependencies between bundles: all the wires of the current {@link BundleWiring} of the bundles, i.e.
+ * package wires, required bundles, fragment hosts and generic capabilities such as the module dependencies, and the
+ * Jahia-Depends declarations.
+ * <p>
+ * The graph is built once on activation and then maintained incrementally: on a bundle event only the edges of that
+ * bundle, and of the modules declaring a Jahia-Depends on it, are recomputed. The events are processed in order on a
+ * background thread, so that the bundle operations do not wait for the graph; the write lock is only held to swap the
+ * recomputed edges in.
+ */
+@Component(service = WiringGraph.class, immediate = true)
+public class WiringGraph implements SynchronousBundleListener {
+
+    /**
+     * Types of edges between bundles.
+     */
+    @GraphQLName("BundleWireType")
+    @GraphQLDescription("Types of dependencies between bundles")
+    public enum WireType {
+        IMPORT_PACKAGE(true),
+        REQUIRE_BUNDLE(true),
+        FRAGMENT_HOST(true),
+        CAPABILITY(true),
+        JAHIA_DEPENDS(false);
+
+        private final boolean wiring;
+
+        WireType(boolean wiring) {
+            this.wiring = wiring;
+        }
+
+        /**
+         * @return <code>true</code> if the edge comes from the OSGi wiring, i.e. the requirer gets refreshed with the
+         * provider
+         */
+        public boolean isWiring() {
+            return wiring;
+        }
+    }
+
+    /**
+     * An edge of the graph, from the requiring bundle to the providing one.
+     */
+    public static final class Edge {
+        private final WireType type;
+        private final String name;
+        private final long requirerId;
+        private final long providerId;
+
+        Edge(WireType type, String name, long requirerId, long providerId) {
+            this.type = type;
+            this.name = name;
+            this.requirerId = requirerId;
+            this.providerId = providerId;
+        }
+
+        public WireType getType() {
+            return type;
+        }
+
+        /**
+         * @return the package name for the package wires, the capability namespace for the generic capability wires,
+         * the symbolic name of the provider otherwise
+         */
+        public String getName() {
+            return name;
+        }
+
+        public long getRequirerId() {
+            return requirerId;
+        }
+
+        public long getProviderId() {
+            return providerId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Edge edge = (Edge) o;
+            return requirerId == edge.requirerId && providerId == edge.providerId && type == edge.type && Objects.equals(name, edge.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, name, requirerId, providerId);
+        }
+    }
+
+    /**
+     * A bundle reached while walking the graph, with its distance to the starting bundles and the edges it was reached
+     * through.
+     */
+    public static final class Visit {
+        private final long bundleId;
+        private final int depth;
+        private final List<Edge> edges = new ArrayList<>();
+
+        Visit(long bundleId, int depth) {
+            this.bundleId = bundleId;
+            this.depth = depth;
+        }
+
+        public long getBundleId() {
+            return bundleId;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public List<Edge> getEdges() {
+            return edges;
+        }
+    }
+
+    /**
+     * Outgoing edges of a bundle and the symbolic names of its Jahia-Depends declarations.
+     */
+    private static final class Requirements {
+        private final Set<Edge> edges = new HashSet<>();
+        private final Set<String> jahiaDepends = new HashSet<>();
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(WiringGraph.class);
+
+    private static volatile WiringGraph instance;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<Long, Set<Edge>> requirements = new HashMap<>();
+
+    private final Map<Long, Set<Edge>> dependents = new HashMap<>();
+
+    private final Map<String, Set<Long>> bundlesBySymbolicName = new HashMap<>();
+
+    private final Map<Long, String> symbolicNames = new HashMap<>();
+
+    private final Map<String, Set<Long>> jahiaDependsRequirers = new HashMap<>();
+
+    private BundleContext bundleContext;
+
+    private BundleHeadersIndex headersIndex;
+
+    private ExecutorService updater;
+
+    public static WiringGraph getInstance() {
+        return instance;
+    }
+
+    @Reference
+    public void setHeadersIndex(BundleHeadersIndex headersIndex) {
+        this.headersIndex = headersIndex;
+    }
+
+    @Activate
+    public void activate(BundleContext bundleContext) {
+        this.bundleContext = bundleContext;
+        updater = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tools-wiring-graph");
+            thread.setDaemon(true);
+            return thread;
+        });
+        bundleContext.addBundleListener(this);
+        try {
+            // on the update thread, before the events received in the meantime
+            updater.submit(this::build).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.warn("Unable to build the bundle wiring graph", e.getCause());
+        }
+        instance = this;
+    }
+
+    @Deactivate
+    public void deactivate(BundleContext bundleContext) {
+        instance = null;
+        bundleContext.removeBundleListener(this);
+        updater.shutdownNow();
+        lock.writeLock().lock();
+        try {
+            requirements.clear();
+            dependents.clear();
+            bundlesBySymbolicName.clear();
+            symbolicNames.clear();
+            jahiaDependsRequirers.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void bundleChanged(BundleEvent event) {
+        int type = event.getType();
+        if (type != BundleEvent.INSTALLED && type != BundleEvent.UPDATED && type != BundleEvent.UNINSTALLED
+                && type != BundleEvent.RESOLVED && type != BundleEvent.UNRESOLVED) {
+            return;
+        }
+        Bundle bundle = event.getBundle();
+        updater.execute(() -> {
+            try {
+                update(bundle, type);
+            } catch (RuntimeException e) {
+                logger.warn("Unable to update the bundle wiring graph for bundle " + bundle.getBundleId(), e);
+            }
+        });
+    }
+
+    /**
+     * Builds the whole graph. Like {@link #update(Bundle, int)}, runs on the update thread, the only one modifying the
+     * graph: it reads the graph without locking and only takes the write lock to modify it.
+     */
+    private void build() {
+        Bundle[] bundles = bundleContext.getBundles();
+        lock.writeLock().lock();
+        try {
+            for (Bundle bundle : bundles) {
+                addSymbolicName(bundle);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        Map<Long, Requirements> computed = new HashMap<>();
+        for (Bundle bundle : bundles) {
+            computed.put(bundle.getBundleId(), computeRequirements(bundle));
+        }
+        putRequirements(computed);
+    }
+
+    private void update(Bundle bundle, int type) {
+        long bundleId = bundle.getBundleId();
+        String previousSymbolicName = symbolicNames.get(bundleId);
+        lock.writeLock().lock();
+        try {
+            if (type == BundleEvent.UNINSTALLED) {
+                removeRequirements(bundleId);
+                removeBundle(bundle);
+            } else {
+                addSymbolicName(bundle);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        Map<Long, Requirements> computed = new LinkedHashMap<>();
+        if (type != BundleEvent.UNINSTALLED) {
+            computed.put(bundleId, computeRequirements(bundle));
+        }
+        if (type != BundleEvent.RESOLVED && type != BundleEvent.UNRESOLVED) {
+            // the set of bundles matching the Jahia-Depends declarations on this module has changed, under its
+            // previous symbolic name too if an update renamed it
+            Set<String> names = new HashSet<>();
+            names.add(previousSymbolicName);
+            names.add(bundle.getSymbolicName());
+            names.remove(null);
+            for (String name : names) {
+                for (Long requirerId : jahiaDependsRequirers.getOrDefault(name, Collections.emptySet())) {
+                    Bundle requirer = bundleContext.getBundle(requirerId);
+                    computed.put(requirerId, requirer != null ? computeRequirements(requirer) : null);
+                }
+            }
+        }
+        putRequirements(computed);
+    }
+
+    /**
+     * Replaces the outgoing edges of the bundles.
+     *
+     * @param computed the new requirements by bundle ID, <code>null</code> for a bundle that has been uninstalled
+     */
+    private void putRequirements(Map<Long, Requirements> computed) {
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<Long, Requirements> entry : computed.entrySet()) {
+                long bundleId = entry.getKey();
+                removeRequirements(bundleId);
+                Requirements bundleRequirements = entry.getValue();
+                if (bundleRequirements == null) {
+                    continue;
+                }
+                requirements.put(bundleId, bundleRequirements.edges);
+                for (Edge edge : bundleRequirements.edges) {
+                    dependents.computeIfAbsent(edge.getProviderId(), k -> new HashSet<>()).add(edge);
+                }
+                for (String name : bundleRequirements.jahiaDepends) {
+                    jahiaDependsRequirers.computeIfAbsent(name, k -> new HashSet<>()).add(bundleId);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the bundles depending on the starting bundles.
+     *
+     * @param bundleIds  the IDs of the starting bundles
+     * @param transitive if <code>false</code> only the direct dependents are returned
+     * @param types      the edge types to follow, all types if <code>null</code>
+     * @return the reached bundles in the order of their distance to the starting bundles
+     */
+    public Collection<Visit> getDependents(Collection<Long> bundleIds, boolean transitive, Collection<WireType> types) {
+        return walk(bundleIds, transitive, types, dependents, false, Collections.emptySet());
+    }
+
+    /**
+     * Returns the bundles the starting bundles depend on.
+     *
+     * @param bundleIds  the IDs of the starting bundles
+     * @param transitive if <code>false</code> only the direct dependencies are returned
+     * @param types      the edge types to follow, all types if <code>null</code>
+     * @return the reached bundles in the order of their distance to the starting bundles
+     */
+    public Collection<Visit> getDependencies(Collection<Long> bundleIds, boolean transitive, Collection<WireType> types) {
+        return walk(bundleIds, transitive, types, requirements, true, Collections.emptySet());
+    }
+
+    /**
+     * Returns the bundles that get refreshed, in addition to the starting ones, when the starting bundles are updated:
+     * the transitive dependents through the OSGi wiring, and the hosts of the refreshed fragments.
+     *
+     * @param bundleIds the IDs of the updated bundles
+     * @return the bundles to be refreshed
+     */
+    public Collection<Visit> getRefreshImpact(Collection<Long> bundleIds) {
+        List<WireType> wiringTypes = new ArrayList<>();
+        for (WireType type : WireType.values()) {
+            if (type.isWiring()) {
+                wiringTypes.add(type);
+            }
+        }
+        return walk(bundleIds, true, wiringTypes, dependents, false, Collections.singleton(WireType.FRAGMENT_HOST));
+    }
+
+    /**
+     * @param symbolicName the bundle symbolic name
+     * @return the IDs of the installed bundles with that symbolic name
+     */
+    public Set<Long> getBundleIds(String symbolicName) {
+        lock.readLock().lock();
+        try {
+            return new TreeSet<>(bundlesBySymbolicName.getOrDefault(symbolicName, Collections.emptySet()));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param reverseTypes the edge types to also follow in the opposite direction
+     */
+    private Collection<Visit> walk(Collection<Long> bundleIds, boolean transitive, Collection<WireType> types,
+            Map<Long, Set<Edge>> adjacency, boolean towardsProvider, Collection<WireType> reverseTypes) {
+        Map<Long, Visit> visits = new LinkedHashMap<>();
+        Set<Long> seen = new HashSet<>(bundleIds);
+        Deque<Long> current = new ArrayDeque<>(bundleIds);
+        int depth = 0;
+        lock.readLock().lock();
+        try {
+            while (!current.isEmpty() && (transitive || depth == 0)) {
+                depth++;
+                Deque<Long> next = new ArrayDeque<>();
+                for (Long bundleId : current) {
+                    for (Edge edge : adjacency.getOrDefault(bundleId, Collections.emptySet())) {
+                        if (types == null || types.contains(edge.getType())) {
+                            visit(edge, towardsProvider ? edge.getProviderId() : edge.getRequirerId(), depth, visits, seen, next);
+                        }
+                    }
+                    if (!reverseTypes.isEmpty()) {
+                        for (Edge edge : (towardsProvider ? dependents : requirements).getOrDefault(bundleId, Collections.emptySet())) {
+                            if (reverseTypes.contains(edge.getType())) {
+                                visit(edge, towardsProvider ? edge.getRequirerId() : edge.getProviderId(), depth, visits, seen, next);
+                            }
+                        }
+                    }
+                }
+                current = next;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return visits.values();
+    }
+
+    private static void visit(Edge edge, long reached, int depth, Map<Long, Visit> visits, Set<Long> seen, Deque<Long> next) {
+        if (seen.add(reached)) {
+            visits.put(reached, new Visit(reached, depth));
+            next.add(reached);
+        }
+        Visit visit = visits.get(reached);
+        if (visit != null && visit.getDepth() == depth) {
+            visit.getEdges().add(edge);
+        }
+    }
+
+    private void addSymbolicName(Bundle bundle) {
+        long bundleId = bundle.getBundleId();
+        String symbolicName = bundle.getSymbolicName();
+        String previous = symbolicName != null ? symbolicNames.put(bundleId, symbolicName) : symbolicNames.remove(bundleId);
+        if (previous != null && !previous.equals(symbolicName)) {
+            // renamed by an update
+            removeSymbolicName(previous, bundleId);
+        }
+        if (symbolicName != null) {
+            bundlesBySymbolicName.computeIfAbsent(symbolicName, k -> new HashSet<>()).add(bundleId);
+        }
+    }
+
+    private void removeSymbolicName(String symbolicName, long bundleId) {
+        Set<Long> ids = bundlesBySymbolicName.get(symbolicName);
+        if (ids != null) {
+            ids.remove(bundleId);
+            if (ids.isEmpty()) {
+                bundlesBySymbolicName.remove(symbolicName);
+            }
+        }
+    }
+
+    private void removeBundle(Bundle bundle) {
+        long bundleId = bundle.getBundleId();
+        Set<Edge> incoming = dependents.remove(bundleId);
+        if (incoming != null) {
+            for (Edge edge : incoming) {
+                Set<Edge> requirerEdges = requirements.get(edge.getRequirerId());
+                if (requirerEdges != null) {
+                    requirerEdges.remove(edge);
+                }
+            }
+        }
+        String symbolicName = symbolicNames.remove(bundleId);
+        if (symbolicName != null) {
+            removeSymbolicName(symbolicName, bundleId);
+        }
+    }
+
+    private void removeRequirements(long bundleId) {
+        Set<Edge> outgoing = requirements.remove(bundleId);
+        if (outgoing != null) {
+            for (Edge edge : outgoing) {
+                Set<Edge> providerEdges = dependents.get(edge.getProviderId());
+                if (providerEdges != null) {
+                    providerEdges.remove(edge);
+                }
+            }
+        }
+        for (Set<Long> requirers : jahiaDependsRequirers.values()) {
+            requirers.remove(bundleId);
+        }
+    }
+
+    /**
+     * @return the outgoing edges of the bundle or <code>null</code> if it has been uninstalled
+     */
+    private Requirements computeRequirements(Bundle bundle) {
+        if (bundle.getState() == Bundle.UNINSTALLED) {
+            return null;
+        }
+        long bundleId = bundle.getBundleId();
+        Requirements result = new Requirements();
+
+        // after an update, the wiring of the previous revision stays in use until the bundle is refreshed: an updated
+        // fragment is then still attached to its hosts
+        List<BundleWire> wires = new ArrayList<>();
+        BundleRevisions revisions = bundle.adapt(BundleRevisions.class);
+        for (BundleRevision revision : revisions != null ? revisions.getRevisions() : Collections.<BundleRevision>emptyList()) {
+            BundleWiring wiring = revision.getWiring();
+            if (wiring != null && wiring.isInUse()) {
+                wires.addAll(wiring.getRequiredWires(null));
+            }
+        }
+        for (BundleWire wire : wires) {
+            Bundle provider = wire.getProviderWiring().getBundle();
+            if (provider.getBundleId() == bundleId) {
+                continue;
+            }
+            String namespace = wire.getCapability().getNamespace();
+            if (PackageNamespace.PACKAGE_NAMESPACE.equals(namespace)) {
+                result.edges.add(new Edge(WireType.IMPORT_PACKAGE,
+                        String.valueOf(wire.getCapability().getAttributes().get(PackageNamespace.PACKAGE_NAMESPACE)),
+                        bundleId, provider.getBundleId()));
+            } else if (BundleNamespace.BUNDLE_NAMESPACE.equals(namespace)) {
+                result.edges.add(new Edge(WireType.REQUIRE_BUNDLE, provider.getSymbolicName(), bundleId, provider.getBundleId()));
+            } else if (HostNamespace.HOST_NAMESPACE.equals(namespace)) {
+                result.edges.add(new Edge(WireType.FRAGMENT_HOST, provider.getSymbolicName(), bundleId, provider.getBundleId()));
+            } else {
+                // generic capabilities, e.g. the module dependencies generated from Jahia-Depends or the extenders
+                result.edges.add(new Edge(WireType.CAPABILITY, namespace, bundleId, provider.getBundleId()));
+            }
+        }
+
+        for (List<Dependency> dependencies : headersIndex.getHeaders(bundle).getDependenciesByStatus().values()) {
+            for (Dependency dependency : dependencies) {
+                if (dependency.getDependencyType() != Dependency.Type.JAHIA_DEPENDS) {
+                    continue;
+                }
+                result.jahiaDepends.add(dependency.getName());
+                for (Long providerId : bundlesBySymbolicName.getOrDefault(dependency.getName(), Collections.emptySet())) {
+                    Bundle provider = bundleContext.getBundle(providerId);
+                    if (provider != null && providerId != bundleId
+                            && (dependency.getVersionRange() == null || dependency.getVersionRange().includes(provider.getVersion()))) {
+                        result.edges.add(new Edge(WireType.JAHIA_DEPENDS, dependency.getName(), bundleId, providerId));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.jcr;
+
+import org.apache.commons.lang.reflect.FieldUtils;
+import org.apache.jackrabbit.core.JahiaRepositoryImpl;
+import org.apache.jackrabbit.core.RepositoryContext;
+import org.apache.jackrabbit.core.cache.AbstractCache;
+import org.apache.jackrabbit.core.persistence.bundle.AbstractBundlePersistenceManager;
+import org.jahia.services.content.JCRSessionFactory;
+import org.jahia.services.content.impl.jackrabbit.SpringJackrabbitRepository;
+import org.jahia.settings.SettingsBean;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the Jackrabbit bundle caches of the default and live workspaces and of the version store at a fixed interval
+ * (<code>jahiaTools.bundleCacheMonitor.interval</code> seconds, 60 by default), keeping the last 24 hours in memory.
+ * The accesses and misses are read from the total counters of the caches, which are not reset by Jackrabbit, so that
+ * the hit ratio and miss rate of each interval can be derived from two consecutive samples.
+ */
+@Component(service = BundleCacheMonitor.class, immediate = true)
+public class BundleCacheMonitor {
+
+    /**
+     * Name of the version store bundle cache.
+     */
+    public static final String VERSION_STORE = "versions";
+
+    private static final Logger logger = LoggerFactory.getLogger(BundleCacheMonitor.class);
+
+    private static final String[] CACHES = { "default", "live", VERSION_STORE };
+
+    private static final long RETENTION = TimeUnit.HOURS.toMillis(24);
+
+    private static volatile BundleCacheMonitor instance;
+
+    /**
+     * State of a bundle cache at a point in time.
+     */
+    public static class Sample {
+        private final long timestamp;
+        private final long accesses;
+        private final long misses;
+        private final long memoryUsed;
+        private final long maxMemory;
+
+        Sample(long timestamp, long accesses, long misses, long memoryUsed, long maxMemory) {
+            this.timestamp = timestamp;
+            this.accesses = accesses;
+            this.misses = misses;
+            this.memoryUsed = memoryUsed;
+            this.maxMemory = maxMemory;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public Date getDate() {
+            return new Date(timestamp);
+        }
+
+        /**
+         * @return the total number of accesses since the repository startup
+         */
+        public long getAccesses() {
+            return accesses;
+        }
+
+        /**
+         * @return the total number of misses since the repository startup
+         */
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * @return the memory used by the cached bundles, in bytes
+         */
+        public long getMemoryUsed() {
+            return memoryUsed;
+        }
+
+        /**
+         * @return the maximum size of the cache, in bytes
+         */
+        public long getMaxMemory() {
+            return maxMemory;
+        }
+    }
+
+    /**
+     * Activity of a bundle cache between two samples.
+     */
+    public static class Interval {
+        private final long start;
+        private final long end;
+        private final long accesses;
+        private final long misses;
+        private final long memoryUsed;
+        private final long maxMemory;
+
+        Interval(Sample from, Sample to) {
+            start = from.timestamp;
+            end = to.timestamp;
+            accesses = to.accesses - from.accesses;
+            misses = to.misses - from.misses;
+            memoryUsed = (from.memoryUsed + to.memoryUsed) / 2;
+            maxMemory = to.maxMemory;
+        }
+
+        public Date getStart() {
+            return new Date(start);
+        }
+
+        public Date getEnd() {
+            return new Date(end);
+        }
+
+        public long getAccesses() {
+            return accesses;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * @return the ratio of the accesses served from the cache, <code>NaN</code> if there was no access
+         */
+        public double getHitRatio() {
+            return accesses > 0 ? 1d - (double) misses / accesses : Double.NaN;
+        }
+
+        /**
+         * @return the number of misses, i.e. bundle reads from the database, per second
+         */
+        public double getMissRate() {
+            return end > start ? misses * 1000d / (end - start) : 0;
+        }
+
+        /**
+         * @return the mean memory used by the cached bundles over the interval, in bytes
+         */
+        public long getMemoryUsed() {
+            return memoryUsed;
+        }
+
+        public long getMaxMemory() {
+            return maxMemory;
+        }
+    }
+
+    private final Map<String, Deque<Sample>> samples = new LinkedHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    public static BundleCacheMonitor getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return the context of the Jackrabbit repository of the default JCR provider
+     */
+    public static RepositoryContext getRepositoryContext() {
+        return ((JahiaRepositoryImpl) ((SpringJackrabbitRepository) JCRSessionFactory.getInstance().getDefaultProvider()
+                .getRepository()).getRepository()).getContext();
+    }
+
+    /**
+     * Returns the bundle cache of a workspace persistence manager, read by reflection as it is not exposed by
+     * Jackrabbit.
+     *
+     * @param cacheName the workspace name or {@link #VERSION_STORE}
+     * @return the bundle cache
+     * @throws IllegalAccessException if the cache cannot be read
+     */
+    public static AbstractCache getBundleCache(String cacheName) throws IllegalAccessException {
+        RepositoryContext repoCtx = getRepositoryContext();
+        return (AbstractCache) FieldUtils.getDeclaredField(AbstractBundlePersistenceManager.class, "bundles", true)
+                .get(!VERSION_STORE.equals(cacheName) ? FieldUtils.readDeclaredField(
+                        repoCtx.getWorkspaceManager().getWorkspaceStateManager(cacheName), "persistMgr", true)
+                        : repoCtx.getInternalVersionManager().getPersistenceManager());
+    }
+
+    @Activate
+    public void activate() {
+        for (String cache : CACHES) {
+            samples.put(cache, new ArrayDeque<>());
+        }
+        int interval = Integer.parseInt(SettingsBean.getInstance().getPropertiesFile()
+                .getProperty("jahiaTools.bundleCacheMonitor.interval", "60"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tools-bundle-cache-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::sample, 0, interval, TimeUnit.SECONDS);
+        instance = this;
+    }
+
+    @Deactivate
+    public void deactivate() {
+        instance = null;
+        scheduler.shutdownNow();
+    }
+
+    private void sample() {
+        long now = System.currentTimeMillis();
+        for (String cacheName : CACHES) {
+            Sample sample;
+            try {
+                AbstractCache cache = getBundleCache(cacheName);
+                sample = new Sample(now, cache.getTotalAccessCount(), cache.getTotalMissCount(), cache.getMemoryUsed(),
+                        cache.getMaxMemorySize());
+            } catch (Exception e) {
+                logger.debug("Unable to sample the JCR bundle cache " + cacheName, e);
+                continue;
+            }
+            Deque<Sample> cacheSamples = samples.get(cacheName);
+            synchronized (cacheSamples) {
+                cacheSamples.addLast(sample);
+                while (cacheSamples.peekFirst().timestamp < now - RETENTION) {
+                    cacheSamples.removeFirst();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the names of the monitored caches: the workspace names and {@link #VERSION_STORE}
+     */
+    public List<String> getCacheNames() {
+        return Arrays.asList(CACHES);
+    }
+
+    /**
+     * @param cacheName the workspace name or {@link #VERSION_STORE}
+     * @return the samples of the cache, oldest first
+     */
+    public List<Sample> getSamples(String cacheName) {
+        Deque<Sample> cacheSamples = samples.get(cacheName);
+        if (cacheSamples == null) {
+            return Collections.emptyList();
+        }
+        synchronized (cacheSamples) {
+            return new ArrayList<>(cacheSamples);
+        }
+    }
+
+    /**
+     * Returns the activity of the cache between consecutive samples, skipping the intervals in which the counters went
+     * backwards, i.e. after a repository restart.
+     *
+     * @param cacheName the workspace name or {@link #VERSION_STORE}
+     * @return the intervals, oldest first
+     */
+    public List<Interval> getIntervals(String cacheName) {
+        List<Sample> cacheSamples = getSamples(cacheName);
+        List<Interval> intervals = new ArrayList<>(cacheSamples.size());
+        for (int i = 1; i < cacheSamples.size(); i++) {
+            Interval interval = new Interval(cacheSamples.get(i - 1), cacheSamples.get(i));
+            if (interval.accesses >= 0 && interval.misses >= 0) {
+                intervals.add(interval);
+            }
+        }
+        return intervals;
+    }
+
+    /**
+     * @param cacheName the workspace name or {@link #VERSION_STORE}
+     * @return the sizing recommendation of the cache, based on the sampled intervals
+     */
+    public BundleCacheSizing.Recommendation getRecommendation(String cacheName) {
+        List<Sample> cacheSamples = getSamples(cacheName);
+        long maxMemory = cacheSamples.isEmpty() ? 0 : cacheSamples.get(cacheSamples.size() - 1).maxMemory;
+        return BundleCacheSizing.recommend(getIntervals(cacheName), maxMemory, getTargetHitRatio());
+    }
+
+    private static double getTargetHitRatio() {
+        return Double.parseDouble(SettingsBean.getInstance().getPropertiesFile()
+                .getProperty("jahiaTools.bundleCacheMonitor.targetHitRatio", "0.95"));
+    }
+}
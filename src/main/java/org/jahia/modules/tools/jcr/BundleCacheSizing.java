@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.jcr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates the hit ratio of a bundle cache at other sizes from its miss-rate curve, modelled as a power law: the miss
+ * ratio at the size <i>C</i> is <i>m0 * (C / C0)<sup>-a</sup></i>, <i>m0</i> being the miss ratio observed at the current
+ * size <i>C0</i>. The exponent is fitted on the intervals sampled while the cache was filling up, when the used memory
+ * varied enough; otherwise the commonly observed value of 0.5 is used (doubling the cache divides the misses by the
+ * square root of 2). A cache that is not full already holds its working set: a larger cache would not reduce its
+ * misses.
+ */
+public final class BundleCacheSizing {
+
+    private static final double[] SIZE_FACTORS = { 0.25, 0.5, 1, 2, 4, 8 };
+
+    private static final double DEFAULT_EXPONENT = 0.5;
+
+    private static final long MIN_ACCESSES = 100;
+
+    private static final int MIN_FIT_POINTS = 5;
+
+    private static final double MIN_FIT_SPREAD = 1.5;
+
+    private static final double FULL_RATIO = 0.9;
+
+    private static final double MIN_DOUBLING_GAIN = 0.01;
+
+    private static final long RECENT_PERIOD = TimeUnit.HOURS.toMillis(1);
+
+    private static final long MB = 1024L * 1024L;
+
+    /**
+     * Estimated hit ratio at a cache size.
+     */
+    public static class Estimate {
+        private final long size;
+        private final double hitRatio;
+
+        Estimate(long size, double hitRatio) {
+            this.size = size;
+            this.hitRatio = hitRatio;
+        }
+
+        /**
+         * @return the cache size in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        public long getSizeMB() {
+            return size / MB;
+        }
+
+        public double getHitRatio() {
+            return hitRatio;
+        }
+    }
+
+    /**
+     * Sizing recommendation of a bundle cache.
+     */
+    public static class Recommendation {
+        private long size;
+        private long memoryUsed;
+        private long accesses;
+        private double hitRatio = Double.NaN;
+        private double missRate;
+        private double exponent = DEFAULT_EXPONENT;
+        private boolean fitted;
+        private boolean full;
+        private List<Estimate> estimates = Collections.emptyList();
+        private long recommendedSize;
+        private String message;
+
+        /**
+         * @return the current maximum size of the cache, in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        public long getSizeMB() {
+            return size / MB;
+        }
+
+        /**
+         * @return the mean memory used by the cache over the last hour, in bytes
+         */
+        public long getMemoryUsed() {
+            return memoryUsed;
+        }
+
+        public long getMemoryUsedMB() {
+            return memoryUsed / MB;
+        }
+
+        /**
+         * @return the number of accesses over the last hour
+         */
+        public long getAccesses() {
+            return accesses;
+        }
+
+        /**
+         * @return the hit ratio over the last hour, <code>NaN</code> if unknown
+         */
+        public double getHitRatio() {
+            return hitRatio;
+        }
+
+        /**
+         * @return the number of misses per second over the last hour
+         */
+        public double getMissRate() {
+            return missRate;
+        }
+
+        /**
+         * @return the exponent of the miss-rate curve
+         */
+        public double getExponent() {
+            return exponent;
+        }
+
+        /**
+         * @return <code>true</code> if the exponent was fitted on the sampled intervals rather than defaulted
+         */
+        public boolean isFitted() {
+            return fitted;
+        }
+
+        /**
+         * @return <code>true</code> if the cache is full, i.e. it evicts bundles
+         */
+        public boolean isFull() {
+            return full;
+        }
+
+        /**
+         * @return the estimated hit ratios at multiples of the current size
+         */
+        public List<Estimate> getEstimates() {
+            return estimates;
+        }
+
+        /**
+         * @return the recommended size in bytes, 0 if there is not enough data
+         */
+        public long getRecommendedSize() {
+            return recommendedSize;
+        }
+
+        public long getRecommendedSizeMB() {
+            return (recommendedSize + MB - 1) / MB;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    /**
+     * Computes the sizing recommendation of a cache.
+     *
+     * @param intervals      the sampled intervals, oldest first
+     * @param size           the current maximum size of the cache, in bytes
+     * @param targetHitRatio the hit ratio to reach
+     * @return the recommendation
+     */
+    public static Recommendation recommend(List<BundleCacheMonitor.Interval> intervals, long size, double targetHitRatio) {
+        Recommendation recommendation = new Recommendation();
+        recommendation.size = size;
+
+        // current state, over the last hour
+        long misses = 0;
+        long duration = 0;
+        double memoryUsed = 0;
+        long end = intervals.isEmpty() ? 0 : intervals.get(intervals.size() - 1).getEnd().getTime();
+        for (BundleCacheMonitor.Interval interval : intervals) {
+            if (interval.getStart().getTime() >= end - RECENT_PERIOD) {
+                long intervalDuration = interval.getEnd().getTime() - interval.getStart().getTime();
+                recommendation.accesses += interval.getAccesses();
+                misses += interval.getMisses();
+                memoryUsed += (double) interval.getMemoryUsed() * intervalDuration;
+                duration += intervalDuration;
+            }
+        }
+        if (recommendation.accesses < MIN_ACCESSES || duration == 0 || size <= 0) {
+            recommendation.message = "Not enough cache accesses sampled yet";
+            return recommendation;
+        }
+        recommendation.memoryUsed = (long) (memoryUsed / duration);
+        recommendation.missRate = misses * 1000d / duration;
+        double missRatio = (double) misses / recommendation.accesses;
+        recommendation.hitRatio = 1d - missRatio;
+        recommendation.full = recommendation.memoryUsed >= FULL_RATIO * size;
+        fitExponent(intervals, recommendation);
+
+        long reference = recommendation.full ? size : Math.max(recommendation.memoryUsed, 1);
+        List<Estimate> estimates = new ArrayList<>(SIZE_FACTORS.length);
+        for (double factor : SIZE_FACTORS) {
+            long candidate = (long) (size * factor);
+            double estimatedMissRatio = !recommendation.full && candidate >= reference ? missRatio
+                    : Math.min(1d, missRatio * Math.pow((double) candidate / reference, -recommendation.exponent));
+            estimates.add(new Estimate(candidate, 1d - estimatedMissRatio));
+        }
+        recommendation.estimates = estimates;
+
+        if (!recommendation.full) {
+            // the working set fits, keep some headroom above it
+            recommendation.recommendedSize = Math.max(recommendation.memoryUsed + recommendation.memoryUsed / 4, MB);
+            recommendation.message = recommendation.recommendedSize < size
+                    ? "The cache is not full: it holds the working set and could be reduced without more misses"
+                    : "The cache is not full: it holds the working set and is correctly sized";
+            return recommendation;
+        }
+        for (int i = 0; i < estimates.size(); i++) {
+            Estimate estimate = estimates.get(i);
+            boolean lastUsefulDoubling = i + 1 < estimates.size()
+                    && estimates.get(i + 1).hitRatio - estimate.hitRatio < MIN_DOUBLING_GAIN && estimate.size >= size;
+            if (estimate.hitRatio >= targetHitRatio || lastUsefulDoubling || i == estimates.size() - 1) {
+                recommendation.recommendedSize = estimate.size;
+                recommendation.message = estimate.hitRatio >= targetHitRatio
+                        ? "Smallest size reaching the target hit ratio of " + Math.round(targetHitRatio * 100) + "%"
+                        : "The target hit ratio of " + Math.round(targetHitRatio * 100)
+                                + "% is not reachable at a reasonable size, larger sizes bring less than 1% of hits";
+                break;
+            }
+        }
+        return recommendation;
+    }
+
+    private static void fitExponent(List<BundleCacheMonitor.Interval> intervals, Recommendation recommendation) {
+        // least squares fit of ln(miss ratio) = a + b * ln(memory used)
+        int n = 0;
+        double sumX = 0;
+        double sumY = 0;
+        double sumXY = 0;
+        double sumXX = 0;
+        long minMemory = Long.MAX_VALUE;
+        long maxMemory = 0;
+        for (BundleCacheMonitor.Interval interval : intervals) {
+            // only while the cache was filling up: once full, the miss ratio varies with the workload, not with the size
+            if (interval.getAccesses() >= MIN_ACCESSES && interval.getMisses() > 0 && interval.getMemoryUsed() > 0
+                    && interval.getMemoryUsed() < FULL_RATIO * interval.getMaxMemory()) {
+                double x = Math.log(interval.getMemoryUsed());
+                double y = Math.log((double) interval.getMisses() / interval.getAccesses());
+                n++;
+                sumX += x;
+                sumY += y;
+                sumXY += x * y;
+                sumXX += x * x;
+                minMemory = Math.min(minMemory, interval.getMemoryUsed());
+                maxMemory = Math.max(maxMemory, interval.getMemoryUsed());
+            }
+        }
+        if (n < MIN_FIT_POINTS || maxMemory < MIN_FIT_SPREAD * minMemory) {
+            return;
+        }
+        double exponent = -(n * sumXY - sumX * sumY) / (n * sumXX - sumX * sumX);
+        // outside of this range, the miss ratio variations are rather caused by workload changes
+        if (exponent >= 0.05 && exponent <= 2) {
+            recommendation.exponent = exponent;
+            recommendation.fitted = true;
+        }
+    }
+
+    private BundleCacheSizing() {
+        super();
+    }
+}
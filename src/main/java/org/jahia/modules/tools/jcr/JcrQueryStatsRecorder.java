@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.jcr;
+
+import org.apache.jackrabbit.api.stats.QueryStat;
+import org.apache.jackrabbit.api.stats.QueryStatDto;
+import org.apache.jackrabbit.core.JahiaRepositoryImpl;
+import org.jahia.services.content.JCRSessionFactory;
+import org.jahia.services.content.impl.jackrabbit.SpringJackrabbitRepository;
+import org.jahia.settings.SettingsBean;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Polls the JCR query statistics every 30 seconds and aggregates the executions per query template and per hour in a
+ * {@link QueryStatsHistory} persisted in the tools folder of the Jahia data directory, keeping 7 days. The query
+ * statistics queues are drained at each poll: the slow queries provide the durations, the occurrence counts of the
+ * popular queries provide the execution counts. The slow queries queue only keeps the slowest queries, so it is enlarged
+ * to <code>jahiaTools.jcrQueryStats.slowQueueSize</code> entries (1000 by default) while the recorder is active: below
+ * this number of queries per poll interval, every execution provides a duration. The module deployments are recorded
+ * as well, to relate the regressions to them.
+ */
+@Component(service = JcrQueryStatsRecorder.class, immediate = true)
+public class JcrQueryStatsRecorder implements BundleListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(JcrQueryStatsRecorder.class);
+
+    private static final int INTERVAL_SECONDS = 30;
+    private static final int RETENTION_HOURS = 7 * 24;
+    private static final int SAVE_INTERVAL = 10;
+    private static final int DEFAULT_SLOW_QUEUE_SIZE = 1000;
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'|\"(?:[^\"]|\"\")*\"");
+    private static final Pattern BRACKETED = Pattern.compile("\\[/[^\\]]*]");
+    private static final Pattern NUMBER = Pattern.compile("(?<![\\w:.])-?\\d+(?:\\.\\d+)?(?![\\w:])");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private static volatile JcrQueryStatsRecorder instance;
+
+    private QueryStatsHistory history;
+    private BundleContext bundleContext;
+    private ScheduledExecutorService scheduler;
+    private int pollCount;
+    private boolean seeded;
+    private int slowQueueSize;
+    private int originalSlowQueueSize = -1;
+
+    public static JcrQueryStatsRecorder getInstance() {
+        return instance;
+    }
+
+    @Activate
+    public void activate(BundleContext bundleContext) {
+        this.bundleContext = bundleContext;
+        history = new QueryStatsHistory(new File(SettingsBean.getInstance().getJahiaVarDiskPath(), "tools/jcr-query-stats-history.txt"),
+                RETENTION_HOURS);
+        try {
+            history.load();
+        } catch (IOException e) {
+            logger.warn("Unable to load the JCR query statistics history", e);
+        }
+        slowQueueSize = Integer.parseInt(SettingsBean.getInstance().getPropertiesFile().getProperty(
+                "jahiaTools.jcrQueryStats.slowQueueSize", String.valueOf(DEFAULT_SLOW_QUEUE_SIZE)));
+        try {
+            originalSlowQueueSize = getQueryStat().getSlowQueriesQueueSize();
+        } catch (RuntimeException e) {
+            logger.warn("Unable to read the JCR slow queries queue size", e);
+        }
+        bundleContext.addBundleListener(this);
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tools-jcr-query-stats-recorder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                poll();
+                if (++pollCount % SAVE_INTERVAL == 0) {
+                    history.save();
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Unable to record the JCR query statistics", e);
+            }
+        }, INTERVAL_SECONDS, INTERVAL_SECONDS, TimeUnit.SECONDS);
+        instance = this;
+    }
+
+    @Deactivate
+    public void deactivate() {
+        instance = null;
+        bundleContext.removeBundleListener(this);
+        scheduler.shutdownNow();
+        if (originalSlowQueueSize >= 0) {
+            try {
+                getQueryStat().setSlowQueriesQueueSize(originalSlowQueueSize);
+            } catch (RuntimeException e) {
+                logger.warn("Unable to restore the JCR slow queries queue size", e);
+            }
+        }
+        try {
+            history.save();
+        } catch (IOException e) {
+            logger.warn("Unable to save the JCR query statistics history", e);
+        }
+    }
+
+    @Override
+    public void bundleChanged(BundleEvent event) {
+        if (event.getType() == BundleEvent.INSTALLED || event.getType() == BundleEvent.UPDATED) {
+            long now = System.currentTimeMillis();
+            history.recordDeployment(now - now % TimeUnit.MINUTES.toMillis(1),
+                    event.getBundle().getSymbolicName() + " " + event.getBundle().getVersion());
+        }
+    }
+
+    /**
+     * @return the recorded history
+     */
+    public QueryStatsHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * Replaces the literals of a query by placeholders so that the executions of the same query with different
+     * parameters are aggregated together.
+     *
+     * @param statement the query statement
+     * @return the query template
+     */
+    public static String normalize(String statement) {
+        String template = STRING_LITERAL.matcher(statement).replaceAll("?");
+        template = BRACKETED.matcher(template).replaceAll("[?]");
+        template = NUMBER.matcher(template).replaceAll("?");
+        return WHITESPACE.matcher(template).replaceAll(" ").trim();
+    }
+
+    private synchronized void poll() {
+        QueryStat queryStat = getQueryStat();
+        if (!queryStat.isEnabled()) {
+            seeded = false;
+            return;
+        }
+        if (queryStat.getSlowQueriesQueueSize() < slowQueueSize) {
+            queryStat.setSlowQueriesQueueSize(slowQueueSize);
+        }
+
+        // the queries logged between the reads and the clears are lost, which is negligible over 30 seconds
+        QueryStatDto[] slowQueries = queryStat.getSlowQueries();
+        QueryStatDto[] popularQueries = queryStat.getPopularQueries();
+        queryStat.clearSlowQueriesQueue();
+        queryStat.clearPopularQueriesQueue();
+        if (!seeded) {
+            // the queues hold the queries executed before the recording started
+            seeded = true;
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        for (QueryStatDto query : slowQueries) {
+            // counted through the popular queries
+            history.record(now, query.getLanguage(), normalize(query.getStatement()), 0, query.getDuration());
+        }
+        for (QueryStatDto query : popularQueries) {
+            if (query.getOccurrenceCount() > 0) {
+                history.record(now, query.getLanguage(), normalize(query.getStatement()), query.getOccurrenceCount(), -1);
+            }
+        }
+    }
+
+    private static QueryStat getQueryStat() {
+        return ((JahiaRepositoryImpl) ((SpringJackrabbitRepository) JCRSessionFactory.getInstance().getDefaultProvider()
+                .getRepository()).getRepository()).getContext().getStatManager().getQueryStat();
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.jcr;
+
+import org.apache.commons.math.stat.descriptive.DescriptiveStatistics;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rolling history of the JCR query executions aggregated per query template and per hour, persisted in a tab separated
+ * file. The durations of the current hour are kept in memory, the completed hours only keep their count and their
+ * p50, p95 and max durations.
+ */
+public class QueryStatsHistory {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final int MAX_SAMPLES = 1000;
+
+    private final File file;
+    private final int retentionHours;
+    private final NavigableMap<Long, Map<String, HourStats>> hours = new TreeMap<>();
+    private final NavigableMap<Long, String> deployments = new TreeMap<>();
+
+    /**
+     * @param file           the file the history is persisted to
+     * @param retentionHours the number of hours to keep
+     */
+    QueryStatsHistory(File file, int retentionHours) {
+        this.file = file;
+        this.retentionHours = retentionHours;
+    }
+
+    /**
+     * Records query executions.
+     *
+     * @param time     the execution time
+     * @param language the query language
+     * @param template the normalized query
+     * @param count    the number of executions
+     * @param duration the duration in milliseconds of the executions, -1 if unknown
+     */
+    synchronized void record(long time, String language, String template, int count, long duration) {
+        hours.computeIfAbsent(time - time % HOUR, hour -> new HashMap<>())
+                .computeIfAbsent(language + '\n' + template, key -> new HourStats(language, template))
+                .add(count, duration);
+    }
+
+    /**
+     * Records a module deployment, to relate the regressions to it.
+     *
+     * @param time        the deployment time
+     * @param description the deployed module
+     */
+    synchronized void recordDeployment(long time, String description) {
+        deployments.merge(time, description, (previous, added) -> previous + ", " + added);
+    }
+
+    /**
+     * @param since the start time
+     * @return the module deployments since the given time, by time
+     */
+    public synchronized SortedMap<Long, String> getDeployments(long since) {
+        return new TreeMap<>(deployments.tailMap(since));
+    }
+
+    /**
+     * Returns the template statistics over the last hours, most executed first, and flags the templates whose p95
+     * duration over the last hour exceeds the given factor of their median hourly p95 before.
+     *
+     * @param hourCount        the number of hours to report, including the current one
+     * @param regressionFactor the factor of the baseline p95 above which a template is flagged
+     * @return the template statistics
+     */
+    public synchronized List<TemplateStats> getTemplateStats(int hourCount, double regressionFactor) {
+        long currentHour = currentHour();
+        long lastHour = currentHour - HOUR;
+        Map<String, TemplateStats> templates = new HashMap<>();
+        for (Map.Entry<Long, Map<String, HourStats>> hour : hours.tailMap(currentHour - (hourCount - 1) * HOUR).entrySet()) {
+            for (Map.Entry<String, HourStats> entry : hour.getValue().entrySet()) {
+                HourStats stats = entry.getValue();
+                templates.computeIfAbsent(entry.getKey(), key -> new TemplateStats(stats.language, stats.template))
+                        .hours.put(hour.getKey(), stats.summary());
+            }
+        }
+        for (TemplateStats template : templates.values()) {
+            // the last completed hour, or the current one if the template was not executed during the last one
+            HourSummary recent = template.hours.containsKey(lastHour) ? template.hours.get(lastHour) : template.hours.get(currentHour);
+            long recentHour = template.hours.containsKey(lastHour) ? lastHour : currentHour;
+            template.recent = recent;
+            template.recentHour = recentHour;
+            List<Long> baseline = new ArrayList<>();
+            for (Map.Entry<Long, HourSummary> hour : template.hours.headMap(recentHour).entrySet()) {
+                if (hour.getValue().getP95() >= 0) {
+                    baseline.add(hour.getValue().getP95());
+                }
+            }
+            if (recent != null && recent.getP95() >= 0 && baseline.size() >= 3) {
+                Collections.sort(baseline);
+                template.baselineP95 = baseline.get(baseline.size() / 2);
+                template.regressed = template.baselineP95 > 0 && recent.getP95() > template.baselineP95 * regressionFactor;
+            }
+        }
+        List<TemplateStats> result = new ArrayList<>(templates.values());
+        result.sort(Comparator.comparingLong(TemplateStats::getCount).reversed());
+        return result;
+    }
+
+    /**
+     * Drops the hours older than the retention and persists the history.
+     *
+     * @throws IOException if the history cannot be written
+     */
+    synchronized void save() throws IOException {
+        long oldest = currentHour() - retentionHours * HOUR;
+        hours.headMap(oldest).clear();
+        deployments.headMap(oldest).clear();
+
+        File tmpFile = new File(file.getPath() + ".tmp");
+        Files.createDirectories(file.getParentFile().toPath());
+        try (BufferedWriter writer = Files.newBufferedWriter(tmpFile.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<Long, Map<String, HourStats>> hour : hours.entrySet()) {
+                for (HourStats stats : hour.getValue().values()) {
+                    HourSummary summary = stats.summary();
+                    writer.write("Q\t" + hour.getKey() + '\t' + summary.getCount() + '\t' + summary.getP50() + '\t' + summary.getP95()
+                            + '\t' + summary.getMax() + '\t' + escape(stats.language) + '\t' + escape(stats.template));
+                    writer.newLine();
+                }
+            }
+            for (Map.Entry<Long, String> deployment : deployments.entrySet()) {
+                writer.write("D\t" + deployment.getKey() + '\t' + escape(deployment.getValue()));
+                writer.newLine();
+            }
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads the persisted history.
+     *
+     * @throws IOException if the history cannot be read
+     */
+    synchronized void load() throws IOException {
+        if (!file.isFile()) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length == 8 && "Q".equals(fields[0])) {
+                    String language = unescape(fields[6]);
+                    String template = unescape(fields[7]);
+                    hours.computeIfAbsent(Long.parseLong(fields[1]), hour -> new HashMap<>())
+                            .put(language + '\n' + template, new HourStats(language, template, new HourSummary(Long.parseLong(fields[2]),
+                                    Long.parseLong(fields[3]), Long.parseLong(fields[4]), Long.parseLong(fields[5]))));
+                } else if (fields.length == 3 && "D".equals(fields[0])) {
+                    deployments.put(Long.parseLong(fields[1]), unescape(fields[2]));
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid query statistics history " + file, e);
+        }
+    }
+
+    private static long currentHour() {
+        long now = System.currentTimeMillis();
+        return now - now % HOUR;
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String value) {
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                result.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Executions of a template during an hour: the sampled durations for the current hour, the summary once loaded.
+     */
+    private static final class HourStats {
+        private final String language;
+        private final String template;
+        private final DescriptiveStatistics durations;
+        private long count;
+        private HourSummary loaded;
+
+        HourStats(String language, String template) {
+            this.language = language;
+            this.template = template;
+            this.durations = new DescriptiveStatistics();
+            this.durations.setWindowSize(MAX_SAMPLES);
+        }
+
+        HourStats(String language, String template, HourSummary loaded) {
+            this(language, template);
+            this.loaded = loaded;
+        }
+
+        void add(int executions, long duration) {
+            count += executions;
+            if (duration >= 0) {
+                durations.addValue(duration);
+            }
+        }
+
+        HourSummary summary() {
+            if (loaded != null && durations.getN() == 0) {
+                return new HourSummary(loaded.getCount() + count, loaded.getP50(), loaded.getP95(), loaded.getMax());
+            }
+            long total = (loaded != null ? loaded.getCount() : 0) + count;
+            if (durations.getN() == 0) {
+                return new HourSummary(total, -1, -1, -1);
+            }
+            long max = Math.round(durations.getMax());
+            if (loaded != null) {
+                max = Math.max(max, loaded.getMax());
+            }
+            return new HourSummary(total, Math.round(durations.getPercentile(50)), Math.round(durations.getPercentile(95)), max);
+        }
+    }
+
+    /**
+     * Count and durations of a template during an hour; the durations are -1 if none was observed.
+     */
+    public static class HourSummary {
+        private final long count;
+        private final long p50;
+        private final long p95;
+        private final long max;
+
+        HourSummary(long count, long p50, long p95, long max) {
+            this.count = count;
+            this.p50 = p50;
+            this.p95 = p95;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP95() {
+            return p95;
+        }
+
+        public long getMax() {
+            return max;
+        }
+    }
+
+    /**
+     * Hourly statistics of a template.
+     */
+    public static class TemplateStats {
+        private final String language;
+        private final String template;
+        private final NavigableMap<Long, HourSummary> hours = new TreeMap<>();
+        private HourSummary recent;
+        private long recentHour;
+        private long baselineP95 = -1;
+        private boolean regressed;
+
+        TemplateStats(String language, String template) {
+            this.language = language;
+            this.template = template;
+        }
+
+        public String getLanguage() {
+            return language;
+        }
+
+        public String getTemplate() {
+            return template;
+        }
+
+        /**
+         * @return the summaries per hour start time, oldest first
+         */
+        public NavigableMap<Long, HourSummary> getHours() {
+            return hours;
+        }
+
+        public long getCount() {
+            long count = 0;
+            for (HourSummary hour : hours.values()) {
+                count += hour.getCount();
+            }
+            return count;
+        }
+
+        /**
+         * @return the maximum duration over all hours, -1 if none was observed
+         */
+        public long getMax() {
+            long max = -1;
+            for (HourSummary hour : hours.values()) {
+                max = Math.max(max, hour.getMax());
+            }
+            return max;
+        }
+
+        /**
+         * @return the summary of the last hour with executions
+         */
+        public HourSummary getLatest() {
+            return hours.isEmpty() ? null : hours.lastEntry().getValue();
+        }
+
+        /**
+         * @return the summary of the hour checked for a regression: the last completed hour, or the current one if the
+         * template was not executed during the last completed hour; <code>null</code> if neither has executions
+         */
+        public HourSummary getRecent() {
+            return recent;
+        }
+
+        /**
+         * @return the start time of the hour returned by {@link #getRecent()}
+         */
+        public long getRecentHour() {
+            return recentHour;
+        }
+
+        /**
+         * @return the median of the hourly p95 durations before the recent hour, -1 if there are not enough hours
+         */
+        public long getBaselineP95() {
+            return baselineP95;
+        }
+
+        public boolean isRegressed() {
+            return regressed;
+        }
+    }
+}
@@ -16,9 +16,38 @@
 package org.jahia.modules.tools.karaf;
 
 import java.security.Principal;
+import java.util.List;
+import java.util.function.Consumer;
 
 public interface KarafCommand {
 
     String executeCommand(final String command, final Long timeout, final Boolean silent, final Principal... principals);
 
+    /**
+     * Executes the command and pushes its output line by line, stripped of console control sequences, to the supplied
+     * consumer while the command is running. The consumer is always called from the calling thread.
+     *
+     * @param command      the command to execute
+     * @param timeout      the maximum execution time in milliseconds
+     * @param silent       if <code>false</code> the command is echoed to the error stream
+     * @param lineConsumer receives the output lines
+     * @param principals   the principals to execute the command with
+     */
+    void streamCommand(final String command, final Long timeout, final Boolean silent, final Consumer<String> lineConsumer,
+            final Principal... principals);
+
+    /**
+     * Executes a script of commands, one per line, in a single shell session. Blank lines and lines starting with
+     * <code>#</code> are ignored.
+     *
+     * @param script      the commands to execute
+     * @param timeout     the maximum execution time of each command in milliseconds
+     * @param silent      if <code>false</code> the commands are echoed to the error stream
+     * @param stopOnError if <code>true</code> the remaining commands are skipped after the first failure
+     * @param principals  the principals to execute the commands with
+     * @return the output, error and timing of each executed command
+     */
+    List<KarafCommandResult> executeScript(final String script, final Long timeout, final Boolean silent,
+            final boolean stopOnError, final Principal... principals);
+
 }
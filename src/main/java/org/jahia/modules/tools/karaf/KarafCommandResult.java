@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.karaf;
+
+/**
+ * Outcome of a single command executed as part of a script by {@link KarafCommand#executeScript}.
+ */
+public class KarafCommandResult {
+
+    private final String command;
+    private final String output;
+    private final String error;
+    private final long duration;
+
+    public KarafCommandResult(String command, String output, String error, long duration) {
+        this.command = command;
+        this.output = output;
+        this.error = error;
+        this.duration = duration;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * @return the console output of the command, stripped of console control sequences
+     */
+    public String getOutput() {
+        return output;
+    }
+
+    /**
+     * @return the error message if the command has failed or timed out, <code>null</code> otherwise
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return the execution time of the command in milliseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    public boolean isSuccessful() {
+        return error == null;
+    }
+}
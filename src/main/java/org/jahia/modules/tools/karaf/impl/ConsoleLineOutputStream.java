@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.karaf.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Output stream that splits the console output into lines and strips the ANSI escape sequences on the fly.
+ */
+class ConsoleLineOutputStream extends OutputStream {
+
+    private static final int ESC = 0x1B;
+
+    private enum State {
+        TEXT, ESCAPE, CSI
+    }
+
+    private final Consumer<String> lineConsumer;
+
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+
+    private State state = State.TEXT;
+
+    ConsoleLineOutputStream(Consumer<String> lineConsumer) {
+        this.lineConsumer = lineConsumer;
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        b &= 0xFF;
+        switch (state) {
+            case ESCAPE:
+                // "ESC [" starts a control sequence, any other character ends a two-character escape sequence
+                state = b == '[' ? State.CSI : State.TEXT;
+                break;
+            case CSI:
+                // control sequences end with a byte in the 0x40-0x7E range, e.g. "m" for colors
+                if (b >= 0x40 && b <= 0x7E) {
+                    state = State.TEXT;
+                }
+                break;
+            default:
+                if (b == ESC) {
+                    state = State.ESCAPE;
+                } else if (b == '\n') {
+                    emitLine();
+                } else if (b != '\r') {
+                    line.write(b);
+                }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (line.size() > 0) {
+            emitLine();
+        }
+    }
+
+    private void emitLine() {
+        lineConsumer.accept(new String(line.toByteArray(), StandardCharsets.UTF_8));
+        line.reset();
+    }
+}
@@ -21,10 +21,17 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.karaf.shell.api.console.Session;
 import org.apache.karaf.shell.api.console.SessionFactory;
 import org.jahia.modules.tools.karaf.KarafCommand;
+import org.jahia.modules.tools.karaf.KarafCommandResult;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.util.tracker.ServiceTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,8 +40,13 @@ import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.security.Principal;
 import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.function.Consumer;
 
 @Component(service = KarafCommand.class, immediate = true)
 public class KarafCommandImpl implements KarafCommand {
@@ -47,11 +59,28 @@ public class KarafCommandImpl implements KarafCommand {
 
     static final Long SERVICE_TIMEOUT = 5000L;
 
+    /**
+     * Commands registered through the Karaf action extender are not OSGi services, so they do not fire any service
+     * event. Waiting callers are woken up on every bundle and command service event, but still re-check the registry
+     * at this interval as a safety net.
+     */
+    static final long RECHECK_INTERVAL = 500L;
+
+    private static final String COMMAND_SCOPE = "osgi.command.scope";
+    private static final String COMMAND_FUNCTION = "osgi.command.function";
+    private static final String COMMAND_FILTER = "(&(" + COMMAND_SCOPE + "=*)(" + COMMAND_FUNCTION + "=*))";
+    private static final String ANY_SCOPE = "*";
+
+    /**
+     * Maximum number of streamed lines waiting for the consumer; the command is blocked when it is reached.
+     */
+    private static final int MAX_PENDING_LINES = 1000;
+
     static {
         Arrays.fill(CONSOLE_CONTROL_STRINGS_REPLACEMENT, StringUtils.EMPTY);
     }
 
-    private static String cleanupOutput(String output) {
+    static String cleanupOutput(String output) {
         return StringUtils.replaceEach(output, CONSOLE_CONTROL_STRINGS, CONSOLE_CONTROL_STRINGS_REPLACEMENT);
     }
 
@@ -59,6 +88,26 @@ public class KarafCommandImpl implements KarafCommand {
 
     private  ExecutorService executor;
 
+    /**
+     * Index of the "scope:name" pairs already found in the session registry. Entries are evicted when the
+     * corresponding command service goes away or when a bundle is stopped.
+     */
+    private final Set<String> availableCommands = ConcurrentHashMap.newKeySet();
+
+    private final Object commandsMonitor = new Object();
+
+    private BundleContext bundleContext;
+
+    private ServiceTracker<Object, Object> commandTracker;
+
+    private final BundleListener bundleListener = event -> {
+        if (event.getType() == BundleEvent.STOPPED || event.getType() == BundleEvent.UNINSTALLED) {
+            // commands found in the registry are not tracked individually, forget them to check the registry again
+            availableCommands.clear();
+        }
+        commandsChanged();
+    };
+
     @Reference
     public void setSessionFactory(SessionFactory sessionFactory) {
         this.sessionFactory = sessionFactory;
@@ -66,19 +115,71 @@ public class KarafCommandImpl implements KarafCommand {
 
 
     @Activate
-    public void activate() {
+    public void activate(BundleContext bundleContext) throws InvalidSyntaxException {
         this.executor = Executors.newCachedThreadPool();
+        this.bundleContext = bundleContext;
+        bundleContext.addBundleListener(bundleListener);
+        commandTracker = new ServiceTracker<Object, Object>(bundleContext, bundleContext.createFilter(COMMAND_FILTER), null) {
+            @Override
+            public Object addingService(ServiceReference<Object> reference) {
+                updateIndex(reference, true);
+                return reference;
+            }
+
+            @Override
+            public void removedService(ServiceReference<Object> reference, Object service) {
+                updateIndex(reference, false);
+            }
+        };
+        commandTracker.open(true);
     }
 
     @Deactivate
     public void deactivate() {
+        commandTracker.close();
+        bundleContext.removeBundleListener(bundleListener);
+        availableCommands.clear();
+        commandsChanged();
         executor.shutdown();
     }
 
+    private void updateIndex(ServiceReference<?> reference, boolean added) {
+        if (!added) {
+            Object scope = reference.getProperty(COMMAND_SCOPE);
+            Object functions = reference.getProperty(COMMAND_FUNCTION);
+            for (Object function : functions instanceof Object[] ? (Object[]) functions : new Object[] { functions }) {
+                availableCommands.remove(scope + ":" + function);
+                availableCommands.remove(ANY_SCOPE + ":" + function);
+            }
+        }
+        // a new command service is only usable once the registry exposes it in its secured form: wake up the
+        // waiting callers so they check it again
+        commandsChanged();
+    }
+
+    private void commandsChanged() {
+        synchronized (commandsMonitor) {
+            commandsMonitor.notifyAll();
+        }
+    }
+
+    private boolean isCommandAvailable(String scope, String name) {
+        String key = scope + ":" + name;
+        if (availableCommands.contains(key)) {
+            return true;
+        }
+        if (sessionFactory.getRegistry().getCommand(scope, name) != null) {
+            availableCommands.add(key);
+            return true;
+        }
+        return false;
+    }
+
     private void waitForCommandService(String command) {
         // the commands are represented by services. Due to the asynchronous nature of services they may not be
         // immediately available. This code waits the services to be available, in their secured form. It
         // means that the code waits for the command service to appear with the roles defined.
+        // Instead of polling, the waiting thread is woken up as soon as a command service or a bundle changes.
 
         if (command == null || command.length() == 0) {
             return;
@@ -89,68 +190,218 @@ public class KarafCommandImpl implements KarafCommand {
             command = command.substring(0, spaceIdx);
         }
         int colonIndx = command.indexOf(':');
-        String scope = (colonIndx > 0) ? command.substring(0, colonIndx) : "*";
+        String scope = (colonIndx > 0) ? command.substring(0, colonIndx) : ANY_SCOPE;
         String name  = (colonIndx > 0) ? command.substring(colonIndx + 1) : command;
         try {
-            long start = System.currentTimeMillis();
-            long cur   = start;
-            while (cur - start < SERVICE_TIMEOUT) {
-                if (sessionFactory.getRegistry().getCommand(scope, name) != null) {
-                    return;
+            if (isCommandAvailable(scope, name)) {
+                return;
+            }
+            long deadline = System.currentTimeMillis() + SERVICE_TIMEOUT;
+            synchronized (commandsMonitor) {
+                long remaining = deadline - System.currentTimeMillis();
+                while (remaining > 0 && !isCommandAvailable(scope, name)) {
+                    commandsMonitor.wait(Math.min(remaining, RECHECK_INTERVAL));
+                    remaining = deadline - System.currentTimeMillis();
                 }
-                Thread.sleep(100);
-                cur = System.currentTimeMillis();
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
-    public String executeCommand(String command, final Long timeout, final Boolean silent, final Principal... principals) {
+    private static String normalizeCommand(String command) {
         if (command != null && command.startsWith("dx:")) {
             // workaround to alias "jahia" scope with "dx" since aliases are not available from here
             // see BACKLOG-10563
             command = command.replace("dx:", "jahia:");
         }
+        return command;
+    }
 
-        return execute(command, timeout, silent, principals);
+    public String executeCommand(String command, final Long timeout, final Boolean silent, final Principal... principals) {
+        return execute(normalizeCommand(command), timeout, silent, principals);
     }
 
-    private String execute(final String command, final Long timeout, final Boolean silent, final Principal... principals) {
-        waitForCommandService(command);
+    @Override
+    public void streamCommand(String command, final Long timeout, final Boolean silent, final Consumer<String> lineConsumer,
+            final Principal... principals) {
+        final String normalizedCommand = normalizeCommand(command);
+        waitForCommandService(normalizedCommand);
 
-        String response;
-        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        final PrintStream printStream = new PrintStream(byteArrayOutputStream);
+        // lines are handed over to the calling thread, so the consumer never gets called once this method has returned
+        final BlockingQueue<Optional<String>> lines = new LinkedBlockingQueue<>(MAX_PENDING_LINES);
+        final ConsoleLineOutputStream lineStream = new ConsoleLineOutputStream(line -> putLine(lines, Optional.of(line)));
+        final PrintStream printStream = new PrintStream(lineStream, true);
         final Session session = sessionFactory.create(System.in, printStream, System.err);
 
-        final Callable<String> commandCallable = () -> {
+        FutureTask<String> commandFuture = newCommandFuture(() -> {
             try {
-                if (!silent) {
-                    System.err.println(command);
+                runInSession(session, normalizedCommand, silent);
+                return null;
+            } finally {
+                try {
+                    printStream.flush();
+                    lineStream.close();
+                } finally {
+                    putLine(lines, Optional.empty());
+                }
+            }
+        }, principals);
+
+        long deadline = System.currentTimeMillis() + timeout;
+        try {
+            executor.submit(commandFuture);
+            while (true) {
+                // checked before polling, so that a command printing continuously still times out
+                long remaining = deadline - System.currentTimeMillis();
+                Optional<String> line = remaining > 0 ? lines.poll(remaining, TimeUnit.MILLISECONDS) : null;
+                if (line == null) {
+                    throw new TimeoutException();
                 }
-                Object result = session.execute(command);
-                if (result != null) {
-                    session.getConsole().println(result.toString());
+                if (!line.isPresent()) {
+                    break;
                 }
-            } catch (Exception e) {
-                throw new RuntimeException(e.getMessage(), e);
+                lineConsumer.accept(line.get());
             }
-            printStream.flush();
-            return byteArrayOutputStream.toString();
-        };
+            commandFuture.get();
+        } catch (TimeoutException e) {
+            logger.warn("Shell command has timed out: {}", normalizedCommand);
+            throw new RuntimeException("Shell command has timed out: " + normalizedCommand, e);
+        } catch (ExecutionException e) {
+            throw toRuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e.getMessage(), e);
+        } finally {
+            // no-op if the command has completed; otherwise it has timed out or the consumer has failed
+            commandFuture.cancel(true);
+            session.close();
+        }
+    }
+
+    /**
+     * Hands a streamed line over, waiting while the consumer is behind. The wait is interrupted when the command is
+     * cancelled, the line is then dropped.
+     */
+    private static void putLine(BlockingQueue<Optional<String>> lines, Optional<String> line) {
+        try {
+            lines.put(line);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public List<KarafCommandResult> executeScript(String script, final Long timeout, final Boolean silent,
+            final boolean stopOnError, final Principal... principals) {
+        List<KarafCommandResult> results = new ArrayList<>();
+        if (script == null) {
+            return results;
+        }
+
+        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        final PrintStream printStream = new PrintStream(byteArrayOutputStream);
+        final Session session = sessionFactory.create(System.in, printStream, System.err);
+        try {
+            for (String line : StringUtils.split(script, "\r\n")) {
+                final String command = normalizeCommand(line.trim());
+                if (command.isEmpty() || command.startsWith("#")) {
+                    continue;
+                }
+                long startTime = System.currentTimeMillis();
+                String error = null;
+                boolean timedOut = false;
+                boolean failed = true;
+                FutureTask<String> commandFuture = null;
+                try {
+                    waitForCommandService(command);
+                    commandFuture = newCommandFuture(() -> {
+                        runInSession(session, command, silent);
+                        return null;
+                    }, principals);
+                    executor.submit(commandFuture);
+                    commandFuture.get(timeout, TimeUnit.MILLISECONDS);
+                    failed = false;
+                } catch (TimeoutException e) {
+                    logger.warn("Shell command has timed out: {}", command);
+                    error = "Shell command has timed out: " + command;
+                    timedOut = true;
+                } catch (ExecutionException e) {
+                    error = toRuntimeException(e).getMessage();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e.getMessage(), e);
+                } catch (RuntimeException e) {
+                    error = e.getMessage();
+                } finally {
+                    // no-op if the command has completed; otherwise it must stop writing to the output and the session
+                    if (commandFuture != null) {
+                        commandFuture.cancel(true);
+                    }
+                }
+                printStream.flush();
+                String output = cleanupOutput(byteArrayOutputStream.toString());
+                byteArrayOutputStream.reset();
+                results.add(new KarafCommandResult(command, output, failed ? StringUtils.defaultString(error, "Error") : null,
+                        System.currentTimeMillis() - startTime));
+                // a timed out command may still be running in the session, the next ones cannot be executed in it
+                if (timedOut || (failed && stopOnError)) {
+                    break;
+                }
+            }
+        } finally {
+            session.close();
+        }
+        return results;
+    }
 
-        FutureTask<String> commandFuture;
+    private static void runInSession(Session session, String command, Boolean silent) {
+        try {
+            if (!silent) {
+                System.err.println(command);
+            }
+            Object result = session.execute(command);
+            if (result != null) {
+                session.getConsole().println(result.toString());
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    private static FutureTask<String> newCommandFuture(final Callable<String> commandCallable, final Principal... principals) {
         if (principals.length == 0) {
-            commandFuture = new FutureTask<>(commandCallable);
-        } else {
-            // If principals are defined, run the command callable via Subject.doAs()
-            commandFuture = new FutureTask<>(() -> {
-                Subject subject = new Subject();
-                subject.getPrincipals().addAll(Arrays.asList(principals));
-                return Subject.doAs(subject, (PrivilegedExceptionAction<String>) commandCallable::call);
-            });
+            return new FutureTask<>(commandCallable);
         }
+        // If principals are defined, run the command callable via Subject.doAs()
+        return new FutureTask<>(() -> {
+            Subject subject = new Subject();
+            subject.getPrincipals().addAll(Arrays.asList(principals));
+            return Subject.doAs(subject, (PrivilegedExceptionAction<String>) commandCallable::call);
+        });
+    }
+
+    private static RuntimeException toRuntimeException(ExecutionException e) {
+        Throwable cause = e.getCause() != null ? (e.getCause().getCause() != null ? e.getCause().getCause() : e.getCause()) : e;
+        return new RuntimeException(cause.getMessage(), cause);
+    }
+
+    private String execute(final String command, final Long timeout, final Boolean silent, final Principal... principals) {
+        waitForCommandService(command);
+
+        String response;
+        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        final PrintStream printStream = new PrintStream(byteArrayOutputStream);
+        final Session session = sessionFactory.create(System.in, printStream, System.err);
+
+        FutureTask<String> commandFuture = newCommandFuture(() -> {
+            runInSession(session, command, silent);
+            printStream.flush();
+            return byteArrayOutputStream.toString();
+        }, principals);
 
         try {
             executor.submit(commandFuture);
@@ -159,8 +410,7 @@ public class KarafCommandImpl implements KarafCommand {
             logger.warn("Shell command has timed out: {}", command);
             throw new RuntimeException("Shell command has timed out: " + command, e);
         } catch (ExecutionException e) {
-            Throwable cause = e.getCause() != null ? (e.getCause().getCause() != null ? e.getCause().getCause() : e.getCause()) : e;
-            throw new RuntimeException(cause.getMessage(), cause);
+            throw toRuntimeException(e);
         } catch (InterruptedException e) {
             throw new RuntimeException(e.getMessage(), e);
         }
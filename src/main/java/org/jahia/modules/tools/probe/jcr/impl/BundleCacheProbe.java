@@ -15,23 +15,22 @@
  */
 package org.jahia.modules.tools.probe.jcr.impl;
 
-import org.apache.commons.lang.reflect.FieldUtils;
-import org.apache.jackrabbit.core.JahiaRepositoryImpl;
-import org.apache.jackrabbit.core.RepositoryContext;
+import java.text.DecimalFormat;
+
 import org.apache.jackrabbit.core.cache.AbstractCache;
-import org.apache.jackrabbit.core.persistence.bundle.AbstractBundlePersistenceManager;
 import org.jahia.bin.Jahia;
+import org.jahia.modules.tools.jcr.BundleCacheMonitor;
+import org.jahia.modules.tools.jcr.BundleCacheSizing;
 import org.jahia.modules.tools.probe.Probe;
 import org.jahia.modules.tools.probe.ProbeMBean;
-import org.jahia.services.content.JCRSessionFactory;
-import org.jahia.services.content.impl.jackrabbit.SpringJackrabbitRepository;
 import org.osgi.framework.Constants;
 import org.osgi.service.component.annotations.Component;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Reports current Jackrabbit BundleCache status.
+ * Reports current Jackrabbit BundleCache status, with the hit ratio over the last hour and the sizing recommendation
+ * computed by the {@link BundleCacheMonitor}.
  * 
  * @author Sergiy Shyrkov
  */
@@ -50,28 +49,39 @@ public class BundleCacheProbe implements ProbeMBean {
 
     static final String NAME = "JCR bundle cache";
 
+    private static final DecimalFormat PERCENT_FORMATTER = new DecimalFormat("#.##%");
+
     private static void appendStats(String workspace, StringBuilder out) {
         try {
-            RepositoryContext repoCtx = getJcrRepositoryContext();
-
-            AbstractCache cache = (AbstractCache) FieldUtils
-                    .getDeclaredField(AbstractBundlePersistenceManager.class, "bundles", true)
-                    .get(workspace != null ? FieldUtils.readDeclaredField(
-                            repoCtx.getWorkspaceManager().getWorkspaceStateManager(workspace), "persistMgr", true)
-                            : repoCtx.getInternalVersionManager().getPersistenceManager());
+            AbstractCache cache = BundleCacheMonitor.getBundleCache(workspace);
             if (out.length() > 0) {
                 out.append("\n");
             }
             out.append(cache.getCacheInfoAsString());
+            BundleCacheMonitor monitor = BundleCacheMonitor.getInstance();
+            if (monitor != null) {
+                appendRecommendation(monitor.getRecommendation(workspace), out);
+            }
         } catch (Exception e) {
             logger.error("Unable to get the stats for the JCR bundle cache in workspace " + workspace + ". Cause: "
                     + e.getMessage(), e);
         }
     }
 
-    static RepositoryContext getJcrRepositoryContext() {
-        return ((JahiaRepositoryImpl) ((SpringJackrabbitRepository) JCRSessionFactory.getInstance().getDefaultProvider()
-                .getRepository()).getRepository()).getContext();
+    private static void appendRecommendation(BundleCacheSizing.Recommendation recommendation, StringBuilder out) {
+        if (recommendation.getRecommendedSize() == 0) {
+            out.append("\n\t").append(recommendation.getMessage());
+            return;
+        }
+        out.append("\n\tlast hour: hit ratio ").append(PERCENT_FORMATTER.format(recommendation.getHitRatio())).append(", ")
+                .append(Math.round(recommendation.getMissRate() * 100) / 100d).append(" misses/sec, ")
+                .append(recommendation.getMemoryUsedMB()).append(" MB used of ").append(recommendation.getSizeMB()).append(" MB");
+        out.append("\n\testimated hit ratio by size:");
+        for (BundleCacheSizing.Estimate estimate : recommendation.getEstimates()) {
+            out.append(" ").append(estimate.getSizeMB()).append(" MB: ").append(PERCENT_FORMATTER.format(estimate.getHitRatio())).append(";");
+        }
+        out.append("\n\trecommended size: ").append(recommendation.getRecommendedSizeMB()).append(" MB (")
+                .append(recommendation.getMessage()).append(")");
     }
 
     @Override
@@ -84,7 +94,7 @@ public class BundleCacheProbe implements ProbeMBean {
         StringBuilder out = new StringBuilder(512);
         appendStats("default", out);
         appendStats("live", out);
-        appendStats(null, out);
+        appendStats(BundleCacheMonitor.VERSION_STORE, out);
 
         return out.toString();
     }
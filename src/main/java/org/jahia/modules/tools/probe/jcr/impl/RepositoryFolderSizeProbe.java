@@ -22,6 +22,7 @@ import org.apache.commons.io.FileUtils;
 import org.apache.jackrabbit.core.data.DataStore;
 import org.apache.jackrabbit.core.data.FileDataStore;
 import org.jahia.bin.Jahia;
+import org.jahia.modules.tools.jcr.BundleCacheMonitor;
 import org.jahia.modules.tools.probe.Probe;
 import org.jahia.modules.tools.probe.ProbeMBean;
 import org.jahia.settings.SettingsBean;
@@ -72,7 +73,7 @@ public class RepositoryFolderSizeProbe implements ProbeMBean {
             appendInfo("System workspace index", new File(repoHome, "index"), out);
             appendInfo("Default workspace index", new File(repoHome, "workspaces/default/index"), out);
             appendInfo("Live workspace index", new File(repoHome, "workspaces/default/index"), out);
-            DataStore dataStore = BundleCacheProbe.getJcrRepositoryContext().getDataStore();
+            DataStore dataStore = BundleCacheMonitor.getRepositoryContext().getDataStore();
             if (dataStore instanceof FileDataStore) {
                 appendInfo("Data store", new File(((FileDataStore) dataStore).getPath()), out);
             }
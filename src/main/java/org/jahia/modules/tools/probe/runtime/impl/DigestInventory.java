@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.probe.runtime.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.jahia.osgi.FrameworkService;
+import org.jahia.settings.SettingsBean;
+import org.osgi.framework.Bundle;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Computes the SHA-256 digests of the JARs under WEB-INF/lib, of the classes under WEB-INF/classes and of the
+ * installed OSGi bundles, in parallel. The digests are cached: files are hashed again only if their size or last
+ * modification date changed, bundles only if they were updated. The digests of an inventory are combined into a
+ * fingerprint, identical on the cluster nodes running the same binaries.
+ * <p>
+ * A file or bundle that cannot be read is reported as {@link #UNREADABLE}, cached like a digest so that it is not read
+ * again until it changes, and left out of the fingerprint, which is then flagged as partial.
+ */
+@Component(service = DigestInventory.class, immediate = true)
+public class DigestInventory {
+
+    private static final Logger logger = LoggerFactory.getLogger(DigestInventory.class);
+
+    private static final String ALGORITHM = "SHA-256";
+
+    private static final int SHORT_DIGEST_LENGTH = 16;
+
+    /**
+     * Digest shown for the files and bundles whose content could not be read.
+     */
+    public static final String UNREADABLE = "unreadable";
+
+    private static final String BUNDLE_KEY_PREFIX = "bundle:";
+
+    /**
+     * Digest of a file or bundle.
+     */
+    public static class Entry {
+        private final String name;
+        private final long size;
+        private final long lastModified;
+        private final String digest;
+        private final boolean unreadable;
+
+        Entry(String name, long size, long lastModified, String digest, boolean unreadable) {
+            this.name = name;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.digest = digest;
+            this.unreadable = unreadable;
+        }
+
+        /**
+         * @return the path relative to the inventory folder, or the symbolic name and version of a bundle
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the size in bytes, the sum of the entry sizes for a bundle
+         */
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @return the hexadecimal SHA-256 digest, empty for a folder, {@link #UNREADABLE} if the content could not be
+         * read
+         */
+        public String getDigest() {
+            return unreadable ? UNREADABLE : digest;
+        }
+
+        /**
+         * @return the first characters of the digest, enough to tell the contents apart
+         */
+        public String getShortDigest() {
+            return digest.length() > SHORT_DIGEST_LENGTH ? digest.substring(0, SHORT_DIGEST_LENGTH) : getDigest();
+        }
+
+        /**
+         * @return <code>true</code> if the content could not be read, the entry then has no digest
+         */
+        public boolean isUnreadable() {
+            return unreadable;
+        }
+    }
+
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+
+    private ExecutorService executor;
+
+    @Activate
+    public void activate() {
+        int threads = Integer.parseInt(SettingsBean.getInstance().getPropertiesFile().getProperty(
+                "jahiaTools.digestInventory.threads", String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors() / 2))));
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "tools-digest-inventory-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Deactivate
+    public void deactivate() {
+        executor.shutdownNow();
+        cache.clear();
+    }
+
+    /**
+     * @return the digests of the files under WEB-INF/lib, sorted by name
+     */
+    public List<Entry> getWebInfLib() {
+        File dir = new File(System.getProperty("jahiaWebAppRoot"), "WEB-INF/lib");
+        File[] files = dir.listFiles();
+        return digestFiles(dir, files != null ? List.of(files) : List.of());
+    }
+
+    /**
+     * @return the digests of the class files under WEB-INF/classes, sorted by path
+     */
+    public List<Entry> getWebInfClasses() {
+        File dir = new File(System.getProperty("jahiaWebAppRoot"), "WEB-INF/classes");
+        return digestFiles(dir, dir.isDirectory() ? FileUtils.listFiles(dir, new String[] { "class" }, true) : List.of());
+    }
+
+    /**
+     * @return the digests of the installed bundles, sorted by symbolic name and version
+     */
+    public List<Entry> getBundles() {
+        List<Callable<Entry>> tasks = new ArrayList<>();
+        Set<String> keys = new HashSet<>();
+        for (Bundle bundle : FrameworkService.getBundleContext().getBundles()) {
+            tasks.add(() -> getBundle(bundle));
+            keys.add(BUNDLE_KEY_PREFIX + bundle.getBundleId());
+        }
+        // forget the uninstalled bundles
+        prune(BUNDLE_KEY_PREFIX, keys);
+        return invokeAll(tasks);
+    }
+
+    /**
+     * Combines the digests of an inventory, in name order, into a single digest. The unreadable entries are left out,
+     * the fingerprint is then followed by their count as it cannot be compared with the one of another node.
+     *
+     * @param entries the inventory
+     * @return the short hexadecimal fingerprint of the inventory
+     */
+    public static String fingerprint(List<Entry> entries) {
+        MessageDigest digest = newDigest();
+        int unreadable = 0;
+        for (Entry entry : sortedByName(entries)) {
+            if (entry.unreadable) {
+                unreadable++;
+                continue;
+            }
+            digest.update(entry.name.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\t');
+            digest.update(entry.digest.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+        String fingerprint = Hex.encodeHexString(digest.digest()).substring(0, SHORT_DIGEST_LENGTH);
+        return unreadable > 0 ? fingerprint + " (partial, " + unreadable + " " + UNREADABLE + ")" : fingerprint;
+    }
+
+    private List<Entry> digestFiles(File base, Collection<File> files) {
+        String basePath = base.getAbsolutePath();
+        List<Callable<Entry>> tasks = new ArrayList<>(files.size());
+        Set<String> keys = new HashSet<>();
+        for (File file : files) {
+            String name = file.getAbsolutePath().substring(basePath.length() + 1).replace('\\', '/');
+            tasks.add(() -> digestFile(name, file));
+            keys.add(file.getAbsolutePath());
+        }
+        // forget the deleted files
+        prune(basePath + File.separator, keys);
+        return invokeAll(tasks);
+    }
+
+    private void prune(String keyPrefix, Set<String> keys) {
+        cache.keySet().removeIf(key -> key.startsWith(keyPrefix) && !keys.contains(key));
+    }
+
+    private Entry digestFile(String name, File file) {
+        long size = file.isFile() ? file.length() : 0;
+        long lastModified = file.lastModified();
+        String key = file.getAbsolutePath();
+        Entry cached = cache.get(key);
+        if (cached != null && cached.size == size && cached.lastModified == lastModified) {
+            return cached;
+        }
+        String digest = "";
+        boolean unreadable = false;
+        if (file.isFile()) {
+            try (InputStream in = FileUtils.openInputStream(file)) {
+                MessageDigest messageDigest = newDigest();
+                update(messageDigest, in);
+                digest = Hex.encodeHexString(messageDigest.digest());
+            } catch (IOException e) {
+                logger.warn("Unable to compute the digest of " + file + ". Cause: " + e.getMessage());
+                unreadable = true;
+            }
+        }
+        Entry entry = new Entry(name, size, lastModified, digest, unreadable);
+        cache.put(key, entry);
+        return entry;
+    }
+
+    /**
+     * @param bundle an installed bundle
+     * @return the digest of the bundle entries, taken from the cache if the bundle was not updated since
+     */
+    public Entry getBundle(Bundle bundle) {
+        String name = bundle.getSymbolicName() + "/" + bundle.getVersion();
+        long lastModified = bundle.getLastModified();
+        String key = BUNDLE_KEY_PREFIX + bundle.getBundleId();
+        Entry cached = cache.get(key);
+        if (cached != null && cached.lastModified == lastModified && cached.name.equals(name)) {
+            return cached;
+        }
+        // the entries of the bundle itself, in path order, without the ones of its fragments
+        TreeSet<String> paths = new TreeSet<>();
+        collectEntryPaths(bundle, "/", paths);
+        MessageDigest messageDigest = newDigest();
+        long size = 0;
+        boolean unreadable = false;
+        try {
+            for (String path : paths) {
+                URL url = bundle.getEntry(path);
+                if (url == null) {
+                    continue;
+                }
+                messageDigest.update(path.getBytes(StandardCharsets.UTF_8));
+                messageDigest.update((byte) 0);
+                try (InputStream in = url.openStream()) {
+                    size += update(messageDigest, in);
+                }
+            }
+        } catch (IOException | IllegalStateException e) {
+            logger.warn("Unable to compute the digest of the bundle " + name + ". Cause: " + e.getMessage());
+            unreadable = true;
+        }
+        Entry entry = new Entry(name, size, lastModified, unreadable ? "" : Hex.encodeHexString(messageDigest.digest()),
+                unreadable);
+        cache.put(key, entry);
+        return entry;
+    }
+
+    private static void collectEntryPaths(Bundle bundle, String path, Collection<String> paths) {
+        Enumeration<String> children = bundle.getEntryPaths(path);
+        while (children != null && children.hasMoreElements()) {
+            String child = children.nextElement();
+            if (child.endsWith("/")) {
+                collectEntryPaths(bundle, child, paths);
+            } else {
+                paths.add(child);
+            }
+        }
+    }
+
+    private static long update(MessageDigest digest, InputStream in) throws IOException {
+        byte[] buffer = new byte[65536];
+        long size = 0;
+        for (int read; (read = in.read(buffer)) != -1; ) {
+            digest.update(buffer, 0, read);
+            size += read;
+        }
+        return size;
+    }
+
+    private List<Entry> invokeAll(List<Callable<Entry>> tasks) {
+        List<Entry> entries = new ArrayList<>(tasks.size());
+        try {
+            for (Future<Entry> future : executor.invokeAll(tasks)) {
+                try {
+                    entries.add(future.get());
+                } catch (ExecutionException e) {
+                    logger.warn("Unable to compute a digest. Cause: " + e.getCause().getMessage(), e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return sortedByName(entries);
+    }
+
+    private static List<Entry> sortedByName(List<Entry> entries) {
+        List<Entry> sorted = new ArrayList<>(entries);
+        sorted.sort(Comparator.comparing(Entry::getName));
+        return sorted;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // always available in the JDK
+            throw new IllegalStateException(e);
+        }
+    }
+}
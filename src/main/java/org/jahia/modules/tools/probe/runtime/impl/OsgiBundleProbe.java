@@ -17,6 +17,7 @@ package org.jahia.modules.tools.probe.runtime.impl;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.karaf.bundle.core.BundleInfo;
 import org.apache.karaf.bundle.core.BundleService;
@@ -54,6 +55,8 @@ public class OsgiBundleProbe implements ProbeMBean {
 
     private BundleService bundleService;
 
+    private DigestInventory digestInventory;
+
     private void appendInfo(Bundle b, ShellTable table) {
         BundleInfo info = this.bundleService.getInfo(b);
         String version = info.getVersion();
@@ -75,6 +78,8 @@ public class OsgiBundleProbe implements ProbeMBean {
 
         rowData.add(info.getRevisions());
 
+        rowData.add(digestInventory.getBundle(b).getShortDigest());
+
         Row row = table.addRow();
         row.addContent(rowData);
     }
@@ -84,6 +89,11 @@ public class OsgiBundleProbe implements ProbeMBean {
         this.bundleService = bundleService;
     }
 
+    @Reference
+    protected void bindDigestInventory(DigestInventory digestInventory) {
+        this.digestInventory = digestInventory;
+    }
+
     @Override
     public String getCategory() {
         return CATEGORY;
@@ -121,14 +131,19 @@ public class OsgiBundleProbe implements ProbeMBean {
         });
         table.column("Update location");
         table.column("Revisions");
+        table.column("Digest");
+
+        // computes the missing digests in parallel, the rows then read them from the cache
+        List<DigestInventory.Entry> digests = digestInventory.getBundles();
 
         for (Bundle b : FrameworkService.getBundleContext().getBundles()) {
             appendInfo(b, table);
         }
 
         StringOutputStream out = new StringOutputStream();
-
-        table.print(new PrintStream(out));
+        PrintStream ps = new PrintStream(out);
+        ps.println("Fingerprint: " + DigestInventory.fingerprint(digests) + " (" + digests.size() + " bundles)");
+        table.print(ps);
 
         return out.toString();
 
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.probe.runtime.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jahia.bin.Jahia;
+import org.jahia.modules.tools.probe.Probe;
+import org.jahia.modules.tools.probe.ProbeMBean;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+/**
+ * Reports the fingerprints of the JARs under WEB-INF/lib, of the classes under WEB-INF/classes and of the OSGi bundles,
+ * to compare the binaries deployed on the cluster nodes.
+ */
+@Component(service = Probe.class, property = { Probe.KEY + "=" + RuntimeFingerprintProbe.KEY,
+        Constants.SERVICE_DESCRIPTION + "=" + RuntimeFingerprintProbe.NAME,
+        Probe.CATEGORY + "=" + RuntimeFingerprintProbe.CATEGORY, Constants.SERVICE_VENDOR + "=" + Jahia.VENDOR_NAME,
+        "jmx.objectname=org.jahia.server:type=tools,subtype=probe,category=" + RuntimeFingerprintProbe.CATEGORY
+                + ",name=" + RuntimeFingerprintProbe.KEY })
+public class RuntimeFingerprintProbe implements ProbeMBean {
+
+    static final String CATEGORY = "runtime";
+
+    static final String KEY = "runtime-fingerprint";
+
+    static final String NAME = "Fingerprint of the deployed binaries";
+
+    private DigestInventory digestInventory;
+
+    @Reference
+    protected void bindDigestInventory(DigestInventory digestInventory) {
+        this.digestInventory = digestInventory;
+    }
+
+    @Override
+    public String getCategory() {
+        return CATEGORY;
+    }
+
+    @Override
+    public String getData() {
+        List<DigestInventory.Entry> lib = digestInventory.getWebInfLib();
+        List<DigestInventory.Entry> classes = digestInventory.getWebInfClasses();
+        List<DigestInventory.Entry> bundles = digestInventory.getBundles();
+
+        List<DigestInventory.Entry> all = new ArrayList<>(lib.size() + classes.size() + bundles.size());
+        all.addAll(lib);
+        all.addAll(classes);
+        all.addAll(bundles);
+
+        StringBuilder out = new StringBuilder();
+        out.append("Node: ").append(System.getProperty("cluster.node.serverId", "")).append('\n');
+        out.append("Fingerprint: ").append(DigestInventory.fingerprint(all)).append('\n');
+        appendFingerprint(out, WebInfLibProbe.KEY, lib);
+        appendFingerprint(out, WebInfClassesProbe.KEY, classes);
+        appendFingerprint(out, OsgiBundleProbe.KEY, bundles);
+        return out.toString();
+    }
+
+    private static void appendFingerprint(StringBuilder out, String key, List<DigestInventory.Entry> entries) {
+        out.append(key).append(": ").append(DigestInventory.fingerprint(entries)).append(" (")
+                .append(entries.size()).append(")\n");
+    }
+
+    @Override
+    public String getKey() {
+        return KEY;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+}
@@ -16,11 +16,9 @@
 package org.jahia.modules.tools.probe.runtime.impl;
 
 import java.io.File;
-import java.io.IOException;
 import java.io.PrintStream;
-import java.util.Collection;
+import java.util.List;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.time.FastDateFormat;
 import org.apache.karaf.shell.support.table.ShellTable;
@@ -30,6 +28,7 @@ import org.jahia.modules.tools.probe.ProbeMBean;
 import org.jahia.utils.StringOutputStream;
 import org.osgi.framework.Constants;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
 
 /**
  * Reports the list of class files under WEB-INF/classes.
@@ -51,6 +50,13 @@ public class WebInfClassesProbe implements ProbeMBean {
 
     static final String NAME = "List of classes under WEB-INF/classes";
 
+    private DigestInventory digestInventory;
+
+    @Reference
+    protected void bindDigestInventory(DigestInventory digestInventory) {
+        this.digestInventory = digestInventory;
+    }
+
     @Override
     public String getCategory() {
         return CATEGORY;
@@ -63,7 +69,7 @@ public class WebInfClassesProbe implements ProbeMBean {
             return StringUtils.EMPTY;
         }
         StringOutputStream out = null;
-        Collection<File> classes = FileUtils.listFiles(dir, new String[] { "class" }, true);
+        List<DigestInventory.Entry> classes = digestInventory.getWebInfClasses();
 
         if (!classes.isEmpty()) {
             ShellTable table = new ShellTable();
@@ -71,20 +77,18 @@ public class WebInfClassesProbe implements ProbeMBean {
             table.column("Class");
             table.column("Size").alignRight();
             table.column("Last modified").alignRight();
+            table.column("Digest");
 
-            try {
-                String base = dir.getCanonicalPath();
-                int count = 0;
-                for (File f : classes) {
-                    table.addRow().addContent(++count, f.getPath().substring(base.length() + 1).replace('\\', '/'),
-                            f.isFile() ? f.length() : 0, DATE_FORMAT.format(f.lastModified()));
-                }
-            } catch (IOException e) {
-                throw new IllegalArgumentException(e);
+            int count = 0;
+            for (DigestInventory.Entry c : classes) {
+                table.addRow().addContent(++count, c.getName(), c.getSize(), DATE_FORMAT.format(c.getLastModified()),
+                        c.getShortDigest());
             }
 
             out = new StringOutputStream();
-            table.print(new PrintStream(out));
+            PrintStream ps = new PrintStream(out);
+            ps.println("Fingerprint: " + DigestInventory.fingerprint(classes) + " (" + classes.size() + " files)");
+            table.print(ps);
         }
 
         return out != null ? out.toString() : StringUtils.EMPTY;
@@ -17,6 +17,7 @@ package org.jahia.modules.tools.probe.runtime.impl;
 
 import java.io.File;
 import java.io.PrintStream;
+import java.util.List;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.time.FastDateFormat;
@@ -27,6 +28,7 @@ import org.jahia.modules.tools.probe.ProbeMBean;
 import org.jahia.utils.StringOutputStream;
 import org.osgi.framework.Constants;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
 
 /**
  * Reports the list of JAR files under WEB-INF/lib.
@@ -48,6 +50,13 @@ public class WebInfLibProbe implements ProbeMBean {
 
     static final String NAME = "List of JARs under WEB-INF/lib";
 
+    private DigestInventory digestInventory;
+
+    @Reference
+    protected void bindDigestInventory(DigestInventory digestInventory) {
+        this.digestInventory = digestInventory;
+    }
+
     @Override
     public String getCategory() {
         return CATEGORY;
@@ -64,19 +73,19 @@ public class WebInfLibProbe implements ProbeMBean {
         table.column("Name");
         table.column("Size").alignRight();
         table.column("Last modified").alignRight();
+        table.column("Digest");
 
-        File[] jars = dir.listFiles();
-        if (jars != null) {
-            int count = 0;
-            for (File jar : jars) {
-                table.addRow().addContent(++count, jar.getName(), jar.isFile() ? jar.length() : 0,
-                        DATE_FORMAT.format(jar.lastModified()));
-            }
+        List<DigestInventory.Entry> jars = digestInventory.getWebInfLib();
+        int count = 0;
+        for (DigestInventory.Entry jar : jars) {
+            table.addRow().addContent(++count, jar.getName(), jar.getSize(), DATE_FORMAT.format(jar.getLastModified()),
+                    jar.getShortDigest());
         }
 
         StringOutputStream out = new StringOutputStream();
-
-        table.print(new PrintStream(out));
+        PrintStream ps = new PrintStream(out);
+        ps.println("Fingerprint: " + DigestInventory.fingerprint(jars) + " (" + jars.size() + " files)");
+        table.print(ps);
 
         return out.toString();
     }
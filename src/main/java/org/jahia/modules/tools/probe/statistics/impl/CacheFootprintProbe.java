@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.probe.statistics.impl;
+
+import org.apache.commons.io.FileUtils;
+import org.jahia.bin.Jahia;
+import org.jahia.modules.tools.cache.CacheFootprint;
+import org.jahia.modules.tools.cache.CacheFootprintEstimator;
+import org.jahia.modules.tools.probe.Probe;
+import org.jahia.modules.tools.probe.ProbeMBean;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Component;
+
+import java.util.List;
+
+/**
+ * Reports the estimated heap footprint of the caches, from the last periodic estimation.
+ */
+@Component(service = Probe.class, property = { Probe.KEY + "=" + CacheFootprintProbe.KEY,
+        Constants.SERVICE_DESCRIPTION + "=" + CacheFootprintProbe.NAME, Probe.CATEGORY + "=" + CacheFootprintProbe.CATEGORY,
+        Constants.SERVICE_VENDOR + "=" + Jahia.VENDOR_NAME,
+        "jmx.objectname=org.jahia.server:type=tools,subtype=probe,category=" + CacheFootprintProbe.CATEGORY + ",name="
+                + CacheFootprintProbe.KEY })
+public class CacheFootprintProbe implements ProbeMBean {
+
+    static final String CATEGORY = "statistics";
+
+    static final String KEY = "cache-footprint";
+
+    static final String NAME = "Cache heap footprint";
+
+    @Override
+    public String getCategory() {
+        return CATEGORY;
+    }
+
+    @Override
+    public String getData() {
+        CacheFootprintEstimator estimator = CacheFootprintEstimator.getInstance();
+        if (estimator == null) {
+            return "The cache footprint estimator is not available";
+        }
+        List<CacheFootprint> footprints = estimator.getFootprints();
+        if (footprints.isEmpty()) {
+            // the estimation walks the cache entries, it is not done while the report is being built
+            estimator.requestEstimation();
+            return "No cache footprint estimation has completed yet, one has been started in the background";
+        }
+        StringBuilder out = new StringBuilder(2048);
+        long total = 0;
+        for (CacheFootprint footprint : footprints) {
+            total += footprint.getEstimatedSize();
+            out.append(footprint.getCacheManagerName()).append('/').append(footprint.getCacheName()).append(": ")
+                    .append(FileUtils.byteCountToDisplaySize(footprint.getEstimatedSize())).append(" (95% CI ")
+                    .append(footprint.getLowerBound()).append('-').append(footprint.getUpperBound()).append(" bytes), ")
+                    .append(footprint.getEntries()).append(" entries, ").append(footprint.getSampledEntries())
+                    .append(" sampled\n");
+        }
+        out.append("Total: ").append(FileUtils.byteCountToDisplaySize(total)).append('\n');
+        return out.toString();
+    }
+
+    @Override
+    public String getKey() {
+        return KEY;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+}
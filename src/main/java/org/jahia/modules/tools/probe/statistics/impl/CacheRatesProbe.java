@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2002-2022 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.tools.probe.statistics.impl;
+
+import org.jahia.bin.Jahia;
+import org.jahia.modules.tools.cache.CacheStatisticsRecorder;
+import org.jahia.modules.tools.cache.CacheStatisticsSeries;
+import org.jahia.modules.tools.probe.Probe;
+import org.jahia.modules.tools.probe.ProbeMBean;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Component;
+
+import java.util.Locale;
+
+/**
+ * Reports the recent per-second rates and hit ratios of the caches.
+ */
+@Component(service = Probe.class, property = { Probe.KEY + "=" + CacheRatesProbe.KEY,
+        Constants.SERVICE_DESCRIPTION + "=" + CacheRatesProbe.NAME, Probe.CATEGORY + "=" + CacheRatesProbe.CATEGORY,
+        Constants.SERVICE_VENDOR + "=" + Jahia.VENDOR_NAME,
+        "jmx.objectname=org.jahia.server:type=tools,subtype=probe,category=" + CacheRatesProbe.CATEGORY + ",name="
+                + CacheRatesProbe.KEY })
+public class CacheRatesProbe implements ProbeMBean {
+
+    static final String CATEGORY = "statistics";
+
+    static final String KEY = "cache-rates";
+
+    static final String NAME = "Cache rates";
+
+    private static final int WINDOW = 60;
+
+    private static final int LONG_WINDOW = 900;
+
+    @Override
+    public String getCategory() {
+        return CATEGORY;
+    }
+
+    @Override
+    public String getData() {
+        CacheStatisticsRecorder recorder = CacheStatisticsRecorder.getInstance();
+        if (recorder == null) {
+            return "The cache statistics recorder is not available";
+        }
+        StringBuilder out = new StringBuilder(4096);
+        out.append("cache: hits/s, misses/s, puts/s, evictions/s over 1 min; hit ratio over 1 min, 15 min\n");
+        for (CacheStatisticsSeries series : recorder.getSeries()) {
+            out.append(series.getCacheManagerName()).append('/').append(series.getCacheName()).append(": ")
+                    .append(String.format(Locale.ENGLISH, "%.2f, %.2f, %.2f, %.2f; %s, %s",
+                            series.getRate(CacheStatisticsSeries.Counter.HITS, WINDOW),
+                            series.getRate(CacheStatisticsSeries.Counter.MISSES, WINDOW),
+                            series.getRate(CacheStatisticsSeries.Counter.PUTS, WINDOW),
+                            series.getRate(CacheStatisticsSeries.Counter.EVICTIONS, WINDOW),
+                            formatRatio(series.getHitRatio(WINDOW)), formatRatio(series.getHitRatio(LONG_WINDOW))))
+                    .append('\n');
+        }
+        return out.toString();
+    }
+
+    private static String formatRatio(double ratio) {
+        return ratio < 0 ? "-" : String.format(Locale.ENGLISH, "%.1f%%", ratio * 100);
+    }
+
+    @Override
+    public String getKey() {
+        return KEY;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+}
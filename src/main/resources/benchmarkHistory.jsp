@@ -0,0 +1,156 @@
+<%@ page contentType="text/html;charset=UTF-8" language="java"
+%>
+<?xml version="1.0" encoding="UTF-8" ?>
+<!DOCTYPE html PUBLIC "-//W3C//DTD XHTML 1.0 Strict//EN" "http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd">
+<%@ page import="org.jahia.modules.tools.benchmark.BenchmarkHistory" %>
+<%@ page import="java.util.ArrayList" %>
+<%@ page import="java.util.HashMap" %>
+<%@ page import="java.util.List" %>
+<%@ page import="java.util.Map" %>
+<%@ taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core" %>
+<%@ taglib prefix="fmt" uri="http://java.sun.com/jsp/jstl/fmt" %>
+<%@ taglib prefix="fn" uri="http://java.sun.com/jsp/jstl/functions" %>
+<html xmlns="http://www.w3.org/1999/xhtml">
+<head>
+    <meta http-equiv="Content-Type" content="text/html; charset=UTF-8"/>
+    <%@ include file="css.jspf" %>
+    <title>Benchmark history</title>
+    <style type="text/css">
+        .regression {
+            color: #FF0000;
+        }
+
+        .improvement {
+            color: #008000;
+        }
+    </style>
+</head>
+<body>
+<%@ include file="logout.jspf" %>
+<h1>Benchmark history</h1>
+<p>
+    The results of the benchmarks run from the <a href="benchmarks.jsp?toolAccessToken=${toolAccessToken}">System benchmarks</a> page
+    and of the database connection speed probe are stored in the data directory of each cluster node. Choose the baseline runs
+    and the runs to compare, ideally several repeated runs of the same test on each side: each run is reduced to its median
+    latency per operation, and the difference of the per-run medians is checked with a Welch t-test and flagged when it is
+    significant (p &lt; 0.05) and above 5%. With fewer than 3 runs on a side, the differences above 5% are only indicative, as
+    the variability between runs is unknown.
+</p>
+<c:if test="${param.action == 'delete' && not empty param.id}">
+    <% pageContext.setAttribute("deleted", BenchmarkHistory.delete(request.getParameter("id"))); %>
+    <p style="color: blue">${deleted ? 'The run was deleted.' : 'The run was not found.'}</p>
+</c:if>
+<%!
+    private static List<BenchmarkHistory.Run> getRuns(String[] ids) {
+        List<BenchmarkHistory.Run> runs = new ArrayList<>();
+        if (ids != null) {
+            for (String id : ids) {
+                BenchmarkHistory.Run run = BenchmarkHistory.getRun(id);
+                if (run != null) {
+                    runs.add(run);
+                }
+            }
+        }
+        return runs;
+    }
+
+    private static Map<String, Boolean> toSelection(String[] ids) {
+        Map<String, Boolean> selection = new HashMap<>();
+        if (ids != null) {
+            for (String id : ids) {
+                selection.put(id, Boolean.TRUE);
+            }
+        }
+        return selection;
+    }
+%>
+<%
+    pageContext.setAttribute("selectedBaselines", toSelection(request.getParameterValues("baseline")));
+    pageContext.setAttribute("selectedRuns", toSelection(request.getParameterValues("run")));
+    if (request.getParameter("baseline") != null && request.getParameter("run") != null) {
+        List<BenchmarkHistory.Run> baselineRuns = getRuns(request.getParameterValues("baseline"));
+        List<BenchmarkHistory.Run> comparedRuns = getRuns(request.getParameterValues("run"));
+        if (!baselineRuns.isEmpty() && !comparedRuns.isEmpty()) {
+            pageContext.setAttribute("baselineRuns", baselineRuns);
+            pageContext.setAttribute("comparedRuns", comparedRuns);
+            pageContext.setAttribute("baselineRun", baselineRuns.get(0));
+            pageContext.setAttribute("comparedRun", comparedRuns.get(0));
+            pageContext.setAttribute("comparisons", BenchmarkHistory.compare(baselineRuns, comparedRuns));
+        }
+    }
+%>
+<c:if test="${not empty comparisons}">
+    <h2>Comparison</h2>
+    <p>Baseline:<c:forEach var="run" items="${baselineRuns}" varStatus="status"> <fmt:formatDate value="${run.date}" pattern="yyyy-MM-dd HH:mm:ss"/>
+        on node ${fn:escapeXml(run.serverId)}${status.last ? '' : ','}</c:forEach><br/>
+        Compared:<c:forEach var="run" items="${comparedRuns}" varStatus="status"> <fmt:formatDate value="${run.date}" pattern="yyyy-MM-dd HH:mm:ss"/>
+        on node ${fn:escapeXml(run.serverId)}${status.last ? '' : ','}</c:forEach></p>
+    <c:if test="${baselineRun.test != comparedRun.test || baselineRun.configuration != comparedRun.configuration}">
+        <p class="regression">The runs do not have the same test configuration, their results may not be comparable:<br/>
+            ${fn:escapeXml(baselineRun.test)} ${fn:escapeXml(baselineRun.configuration)}<br/>
+            ${fn:escapeXml(comparedRun.test)} ${fn:escapeXml(comparedRun.configuration)}</p>
+    </c:if>
+    <table border="1" cellspacing="0" cellpadding="5">
+        <tr>
+            <th>Operation</th>
+            <th>Runs</th>
+            <th>Mean (ms)</th>
+            <th>50% line (ms)</th>
+            <th>99% line (ms)</th>
+            <th>Rate</th>
+            <th>p-value</th>
+            <th>Result</th>
+        </tr>
+        <c:forEach var="comparison" items="${comparisons}">
+            <tr class="${comparison.regression ? 'regression' : comparison.improvement ? 'improvement' : ''}">
+                <td>${fn:escapeXml(comparison.name)}</td>
+                <td align="right">${comparison.baselineRuns} &rarr; ${comparison.currentRuns}</td>
+                <td align="right">${comparison.baseline.mean.millis} &rarr; ${comparison.current.mean.millis} (${comparison.meanDelta})</td>
+                <td align="right">${comparison.baseline.p50.millis} &rarr; ${comparison.current.p50.millis} (${comparison.p50Delta})</td>
+                <td align="right">${comparison.baseline.p99.millis} &rarr; ${comparison.current.p99.millis} (${comparison.p99Delta})</td>
+                <td align="right">${comparison.baseline.rate} &rarr; ${comparison.current.rate} ${not empty comparison.rateDelta ? '(' : ''}${comparison.rateDelta}${not empty comparison.rateDelta ? ')' : ''}</td>
+                <td align="right">${comparison.PValue >= 0 ? comparison.PValue : ''}</td>
+                <td><strong>${comparison.regression ? 'regression' : comparison.improvement ? 'improvement' : ''}</strong>${(comparison.regression || comparison.improvement) && comparison.indicative ? ' (indicative)' : ''}</td>
+            </tr>
+        </c:forEach>
+    </table>
+</c:if>
+<% pageContext.setAttribute("runs", BenchmarkHistory.getRuns()); %>
+<h2>Recorded runs</h2>
+<c:if test="${empty runs}">
+    <p>No benchmark results have been recorded so far.</p>
+</c:if>
+<c:if test="${not empty runs}">
+    <form id="compare" action="<c:url value='benchmarkHistory.jsp'/>" method="get">
+        <input type="hidden" name="toolAccessToken" value="${toolAccessToken}"/>
+        <table border="1" cellspacing="0" cellpadding="5">
+            <tr>
+                <th>Baseline</th>
+                <th>Run</th>
+                <th>Date</th>
+                <th>Node</th>
+                <th>Test</th>
+                <th>Configuration</th>
+                <th>Operations</th>
+                <th>Action</th>
+            </tr>
+            <c:forEach var="run" items="${runs}" varStatus="status">
+                <tr>
+                    <td><input type="checkbox" name="baseline" value="${run.id}" ${selectedBaselines[run.id] || empty param.baseline && status.index == 1 ? 'checked="checked"' : ''}/></td>
+                    <td><input type="checkbox" name="run" value="${run.id}" ${selectedRuns[run.id] || empty param.run && status.first ? 'checked="checked"' : ''}/></td>
+                    <td><fmt:formatDate value="${run.date}" pattern="yyyy-MM-dd HH:mm:ss"/></td>
+                    <td>${fn:escapeXml(run.serverId)}</td>
+                    <td>${fn:escapeXml(run.test)}</td>
+                    <td>${fn:escapeXml(run.configuration)}</td>
+                    <td align="right">${fn:length(run.metrics)}</td>
+                    <td><a href="?action=delete&amp;id=${run.id}&amp;toolAccessToken=${toolAccessToken}"
+                           onclick="return confirm('Would you like to delete this run?');">delete</a></td>
+                </tr>
+            </c:forEach>
+        </table>
+        <p><input type="submit" value="Compare"/></p>
+    </form>
+</c:if>
+<%@ include file="gotoIndex.jspf" %>
+</body>
+</html>
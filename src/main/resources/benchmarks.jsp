@@ -2,12 +2,16 @@
 %>
 <?xml version="1.0" encoding="UTF-8" ?>
 <!DOCTYPE html PUBLIC "-//W3C//DTD XHTML 1.0 Strict//EN" "http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd">
-<%@page import="org.apache.jackrabbit.core.id.NodeId" %>
 <%@ page import="org.jahia.modules.tools.benchmark.DatabaseBenchmark" %>
+<%@ page import="org.jahia.modules.tools.benchmark.DatabaseWorkload" %>
+<%@ page import="org.jahia.modules.tools.benchmark.JcrReadBenchmark" %>
+<%@ page import="org.jahia.modules.tools.benchmark.JcrWriteBenchmark" %>
+<%@ page import="org.jahia.modules.tools.benchmark.StorageBenchmark" %>
 <%@ page import="org.jahia.services.content.*" %>
 <%@ page import="org.jahia.services.usermanager.JahiaUserManagerService" %>
 <%@ page import="org.jahia.utils.DatabaseUtils" %>
 <%@ page import="org.jahia.utils.DateUtils" %>
+<%@ page import="org.jahia.utils.LanguageCodeConverters" %>
 <%@ page import="javax.jcr.*" %>
 <%@ page import="javax.sql.DataSource" %>
 <%@ page import="java.io.*" %>
@@ -15,6 +19,7 @@
 <%@ page import="java.text.SimpleDateFormat" %>
 <%@ page import="java.util.*" %>
 <%@ taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core" %>
+<%@ taglib prefix="fmt" uri="http://java.sun.com/jsp/jstl/fmt" %>
 <%@ taglib prefix="fn" uri="http://java.sun.com/jsp/jstl/functions" %>
 <%@ taglib prefix="sql" uri="http://java.sun.com/jsp/jstl/sql" %>
 <%@taglib prefix="functions" uri="http://www.jahia.org/tags/functions" %>
@@ -76,13 +81,16 @@
 
 <p>
     This tool will benchmark the database read performance as well as perform both read and write performance
-    checks for the filesystem. This is in now way a exhaustive tool but will allow to check if the performance is
+    checks for the storage of the data store, the search indexes and the temporary folder. This is in now way a exhaustive tool but will allow to check if the performance is
     nominal or not.
 </p>
 
 <p>
     It is recommended to execute the tests multiple times to make sure that the results are stable and significant.
-    You can re-run a test simply by reloading the JSP.
+    You can re-run a test simply by reloading the JSP. The results are recorded and can be compared in the
+    <a href="benchmarkHistory.jsp?toolAccessToken=${toolAccessToken}">benchmark history</a>. In a cluster, the
+    <a href="clusterBenchmarks.jsp?toolAccessToken=${toolAccessToken}">cluster benchmarks</a> run the tests on all nodes
+    at the same time.
 </p>
 
 <%!
@@ -98,78 +106,6 @@
         DatabaseUtils.closeQuietly(closable);
     }
 
-    private void runWorkspaceDBTest(JspWriter out, String readAllDataSQL, String readRowSQL, String tableName, long nbRandomLoops, Connection conn, boolean keyTypeLongLong) throws SQLException, IOException {
-        Set<NodeId> idCollection = new HashSet<NodeId>();
-        out.println("<h4>Table " + tableName + "</h4>");
-        long bytesRead = 0;
-        long rowsRead = 0;
-        long startTime = System.currentTimeMillis();
-        PreparedStatement stmt = conn.prepareStatement(readAllDataSQL);
-        ResultSet rst = null;
-        try {
-            rst = stmt.executeQuery();
-            while (rst.next()) {
-                NodeId nodeId = null;
-                if (keyTypeLongLong) {
-                    nodeId = new NodeId(rst.getLong("NODE_ID_HI"), rst.getLong("NODE_ID_LO"));
-                } else {
-                    byte[] byteId = rst.getBytes("NODE_ID");
-                    nodeId = new NodeId(byteId);
-                }
-                idCollection.add(nodeId);
-                bytesRead += readBlob(rst, keyTypeLongLong ? 3 : 2);
-                rowsRead++;
-            }
-        } finally {
-            closeQuietly(rst);
-            closeQuietly(stmt);
-        }
-        long totalTime = System.currentTimeMillis() - startTime;
-        println(out, "Total time to read " + rowsRead + " sequential rows : " + totalTime + "ms");
-        println(out, "Total bytes read sequentially: " + bytesRead);
-        double sequentialReadSpeed = bytesRead / (1024.0 * 1024.0) / (totalTime / 1000.0);
-        println(out, "Sequential read speed = " + sequentialReadSpeed + "MB/sec");
-
-        NodeId[] idArray = idCollection.toArray(new NodeId[idCollection.size()]);
-        println(out, "Now randomly picking rows out of " + idArray.length + "...");
-
-        bytesRead = 0;
-        rowsRead = 0;
-        Random randomRow = new Random(System.currentTimeMillis());
-        PreparedStatement randomRowReadStmt = conn.prepareStatement(readRowSQL);
-        try {
-            startTime = System.currentTimeMillis();
-            for (long i = 0; i < nbRandomLoops; i++) {
-                int rowPos = randomRow.nextInt(idArray.length);
-                if (keyTypeLongLong) {
-                    randomRowReadStmt.setLong(1, idArray[rowPos].getMostSignificantBits());
-                    randomRowReadStmt.setLong(2, idArray[rowPos].getLeastSignificantBits());
-                } else {
-                    randomRowReadStmt.setBytes(1, idArray[rowPos].getRawBytes());
-                }
-                ResultSet resultSet = randomRowReadStmt.executeQuery();
-                try {
-                    while (resultSet.next()) {
-                        bytesRead += readBlob(resultSet, 1);
-                        rowsRead++;
-                    }
-                } finally {
-                    closeQuietly(resultSet);
-                }
-            }
-        } finally {
-            closeQuietly(randomRowReadStmt);
-        }
-        totalTime = System.currentTimeMillis() - startTime;
-        println(out, "Total time to read " + rowsRead + " random rows : " + totalTime + "ms");
-        println(out, "Total bytes read randomly: " + bytesRead);
-        double randomReadSpeed = bytesRead / (1024.0 * 1024.0) / (totalTime / 1000.0);
-        println(out, "Random read speed = " + randomReadSpeed + "MB/sec");
-
-        idCollection.clear();
-        idArray = null;
-    }
-
     private void printDBInfo(JspWriter out) throws IOException, SQLException {
         Connection conn = null;
 
@@ -193,227 +129,11 @@
         }
     }
 
-    private void runDBTest(boolean defaultWorkspace, boolean liveWorkspace, JspWriter out) throws IOException, SQLException {
-        String dbType = getDatabaseType();
-        boolean keyTypeLongLong = dbType.equals("derby") || dbType.equals("postgresql");
-
-        String readEditTableName = "JR_DEFAULT_BUNDLE";
-        String readLiveTableName = "JR_LIVE_BUNDLE";
-        String readIdColumn = "NODE_ID";
-        String readBlobColumn = "BUNDLE_DATA";
-        String readAllEditDataSQL = "SELECT " + readIdColumn + "," + readBlobColumn + " FROM " + readEditTableName;
-        String readEditRowSQL = "SELECT " + readBlobColumn + " FROM " + readEditTableName + " WHERE " + readIdColumn + "=?";
-        String readAllLiveDataSQL = "SELECT " + readIdColumn + "," + readBlobColumn + " FROM " + readLiveTableName;
-        String readLiveRowSQL = "SELECT " + readBlobColumn + " FROM " + readLiveTableName + " WHERE " + readIdColumn + "=?";
-
-        if (keyTypeLongLong) {
-            readAllEditDataSQL = "SELECT NODE_ID_HI,NODE_ID_LO,BUNDLE_DATA FROM " + readEditTableName;
-            readEditRowSQL = "SELECT BUNDLE_DATA FROM " + readEditTableName + " WHERE NODE_ID_HI=? AND NODE_ID_LO=?";
-            readAllLiveDataSQL = "SELECT NODE_ID_HI,NODE_ID_LO,BUNDLE_DATA FROM " + readLiveTableName;
-            readLiveRowSQL = "SELECT BUNDLE_DATA FROM " + readLiveTableName + " WHERE NODE_ID_HI=? AND NODE_ID_LO=?";
-        }
-
-        long nbRandomLoops = 30000;
-
-        Connection conn = null;
-
+    private static int getIntParameter(HttpServletRequest request, String name, int defaultValue) {
         try {
-            DataSource ds = getDatasource();
-
-            if (ds != null) {
-                conn = ds.getConnection();
-
-                if (conn != null) {
-                    if (defaultWorkspace) {
-                        runWorkspaceDBTest(out, readAllEditDataSQL, readEditRowSQL, readEditTableName, nbRandomLoops, conn, keyTypeLongLong);
-                    }
-                    if (liveWorkspace) {
-                        runWorkspaceDBTest(out, readAllLiveDataSQL, readLiveRowSQL, readLiveTableName, nbRandomLoops, conn, keyTypeLongLong);
-                    }
-                }
-            }
-        } catch (Throwable t) {
-            println(out, "Error while accessing database", t, false);
-        } finally {
-            closeQuietly(conn);
-        }
-    }
-
-    private void runFileSystemTest(JspWriter out) throws IOException {
-        printTestName(out, "File system");
-        long testFileSize = 100 * 1024 * 1024;
-        int nbFileReadLoops = 10;
-        File tempFile = File.createTempFile("benchmark", "tmp" + System.getProperty("cluster.node.serverId", ""));
-
-        BufferedOutputStream fileOut = null;
-        Random randomValue = new Random(System.currentTimeMillis());
-        try {
-            long bytesWritten = 0;
-            long startTime = System.currentTimeMillis();
-
-            fileOut = new BufferedOutputStream(new FileOutputStream(tempFile));
-            for (long l = 0; l < testFileSize; l++) {
-                fileOut.write(randomValue.nextInt());
-                bytesWritten++;
-            }
-            fileOut.flush();
-            long totalTime = System.currentTimeMillis() - startTime;
-            println(out, "Total time to write " + bytesWritten + " bytes : " + totalTime + "ms");
-            double sequentialFileWriteSpeed = bytesWritten / (1024.0 * 1024.0) / (totalTime / 1000.0);
-            println(out, "Sequential file write speed = " + sequentialFileWriteSpeed + "MB/sec");
-        } catch (Throwable t) {
-            println(out, "Error writing to file " + tempFile, t, false);
-        } finally {
-            if (fileOut != null) {
-                fileOut.close();
-            }
-        }
-
-        long bytesRead = 0;
-        long startTime = System.currentTimeMillis();
-        for (int i = 0; i < nbFileReadLoops; i++) {
-            BufferedInputStream fileIn = null;
-            try {
-                fileIn = new BufferedInputStream(new FileInputStream(tempFile));
-                while (fileIn.read() != -1) {
-                    bytesRead++;
-                }
-            } catch (Throwable t) {
-                println(out, "Error reading file " + tempFile, t, false);
-            } finally {
-                if (fileIn != null) {
-                    fileIn.close();
-                }
-            }
-        }
-        long totalTime = System.currentTimeMillis() - startTime;
-        println(out, "Total time to read " + bytesRead + " bytes : " + totalTime + "ms");
-        double sequentialFileReadSpeed = bytesRead / (1024.0 * 1024.0) / (totalTime / 1000.0);
-        println(out, "Sequential file read speed = " + sequentialFileReadSpeed + "MB/sec");
-
-        tempFile.delete();
-    }
-
-    private void runJCRTest(JspWriter out, HttpServletRequest request, JspContext pageContext) throws IOException {
-        long startTime;
-        long bytesRead;
-        long totalTime;
-        printTestName(out, "Java Content Repository (READ)");
-        try {
-            JCRSessionFactory.getInstance().setCurrentUser(JahiaUserManagerService.getInstance().lookupRootUser().getJahiaUser());
-            JCRSessionWrapper sessionWrapper = JCRSessionFactory.getInstance().getCurrentUserSession((String) pageContext.getAttribute("workspace"));
-
-            JCRWorkspaceWrapper workspaceWrapper = sessionWrapper.getWorkspace();
-            Locale locale = sessionWrapper.getLocale();
-            println(out, "Traversing " + workspaceWrapper.getName() + " workspace with locale " + locale + "...");
-            JCRNodeWrapper rootNode = sessionWrapper.getRootNode();
-            startTime = System.currentTimeMillis();
-            bytesRead = 0;
-            Map<String, Long> results = new HashMap<String, Long>();
-            results.put("bytesRead", 0L);
-            results.put("nodesRead", 0L);
-            processNode(out, rootNode, results);
-            bytesRead = results.get("bytesRead");
-            long nodesRead = results.get("nodesRead");
-            totalTime = System.currentTimeMillis() - startTime;
-            println(out, "Total time to read JCR " + nodesRead + " nodes data (" + bytesRead + " bytes) : " + totalTime + "ms");
-            double jcrReadSpeed = bytesRead / (1024.0 * 1024.0) / (totalTime / 1000.0);
-            println(out, "JCR read speed = " + jcrReadSpeed + "MB/sec");
-
-        } catch (Throwable t) {
-            println(out, "Error reading JCR ", t, false);
-        }
-    }
-
-    private void runJCRWriteTest(final JspWriter out, HttpServletRequest request, JspContext pageContext) throws IOException {
-        long startTime;
-        long bytesRead;
-        long totalTime;
-        printTestName(out, "Java Content Repository (WRITE)");
-        try {
-            JCRSessionFactory.getInstance().setCurrentUser(JahiaUserManagerService.getInstance().lookupRootUser().getJahiaUser());
-            JCRSessionWrapper sessionWrapper = JCRSessionFactory.getInstance().getCurrentUserSession((String) pageContext.getAttribute("workspace"));
-
-            JCRWorkspaceWrapper workspaceWrapper = sessionWrapper.getWorkspace();
-            Locale locale = sessionWrapper.getLocale();
-            println(out, "Creating nodes in " + workspaceWrapper.getName() + " workspace with 100 threads...");
-            JCRNodeWrapper rootNode = sessionWrapper.getRootNode();
-            String tmpName = "tmp" + System.getProperty("cluster.node.serverId", "");
-            if (rootNode.hasNode(tmpName)) {
-                rootNode.getNode(tmpName).remove();
-                sessionWrapper.save();
-            }
-            final JCRNodeWrapper tmp = rootNode.addNode(tmpName, "nt:unstructured");
-            sessionWrapper.save();
-
-            startTime = System.currentTimeMillis();
-            final Map<String, Long> results = new HashMap<String, Long>();
-            results.put("nodesWrite", 0L);
-
-            try {
-                List<Thread> l = new ArrayList<Thread>();
-                for (int i = 0; i < 100; i++) {
-                    final int threadId = i;
-                    Thread t = new Thread(new Runnable() {
-                        public void run() {
-                            try {
-                                String path = "/tmp" + System.getProperty("cluster.node.serverId", "");
-                                for (int j = 0; j < 100; j++) {
-                                    final int iterationId = j;
-                                    final String fPath = path;
-                                    String nodePath = JCRTemplate.getInstance().doExecuteWithSystemSession(new JCRCallback<String>() {
-
-                                        public String doInJCR(JCRSessionWrapper session) throws RepositoryException {
-                                            JCRNodeWrapper n = session.getNode(fPath).addNode("benchmark" + threadId + "_" + iterationId);
-                                            synchronized (results) {
-                                                long nodesWrite = results.get("nodesWrite");
-                                                nodesWrite++;
-                                                if (nodesWrite % 1000 == 0) {
-                                                    try {
-                                                        println(out, "Processed " + nodesWrite + " nodes...");
-                                                    } catch (IOException e) {
-                                                    }
-                                                }
-                                                results.put("nodesWrite", nodesWrite);
-                                            }
-                                            session.save();
-                                            return n.getPath();
-                                        }
-                                    });
-                                    if (j % 50 == 0) {
-                                        path = nodePath;
-                                    }
-                                }
-                            } catch (RepositoryException e) {
-                                e.printStackTrace();
-                            }
-                            try {
-                                println(out, "  ..  benchmark thread " + threadId + " ended.");
-                            } catch (IOException e) {
-                                e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
-                            }
-                        }
-
-                    }, "benchmark" + i);
-                    l.add(t);
-                    t.start();
-                }
-
-                for (Thread thread : l) {
-                    thread.join();
-                }
-
-                long nodesWrite = results.get("nodesWrite");
-                totalTime = System.currentTimeMillis() - startTime;
-                println(out, "Total time to write JCR " + nodesWrite + " : " + totalTime + "ms");
-
-            } finally {
-                tmp.remove();
-                sessionWrapper.save();
-            }
-
-        } catch (Throwable t) {
-            println(out, "Error writing JCR ", t, false);
+            return Integer.parseInt(request.getParameter(name));
+        } catch (NumberFormatException e) {
+            return defaultValue;
         }
     }
 
@@ -423,19 +143,6 @@
         out.println("</h3>");
     }
 
-    private long readBlob(ResultSet rs, int columnIndex) throws SQLException, IOException {
-        long bytesRead = 0;
-        BufferedInputStream blobInputStream = new BufferedInputStream(rs.getMetaData().getColumnType(columnIndex) == Types.BLOB ? rs.getBlob(columnIndex).getBinaryStream() : rs.getBinaryStream(columnIndex));
-        try {
-            while (blobInputStream.read() != -1) {
-                bytesRead++;
-            }
-        } finally {
-            blobInputStream.close();
-        }
-        return bytesRead;
-    }
-
     private static SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd-HHmmss");
 
     private String generatePadding(int depth, boolean withNbsp) {
@@ -505,79 +212,13 @@
         out.flush();
     }
 
-    protected void processPropertyValue(JspWriter out, JCRNodeWrapper node, Property property, Value propertyValue, Map<String, Long> results) throws RepositoryException, IOException {
-        int propertyType = propertyValue.getType();
-        switch (propertyType) {
-            case PropertyType.BINARY:
-                Binary binaryValue = propertyValue.getBinary();
-                binaryValue.getSize();
-                InputStream binaryInputStream = binaryValue.getStream();
-                long bytesRead = results.get("bytesRead");
-                while (binaryInputStream.read() != -1) {
-                    bytesRead++;
-                }
-                results.put("bytesRead", bytesRead);
-                break;
-            case PropertyType.REFERENCE:
-            case PropertyType.WEAKREFERENCE:
-                String uuid = propertyValue.getString();
-                try {
-                    JCRNodeWrapper nodeWrapper = (JCRNodeWrapper) node.getSession().getNodeByUUID(uuid);
-                } catch (ItemNotFoundException infe) {
-                    println(out, "Couldn't find referenced node with UUID " + uuid + " referenced from " + property.getPath(), infe, true);
-                }
-                break;
-            default:
-        }
-
-    }
-
-    protected boolean processNode(JspWriter out, JCRNodeWrapper node, Map<String, Long> results) throws RepositoryException, IOException {
-        long nodesRead = results.get("nodesRead");
-        // first let's try to read all the properties
-        PropertyIterator propertyIterator = node.getProperties();
-        while (propertyIterator.hasNext()) {
-            Property property = propertyIterator.nextProperty();
-            int propertyType = property.getType();
-            if (property.isMultiple()) {
-                Value[] values = property.getValues();
-                for (int i = 0; i < values.length; i++) {
-                    processPropertyValue(out, node, property, values[i], results);
-                }
-            } else {
-                processPropertyValue(out, node, property, property.getValue(), results);
-            }
-        }
-        // node let's recurse into subnodes.
-        nodesRead++;
-        if (nodesRead % 1000 == 0) {
-            println(out, "Processed " + nodesRead + " nodes...");
-        }
-        if (nodesRead > 10000) {
-            println(out, "Reached 10000 nodes, stopping benchmark test normally.");
-            return false;
-        }
-        results.put("nodesRead", nodesRead);
-        NodeIterator childNodeIterator = node.getNodes();
-        while (childNodeIterator.hasNext()) {
-            JCRNodeWrapper childNode = (JCRNodeWrapper) childNodeIterator.nextNode();
-            if (childNode.getName().equals("jcr:system") || childNode.getPath().equals("/modulesFileSystem")) {
-                println(out, "Ignoring " + childNode.getName() + " node and it's child objects");
-            } else {
-                if (!processNode(out, childNode, results)) {
-                    break;
-                }
-            }
-        }
-        return true;
-    }
 %>
 <c:if test="${not empty param.do}">
     <p style="color: blue">Running tests...</p>
     <%
         long startTime = System.currentTimeMillis();
     %>
-    <c:if test="${not empty param.runDBStats || not empty param.runDBTestDefault || not empty param.runDBTestLive}">
+    <c:if test="${not empty param.runDBStats || not empty param.runDBWorkload}">
         <%
             printTestName(out, "Database");
             printDBInfo(out);
@@ -607,18 +248,234 @@
                 </c:forEach>
             </ul>
         </c:if>
-        <c:if test="${not empty param.runDBTestDefault || not empty param.runDBTestLive}">
-            <% runDBTest(request.getParameter("runDBTestDefault") != null, request.getParameter("runDBTestLive") != null, out); %>
+        <c:if test="${not empty param.runDBWorkload}">
+            <%
+                try {
+                    DatabaseWorkload workload = DatabaseWorkload.getWorkloads().get(request.getParameter("dbWorkload"));
+                    if (workload != null) {
+                        workload.threads(getIntParameter(request, "dbWorkloadThreads", workload.getThreads()))
+                                .duration(getIntParameter(request, "dbWorkloadDuration", workload.getDuration()))
+                                .thinkTime(getIntParameter(request, "dbWorkloadThinkTime", workload.getThinkTime()));
+                        DatabaseBenchmark.WorkloadResult workloadResult = DatabaseBenchmark.replay(workload);
+                        System.out.println(DatabaseBenchmark.workloadResultToString(workloadResult));
+                        pageContext.setAttribute("workloadResult", workloadResult);
+                    }
+                } catch (Exception e) {
+                    println(out, "Error replaying the database workload", e, false);
+                }
+            %>
+            <c:if test="${not empty workloadResult}">
+                <c:set var="workload" value="${workloadResult.workload}"/>
+                <h4>Workload ${fn:escapeXml(workload.description)}</h4>
+                <p>${workload.threads} connections for ${workload.duration} seconds after a ${workload.warmup} seconds warm-up,
+                    ${workload.thinkTime} ms mean think time: <strong>${workloadResult.operationsPerSecond}</strong> statements/sec.</p>
+                <table border="1" cellspacing="0" cellpadding="5">
+                    <tr>
+                        <th>Statement</th>
+                        <th>Weight</th>
+                        <th>Executions</th>
+                        <th>Errors</th>
+                        <th>Executions/sec</th>
+                        <th>Rows</th>
+                        <th>Bytes</th>
+                        <th>50% line (ms)</th>
+                        <th>90% line (ms)</th>
+                        <th>99% line (ms)</th>
+                        <th>Max (ms)</th>
+                    </tr>
+                    <c:forEach var="statement" items="${workloadResult.statements}">
+                        <tr>
+                            <td title="${fn:escapeXml(statement.sql)}">${fn:escapeXml(statement.name)}</td>
+                            <td align="right">${statement.weight}</td>
+                            <td align="right">${statement.latency.count}</td>
+                            <td align="right">${statement.errors}</td>
+                            <td align="right">${statement.operationsPerSecond}</td>
+                            <td align="right">${statement.rows}</td>
+                            <td align="right">${statement.bytes}</td>
+                            <c:if test="${statement.latency.count > 0}">
+                                <td align="right"><strong>${statement.latency.p50.millis}</strong></td>
+                                <td align="right">${statement.latency.p90.millis}</td>
+                                <td align="right">${statement.latency.p99.millis}</td>
+                                <td align="right">${statement.latency.max.millis}</td>
+                            </c:if>
+                            <c:if test="${statement.latency.count == 0}">
+                                <td colspan="4"></td>
+                            </c:if>
+                        </tr>
+                    </c:forEach>
+                </table>
+                <c:forEach var="error" items="${workloadResult.errors}">
+                    <p class="warning">${fn:escapeXml(error)}</p>
+                </c:forEach>
+            </c:if>
         </c:if>
     </c:if>
-    <c:if test="${not empty param.runFileSystemTest}">
-        <% runFileSystemTest(out); %>
+    <c:if test="${not empty paramValues.storageTarget}">
+        <% printTestName(out, "Storage"); %>
+        <c:forEach var="storageTarget" items="${paramValues.storageTarget}">
+            <%
+                String storageLabel = (String) pageContext.getAttribute("storageTarget");
+                File storageDir = StorageBenchmark.getTargets().get(storageLabel);
+                StorageBenchmark.Result storageResult = storageDir != null ? StorageBenchmark.perform(storageDir) : null;
+                if (storageResult != null) {
+                    System.out.println(StorageBenchmark.resultToString(storageResult));
+                }
+                pageContext.setAttribute("storageResult", storageResult);
+            %>
+            <c:if test="${not empty storageResult}">
+                <h4>${fn:escapeXml(storageTarget)}</h4>
+                <p>Folder: ${fn:escapeXml(storageResult.directory)}, file store: ${fn:escapeXml(storageResult.fileStore)}</p>
+                <table border="1" cellspacing="0" cellpadding="5">
+                    <tr>
+                        <th>Operation</th>
+                        <th>Count</th>
+                        <th>Operations/sec</th>
+                        <th>MB/sec</th>
+                        <th>50% line (ms)</th>
+                        <th>90% line (ms)</th>
+                        <th>99% line (ms)</th>
+                        <th>Max (ms)</th>
+                    </tr>
+                    <c:forEach var="operation" items="${storageResult.operations}">
+                        <tr>
+                            <td>${operation.name}</td>
+                            <td align="right">${operation.count}</td>
+                            <td align="right">${operation.operationsPerSecond}</td>
+                            <td align="right">${operation.throughput}</td>
+                            <td align="right"><strong>${operation.p50.millis}</strong></td>
+                            <td align="right">${operation.p90.millis}</td>
+                            <td align="right">${operation.p99.millis}</td>
+                            <td align="right">${operation.max.millis}</td>
+                        </tr>
+                    </c:forEach>
+                </table>
+                <c:if test="${not empty storageResult.readModes}">
+                    <p>Sequential read of the test file per read mode, throughput in MB/sec (99% line in ms):</p>
+                    <table border="1" cellspacing="0" cellpadding="5">
+                        <tr>
+                            <th>Block size</th>
+                            <c:forEach var="readMode" items="${storageResult.readModes}">
+                                <th>${readMode.key}</th>
+                            </c:forEach>
+                        </tr>
+                        <c:forEach var="blockSize" items="${storageResult.blockSizes}" varStatus="blockStatus">
+                            <tr>
+                                <td align="right"><fmt:formatNumber value="${blockSize / 1024}" maxFractionDigits="0"/>K</td>
+                                <c:forEach var="readMode" items="${storageResult.readModes}">
+                                    <c:set var="operation" value="${readMode.value[blockStatus.index]}"/>
+                                    <td align="right"><strong>${operation.throughput}</strong> (${operation.p99.millis})</td>
+                                </c:forEach>
+                            </tr>
+                        </c:forEach>
+                    </table>
+                </c:if>
+                <c:forEach var="message" items="${storageResult.messages}">
+                    <p class="warning">${fn:escapeXml(message)}</p>
+                </c:forEach>
+            </c:if>
+        </c:forEach>
     </c:if>
     <c:if test="${not empty param.runJCRTest}">
-        <% runJCRTest(out, request, pageContext); %>
+        <%
+            printTestName(out, "Java Content Repository (READ)");
+            try {
+                JcrReadBenchmark.Options readOptions = new JcrReadBenchmark.Options()
+                        .workspace((String) pageContext.getAttribute("workspace"))
+                        .locale(LanguageCodeConverters.languageCodeToLocale(request.getParameter("readLocale") != null ? request.getParameter("readLocale") : "en"))
+                        .sample(request.getParameter("readRootPath") != null ? request.getParameter("readRootPath") : "/sites",
+                                getIntParameter(request, "readSampleSize", 1000))
+                        .threads(getIntParameter(request, "readThreads", 10))
+                        .duration(getIntParameter(request, "readDuration", 30));
+                for (JcrReadBenchmark.OperationType type : JcrReadBenchmark.OperationType.values()) {
+                    int weight = getIntParameter(request, "readWeight" + type, -1);
+                    if (weight >= 0) {
+                        readOptions.weight(type, weight);
+                    }
+                }
+                pageContext.setAttribute("readResult", JcrReadBenchmark.perform(readOptions));
+            } catch (Exception e) {
+                println(out, "Error reading JCR ", e, false);
+            }
+        %>
+        <c:if test="${not empty readResult}">
+            <p>Sampled <strong>${readResult.sampleSize}</strong> nodes, ${readResult.threads} threads.
+                ${readResult.evictedBundles >= 0 ? readResult.evictedBundles : 'No'} node bundles evicted from the bundle cache before the cold phase.</p>
+            <c:forEach var="phase" items="${readResult.phases}">
+                <h4>${phase.name} phase (${phase.elapsed} ms)</h4>
+                <table border="1" cellspacing="0" cellpadding="5">
+                    <tr>
+                        <th>Operation</th>
+                        <th>Count</th>
+                        <th>Errors</th>
+                        <th>Operations/sec</th>
+                        <th>50% line (ms)</th>
+                        <th>90% line (ms)</th>
+                        <th>99% line (ms)</th>
+                        <th>Max (ms)</th>
+                    </tr>
+                    <c:forEach var="operation" items="${phase.operations}">
+                        <tr>
+                            <td>${operation.name}</td>
+                            <td align="right">${operation.latency.count}</td>
+                            <td align="right">${operation.errors}</td>
+                            <td align="right">${operation.operationsPerSecond}</td>
+                            <td align="right"><strong>${operation.latency.p50.millis}</strong></td>
+                            <td align="right">${operation.latency.p90.millis}</td>
+                            <td align="right">${operation.latency.p99.millis}</td>
+                            <td align="right">${operation.latency.max.millis}</td>
+                        </tr>
+                    </c:forEach>
+                </table>
+            </c:forEach>
+            <c:forEach var="error" items="${readResult.errors}">
+                <p class="error">${fn:escapeXml(error)}</p>
+            </c:forEach>
+        </c:if>
     </c:if>
     <c:if test="${not empty param.runJCRWriteTest}">
-        <% runJCRWriteTest(out, request, pageContext); %>
+        <%
+            printTestName(out, "Java Content Repository (WRITE)");
+            try {
+                JcrWriteBenchmark.Result writeResult = JcrWriteBenchmark.perform(new JcrWriteBenchmark.Options()
+                        .workspace((String) pageContext.getAttribute("workspace"))
+                        .threads(getIntParameter(request, "writeThreads", 10))
+                        .nodes(getIntParameter(request, "writeNodes", 10000))
+                        .batchSize(getIntParameter(request, "writeBatchSize", 1))
+                        .nodeType(request.getParameter("writeNodeType") != null ? request.getParameter("writeNodeType") : "nt:unstructured")
+                        .payload(request.getParameter("writePropertyName") != null ? request.getParameter("writePropertyName") : "payload",
+                                getIntParameter(request, "writePayloadSize", 100))
+                        .tree(getIntParameter(request, "writeFanout", 100), getIntParameter(request, "writeDepth", 1))
+                        .maxDuration(getIntParameter(request, "writeMaxDuration", 0)));
+                pageContext.setAttribute("writeResult", writeResult);
+            } catch (Exception e) {
+                println(out, "Error writing JCR ", e, false);
+            }
+        %>
+        <c:if test="${not empty writeResult}">
+            <c:set var="saveLatency" value="${writeResult.saveLatency}"/>
+            <p>Created <strong>${writeResult.nodes}</strong> nodes of type ${fn:escapeXml(writeResult.nodeType)} with a
+                ${writeResult.payloadSize} characters payload in ${writeResult.elapsed} ms using ${writeResult.threads} threads,
+                ${writeResult.batchSize} nodes per save, a fan-out of ${writeResult.fanout} and ${writeResult.depth} folder levels:
+                <strong>${writeResult.nodesPerSecond}</strong> nodes/sec.</p>
+            <ul>
+                <li>save count: ${saveLatency.count}</li>
+                <li>50% line: <strong>${saveLatency.p50.millis} ms</strong></li>
+                <li>90% line: ${saveLatency.p90.millis} ms</li>
+                <li>99% line: ${saveLatency.p99.millis} ms</li>
+                <li>min: ${saveLatency.min.millis} ms</li>
+                <li>average: ${saveLatency.mean.millis} ms</li>
+                <li>max: ${saveLatency.max.millis} ms</li>
+            </ul>
+            <table border="1" cellspacing="0" cellpadding="5">
+                <tr><th>Save latency</th><th>Saves</th></tr>
+                <c:forEach var="bucket" items="${saveLatency.histogram}">
+                    <tr><td>${bucket.key}</td><td align="right">${bucket.value}</td></tr>
+                </c:forEach>
+            </table>
+            <c:forEach var="error" items="${writeResult.errors}">
+                <p class="error">${fn:escapeXml(error)}</p>
+            </c:forEach>
+        </c:if>
     </c:if>
     <% pageContext.setAttribute("timeTaken", DateUtils.formatDurationWords(System.currentTimeMillis() - startTime)); %>
     <p style="color: blue">Benchmark completed in <strong>${timeTaken}</strong>.</p>
@@ -646,25 +503,43 @@
         <input type="checkbox" name="runDBStats" id="runDBStats"
                class="cbProbe category-db" ${empty param.do || not empty param.runDBStats ? 'checked="checked"' : ''}/><label
             for="runDBStats">Database connection speed</label><br/>
-        <input type="checkbox" name="runDBTestDefault" id="runDBTestDefault"
-               class="cbProbe category-db" ${empty param.do || not empty param.runDBTestDefault ? 'checked="checked"' : ''}/><label
-            for="runDBTestDefault">Table JR_DEFAULT_BUNDLE</label><br/>
-        <input type="checkbox" name="runDBTestLive" id="runDBTestLive"
-               class="cbProbe category-db" ${empty param.do || not empty param.runDBTestLive ? 'checked="checked"' : ''}/><label
-            for="runDBTestLive">Table JR_LIVE_BUNDLE</label>
+        <input type="checkbox" name="runDBWorkload" id="runDBWorkload"
+               class="cbProbe category-db" ${empty param.do || not empty param.runDBWorkload ? 'checked="checked"' : ''}/><label
+            for="runDBWorkload">Workload replay</label>:
+        <% pageContext.setAttribute("dbWorkloads", DatabaseWorkload.getWorkloads()); %>
+        <c:set var="selectedWorkload" value="${functions:default(param.dbWorkload, 'jcr-bundle-read-mix')}"/>
+        <select name="dbWorkload" id="dbWorkload">
+            <c:forEach var="dbWorkload" items="${dbWorkloads}">
+                <option value="${fn:escapeXml(dbWorkload.key)}" ${dbWorkload.key == selectedWorkload ? 'selected="selected"' : ''}>${fn:escapeXml(dbWorkload.value.description)}</option>
+            </c:forEach>
+        </select>
+        <label for="dbWorkloadThreads">threads</label>
+        <input type="text" name="dbWorkloadThreads" id="dbWorkloadThreads" size="3" value="${fn:escapeXml(param.dbWorkloadThreads)}"/>
+        <label for="dbWorkloadDuration">seconds</label>
+        <input type="text" name="dbWorkloadDuration" id="dbWorkloadDuration" size="3" value="${fn:escapeXml(param.dbWorkloadDuration)}"/>
+        <label for="dbWorkloadThinkTime">think time (ms)</label>
+        <input type="text" name="dbWorkloadThinkTime" id="dbWorkloadThinkTime" size="4" value="${fn:escapeXml(param.dbWorkloadThinkTime)}"/>
+        (empty for the workload defaults; custom workloads can be added in <em>tools/workloads</em> of the Jahia var folder)
     </fieldset>
 
     <fieldset>
-        <legend>&nbsp;File system&nbsp;
+        <legend>&nbsp;Storage&nbsp;
             (<a href="#all-on" title="Select all"
                 onclick="selectAll('.cbProbe.category-fs'); return false;">all</a> | <a
                     href="#all-off"
                     title="Unselect all"
                     onclick="deSelectAll('.cbProbe.category-fs'); return false;">none</a>)
         </legend>
-        <input type="checkbox" name="runFileSystemTest" id="runFileSystemTest"
-               class="cbProbe category-fs" ${empty param.do || not empty param.runFileSystemTest ? 'checked="checked"' : ''}/><label
-            for="runFileSystemTest">File system read/write</label>
+        <% pageContext.setAttribute("storageTargets", StorageBenchmark.getTargets()); %>
+        <c:forEach var="storageTarget" items="${storageTargets}" varStatus="status">
+            <c:set var="storageTargetChecked" value="${empty param.do}"/>
+            <c:forEach var="selectedTarget" items="${paramValues.storageTarget}">
+                <c:if test="${selectedTarget == storageTarget.key}"><c:set var="storageTargetChecked" value="${true}"/></c:if>
+            </c:forEach>
+            <input type="checkbox" name="storageTarget" id="storageTarget${status.index}" value="${fn:escapeXml(storageTarget.key)}"
+                   class="cbProbe category-fs" ${storageTargetChecked ? 'checked="checked"' : ''}/><label
+                for="storageTarget${status.index}">${fn:escapeXml(storageTarget.key)} (${fn:escapeXml(storageTarget.value)})</label><br/>
+        </c:forEach>
     </fieldset>
 
     <fieldset>
@@ -677,10 +552,47 @@
         </legend>
         <input type="checkbox" name="runJCRTest" id="runJCRTest"
                class="cbProbe category-jcr" ${empty param.do || not empty param.runJCRTest ? 'checked="checked"' : ''}/><label
-            for="runJCRTest">JCR read</label><br/>
+            for="runJCRTest">JCR read</label>:
+        <label for="readSampleSize">sample</label>
+        <input type="text" name="readSampleSize" id="readSampleSize" size="5" value="${fn:escapeXml(functions:default(param.readSampleSize, '1000'))}"/>
+        <label for="readRootPath">nodes under</label>
+        <input type="text" name="readRootPath" id="readRootPath" size="16" value="${fn:escapeXml(functions:default(param.readRootPath, '/sites'))}"/>
+        <label for="readLocale">in locale</label>
+        <input type="text" name="readLocale" id="readLocale" size="4" value="${fn:escapeXml(functions:default(param.readLocale, 'en'))}"/>,
+        <label for="readThreads">threads</label>
+        <input type="text" name="readThreads" id="readThreads" size="3" value="${fn:escapeXml(functions:default(param.readThreads, '10'))}"/>
+        <label for="readDuration">seconds per phase</label>
+        <input type="text" name="readDuration" id="readDuration" size="3" value="${fn:escapeXml(functions:default(param.readDuration, '30'))}"/>,
+        weights:
+        <% pageContext.setAttribute("defaultReadWeights", new JcrReadBenchmark.Options().getWeights()); %>
+        <c:forEach var="readWeight" items="${defaultReadWeights}">
+            <c:set var="readWeightParam" value="readWeight${readWeight.key}"/>
+            <label for="${readWeightParam}">${readWeight.key.label}</label>
+            <input type="text" name="${readWeightParam}" id="${readWeightParam}" size="2"
+                   value="${fn:escapeXml(not empty param[readWeightParam] ? param[readWeightParam] : readWeight.value)}"/>
+        </c:forEach>
+        <br/>
         <input type="checkbox" name="runJCRWriteTest" id="runJCRWriteTest"
                class="cbProbe category-jcr" ${empty param.do || not empty param.runJCRWriteTest ? 'checked="checked"' : ''}/><label
-            for="runJCRWriteTest">JCR write</label>
+            for="runJCRWriteTest">JCR write</label>:
+        <label for="writeThreads">threads</label>
+        <input type="text" name="writeThreads" id="writeThreads" size="3" value="${fn:escapeXml(functions:default(param.writeThreads, '10'))}"/>
+        <label for="writeNodes">nodes</label>
+        <input type="text" name="writeNodes" id="writeNodes" size="6" value="${fn:escapeXml(functions:default(param.writeNodes, '10000'))}"/>
+        <label for="writeBatchSize">nodes per save</label>
+        <input type="text" name="writeBatchSize" id="writeBatchSize" size="4" value="${fn:escapeXml(functions:default(param.writeBatchSize, '1'))}"/>
+        <label for="writeNodeType">node type</label>
+        <input type="text" name="writeNodeType" id="writeNodeType" size="16" value="${fn:escapeXml(functions:default(param.writeNodeType, 'nt:unstructured'))}"/>
+        <label for="writePropertyName">property</label>
+        <input type="text" name="writePropertyName" id="writePropertyName" size="10" value="${fn:escapeXml(functions:default(param.writePropertyName, 'payload'))}"/>
+        <label for="writePayloadSize">of</label>
+        <input type="text" name="writePayloadSize" id="writePayloadSize" size="6" value="${fn:escapeXml(functions:default(param.writePayloadSize, '100'))}"/> characters,
+        <label for="writeFanout">fan-out</label>
+        <input type="text" name="writeFanout" id="writeFanout" size="4" value="${fn:escapeXml(functions:default(param.writeFanout, '100'))}"/>
+        <label for="writeDepth">folder levels</label>
+        <input type="text" name="writeDepth" id="writeDepth" size="2" value="${fn:escapeXml(functions:default(param.writeDepth, '1'))}"/>
+        <label for="writeMaxDuration">max duration (s, 0 for none)</label>
+        <input type="text" name="writeMaxDuration" id="writeMaxDuration" size="4" value="${fn:escapeXml(functions:default(param.writeMaxDuration, '0'))}"/>
     </fieldset>
     </p>
     <p>
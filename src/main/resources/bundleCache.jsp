@@ -0,0 +1,99 @@
+<%@ page contentType="text/html;charset=UTF-8" language="java"
+%>
+<?xml version="1.0" encoding="UTF-8" ?>
+<!DOCTYPE html PUBLIC "-//W3C//DTD XHTML 1.0 Strict//EN" "http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd">
+<%@ page import="org.jahia.modules.tools.jcr.BundleCacheMonitor" %>
+<%@ page import="java.util.Collections" %>
+<%@ page import="java.util.List" %>
+<%@ taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core" %>
+<%@ taglib prefix="fmt" uri="http://java.sun.com/jsp/jstl/fmt" %>
+<%@ taglib prefix="fn" uri="http://java.sun.com/jsp/jstl/functions" %>
+<html xmlns="http://www.w3.org/1999/xhtml">
+<head>
+    <meta http-equiv="Content-Type" content="text/html; charset=UTF-8"/>
+    <%@ include file="css.jspf" %>
+    <title>JCR bundle cache</title>
+</head>
+<body>
+<%@ include file="logout.jspf" %>
+<h1>JCR bundle cache</h1>
+<p>
+    <a href="?refresh=true&toolAccessToken=${toolAccessToken}"><img src="<c:url value='/icons/refresh.png'/>" height="16" width="16" alt=" " align="top"/>Refresh</a>
+</p>
+<p>
+    The Jackrabbit bundle caches of the workspaces and of the version store are sampled periodically, keeping the last 24 hours.
+    The hit ratio at other cache sizes is estimated from the miss-rate curve, fitted on the intervals sampled while the cache
+    was filling up or following the square root rule (doubling the cache divides the misses by 1.41). The cache sizes are set
+    with the <code>bundleCacheSize</code> parameter of the persistence managers in the repository configuration.
+</p>
+<% BundleCacheMonitor monitor = BundleCacheMonitor.getInstance(); %>
+<% if (monitor == null) { %>
+<p class="error">The bundle cache monitor is not available.</p>
+<% } else { %>
+<% for (String cacheName : monitor.getCacheNames()) {
+    List<BundleCacheMonitor.Interval> intervals = monitor.getIntervals(cacheName);
+    Collections.reverse(intervals);
+    pageContext.setAttribute("cacheName", cacheName);
+    pageContext.setAttribute("intervals", intervals);
+    pageContext.setAttribute("recommendation", monitor.getRecommendation(cacheName));
+%>
+<fieldset>
+    <legend>${cacheName == 'versions' ? 'Version store' : 'Workspace '.concat(cacheName)}</legend>
+    <c:choose>
+        <c:when test="${recommendation.recommendedSize == 0}">
+            <p>${fn:escapeXml(recommendation.message)}</p>
+        </c:when>
+        <c:otherwise>
+            <p>Last hour: hit ratio <strong><fmt:formatNumber value="${recommendation.hitRatio}" type="percent" maxFractionDigits="2"/></strong>,
+                <fmt:formatNumber value="${recommendation.missRate}" maxFractionDigits="2"/> misses/sec,
+                ${recommendation.memoryUsedMB} MB used of ${recommendation.sizeMB} MB${recommendation.full ? ' (full)' : ''}.</p>
+            <table border="1" cellspacing="0" cellpadding="5">
+                <tr>
+                    <th>Cache size (MB)</th>
+                    <c:forEach var="estimate" items="${recommendation.estimates}">
+                        <th>${estimate.sizeMB}${estimate.size == recommendation.size ? ' (current)' : ''}</th>
+                    </c:forEach>
+                </tr>
+                <tr>
+                    <td>Estimated hit ratio</td>
+                    <c:forEach var="estimate" items="${recommendation.estimates}">
+                        <td align="right"><fmt:formatNumber value="${estimate.hitRatio}" type="percent" maxFractionDigits="2"/></td>
+                    </c:forEach>
+                </tr>
+            </table>
+            <p>Miss-rate curve exponent: <fmt:formatNumber value="${recommendation.exponent}" maxFractionDigits="2"/>
+                (${recommendation.fitted ? 'fitted on the samples' : 'default'}).
+                Recommended size: <strong>${recommendation.recommendedSizeMB} MB</strong> - ${fn:escapeXml(recommendation.message)}.</p>
+        </c:otherwise>
+    </c:choose>
+    <c:if test="${not empty intervals}">
+        <p>Last sampled intervals, newest first:</p>
+        <table border="1" cellspacing="0" cellpadding="5">
+            <tr>
+                <th>End</th>
+                <th>Accesses</th>
+                <th>Misses</th>
+                <th>Hit ratio</th>
+                <th>Misses/sec</th>
+                <th>Memory used (MB)</th>
+                <th>Max memory (MB)</th>
+            </tr>
+            <c:forEach var="interval" items="${intervals}" end="59">
+                <tr>
+                    <td><fmt:formatDate value="${interval.end}" pattern="yyyy-MM-dd HH:mm:ss"/></td>
+                    <td align="right">${interval.accesses}</td>
+                    <td align="right">${interval.misses}</td>
+                    <td align="right"><c:if test="${interval.accesses > 0}"><fmt:formatNumber value="${interval.hitRatio}" type="percent" maxFractionDigits="2"/></c:if></td>
+                    <td align="right"><fmt:formatNumber value="${interval.missRate}" maxFractionDigits="2"/></td>
+                    <td align="right"><fmt:formatNumber value="${interval.memoryUsed / 1048576}" maxFractionDigits="1"/></td>
+                    <td align="right"><fmt:formatNumber value="${interval.maxMemory / 1048576}" maxFractionDigits="0"/></td>
+                </tr>
+            </c:forEach>
+        </table>
+    </c:if>
+</fieldset>
+<% } %>
+<% } %>
+<%@ include file="gotoIndex.jspf" %>
+</body>
+</html>
@@ -5,7 +5,25 @@
 <%@page import="org.jahia.services.cache.CacheHelper" %>
 <%@page import="org.jahia.utils.FileUtils" %>
 <%@ page import="java.util.Arrays" %>
+<%@ page import="org.jahia.modules.tools.cache.CacheFootprint" %>
+<%@ page import="org.jahia.modules.tools.cache.CacheFootprintEstimator" %>
+<%@ page import="org.jahia.modules.tools.cache.CacheStatisticsRecorder" %>
+<%@ page import="org.jahia.modules.tools.cache.CacheStatisticsSeries" %>
 <%@ taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core" %>
+<%!
+    private static String sparkline(double[] values) {
+        double max = 0;
+        for (double value : values) {
+            max = Math.max(max, value);
+        }
+        StringBuilder points = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            points.append(values.length > 1 ? i * 200.0 / (values.length - 1) : 0).append(',')
+                    .append(max > 0 ? 20 - values[i] * 20 / max : 20).append(' ');
+        }
+        return "<svg width=\"200\" height=\"20\"><polyline fill=\"none\" stroke=\"#3366cc\" points=\"" + points + "\"/></svg>";
+    }
+%>
 <%@ taglib prefix="fmt" uri="http://java.sun.com/jsp/jstl/fmt" %>
 <%@ taglib prefix="fn" uri="http://java.sun.com/jsp/jstl/functions" %>
 <%@ taglib prefix="functions" uri="http://www.jahia.org/tags/functions" %>
@@ -66,7 +84,7 @@
     <c:choose>
         <c:when test="${param.action == 'flushOutputCaches'}">
             <% CacheHelper.flushOutputCaches(Boolean.valueOf(request.getParameter("propagate"))); %>
-            <p style="color: blue">Output HTML caches were successfully flushed</p>
+            <p style="color: blue">Output HTML caches were successfully flushed (<a href="ehcache/ehcache_stats.jsp?toolAccessToken=${toolAccessToken}#warmup">warm up the output cache</a>)</p>
         </c:when>
         <c:when test="${param.action == 'flushCaches' && not empty param.name}">
             <% CacheHelper.flushCachesForManager(request.getParameter("name"), Boolean.valueOf(request.getParameter("propagate"))); %>
@@ -76,9 +94,13 @@
             <% CacheHelper.flushEhcacheByName(request.getParameter("name"), Boolean.valueOf(request.getParameter("propagate"))); %>
             <p style="color: blue">Cache ${param.name} was successfully flushed</p>
         </c:when>
+        <c:when test="${param.action == 'estimateFootprint'}">
+            <% CacheFootprintEstimator.getInstance().requestEstimation(); %>
+            <p style="color: blue">Cache heap footprint estimation started in the background, refresh the page in a moment</p>
+        </c:when>
         <c:when test="${param.action == 'flushAllCaches'}">
             <% CacheHelper.flushAllCaches(Boolean.valueOf(request.getParameter("propagate"))); %>
-            <p style="color: blue">All caches were successfully flushed</p>
+            <p style="color: blue">All caches were successfully flushed (<a href="ehcache/ehcache_stats.jsp?toolAccessToken=${toolAccessToken}#warmup">warm up the output cache</a>)</p>
         </c:when>
     </c:choose>
 </c:if>
@@ -96,6 +118,10 @@
             HTML output caches (all across the cluster)</a>
         &nbsp;&nbsp;
     </c:if>
+    <a href="ehcache/ehcache_stats.jsp?toolAccessToken=${toolAccessToken}"
+       title="Invalidates only the module output cache entries of a node subtree, a site, a template or matching a key pattern">Selective
+        HTML output cache invalidation</a>
+    &nbsp;&nbsp;
     <a href="#flushAllCaches" onclick="go('action', 'flushAllCaches'); return false;"
        title="Triggers the flush of all caches, including back-end and front-end (module output)">${flushIcon}Flush
         all caches</a>
@@ -263,6 +289,79 @@
         </tbody>
     </table>
 </c:forEach>
+<% pageContext.setAttribute("cacheSeries", CacheStatisticsRecorder.getInstance().getSeries()); %>
+<h2>Recent activity</h2>
+<p>Rates over the last minute and hit ratios over the last 1 and 15 minutes, recorded every <%= CacheStatisticsRecorder.INTERVAL_SECONDS %> seconds. The graph shows the hits per second over the last hour.</p>
+<table border="1" cellspacing="0" cellpadding="5">
+    <thead>
+    <tr>
+        <th>Cache manager</th>
+        <th>Name</th>
+        <th>hits/s</th>
+        <th>misses/s</th>
+        <th>puts/s</th>
+        <th>evictions/s</th>
+        <th>hit ratio 1 min, %</th>
+        <th>hit ratio 15 min, %</th>
+        <th>hits/s, last hour</th>
+    </tr>
+    </thead>
+    <tbody>
+    <c:forEach items="${cacheSeries}" var="series">
+        <% CacheStatisticsSeries series = (CacheStatisticsSeries) pageContext.getAttribute("series");
+            double hitRatio = series.getHitRatio(60);
+            double longHitRatio = series.getHitRatio(900); %>
+        <tr>
+            <td>${series.cacheManagerName}</td>
+            <td>${series.cacheName}</td>
+            <td align="center"><%= String.format("%.2f", series.getRate(CacheStatisticsSeries.Counter.HITS, 60)) %></td>
+            <td align="center"><%= String.format("%.2f", series.getRate(CacheStatisticsSeries.Counter.MISSES, 60)) %></td>
+            <td align="center"><%= String.format("%.2f", series.getRate(CacheStatisticsSeries.Counter.PUTS, 60)) %></td>
+            <td align="center"><%= String.format("%.2f", series.getRate(CacheStatisticsSeries.Counter.EVICTIONS, 60)) %></td>
+            <td align="center"><%= hitRatio < 0 ? "-" : String.format("%.2f", hitRatio * 100) %></td>
+            <td align="center"><%= longHitRatio < 0 ? "-" : String.format("%.2f", longHitRatio * 100) %></td>
+            <td><%= sparkline(series.getRates(CacheStatisticsSeries.Counter.HITS)) %></td>
+        </tr>
+    </c:forEach>
+    </tbody>
+</table>
+<% pageContext.setAttribute("footprints", CacheFootprintEstimator.getInstance().getFootprints()); %>
+<h2>Estimated heap footprint</h2>
+<p>
+    Deep size of a random sample of the entries in memory of each cache, extrapolated to all of them. Estimated
+    every 30 minutes.
+    <a href="#estimateFootprint" onclick="go('action', 'estimateFootprint'); return false;"
+       title="Estimates the heap footprint of all caches now">Estimate now</a>
+</p>
+<c:if test="${not empty footprints}">
+    <table border="1" cellspacing="0" cellpadding="5">
+        <thead>
+        <tr>
+            <th>Cache manager</th>
+            <th>Name</th>
+            <th>Entries in memory</th>
+            <th>Sampled</th>
+            <th>Mean entry size</th>
+            <th>Estimated size</th>
+            <th>95% confidence interval</th>
+        </tr>
+        </thead>
+        <tbody>
+        <c:forEach items="${footprints}" var="footprint">
+            <% CacheFootprint footprint = (CacheFootprint) pageContext.getAttribute("footprint"); %>
+            <tr>
+                <td>${footprint.cacheManagerName}</td>
+                <td>${footprint.cacheName}</td>
+                <td align="center">${footprint.entries}</td>
+                <td align="center">${footprint.sampledEntries}<c:if test="${footprint.truncatedEntries > 0}"> (${footprint.truncatedEntries} truncated)</c:if><c:if test="${footprint.skippedEntries > 0}"> (${footprint.skippedEntries} skipped)</c:if></td>
+                <td align="center"><fmt:formatNumber value="${footprint.meanEntrySize}" maxFractionDigits="0"/> bytes</td>
+                <td align="center"><%= FileUtils.humanReadableByteCount(footprint.getEstimatedSize()) %></td>
+                <td align="center"><%= FileUtils.humanReadableByteCount(footprint.getLowerBound()) %> - <%= FileUtils.humanReadableByteCount(footprint.getUpperBound()) %></td>
+            </tr>
+        </c:forEach>
+        </tbody>
+    </table>
+</c:if>
 <%@ include file="gotoIndex.jspf" %>
 <c:if test="${showConfig}">
     <script type="module" src="<c:url value='/modules/tools/javascript/apps/fancybox.tools.bundle.js'/>"></script>
@@ -0,0 +1,150 @@
+<%@ page contentType="text/html;charset=UTF-8" language="java"
+%>
+<?xml version="1.0" encoding="UTF-8" ?>
+<!DOCTYPE html PUBLIC "-//W3C//DTD XHTML 1.0 Strict//EN" "http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd">
+<%@ page import="org.apache.commons.lang.StringEscapeUtils" %>
+<%@ page import="org.jahia.modules.tools.benchmark.ClusterBenchmarkCoordinator" %>
+<%@ page import="java.util.EnumSet" %>
+<%@ page import="java.util.Set" %>
+<%@ taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core" %>
+<%@ taglib prefix="fmt" uri="http://java.sun.com/jsp/jstl/fmt" %>
+<%@ taglib prefix="fn" uri="http://java.sun.com/jsp/jstl/functions" %>
+<html xmlns="http://www.w3.org/1999/xhtml">
+<head>
+    <meta http-equiv="Content-Type" content="text/html; charset=UTF-8"/>
+    <%@ include file="css.jspf" %>
+    <title>Cluster benchmarks</title>
+    <style type="text/css">
+        .outlier {
+            color: #FF0000;
+            font-weight: bold;
+        }
+    </style>
+</head>
+<body>
+<%@ include file="logout.jspf" %>
+<h1>Cluster benchmarks</h1>
+<%
+    ClusterBenchmarkCoordinator coordinator = ClusterBenchmarkCoordinator.getInstance();
+    pageContext.setAttribute("coordinatorAvailable", coordinator != null);
+%>
+<p>
+    A coordinated run executes the chosen benchmarks on all the cluster nodes at the same start time, with their default
+    parameters, and gathers their results in a cross-node report. Each node checks for new runs every 10 seconds through
+    the JCR; the nodes which see a run more than one minute after its start time do not join it. This node is
+    <strong><%= StringEscapeUtils.escapeXml(System.getProperty("cluster.node.serverId", "")) %></strong>.
+</p>
+<c:if test="${!coordinatorAvailable}">
+    <p class="error">The benchmark coordinator is not available.</p>
+</c:if>
+<c:if test="${coordinatorAvailable}">
+<c:if test="${param.action == 'start'}">
+    <c:catch var="startError">
+        <%
+            Set<ClusterBenchmarkCoordinator.Test> tests = EnumSet.noneOf(ClusterBenchmarkCoordinator.Test.class);
+            if (request.getParameterValues("test") != null) {
+                for (String test : request.getParameterValues("test")) {
+                    tests.add(ClusterBenchmarkCoordinator.Test.valueOf(test));
+                }
+            }
+            int delay = 60;
+            try {
+                delay = Integer.parseInt(request.getParameter("delay"));
+            } catch (NumberFormatException e) {
+                // default
+            }
+            pageContext.setAttribute("startedRun", coordinator.start(tests, delay));
+        %>
+        <p style="color: blue">The run ${startedRun} was requested.</p>
+    </c:catch>
+    <c:if test="${not empty startError}">
+        <p class="error">Unable to request the run: ${fn:escapeXml(startError.message)}</p>
+    </c:if>
+</c:if>
+<form id="start" action="<c:url value='clusterBenchmarks.jsp'/>" method="post">
+    <input type="hidden" name="toolAccessToken" value="${toolAccessToken}"/>
+    <input type="hidden" name="action" value="start"/>
+    <fieldset>
+        <legend>New coordinated run</legend>
+        <c:forEach var="test" items="<%= ClusterBenchmarkCoordinator.Test.values() %>">
+            <input type="checkbox" name="test" id="test${test}" value="${test}" checked="checked"/><label for="test${test}">${test}</label>
+        </c:forEach>
+        <br/>
+        <label for="delay">Start in</label>
+        <input type="text" name="delay" id="delay" size="4" value="60"/> seconds
+        <input type="submit" value="Start" onclick="return confirm('Would you like to run the chosen benchmarks on all cluster nodes?');"/>
+    </fieldset>
+</form>
+<%
+    pageContext.setAttribute("clusterRuns", coordinator.getRuns());
+    if (request.getParameter("run") != null) {
+        ClusterBenchmarkCoordinator.ClusterRun selectedRun = coordinator.getRun(request.getParameter("run"));
+        if (selectedRun != null) {
+            pageContext.setAttribute("selectedRun", selectedRun);
+            pageContext.setAttribute("report", ClusterBenchmarkCoordinator.getReport(selectedRun));
+        }
+    }
+%>
+<h2>Coordinated runs</h2>
+<c:if test="${empty clusterRuns}">
+    <p>No coordinated run has been requested so far.</p>
+</c:if>
+<c:if test="${not empty clusterRuns}">
+    <table border="1" cellspacing="0" cellpadding="5">
+        <tr>
+            <th>Run</th>
+            <th>Start</th>
+            <th>Requested by</th>
+            <th>Tests</th>
+            <th>Nodes</th>
+        </tr>
+        <c:forEach var="clusterRun" items="${clusterRuns}">
+            <tr>
+                <td><a href="?run=${clusterRun.id}&amp;toolAccessToken=${toolAccessToken}">${clusterRun.id}</a></td>
+                <td><fmt:formatDate value="${clusterRun.startDate}" pattern="yyyy-MM-dd HH:mm:ss"/></td>
+                <td>${fn:escapeXml(clusterRun.requestedBy)}</td>
+                <td><c:forEach var="test" items="${clusterRun.tests}" varStatus="status">${test}${status.last ? '' : ', '}</c:forEach></td>
+                <td>
+                    <c:forEach var="node" items="${clusterRun.nodes}" varStatus="status">
+                        ${fn:escapeXml(node.key)}: ${node.value.state}${status.last ? '' : ', '}
+                    </c:forEach>
+                </td>
+            </tr>
+        </c:forEach>
+    </table>
+</c:if>
+<c:if test="${not empty selectedRun}">
+    <h2>Report of ${selectedRun.id}</h2>
+    <c:forEach var="node" items="${selectedRun.nodes}">
+        <c:if test="${not empty node.value.message}">
+            <p class="error">${fn:escapeXml(node.key)}: ${fn:escapeXml(node.value.message)}</p>
+        </c:if>
+    </c:forEach>
+    <p>Median latency in ms (99% line, rate) per node. The nodes whose median latency is more than 50% above the median of
+        the other nodes are highlighted.</p>
+    <table border="1" cellspacing="0" cellpadding="5">
+        <tr>
+            <th>Test</th>
+            <th>Operation</th>
+            <c:forEach var="node" items="${selectedRun.nodes}">
+                <th>${fn:escapeXml(node.key)}</th>
+            </c:forEach>
+        </tr>
+        <c:forEach var="row" items="${report}">
+            <tr>
+                <td>${fn:escapeXml(row.test)}</td>
+                <td>${fn:escapeXml(row.operation)}</td>
+                <c:forEach var="node" items="${selectedRun.nodes}">
+                    <c:set var="metric" value="${row.metrics[node.key]}"/>
+                    <td align="right" class="${row.outliers.contains(node.key) ? 'outlier' : ''}">
+                        <c:if test="${not empty metric}">${metric.p50.millis} (${metric.p99.millis}${not empty metric.rate ? ', ' : ''}${metric.rate})</c:if>
+                    </td>
+                </c:forEach>
+            </tr>
+        </c:forEach>
+    </table>
+</c:if>
+</c:if>
+<%@ include file="gotoIndex.jspf" %>
+</body>
+</html>
@@ -3,7 +3,10 @@
 <%@ taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core" %>
 <%@ taglib prefix="fn" uri="http://java.sun.com/jsp/jstl/functions" %>
 <%@ taglib prefix="sql" uri="http://java.sun.com/jsp/jstl/sql" %>
+<%@ page import="org.jahia.modules.tools.db.DatabaseQueryRunner" %>
 <%@ page import="org.jahia.utils.DatabaseUtils" %>
+<%@ page import="org.apache.commons.lang.math.NumberUtils" %>
+<%@ page import="java.sql.Types" %>
 <html xmlns="http://www.w3.org/1999/xhtml">
 <head>
 <meta http-equiv="Content-Type" content="text/html; charset=UTF-8" />
@@ -31,9 +34,21 @@
             <option value="-1"${param.maxRows == '-1' ? 'selected="selected"' : ''}>all</option>
         </select>
         &nbsp;Offset:
-        <input type="text" size="2" name="offset" id="offset" value="${offset}"/>
+        <input type="text" size="2" name="offset" id="offset" value="${fn:escapeXml(offset)}"/>
         <input type="submit" name="action" value="Execute ([Ctrl+Enter])"  title="Executes the provided statement" />
         </span>
+        <br/>
+        <span>
+        Fetch size:
+        <input type="text" size="4" name="fetchSize" id="fetchSize" value="${not empty param.fetchSize ? fn:escapeXml(param.fetchSize) : '500'}"/>
+        &nbsp;Timeout (s):
+        <input type="text" size="3" name="timeout" id="timeout" value="${not empty param.timeout ? fn:escapeXml(param.timeout) : '60'}"/>
+        &nbsp;Key column:
+        <input type="text" size="10" name="keyColumn" id="keyColumn" value="${fn:escapeXml(param.keyColumn)}"
+               title="Pages on this column instead of the offset: the rows are ordered by it and the next page starts after the last key"/>
+        <input type="hidden" name="afterKey" value=""/>
+        &nbsp;<input type="submit" name="action" value="Explain" title="Shows the execution plan of the query, on MySQL, MariaDB, PostgreSQL and Oracle"/>
+        </span>
         <%--
         <br/>
         <input type="submit" name="action" value="Execute update" title="Use this button to execute any DB data/structure modifications queries, i.e. INSERT, UPDATE, DELETE, CREATE, ALTER etc." />
@@ -48,6 +63,28 @@
         	pageContext.setAttribute("jahiaDS", DatabaseUtils.getDatasource());
         %>
         <c:choose>
+            <c:when test="${param.action == 'Explain'}">
+                <%-- checked first, so that a statement to explain is never executed --%>
+                <c:choose>
+                    <c:when test="${!fn:startsWith(fn:trim(fn:toLowerCase(param.query)), 'select')}">
+                        <fieldset>
+                            <legend>Execution plan</legend>
+                            <p>Only SELECT queries can be explained</p>
+                        </fieldset>
+                    </c:when>
+                    <c:otherwise>
+                <% pageContext.setAttribute("plan", DatabaseQueryRunner.explain(request.getParameter("query"))); %>
+                <fieldset>
+                    <legend>Execution plan</legend>
+                    <c:if test="${empty plan}"><p>The execution plan is not supported for this database</p></c:if>
+                    <c:if test="${not empty plan}">
+                    <pre><c:forEach var="line" items="${plan}">${fn:escapeXml(line)}
+</c:forEach></pre>
+                    </c:if>
+                </fieldset>
+                    </c:otherwise>
+                </c:choose>
+            </c:when>
             <c:when test="${param.action == 'Execute update' || !fn:startsWith(fn:trim(fn:toLowerCase(param.query)), 'select')}">
                 <sql:update dataSource="${jahiaDS}" sql="${param.query}" var="affected"/>
                 <% pageContext.setAttribute("took", Long.valueOf(System.currentTimeMillis() - actionTime));  %>
@@ -57,30 +94,52 @@
                 </fieldset>
             </c:when>
             <c:otherwise>
-                <sql:query dataSource="${jahiaDS}" sql="${param.query}" var="results" maxRows="${not empty param.maxRows ? param.maxRows : '-1'}" startRow="${not empty param.offset ? param.offset : '0'}"/>
-                <% pageContext.setAttribute("took", Long.valueOf(System.currentTimeMillis() - actionTime));  %>
+                <%
+                        String query = request.getParameter("query");
+                        DatabaseQueryRunner.Options options = new DatabaseQueryRunner.Options()
+                                .fetchSize(NumberUtils.toInt(request.getParameter("fetchSize"), 500))
+                                .timeout(NumberUtils.toInt(request.getParameter("timeout"), 60))
+                                .maxRows(NumberUtils.toInt(request.getParameter("maxRows"), -1))
+                                .offset(NumberUtils.toInt(request.getParameter("offset"), 0))
+                                .keyset(request.getParameter("keyColumn"), request.getParameter("afterKey") != null && request.getParameter("afterKey").length() > 0 ? request.getParameter("afterKey") : null,
+                                        NumberUtils.toInt(request.getParameter("afterKeyType"), Types.VARCHAR));
+                %>
                 <fieldset>
-                    <legend>Displaying <strong>${results.rowCount} rows</strong> (query took ${took} ms)</legend>
-                    <table border="1" cellspacing="0" cellpadding="5">
-                        <thead>
-                            <tr>
-                                <th>#</th>
-                                <c:forEach var="col" items="${results.columnNames}">
-                                <th>${fn:escapeXml(col)}</th>
-                                </c:forEach>
-                            </tr>
-                        </thead>
-                        <tbody>
-                        <c:forEach var="row" items="${results.rows}" varStatus="status">
-                            <tr>
-                                <td><strong>${offset + status.index}</strong></td>
-                                <c:forEach var="col" items="${results.columnNames}">
-                                <td>${fn:escapeXml(row[col])}</td>
-                                </c:forEach>
-                            </tr>
-                        </c:forEach>
-                        </tbody>
-                    </table>
+                    <legend>Results</legend>
+                <%
+                        out.flush();
+                        DatabaseQueryRunner.Summary summary = DatabaseQueryRunner.execute(query, DatabaseQueryRunner.Format.HTML, options, out);
+                        pageContext.setAttribute("summary", summary);
+                %>
+                    <p>Displayed <strong>${summary.rowCount} rows</strong> (query took ${summary.duration} ms)
+                    <c:if test="${summary.hasMore}">
+                        <c:url var="nextUrl" value="dbQuery.jsp">
+                            <c:param name="toolAccessToken" value="${toolAccessToken}"/>
+                            <c:param name="query" value="${param.query}"/>
+                            <c:param name="maxRows" value="${param.maxRows}"/>
+                            <c:param name="fetchSize" value="${param.fetchSize}"/>
+                            <c:param name="timeout" value="${param.timeout}"/>
+                            <c:param name="keyColumn" value="${param.keyColumn}"/>
+                            <c:choose>
+                                <c:when test="${not empty param.keyColumn}">
+                                    <c:param name="afterKey" value="${summary.lastKey}"/>
+                                    <c:param name="afterKeyType" value="${summary.lastKeyType}"/>
+                                </c:when>
+                                <c:otherwise>
+                                    <c:param name="offset" value="${offset + summary.rowCount}"/>
+                                </c:otherwise>
+                            </c:choose>
+                        </c:url>
+                        <a href="${nextUrl}">next page</a>
+                    </c:if>
+                    </p>
+                    <c:url var="exportUrl" value="dbQueryExport.jsp">
+                        <c:param name="toolAccessToken" value="${toolAccessToken}"/>
+                        <c:param name="query" value="${param.query}"/>
+                        <c:param name="fetchSize" value="${param.fetchSize}"/>
+                        <c:param name="timeout" value="${param.timeout}"/>
+                    </c:url>
+                    <p>Export all rows: <a href="${exportUrl}&amp;format=CSV">CSV</a> <a href="${exportUrl}&amp;format=JSON">JSON</a></p>
                 </fieldset>
             </c:otherwise>
         </c:choose>
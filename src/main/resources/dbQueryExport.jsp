@@ -0,0 +1,18 @@
+<%@ page contentType="text/plain;charset=UTF-8" language="java" trimDirectiveWhitespaces="true" %>
+<%@ page import="org.apache.commons.lang.StringUtils" %>
+<%@ page import="org.apache.commons.lang.math.NumberUtils" %>
+<%@ page import="org.jahia.modules.tools.db.DatabaseQueryRunner" %>
+<%
+    String query = request.getParameter("query");
+    if (StringUtils.isBlank(query) || !StringUtils.startsWithIgnoreCase(query.trim(), "select")) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Only SELECT queries can be exported");
+        return;
+    }
+    DatabaseQueryRunner.Format format = "JSON".equals(request.getParameter("format")) ? DatabaseQueryRunner.Format.JSON
+            : DatabaseQueryRunner.Format.CSV;
+    response.setContentType(format.getContentType() + ";charset=UTF-8");
+    response.setHeader("Content-Disposition", "attachment; filename=\"query-result." + format.name().toLowerCase() + "\"");
+    DatabaseQueryRunner.execute(query, format, new DatabaseQueryRunner.Options()
+            .fetchSize(NumberUtils.toInt(request.getParameter("fetchSize"), 500))
+            .timeout(NumberUtils.toInt(request.getParameter("timeout"), 0)), out);
+%>
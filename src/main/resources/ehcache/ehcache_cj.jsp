@@ -1,7 +1,12 @@
 <%@ taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core" %>
+<%@ taglib prefix="fn" uri="http://java.sun.com/jsp/jstl/functions" %>
+<%@ taglib prefix="functions" uri="http://www.jahia.org/tags/functions" %>
 <%@ page import="net.sf.ehcache.Ehcache" %>
 <%@ page import="net.sf.ehcache.Element" %>
 <%@ page import="org.apache.commons.io.FileUtils" %>
+<%@ page import="org.apache.commons.lang.math.NumberUtils" %>
+<%@ page import="org.jahia.modules.tools.cache.OutputCacheAnalyzer" %>
+<%@ page import="org.jahia.modules.tools.cache.OutputCacheSummary" %>
 <%@ page import="org.jahia.services.cache.CacheEntry" %>
 <%@ page import="org.jahia.services.cache.ehcache.EhCacheStatisticsWrapper" %>
 <%@ page import="org.jahia.services.render.filter.cache.AclCacheKeyPartGenerator" %>
@@ -9,7 +14,6 @@
 <%@ page import="java.text.DateFormat" %>
 <%@ page import="java.text.SimpleDateFormat" %>
 <%@ page import="java.util.Date" %>
-<%@ page import="java.util.List" %>
 <%--
   Output cache monitoring JSP.
   User: rincevent
@@ -53,8 +57,14 @@
             ((AclCacheKeyPartGenerator) cacheProvider.getKeyGenerator().getPartGenerator("acls")).flushUsersGroupsKey();
             ModuleCacheProvider.getInstance().flushNonCacheableFragments();
         }
-        List keys = cache.getKeys();
-        pageContext.setAttribute("keys", keys);
+        OutputCacheAnalyzer analyzer = OutputCacheAnalyzer.getInstance();
+        if ("analyze".equals(request.getParameter("action"))) {
+            pageContext.setAttribute("started", analyzer.startAnalysis(NumberUtils.toInt(request.getParameter("sampleSize"), 0)));
+        } else if ("stop".equals(request.getParameter("action"))) {
+            analyzer.stopAnalysis();
+        }
+        pageContext.setAttribute("analyzer", analyzer);
+        pageContext.setAttribute("summary", analyzer.getSummary());
         pageContext.setAttribute("cache", cache);
         pageContext.setAttribute("stats", new EhCacheStatisticsWrapper(cache.getStatistics()));
     %>
@@ -67,7 +77,10 @@
        title="flush the content of the module output cache">flush</a>&nbsp;
     <a href="?viewContent=${param.viewContent ? 'false' : 'true'}&toolAccessToken=${toolAccessToken}">${param.viewContent ? 'hide content preview' : 'preview content'}</a>
     <c:if test="${not empty removed and removed}">
-        <p>Key (${requestScope.flushkey}) has been flushed</p>
+        <p>Key (${fn:escapeXml(param.flushkey)}) has been flushed</p>
+    </c:if>
+    <c:if test="${not empty started and not started}">
+        <p style="color: red">An analysis is already running</p>
     </c:if>
     <div id="statistics">
         <span>Cache Hits: ${stats.cacheHitCount} (Cache hits in memory : ${stats.localHeapHitCount}; Cache hits on disk : ${stats.localDiskHitCount})</span><br/>
@@ -75,39 +88,49 @@
         <span>Object counts: ${stats.size}</span><br/>
         <span>Memory size: ${cache.memoryStoreSize}</span><br/>
         <span>Disk size: ${cache.diskStoreSize}</span><br/>
-        <span>Cache entries size = <span id="cacheSize"></span></span><br/>
-        <span>Dependencies cache entries size = <span id="depsCacheSize"></span></span><br/>
     </div>
+    <form action="?" method="get">
+        <input type="hidden" name="toolAccessToken" value="${toolAccessToken}"/>
+        <c:choose>
+            <c:when test="${analyzer.running}">
+                <input type="hidden" name="action" value="stop"/>
+                <input type="submit" value="Stop the analysis"/>
+            </c:when>
+            <c:otherwise>
+                <input type="hidden" name="action" value="analyze"/>
+                <label for="sampleSize">Maximum entries to scan (0 for all):</label>
+                <input type="text" id="sampleSize" name="sampleSize" size="8" value="${functions:default(fn:escapeXml(param.sampleSize), '100000')}"/>
+                <input type="submit" value="Analyze the cache content"/>
+            </c:otherwise>
+        </c:choose>
+    </form>
+    <%@ include file="outputCacheSummary.jspf" %>
+    <c:if test="${not empty summary}">
+    <h3>Largest entries</h3>
     <div id="keys">
         <table id="cacheTable" class="table table-striped compact" data-table="dataTable">
             <thead>
             <tr>
                 <th>Key</th>
                 <th>Expiration</th>
+                <th>Hits</th>
                 <th>Value</th>
             </tr>
             </thead>
             <tbody>
-            <% long cacheSize = 0; %>
-            <% long globalDepsCacheSize = 0; %>
-            <c:forEach items="${keys}" var="key" varStatus="i">
-
+            <c:forEach items="${summary.largestEntries}" var="entry">
+                <c:set var="key" value="${entry.key}"/>
                 <tr class="gradeA">
-                    <td>${key}</td>
-                    <% String attribute = (String) pageContext.getAttribute("key");
-                        final Element element = cache.getQuiet(attribute);
-                        if (element != null && element.getObjectValue() != null) {
-                    %>
-
-                    <td><%=SimpleDateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.MEDIUM).format(new Date(
-                            element.getExpirationTime()))%>
+                    <td>${fn:escapeXml(key)}</td>
+                    <td><% OutputCacheSummary.EntryInfo entry = (OutputCacheSummary.EntryInfo) pageContext.getAttribute("entry"); %>
+                        <%= entry.getExpirationTime() > 0 ? SimpleDateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.MEDIUM).format(new Date(
+                            entry.getExpirationTime())) : "eternal" %>
                     </td>
-                    <% String content = (String) ((CacheEntry) element.getObjectValue()).getObject();
-                        cacheSize += content != null ? content.length() : 0;
-                    %>
+                    <td>${entry.hits}</td>
                     <td>
                         <c:if test="${param.viewContent}" var="viewContent">
-                            <%= content %>
+                            <% Element element = cache.getQuiet(entry.getKey()); %>
+                            <%= element != null && element.getObjectValue() != null ? ((CacheEntry) element.getObjectValue()).getObject() : "" %>
                         </c:if>
                         <c:if test="${not viewContent}">
                             <div style="text-align: center;">
@@ -121,26 +144,17 @@
                                 </c:url>
                                 <a href="${detailsUrl}" target="_blank">view</a>
                                 <a href="${flushUrl}">flush</a>
-                                <br/>[<%= FileUtils.byteCountToDisplaySize(content.length()).replace(" ", "&nbsp;") %>
+                                <br/>[<%= FileUtils.byteCountToDisplaySize(entry.getSize()).replace(" ", "&nbsp;") %>
                                 ]<br/>
                             </div>
                         </c:if>
                     </td>
-                    <%} else { %>
-                    <td>empty</td>
-                    <td>empty</td>
-                    <%}%>
                 </tr>
             </c:forEach>
-            <script type="text/javascript">
-                document.addEventListener('DOMContentLoaded', () => {
-                    document.getElementById("cacheSize").innerText = "<%= FileUtils.byteCountToDisplaySize(cacheSize) %>";
-                    document.getElementById("depsCacheSize").innerText = "<%= FileUtils.byteCountToDisplaySize(globalDepsCacheSize) %>";
-                });
-            </script>
             </tbody>
         </table>
     </div>
+    </c:if>
     <script type="module" src="<c:url value='/modules/tools/javascript/apps/datatable.tools.bundle.js'/>"></script>
     </body>
     </html>
@@ -2,6 +2,8 @@
 <%@ page import="net.sf.ehcache.Ehcache" %>
 <%@ page import="net.sf.ehcache.Element" %>
 <%@ page import="org.apache.commons.io.FileUtils" %>
+<%@ page import="org.jahia.modules.tools.cache.CacheFootprint" %>
+<%@ page import="org.jahia.modules.tools.cache.CacheFootprintEstimator" %>
 <%@ page import="org.jahia.services.cache.CacheHelper" %>
 <%@ page import="org.jahia.services.cache.ehcache.EhCacheStatisticsWrapper" %>
 <%@ page import="java.text.DateFormat" %>
@@ -39,6 +41,12 @@
     pageContext.setAttribute("cache", cache);
     EhCacheStatisticsWrapper ehCacheStatisticsWrapper = new EhCacheStatisticsWrapper(cache.getStatistics());
     pageContext.setAttribute("stats", ehCacheStatisticsWrapper);
+    // estimated in the background, as on the cache overview, not on the request thread
+    CacheFootprintEstimator footprintEstimator = CacheFootprintEstimator.getInstance();
+    if (request.getParameter("footprint") != null) {
+        footprintEstimator.requestEstimation();
+    }
+    CacheFootprint footprint = footprintEstimator.getFootprint(request.getParameter("name"), cache.getName());
 %>
 <body id="dt_example" class="container-fluid">
 <a href="../index.jsp" title="back to the overview of caches">overview</a>&nbsp;
@@ -50,6 +58,17 @@
     <span>Memory size: <%=FileUtils.byteCountToDisplaySize(ehCacheStatisticsWrapper.getLocalHeapSizeInBytes())%></span><br/>
     <span>Disk size: <%=FileUtils.byteCountToDisplaySize(ehCacheStatisticsWrapper.getLocalDiskSizeInBytes())%></span><br/>
     <span>Cache entries size = <span id="cacheSize"></span></span><br/>
+    <% if (footprint != null) { %>
+    <span>Estimated heap size: <%=FileUtils.byteCountToDisplaySize(footprint.getEstimatedSize())%>
+        (95% confidence interval: <%=FileUtils.byteCountToDisplaySize(footprint.getLowerBound())%> - <%=FileUtils.byteCountToDisplaySize(footprint.getUpperBound())%>,
+        <%=footprint.getSampledEntries()%> sampled entries out of <%=footprint.getEntries()%>, estimated at <%=new Date(footprint.getTime())%>)</span><br/>
+    <% } %>
+    <% if (request.getParameter("footprint") != null) { %>
+    <span>Heap size estimation started in the background, refresh the page in a moment</span><br/>
+    <% } else { %>
+    <a href="?footprint=true&name=${param.name}&cache=${param.cache}&toolAccessToken=${toolAccessToken}"
+       title="Estimates the heap size of the caches in the background from the deep size of a random sample of their entries">estimate heap size</a><br/>
+    <% } %>
     <span><%=ehCacheStatisticsWrapper%></span><br/>
 </div>
 <div id="keys">
@@ -2,13 +2,14 @@
 <%@ page import="net.sf.ehcache.Ehcache" %>
 <%@ page import="net.sf.ehcache.Element" %>
 <%@ page import="org.apache.commons.lang.StringEscapeUtils" %>
+<%@ page import="org.jahia.modules.tools.cache.OutputCacheAnalyzer" %>
+<%@ page import="org.jahia.modules.tools.cache.OutputCacheSummary" %>
 <%@ page import="org.jahia.services.cache.CacheEntry" %>
 <%@ page import="org.jahia.services.cache.ehcache.EhCacheStatisticsWrapper" %>
 <%@ page import="org.jahia.services.render.filter.cache.ModuleCacheProvider" %>
 <%@ page import="java.text.DateFormat" %>
 <%@ page import="java.text.SimpleDateFormat" %>
 <%@ page import="java.util.Date" %>
-<%@ page import="java.util.List" %>
 <%@ page import="java.util.Locale" %>
 <%@ page import="java.util.Map" %>
 <%@ page import="org.jahia.services.content.JCRSessionFactory" %>
@@ -20,12 +21,32 @@
         ModuleCacheProvider cacheProvider = ModuleCacheProvider.getInstance();
         Ehcache cache = cacheProvider.getCache();
         Ehcache depCache = cacheProvider.getDependenciesCache();
-        List keys = cache.getKeys();
-        pageContext.setAttribute("keys", keys);
+        // the full dump reads all entries in the request thread, by default only the last analysis is dumped
+        if (Boolean.parseBoolean(request.getParameter("full"))) {
+            pageContext.setAttribute("keys", cache.getKeys());
+        }
         pageContext.setAttribute("cache", cache);
         pageContext.setAttribute("stats", new EhCacheStatisticsWrapper(cache.getStatistics()));
+        OutputCacheSummary summary = OutputCacheAnalyzer.getInstance().getSummary();
     %>
-<cache>
+<cache><%
+    if (summary != null) {
+%>
+    <summary start="<%=dateFormat.format(new Date(summary.getStartTime()))%>" completed="<%=summary.isCompleted()%>" totalEntries="<%=summary.getTotalEntries()%>" scannedEntries="<%=summary.getScannedEntries()%>" scannedSize="<%=summary.getScannedSize()%>" estimatedTotalSize="<%=summary.getEstimatedTotalSize()%>" cacheHits="<%=summary.getCacheHits()%>" cacheMisses="<%=summary.getCacheMisses()%>"><%
+        for (OutputCacheSummary.Dimension dimension : OutputCacheSummary.Dimension.values()) {
+            for (OutputCacheSummary.Group group : summary.getGroups(dimension, 0)) {
+    %>
+        <group dimension="<%=dimension%>" value="<%=StringEscapeUtils.escapeXml(group.getValue())%>" entries="<%=group.getEntries()%>" size="<%=group.getSize()%>" hits="<%=group.getHits()%>"/><%
+            }
+        }
+        for (OutputCacheSummary.EntryInfo largest : summary.getLargestEntries()) {
+    %>
+        <largestEntry key="<%=StringEscapeUtils.escapeXml(largest.getKey())%>" size="<%=largest.getSize()%>" hits="<%=largest.getHits()%>"/><%
+        }
+    %>
+    </summary><%
+    }
+%>
             <c:forEach items="${keys}" var="key" varStatus="i">
     <entry key="<%= StringEscapeUtils.escapeXml((String)pageContext.getAttribute("key"))%>"><%
         String attribute = (String) pageContext.getAttribute("key");
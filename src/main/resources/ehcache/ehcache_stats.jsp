@@ -1,7 +1,12 @@
 <%@ taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core" %>
+<%@ taglib prefix="fn" uri="http://java.sun.com/jsp/jstl/functions" %>
 <%@ page import="net.sf.ehcache.Ehcache" %>
 <%@ page import="net.sf.ehcache.Element" %>
 <%@ page import="org.jahia.services.cache.CacheEntry" %>
+<%@ page import="org.jahia.modules.tools.cache.OutputCacheAnalyzer" %>
+<%@ page import="org.jahia.modules.tools.cache.OutputCacheInvalidator" %>
+<%@ page import="org.jahia.modules.tools.cache.OutputCacheWarmup" %>
+<%@ page import="org.apache.commons.lang.math.NumberUtils" %>
 <%@ page import="org.jahia.services.cache.ehcache.EhCacheStatisticsWrapper" %>
 <%@ page import="org.jahia.services.render.filter.cache.AclCacheKeyPartGenerator" %>
 <%@ page import="org.jahia.services.render.filter.cache.ModuleCacheProvider" %>
@@ -50,6 +55,44 @@
         pageContext.setAttribute("cache", cache);
         pageContext.setAttribute("stats", new EhCacheStatisticsWrapper(cache.getStatistics()));
         pageContext.setAttribute("depstats", new EhCacheStatisticsWrapper(depCache.getStatistics()));
+        pageContext.setAttribute("summary", OutputCacheAnalyzer.getInstance().getSummary());
+        OutputCacheInvalidator invalidator = OutputCacheInvalidator.getInstance();
+        if (request.getParameter("criterion") != null) {
+            try {
+                if (!invalidator.start(OutputCacheInvalidator.Criterion.valueOf(request.getParameter("criterion")), request.getParameter("value"),
+                        !"invalidate".equals(request.getParameter("invalidateAction")))) {
+                    pageContext.setAttribute("invalidationError", "An invalidation is already running");
+                }
+            } catch (IllegalArgumentException e) {
+                pageContext.setAttribute("invalidationError", e.getMessage());
+            }
+        }
+        pageContext.setAttribute("invalidation", invalidator.getResult());
+        pageContext.setAttribute("criteria", OutputCacheInvalidator.Criterion.values());
+
+        OutputCacheWarmup warmup = OutputCacheWarmup.getInstance();
+        String warmupAction = request.getParameter("warmupAction");
+        String baseUrl = request.getParameter("baseUrl");
+        if (baseUrl == null) {
+            // the local connector, not the public host name which may lead to another cluster node
+            baseUrl = request.getScheme() + "://127.0.0.1:" + request.getLocalPort() + request.getContextPath();
+        }
+        if ("capture".equals(warmupAction)) {
+            pageContext.setAttribute("warmupMessage", warmup.startCapture() ? "Capture started in the background" : "The warm-up is running, the capture is not possible");
+        } else if ("start".equals(warmupAction)) {
+            try {
+                pageContext.setAttribute("warmupMessage", warmup.startWarmup(baseUrl, NumberUtils.toInt(request.getParameter("threads"), 2),
+                        NumberUtils.toLong(request.getParameter("pause"), 100L)) ? "Warm-up started" : "The warm-up is already running or no URL has been captured yet");
+            } catch (IllegalArgumentException e) {
+                pageContext.setAttribute("warmupMessage", e.getMessage());
+            }
+        } else if ("stop".equals(warmupAction)) {
+            warmup.stopWarmup();
+            pageContext.setAttribute("warmupMessage", "Warm-up stopped");
+        }
+        pageContext.setAttribute("warmup", warmup);
+        pageContext.setAttribute("warmupUrlCount", warmup.readUrls().size());
+        pageContext.setAttribute("baseUrl", baseUrl);
     %>
     <body id="dt_example" class="container-fluid">
     <%@ include file="../logout.jspf" %>
@@ -75,6 +118,84 @@
         <span>Cache Miss: ${depstats.cacheMissCount}</span><br/>
         <span>Object counts: ${depstats.size}</span><br/>
     </div>
+    <p>Selective invalidation</p>
+    <form action="?" method="post">
+        <input type="hidden" name="toolAccessToken" value="${toolAccessToken}"/>
+        <select name="criterion">
+            <c:forEach items="${criteria}" var="criterion">
+                <option value="${criterion}" ${param.criterion == criterion ? 'selected="selected"' : ''}>${criterion}</option>
+            </c:forEach>
+        </select>
+        <input type="text" name="value" size="60" value="${fn:escapeXml(param.value)}"
+               title="Node path, site key, template name or regular expression matched against the cache keys"/>
+        <button type="submit" name="invalidateAction" value="dryRun">Count entries to invalidate</button>
+        <button type="submit" name="invalidateAction" value="invalidate"
+                onclick="return confirm('This will remove the matching entries, and the other entries of their node paths, from the cache. Would you like to continue?')">Invalidate</button>
+    </form>
+    <c:if test="${not empty invalidationError}">
+        <p style="color: red">${fn:escapeXml(invalidationError)}</p>
+    </c:if>
+    <c:if test="${not empty invalidation}">
+        <c:choose>
+            <c:when test="${invalidation.running}">
+                <p style="color: blue">${invalidation.phase == 'SCANNING' ? 'Scanning the cache keys' : 'Invalidating'} for ${invalidation.criterion}
+                    ${fn:escapeXml(invalidation.value)}: ${invalidation.percent}%
+                    (<a href="?refresh&toolAccessToken=${toolAccessToken}">refresh</a>)</p>
+            </c:when>
+            <c:when test="${invalidation.phase == 'FAILED'}">
+                <p style="color: red">The ${invalidation.dryRun ? 'count' : 'invalidation'} for ${invalidation.criterion}
+                    ${fn:escapeXml(invalidation.value)} has been interrupted</p>
+            </c:when>
+            <c:otherwise>
+                <p style="color: blue">${invalidation.dryRun ? 'To invalidate' : 'Invalidated'}: ${invalidation.entryCount} output cache entries<c:if
+                        test="${invalidation.pathCount > 0}">, ${invalidation.pathCount} node paths</c:if>
+                    for ${invalidation.criterion} ${fn:escapeXml(invalidation.value)}<c:if
+                        test="${invalidation.entryCount > invalidation.matchedCount}">
+                    (${invalidation.matchedCount} matching entries, the others depend on the same node paths)</c:if></p>
+                <c:if test="${invalidation.entryCount > 0}">
+                    <ul>
+                        <c:forEach items="${invalidation.sampleKeys}" var="sampleKey">
+                            <li>${fn:escapeXml(sampleKey)}</li>
+                        </c:forEach>
+                        <c:if test="${invalidation.entryCount > fn:length(invalidation.sampleKeys)}"><li>...</li></c:if>
+                    </ul>
+                </c:if>
+            </c:otherwise>
+        </c:choose>
+    </c:if>
+
+    <p id="warmup">Warm-up</p>
+    <c:if test="${not empty warmupMessage}">
+        <p style="color: blue">${warmupMessage}</p>
+    </c:if>
+    <span>Captured URLs: ${warmupUrlCount}</span><br/>
+    <c:set var="progress" value="${warmup.progress}"/>
+    <c:if test="${not empty progress}">
+        <span>${warmup.warmupRunning ? 'Running' : (progress.stopped ? 'Stopped' : 'Last run')}: ${progress.percent}%
+            (${progress.succeeded} rendered, ${progress.failed} failed out of ${progress.total} URLs, ${progress.duration} ms)</span><br/>
+    </c:if>
+    <form action="?" method="post">
+        <input type="hidden" name="toolAccessToken" value="${toolAccessToken}"/>
+        <label for="baseUrl">Base URL:</label>
+        <input type="text" id="baseUrl" name="baseUrl" size="40" value="${fn:escapeXml(baseUrl)}"
+               title="Base URL of this server, including the context path; only the local addresses are accepted"/>
+        <label for="threads">Threads:</label>
+        <input type="text" id="threads" name="threads" size="2" value="${empty param.threads ? 2 : fn:escapeXml(param.threads)}"/>
+        <label for="pause">Pause between requests (ms):</label>
+        <input type="text" id="pause" name="pause" size="5" value="${empty param.pause ? 100 : fn:escapeXml(param.pause)}"/>
+        <button type="submit" name="warmupAction" value="capture" title="Captures the most hit URLs of the current cache content">Capture now</button>
+        <c:choose>
+            <c:when test="${warmup.warmupRunning}">
+                <button type="submit" name="warmupAction" value="stop">Stop the warm-up</button>
+            </c:when>
+            <c:otherwise>
+                <button type="submit" name="warmupAction" value="start">Start the warm-up</button>
+            </c:otherwise>
+        </c:choose>
+    </form>
+
+    <p>Content analysis (<a href="ehcache_cj.jsp?toolAccessToken=${toolAccessToken}">run a new analysis</a>)</p>
+    <%@ include file="outputCacheSummary.jspf" %>
     </body>
     <script type="module" src="<c:url value='/modules/tools/javascript/apps/datatable.tools.bundle.js'/>"></script>
     </html>
@@ -56,6 +56,8 @@
         <li><a href="maintenance.jsp">System maintenance</a></li>
         <li><a href="precompileServlet">JSP pre-compilation</a></li>
         <li><a href="benchmarks.jsp">System benchmarks</a></li>
+        <li><a href="benchmarkHistory.jsp">Benchmark history</a></li>
+        <li><a href="clusterBenchmarks.jsp">Cluster benchmarks</a></li>
         <li><a href="karaf.jsp">Karaf command line</a></li>
         <li><a href="support.jsp">Export support information</a></li>
     </ul>
@@ -105,6 +107,7 @@
         <li><a href="jcrBrowser.jsp">JCR repository browser</a></li>
         <li><a href="jcrQuery.jsp">JCR query tool</a></li>
         <li><a href="jcrQueryStats.jsp">JCR query statistics</a></li>
+        <li><a href="bundleCache.jsp">JCR bundle cache</a></li>
         <li><a href="jcrConsole.jsp">JCR console</a></li>
         <li><a href="jcrGc.jsp">JCR DataStore garbage collection</a></li>
         <li><a href="jcrVersionHistory.jsp">JCR version history management</a></li>
@@ -132,7 +135,8 @@
         <li><a href="ehcache/ehcache_cj.jsp">Output cache</a></li>
         <li><a href="ehcache/ehcache_cj_dep.jsp">Output dependencies cache</a></li>
         <fmt:formatDate var="currentTime" value="${currentDate}" pattern="yyyy_MM_dd_HH_mm_ss"/>
-        <li><a href="ehcache/ehcache_dump.jsp" download="ehcache_dump_${currentTime}.xml">Dump output cache</a></li>
+        <li><a href="ehcache/ehcache_dump.jsp" download="ehcache_dump_${currentTime}.xml">Dump output cache analysis</a>
+            (<a href="ehcache/ehcache_dump.jsp?full=true&toolAccessToken=${toolAccessToken}" download="ehcache_dump_${currentTime}.xml">full dump, reads all entries</a>)</li>
     </ul>
 </fieldset>
 <fieldset>
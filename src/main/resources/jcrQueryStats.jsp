@@ -10,6 +10,10 @@
 <%@page import="org.apache.commons.io.filefilter.DirectoryFileFilter"%>
 <%@page import="org.jahia.settings.SettingsBean"%>
 <%@page import="org.jahia.services.search.spell.CompositeSpellChecker"%>
+<%@page import="org.jahia.modules.tools.jcr.JcrQueryStatsRecorder"%>
+<%@page import="org.jahia.modules.tools.jcr.QueryStatsHistory"%>
+<%@page import="java.util.Date"%>
+<%@page import="java.util.Map"%>
 <%@ taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core" %>
 <%@ taglib prefix="fn" uri="http://java.sun.com/jsp/jstl/functions"%>
 <html xmlns="http://www.w3.org/1999/xhtml">
@@ -44,7 +48,8 @@ pageContext.setAttribute("queryStat", queryStat);
 		</c:when>
 	</c:choose>
 </c:if>
-<p>Query statistics when enabled provides information about slow queries and most popular queries.</p>
+<p>Query statistics when enabled provides information about slow queries and most popular queries. The queues are drained every
+30 seconds into the query history below, so they only show the queries executed since.</p>
 <p>The JCR query statistics is currently ${queryStat.enabled ? 'enabled' : 'disabled'}.
 <a href="?action=enable&amp;status=${queryStat.enabled ? 'off' : 'on'}&toolAccessToken=${toolAccessToken}">${queryStat.enabled ? 'Disable it' : 'Enable it'}</a></p>
 <c:if test="${queryStat.enabled}">
@@ -106,6 +111,68 @@ pageContext.setAttribute("queryStat", queryStat);
 </c:if>
 </fieldset>
 </c:if>
+<%
+JcrQueryStatsRecorder recorder = JcrQueryStatsRecorder.getInstance();
+if (recorder != null) {
+    int hours = 24;
+    try {
+        hours = Math.max(2, Math.min(7 * 24, Integer.parseInt(request.getParameter("hours"))));
+    } catch (NumberFormatException e) {
+        // default
+    }
+    pageContext.setAttribute("hours", hours);
+    pageContext.setAttribute("templates", recorder.getHistory().getTemplateStats(hours, 2));
+    pageContext.setAttribute("deployments", recorder.getHistory().getDeployments(System.currentTimeMillis() - hours * 3600000L));
+}
+%>
+<c:if test="${not empty hours}">
+<fieldset>
+<legend>Query history (last ${hours} hours)</legend>
+<p>The executions are aggregated per query template, with the literals replaced by placeholders, and per hour. The durations
+are taken from the slow queries queue, drained every 30 seconds. A template is flagged when its p95 duration over the recent hour, the
+last completed one or the current one if it was not executed during the last one, is more than twice the median of its hourly p95
+durations before.
+Show the last <a href="?hours=24&toolAccessToken=${toolAccessToken}">24 hours</a>, <a href="?hours=72&toolAccessToken=${toolAccessToken}">3 days</a>,
+<a href="?hours=168&toolAccessToken=${toolAccessToken}">7 days</a>.</p>
+<c:if test="${empty templates}">
+<p>There is no history recorded so far</p>
+</c:if>
+<c:if test="${not empty templates}">
+<table border="1" cellspacing="0" cellpadding="5">
+    <tr>
+        <th>Query template</th>
+        <th>Language</th>
+        <th>Executions</th>
+        <th>Recent hour p50 (ms)</th>
+        <th>Recent hour p95 (ms)</th>
+        <th>Baseline p95 (ms)</th>
+        <th>Max (ms)</th>
+        <th>Hourly executions</th>
+    </tr>
+    <c:forEach items="${templates}" var="t">
+    <tr${t.regressed ? ' style="color: red"' : ''}>
+        <td>${t.regressed ? '<strong>Regression</strong> ' : ''}${fn:escapeXml(t.template)}</td>
+        <td>${fn:escapeXml(t.language)}</td>
+        <td align="right">${t.count}</td>
+        <td align="right">${not empty t.recent and t.recent.p50 >= 0 ? t.recent.p50 : '-'}</td>
+        <td align="right">${not empty t.recent and t.recent.p95 >= 0 ? t.recent.p95 : '-'}</td>
+        <td align="right">${t.baselineP95 >= 0 ? t.baselineP95 : '-'}</td>
+        <td align="right">${t.max >= 0 ? t.max : '-'}</td>
+        <td><c:forEach items="${t.hours}" var="h" varStatus="status">${h.value.count}${status.last ? '' : ' '}</c:forEach></td>
+    </tr>
+    </c:forEach>
+</table>
+</c:if>
+<c:if test="${not empty deployments}">
+<p>Module deployments:</p>
+<ul>
+    <c:forEach items="${deployments}" var="d">
+    <li><%= new Date((Long) ((Map.Entry<?, ?>) pageContext.getAttribute("d")).getKey()) %>: ${fn:escapeXml(d.value)}</li>
+    </c:forEach>
+</ul>
+</c:if>
+</fieldset>
+</c:if>
 <%@ include file="gotoIndex.jspf" %>
 </body>
 </html>
\ No newline at end of file
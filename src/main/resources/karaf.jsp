@@ -4,8 +4,13 @@
 <%@ taglib prefix="fn" uri="http://java.sun.com/jsp/jstl/functions" %>
 <%@ taglib prefix="sql" uri="http://java.sun.com/jsp/jstl/sql" %>
 <%@ page import="org.jahia.modules.tools.karaf.KarafCommand" %>
+<%@ page import="org.jahia.modules.tools.karaf.KarafCommandResult" %>
 <%@ page import="org.jahia.osgi.BundleUtils" %>
 <%@ page import="org.apache.karaf.jaas.boot.principal.RolePrincipal" %>
+<%@ page import="org.apache.commons.lang.StringEscapeUtils" %>
+<%@ page import="java.io.IOException" %>
+<%@ page import="java.util.List" %>
+<%@ page import="java.util.function.Consumer" %>
 <html xmlns="http://www.w3.org/1999/xhtml">
 <head>
     <meta http-equiv="Content-Type" content="text/html; charset=UTF-8"/>
@@ -24,14 +29,80 @@
         <span>
 
         <input type="submit" name="action" value="Execute ([Ctrl+Enter])"  title="Execute" />
+        <input type="checkbox" name="stream" id="stream" value="true" ${param.stream ? 'checked="checked"' : ''}/><label for="stream" title="Display the output lines while the command is running, useful for commands producing a large output">stream output</label>
         </span>
     </form>
 
     Examples: bundle:list , bundle:restart [bundleid] , bundle:tree-show [bundleid] , jahia:modules , shell:tail -n 100 ../logs/jahia.log , dump-create , ...
 </fieldset>
 
+<fieldset>
+    <legend>Script</legend>
+    <form id="script" action="?" method="post">
+        <input type="hidden" name="toolAccessToken" value="${toolAccessToken}"/>
+        <textarea name="scriptInput" id="scriptInput" rows="5" cols="70">${fn:escapeXml(param.scriptInput)}</textarea>
+        <br/>
+        <input type="submit" name="action" value="Execute script" title="Execute all the commands (one per line) in a single session"/>
+        <input type="checkbox" name="stopOnError" id="stopOnError" value="true" ${empty param.scriptInput || param.stopOnError ? 'checked="checked"' : ''}/><label for="stopOnError">stop on first error</label>
+    </form>
+    Lines starting with # are ignored.
+</fieldset>
+
+
+<c:if test="${not empty param.commandInput && param.stream}">
+    <pre><c:catch var="error">
+        <%
+            final JspWriter writer = out;
+            KarafCommand c = (KarafCommand) BundleUtils.getOsgiService("org.jahia.modules.tools.karaf.KarafCommand", null);
+            c.streamCommand(request.getParameter("commandInput"), 10000L, false, new Consumer<String>() {
+                @Override
+                public void accept(String line) {
+                    try {
+                        writer.println(StringEscapeUtils.escapeXml(line));
+                        writer.flush();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }, request.getUserPrincipal(), new RolePrincipal("manager"), new RolePrincipal("admin"), new RolePrincipal("systembundles"));
+        %>
+    </c:catch></pre>
+
+    <c:if test="${not empty error}">
+        <fieldset style="color: red">
+            <legend><strong>Error</strong></legend>
+            <pre>${fn:escapeXml(error)}</pre>
+        </fieldset>
+    </c:if>
+</c:if>
+
+<c:if test="${not empty param.scriptInput}">
+    <c:catch var="error">
+        <%
+            KarafCommand c = (KarafCommand) BundleUtils.getOsgiService("org.jahia.modules.tools.karaf.KarafCommand", null);
+            List<KarafCommandResult> results = c.executeScript(request.getParameter("scriptInput"), 10000L, false,
+                    request.getParameter("stopOnError") != null, request.getUserPrincipal(), new RolePrincipal("manager"),
+                    new RolePrincipal("admin"), new RolePrincipal("systembundles"));
+            pageContext.setAttribute("results", results);
+        %>
+        <c:forEach items="${results}" var="result">
+            <fieldset${result.successful ? '' : ' style="color: red"'}>
+                <legend><strong>${fn:escapeXml(result.command)}</strong> (${result.duration} ms)</legend>
+                <pre>${fn:escapeXml(result.output)}</pre>
+                <c:if test="${not result.successful}"><pre>${fn:escapeXml(result.error)}</pre></c:if>
+            </fieldset>
+        </c:forEach>
+    </c:catch>
+
+    <c:if test="${not empty error}">
+        <fieldset style="color: red">
+            <legend><strong>Error</strong></legend>
+            <pre>${fn:escapeXml(error)}</pre>
+        </fieldset>
+    </c:if>
+</c:if>
 
-<c:if test="${not empty param.commandInput}">
+<c:if test="${not empty param.commandInput && not param.stream}">
     <c:catch var="error">
         <%
             KarafCommand c = (KarafCommand) BundleUtils.getOsgiService("org.jahia.modules.tools.karaf.KarafCommand", null);
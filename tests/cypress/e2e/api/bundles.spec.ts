@@ -1,4 +1,4 @@
-import {getBundles, Status} from '../../support/gql';
+import {getBundleDependents, getBundles, getBundlesConnection, Status} from '../../support/gql';
 import {waitUntilSAMStatusGreen} from '@jahia/cypress';
 
 function testBundle(bundles, bundleName: string, version: string, status: string) {
@@ -244,5 +244,45 @@ describe('Dependencies tool test', () => {
                 expect(bundle.version).to.eq('1.1.0');
             });
         });
+        it('Test dependents and refresh impact of the provider module', () => {
+            getBundleDependents({symbolicName: 'module-provider'}).should(result => {
+                console.log('result', result);
+                expect(result).to.have.property('data');
+                const dependents = result.data.admin.tools.bundleDependents;
+                const impacted = result.data.admin.tools.bundleRefreshImpact.impactedBundles;
+                const expectedBundles = ['10', '11', '21', '22', '23', '24', '25', '26', '27', '31', '32', '33', '34']
+                    .map(caseName => 'module-dependant-case' + caseName);
+                expectedBundles.forEach(bundleName => {
+                    const dependent = dependents.find(b => b.symbolicName === bundleName);
+                    expect(dependent.depth).to.eq(1);
+                    expect(dependent.wires.some(w => w.type === 'IMPORT_PACKAGE' && w.name === 'org.external.modules.provider')).to.be.true;
+                    expect(impacted.some(b => b.symbolicName === bundleName)).to.be.true;
+                });
+            });
+        });
+        it('Test dependents filtered by Jahia-Depends', () => {
+            getBundleDependents({symbolicName: 'module-provider', types: ['JAHIA_DEPENDS']}).should(result => {
+                console.log('result', result);
+                expect(result).to.have.property('data');
+                const dependents = result.data.admin.tools.bundleDependents;
+                expect(dependents.some(b => b.symbolicName === 'module-dependant-case21')).to.be.true;
+                expect(dependents.some(b => b.symbolicName === 'module-dependant-case10')).to.be.false;
+                dependents.forEach(b => b.wires.forEach(w => expect(w.type).to.eq('JAHIA_DEPENDS')));
+            });
+        });
+        it('Test paginated bundles', () => {
+            getBundlesConnection({nameRegExp: 'module-dependant-case.*', first: 5}).then(result => {
+                console.log('result', result);
+                expect(result).to.have.property('data');
+                const firstPage = result.data.admin.tools.bundlesConnection;
+                expect(firstPage.nodes).to.have.length(5);
+                expect(firstPage.pageInfo.hasNextPage).to.be.true;
+                getBundlesConnection({nameRegExp: 'module-dependant-case.*', first: 5, after: firstPage.pageInfo.endCursor}).should(next => {
+                    const secondPage = next.data.admin.tools.bundlesConnection;
+                    expect(secondPage.nodes).to.have.length.greaterThan(0);
+                    secondPage.nodes.forEach(b => expect(firstPage.nodes.some(f => f.symbolicName === b.symbolicName)).to.be.false);
+                });
+            });
+        });
     });
 });
@@ -32,3 +32,41 @@ export const getBundles = ({
             errorPolicy: 'all'
         });
 };
+
+type GetBundleDependentsArguments = {
+    symbolicName: string,
+    transitive?: boolean,
+    types?: string[],
+}
+
+export const getBundleDependents = ({
+    symbolicName,
+    transitive,
+    types
+}: GetBundleDependentsArguments): Chainable<any> => {
+    return cy
+        .apollo({
+            queryFile: 'getBundleDependents.graphql',
+            variables: {symbolicName, transitive, types},
+            errorPolicy: 'all'
+        });
+};
+
+type GetBundlesConnectionArguments = {
+    nameRegExp?: string,
+    first?: number,
+    after?: string,
+}
+
+export const getBundlesConnection = ({
+    nameRegExp,
+    first,
+    after
+}: GetBundlesConnectionArguments): Chainable<any> => {
+    return cy
+        .apollo({
+            queryFile: 'getBundlesConnection.graphql',
+            variables: {nameRegExp, first, after},
+            errorPolicy: 'all'
+        });
+};